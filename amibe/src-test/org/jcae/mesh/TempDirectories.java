@@ -0,0 +1,77 @@
+/* jCAE stand for Java Computer Aided Engineering. Features are : Small CAD
+   modeler, Finite element mesher, Plugin architecture.
+
+    Copyright (C) 2011, by EADS France
+
+    This library is free software; you can redistribute it and/or
+    modify it under the terms of the GNU Lesser General Public
+    License as published by the Free Software Foundation; either
+    version 2.1 of the License, or (at your option) any later version.
+
+    This library is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+    Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public
+    License along with this library; if not, write to the Free Software
+    Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA */
+
+package org.jcae.mesh;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Temporary directories of unit tests.  Directories are recorded when
+ * they are created, and test classes remove them by calling
+ * {@link #deleteAll} from an <code>@AfterClass</code> method.
+ */
+public final class TempDirectories
+{
+	private static final List<File> directories = new ArrayList<File>();
+
+	private TempDirectories()
+	{
+	}
+
+	/**
+	 * Creates an empty temporary directory.
+	 *
+	 * @param prefix  prefix of directory name
+	 * @return the new directory
+	 */
+	public static synchronized File create(String prefix) throws IOException
+	{
+		File dir = File.createTempFile(prefix, ".dir");
+		dir.delete();
+		if (!dir.mkdir())
+			throw new IOException("Cannot create directory "+dir);
+		directories.add(dir);
+		return dir;
+	}
+
+	/**
+	 * Removes all directories created by {@link #create} and their
+	 * content.
+	 */
+	public static synchronized void deleteAll()
+	{
+		for (File dir : directories)
+			deleteRecursively(dir);
+		directories.clear();
+	}
+
+	private static void deleteRecursively(File f)
+	{
+		File [] children = f.listFiles();
+		if (children != null)
+		{
+			for (File c : children)
+				deleteRecursively(c);
+		}
+		f.delete();
+	}
+}
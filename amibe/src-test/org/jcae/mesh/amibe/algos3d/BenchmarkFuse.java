@@ -0,0 +1,57 @@
+/* jCAE stand for Java Computer Aided Engineering. Features are : Small CAD
+   modeler, Finite element mesher, Plugin architecture.
+
+    Copyright (C) 2011, by EADS France
+
+    This library is free software; you can redistribute it and/or
+    modify it under the terms of the GNU Lesser General Public
+    License as published by the Free Software Foundation; either
+    version 2.1 of the License, or (at your option) any later version.
+
+    This library is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+    Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public
+    License along with this library; if not, write to the Free Software
+    Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA */
+
+package org.jcae.mesh.amibe.algos3d;
+
+import org.jcae.mesh.amibe.ds.Mesh;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Compare sequential and parallel fuse on an assembly of 80x80 patches,
+ * which has about 200k boundary nodes.  This benchmark is only run when
+ * the <code>run.test.large</code> system property is set.
+ */
+public class BenchmarkFuse
+{
+	@BeforeClass public static void checkLarge()
+	{
+		assumeTrue(Boolean.getBoolean("run.test.large"));
+	}
+
+	@Test public void speedup()
+	{
+		int nrThreads = Math.max(2, Runtime.getRuntime().availableProcessors());
+		Mesh mesh1 = FuseTest.createPatches(80, 80, 9, 0.0);
+		Mesh mesh2 = FuseTest.createPatches(80, 80, 9, 0.0);
+
+		long start = System.currentTimeMillis();
+		new Fuse(mesh1).compute();
+		long sequential = System.currentTimeMillis() - start;
+		start = System.currentTimeMillis();
+		new Fuse(mesh2, 0.0, nrThreads).compute();
+		long parallel = System.currentTimeMillis() - start;
+
+		System.out.println("Sequential fuse: "+sequential+" ms");
+		System.out.println("Parallel fuse with "+nrThreads+" threads: "+parallel+" ms, speedup: "+
+			((double) sequential / parallel));
+		FuseTest.assertSameMesh(mesh1, mesh2);
+	}
+}
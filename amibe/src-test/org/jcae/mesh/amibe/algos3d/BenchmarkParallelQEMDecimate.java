@@ -0,0 +1,120 @@
+/* jCAE stand for Java Computer Aided Engineering. Features are : Small CAD
+   modeler, Finite element mesher, Plugin architecture.
+
+    Copyright (C) 2011, by EADS France
+
+    This library is free software; you can redistribute it and/or
+    modify it under the terms of the GNU Lesser General Public
+    License as published by the Free Software Foundation; either
+    version 2.1 of the License, or (at your option) any later version.
+
+    This library is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+    Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public
+    License along with this library; if not, write to the Free Software
+    Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA */
+
+package org.jcae.mesh.amibe.algos3d;
+
+import org.jcae.mesh.amibe.ds.AbstractHalfEdge;
+import org.jcae.mesh.amibe.ds.Mesh;
+import org.jcae.mesh.amibe.ds.Triangle;
+import org.jcae.mesh.amibe.ds.Vertex;
+import org.jcae.mesh.amibe.validation.MinAngleFace;
+import org.jcae.mesh.amibe.validation.QualityFloat;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.HashMap;
+import static org.junit.Assert.*;
+import static org.junit.Assume.assumeTrue;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Compare sequential and parallel QEM decimation on a sphere.  Processing
+ * times are printed, as well as the number of triangles, the deviation of
+ * vertices from the sphere and the minimal angle of triangles.
+ * This benchmark is only run when the <code>run.test.large</code> system
+ * property is set.
+ */
+public class BenchmarkParallelQEMDecimate
+{
+	private static final int LEVEL = 7;
+	private static final int RATIO = 10;
+
+	@BeforeClass public static void checkLarge()
+	{
+		assumeTrue(Boolean.getBoolean("run.test.large"));
+	}
+
+	private static void printQuality(String name, Mesh mesh)
+	{
+		int nrTriangles = 0;
+		HashSet<Vertex> nodes = new HashSet<Vertex>();
+		MinAngleFace qproc = new MinAngleFace();
+		QualityFloat data = new QualityFloat(1000);
+		data.setQualityProcedure(qproc);
+		data.setTarget((float) Math.PI/3.0f);
+		for (Triangle t : mesh.getTriangles())
+		{
+			if (t.hasAttributes(AbstractHalfEdge.OUTER))
+				continue;
+			nrTriangles++;
+			data.compute(t);
+			for (Vertex v : t.vertex)
+				nodes.add(v);
+		}
+		data.finish();
+		double maxDev = 0.0;
+		double sumDev = 0.0;
+		for (Vertex v : nodes)
+		{
+			double [] xyz = v.getUV();
+			double dev = Math.abs(Math.sqrt(xyz[0]*xyz[0] + xyz[1]*xyz[1] + xyz[2]*xyz[2]) - 1.0);
+			sumDev += dev;
+			maxDev = Math.max(maxDev, dev);
+		}
+		System.out.println(name+" triangles: "+nrTriangles+
+			" max. deviation: "+maxDev+" mean deviation: "+(sumDev / nodes.size())+
+			" min. angle: "+(data.getValueByPercent(0.0)*60.0)+" mean angle: "+(data.getMeanValue()*60.0));
+	}
+
+	private static long run(Mesh mesh, int threads)
+	{
+		final Map<String, String> options = new HashMap<String, String>();
+		options.put("maxtriangles", Integer.toString(mesh.getTriangles().size() / RATIO));
+		String name;
+		long start = System.currentTimeMillis();
+		if (threads == 0)
+		{
+			name = "QEMDecimateHalfEdge";
+			new QEMDecimateHalfEdge(mesh, options).compute();
+		}
+		else
+		{
+			name = "ParallelQEMDecimateHalfEdge("+threads+" threads)";
+			options.put("threads", Integer.toString(threads));
+			new ParallelQEMDecimateHalfEdge(mesh, options).compute();
+		}
+		long time = System.currentTimeMillis() - start;
+		System.out.println(name+" Processing time: "+time+" ms");
+		printQuality(name, mesh);
+		return time;
+	}
+
+	@Test public void sphere()
+	{
+		Mesh mesh = SphereBuilder.createShuffledSphereMesh(LEVEL);
+		int nrThreads = Runtime.getRuntime().availableProcessors();
+		long sequential = run(ParallelQEMDecimateHalfEdgeTest.copy(mesh), 0);
+		for (int threads = 1; threads <= nrThreads; threads *= 2)
+		{
+			long parallel = run(ParallelQEMDecimateHalfEdgeTest.copy(mesh), threads);
+			System.out.println("Speedup with "+threads+" threads: "+((double) sequential / parallel));
+		}
+		assertTrue(sequential >= 0L);
+	}
+}
@@ -0,0 +1,132 @@
+/* jCAE stand for Java Computer Aided Engineering. Features are : Small CAD
+   modeler, Finite element mesher, Plugin architecture.
+
+    Copyright (C) 2011, by EADS France
+
+    This library is free software; you can redistribute it and/or
+    modify it under the terms of the GNU Lesser General Public
+    License as published by the Free Software Foundation; either
+    version 2.1 of the License, or (at your option) any later version.
+
+    This library is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+    Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public
+    License along with this library; if not, write to the Free Software
+    Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA */
+
+package org.jcae.mesh.amibe.algos3d;
+
+import org.jcae.mesh.amibe.ds.Mesh;
+import org.jcae.mesh.amibe.ds.Triangle;
+import org.jcae.mesh.amibe.ds.Vertex;
+import org.jcae.mesh.amibe.traits.MeshTraitsBuilder;
+import org.jcae.mesh.amibe.traits.TriangleTraitsBuilder;
+import java.util.HashMap;
+import java.util.Iterator;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class FuseTest
+{
+	static Mesh createMesh()
+	{
+		MeshTraitsBuilder mtb = new MeshTraitsBuilder();
+		mtb.addTriangleList();
+		mtb.addNodeList();
+		mtb.add(new TriangleTraitsBuilder());
+		return new Mesh(mtb);
+	}
+
+	/**
+	 * Creates nx*ny patches of m*m vertices each, patches touch each other
+	 * but their boundary vertices are duplicated.  Boundary vertices are
+	 * moved by <code>noise</code> along z.
+	 */
+	static Mesh createPatches(int nx, int ny, int m, double noise)
+	{
+		Mesh mesh = createMesh();
+		int label = 1;
+		for (int py = 0; py < ny; py++)
+		{
+			for (int px = 0; px < nx; px++)
+			{
+				Vertex [] v = new Vertex[m*m];
+				for (int j = 0; j < m; j++)
+				{
+					for (int i = 0; i < m; i++)
+					{
+						boolean border = (i == 0 || j == 0 || i == m - 1 || j == m - 1);
+						double z = border ? noise * (px + nx * py) : 0.0;
+						Vertex n = mesh.createVertex(px * (m - 1) + i, py * (m - 1) + j, z);
+						if (border)
+							n.setRef(label++);
+						v[m*j+i] = n;
+						mesh.add(n);
+					}
+				}
+				for (int j = 0; j < m - 1; j++)
+				{
+					for (int i = 0; i < m - 1; i++)
+					{
+						mesh.add(mesh.createTriangle(v[m*j+i], v[m*j+i+1], v[m*(j+1)+i]));
+						mesh.add(mesh.createTriangle(v[m*j+i+1], v[m*(j+1)+i+1], v[m*(j+1)+i]));
+					}
+				}
+			}
+		}
+		return mesh;
+	}
+
+	static void assertSameMesh(Mesh expected, Mesh actual)
+	{
+		assertEquals(expected.getNodes().size(), actual.getNodes().size());
+		assertEquals(expected.getTriangles().size(), actual.getTriangles().size());
+		HashMap<Vertex, Vertex> map = new HashMap<Vertex, Vertex>();
+		Iterator<Vertex> itNodes = actual.getNodes().iterator();
+		for (Vertex n1 : expected.getNodes())
+		{
+			Vertex n2 = itNodes.next();
+			assertArrayEquals(n1.getUV(), n2.getUV(), 0.0);
+			assertEquals(n1.getRef(), n2.getRef());
+			map.put(n1, n2);
+		}
+		Iterator<Triangle> it = actual.getTriangles().iterator();
+		for (Triangle t1 : expected.getTriangles())
+		{
+			Triangle t2 = it.next();
+			for (int j = 0; j < 3; j++)
+				assertSame(map.get(t1.vertex[j]), t2.vertex[j]);
+		}
+	}
+
+	@Test public void sameAsSequential()
+	{
+		Mesh mesh1 = createPatches(4, 3, 6, 0.0);
+		Mesh mesh2 = createPatches(4, 3, 6, 0.0);
+		int nrNodes = mesh1.getNodes().size();
+		new Fuse(mesh1).compute();
+		new Fuse(mesh2, 0.0, 4).compute();
+		assertEquals(4*6*3*6, nrNodes);
+		assertEquals((4*5+1)*(3*5+1), mesh1.getNodes().size());
+		assertSameMesh(mesh1, mesh2);
+	}
+
+	@Test public void tolerance()
+	{
+		Mesh mesh1 = createPatches(3, 3, 5, 1.e-6);
+		Mesh mesh2 = createPatches(3, 3, 5, 1.e-6);
+		Mesh mesh3 = createPatches(3, 3, 5, 1.e-6);
+		int nrNodes = mesh1.getNodes().size();
+		new Fuse(mesh1, 0.0, 4).compute();
+		assertEquals(nrNodes, mesh1.getNodes().size());
+		// Vertices at a corner are at distance up to 8e-6 of each other,
+		// sequential algorithm merges them into the first one
+		new Fuse(mesh2, 1.e-4).compute();
+		new Fuse(mesh3, 1.e-4, 4).compute();
+		assertEquals((3*4+1)*(3*4+1), mesh2.getNodes().size());
+		assertSameMesh(mesh2, mesh3);
+	}
+}
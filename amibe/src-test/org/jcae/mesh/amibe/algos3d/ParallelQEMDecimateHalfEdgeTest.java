@@ -0,0 +1,113 @@
+/* jCAE stand for Java Computer Aided Engineering. Features are : Small CAD
+   modeler, Finite element mesher, Plugin architecture.
+
+    Copyright (C) 2011, by EADS France
+
+    This library is free software; you can redistribute it and/or
+    modify it under the terms of the GNU Lesser General Public
+    License as published by the Free Software Foundation; either
+    version 2.1 of the License, or (at your option) any later version.
+
+    This library is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+    Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public
+    License along with this library; if not, write to the Free Software
+    Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA */
+
+package org.jcae.mesh.amibe.algos3d;
+
+import org.jcae.mesh.amibe.ds.AbstractHalfEdge;
+import org.jcae.mesh.amibe.ds.Mesh;
+import org.jcae.mesh.amibe.ds.Triangle;
+import org.jcae.mesh.amibe.ds.Vertex;
+import org.jcae.mesh.amibe.traits.MeshTraitsBuilder;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.HashMap;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+public class ParallelQEMDecimateHalfEdgeTest
+{
+	// Copy triangles in the same order, so that results can be compared
+	static Mesh copy(Mesh mesh)
+	{
+		Mesh ret = new Mesh(MeshTraitsBuilder.getDefault3D());
+		HashMap<Vertex, Vertex> map = new HashMap<Vertex, Vertex>();
+		for (Triangle t : mesh.getTriangles())
+		{
+			if (t.hasAttributes(AbstractHalfEdge.OUTER))
+				continue;
+			Vertex [] v = new Vertex[3];
+			for (int i = 0; i < 3; i++)
+			{
+				v[i] = map.get(t.vertex[i]);
+				if (v[i] == null)
+				{
+					v[i] = ret.createVertex(t.vertex[i].getUV());
+					v[i].setRef(t.vertex[i].getRef());
+					map.put(t.vertex[i], v[i]);
+				}
+			}
+			ret.add(ret.createTriangle(v));
+		}
+		ret.buildAdjacency();
+		return ret;
+	}
+
+	private static void decimate(Mesh mesh, int threads, int maxTriangles)
+	{
+		assertTrue("Mesh is not valid", mesh.isValid());
+		final Map<String, String> options = new HashMap<String, String>();
+		options.put("maxtriangles", Integer.toString(maxTriangles));
+		options.put("threads", Integer.toString(threads));
+		new ParallelQEMDecimateHalfEdge(mesh, options).compute();
+		assertTrue("Mesh is not valid", mesh.isValid());
+	}
+
+	private static List<String> coordinates(Mesh mesh)
+	{
+		List<String> ret = new ArrayList<String>();
+		for (Triangle t : mesh.getTriangles())
+		{
+			if (t.hasAttributes(AbstractHalfEdge.OUTER))
+				continue;
+			StringBuilder sb = new StringBuilder();
+			for (int i = 0; i < 3; i++)
+			{
+				double [] xyz = t.vertex[i].getUV();
+				sb.append(xyz[0]).append(' ').append(xyz[1]).append(' ').append(xyz[2]).append(' ');
+			}
+			ret.add(sb.toString());
+		}
+		return ret;
+	}
+
+	@Test public void testSphere()
+	{
+		Mesh mesh = SphereBuilder.createShuffledSphereMesh(5);
+		decimate(mesh, 2, 2000);
+		int nrTriangles = 0;
+		for (Triangle t : mesh.getTriangles())
+		{
+			if (!t.hasAttributes(AbstractHalfEdge.OUTER))
+				nrTriangles++;
+		}
+		assertTrue("Too many triangles: "+nrTriangles, nrTriangles <= 2000);
+		assertTrue("Too few triangles: "+nrTriangles, nrTriangles > 1800);
+	}
+
+	@Test public void testDeterministic()
+	{
+		Mesh mesh = SphereBuilder.createShuffledSphereMesh(5);
+		Mesh mesh1 = copy(mesh);
+		Mesh mesh3 = copy(mesh);
+		decimate(mesh1, 1, 5000);
+		decimate(mesh3, 3, 5000);
+		assertEquals(coordinates(mesh1), coordinates(mesh3));
+	}
+}
@@ -109,9 +109,15 @@ public class QEMDecimateHalfEdgeTest
 	}
 	
 	private void testShell(int m, int n)
+	{
+		testShell(m, n, "avl");
+	}
+
+	private void testShell(int m, int n, String sortedTree)
 	{
 		final Map<String, String> options = new HashMap<String, String>();
 		options.put("size", "0.1");
+		options.put("sortedTree", sortedTree);
 		mesh = new Mesh();
 		createMxNShell(m, n);
 		mesh.buildAdjacency();
@@ -125,9 +131,15 @@ public class QEMDecimateHalfEdgeTest
 	}
 
 	private void testCross(int m, int n)
+	{
+		testCross(m, n, "avl");
+	}
+
+	private void testCross(int m, int n, String sortedTree)
 	{
 		final Map<String, String> options = new HashMap<String, String>();
 		options.put("size", "0.1");
+		options.put("sortedTree", sortedTree);
 		mesh = new Mesh();
 		createMxNShell(m, n);
 		rotateMxNShellAroundY(m, n, 90);
@@ -271,6 +283,11 @@ public class QEMDecimateHalfEdgeTest
 		testShell(30, 30);
 	}
 
+	@Test public void testShellLargeHeap()
+	{
+		testShell(30, 30, "heap");
+	}
+
 	@Test public void testShellNM1()
 	{
 		testCross(3, 2);
@@ -291,6 +308,11 @@ public class QEMDecimateHalfEdgeTest
 		testCross(10, 10);
 	}
 
+	@Test public void testShellNMLargeHeap()
+	{
+		testCross(10, 10, "heap");
+	}
+
 	@Test public void testShellNM3Inverted()
 	{
 		final Map<String, String> options = new HashMap<String, String>();
@@ -0,0 +1,209 @@
+/* jCAE stand for Java Computer Aided Engineering. Features are : Small CAD
+   modeler, Finite element mesher, Plugin architecture.
+
+    Copyright (C) 2011, by EADS France
+
+    This library is free software; you can redistribute it and/or
+    modify it under the terms of the GNU Lesser General Public
+    License as published by the Free Software Foundation; either
+    version 2.1 of the License, or (at your option) any later version.
+
+    This library is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+    Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public
+    License along with this library; if not, write to the Free Software
+    Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA */
+
+package org.jcae.mesh.amibe.ds;
+
+import org.jcae.mesh.TempDirectories;
+import org.jcae.mesh.amibe.traits.TriangleTraitsBuilder;
+import org.jcae.mesh.amibe.traits.MeshTraitsBuilder;
+import org.jcae.mesh.amibe.validation.DihedralAngle;
+import org.jcae.mesh.amibe.validation.MinAngleFace;
+import org.jcae.mesh.amibe.validation.NodeConnectivity;
+import org.jcae.mesh.amibe.validation.QualityProcedure;
+import org.jcae.mesh.xmldata.MeshExporter;
+import org.jcae.mesh.xmldata.MeshReader;
+import org.jcae.mesh.xmldata.MeshWriter;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import org.junit.AfterClass;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class CompactMeshTest
+{
+	private static MeshTraitsBuilder getMeshTraitsBuilder()
+	{
+		TriangleTraitsBuilder ttb = new TriangleTraitsBuilder();
+		ttb.addHalfEdge();
+		MeshTraitsBuilder mtb = new MeshTraitsBuilder();
+		mtb.addTriangleList();
+		mtb.add(ttb);
+		return mtb;
+	}
+
+	// Grid of m by n vertices on a wavy surface, triangles of each row
+	// belong to the same group
+	private static Mesh createMxNShell(int m, int n)
+	{
+		Mesh mesh = new Mesh(getMeshTraitsBuilder());
+		Vertex [] v = new Vertex[m*n];
+		for (int j = 0; j < n; j++)
+			for (int i = 0; i < m; i++)
+				v[m*j+i] = mesh.createVertex(i, j, Math.sin(0.3*i*j));
+		for (int j = 0; j < n-1; j++)
+		{
+			mesh.setGroupName(j, "row"+j);
+			for (int i = 0; i < m-1; i++)
+			{
+				Triangle t1 = mesh.createTriangle(v[m*j+i], v[m*j+i+1], v[m*(j+1)+i]);
+				Triangle t2 = mesh.createTriangle(v[m*j+i+1], v[m*(j+1)+i+1], v[m*(j+1)+i]);
+				t1.setGroupId(j);
+				t2.setGroupId(j);
+				mesh.add(t1);
+				mesh.add(t2);
+			}
+		}
+		mesh.buildAdjacency();
+		return mesh;
+	}
+
+	private static ArrayList<Triangle> innerTriangles(Mesh mesh)
+	{
+		ArrayList<Triangle> ret = new ArrayList<Triangle>();
+		for (Triangle t : mesh.getTriangles())
+		{
+			if (t.isWritable())
+				ret.add(t);
+		}
+		return ret;
+	}
+
+	@AfterClass public static void deleteTempDirs()
+	{
+		TempDirectories.deleteAll();
+	}
+
+	@Test public void adjacency()
+	{
+		int m = 8;
+		int n = 5;
+		CompactMesh compact = CompactMesh.fromMesh(createMxNShell(m, n));
+		assertEquals(m*n, compact.getNumberOfVertices());
+		assertEquals(2*(m-1)*(n-1), compact.getNumberOfTriangles());
+		int nrBoundary = 0;
+		for (int he = 0; he < 3*compact.getNumberOfTriangles(); he++)
+		{
+			int sym = compact.sym(he);
+			if (sym < 0)
+			{
+				assertTrue(compact.hasAttributes(he, AbstractHalfEdge.BOUNDARY));
+				nrBoundary++;
+				continue;
+			}
+			assertEquals(he, compact.sym(sym));
+			assertEquals(compact.origin(he), compact.destination(sym));
+			assertEquals(compact.destination(he), compact.origin(sym));
+		}
+		assertEquals(2*(m-1)+2*(n-1), nrBoundary);
+	}
+
+	@Test public void nonManifold()
+	{
+		double [] coords = { 0, 0, 0,  1, 0, 0,  0, 1, 0,  0, -1, 0,  0, 0, 1 };
+		int [] triangles = { 0, 1, 2,  1, 0, 3,  0, 1, 4 };
+		CompactMesh compact = new CompactMesh(coords, null, triangles, null);
+		// Edge (0,1) is opposite to the third vertex of each triangle
+		for (int t = 0; t < 3; t++)
+		{
+			assertTrue(compact.hasAttributes(3*t+2, AbstractHalfEdge.NONMANIFOLD));
+			assertEquals(-1, compact.sym(3*t+2));
+		}
+		Mesh mesh = compact.toMesh(getMeshTraitsBuilder());
+		assertTrue("Mesh is not valid", mesh.isValid());
+	}
+
+	@Test public void convert()
+	{
+		Mesh mesh = createMxNShell(6, 6);
+		Triangle first = innerTriangles(mesh).get(0);
+		AbstractHalfEdge ot = first.getAbstractHalfEdge();
+		ot.setAttributes(AbstractHalfEdge.SHARP);
+		CompactMesh compact = CompactMesh.fromMesh(mesh);
+		assertTrue(compact.hasAttributes(ot.getLocalNumber(), AbstractHalfEdge.SHARP));
+
+		Mesh copy = compact.toMesh(getMeshTraitsBuilder());
+		assertTrue("Mesh is not valid", copy.isValid());
+		ArrayList<Triangle> original = innerTriangles(mesh);
+		ArrayList<Triangle> converted = innerTriangles(copy);
+		assertEquals(original.size(), converted.size());
+		for (int i = 0; i < original.size(); i++)
+		{
+			Triangle t1 = original.get(i);
+			Triangle t2 = converted.get(i);
+			assertEquals(t1.getGroupId(), t2.getGroupId());
+			for (int j = 0; j < 3; j++)
+				assertArrayEquals(t1.vertex[j].getUV(), t2.vertex[j].getUV(), 0.0);
+		}
+		assertEquals(mesh.getGroupName(2), copy.getGroupName(2));
+		AbstractHalfEdge ot2 = converted.get(0).getAbstractHalfEdge();
+		while (ot2.getLocalNumber() != ot.getLocalNumber())
+			ot2 = ot2.next();
+		assertTrue(ot2.hasAttributes(AbstractHalfEdge.SHARP));
+	}
+
+	@Test public void quality()
+	{
+		Mesh mesh = createMxNShell(10, 7);
+		CompactMesh compact = CompactMesh.fromMesh(mesh);
+		QualityProcedure [] procs = { new MinAngleFace(), new DihedralAngle() };
+		for (QualityProcedure qproc : procs)
+		{
+			assertTrue(qproc.supportsCompactMesh());
+			int i = 0;
+			for (Triangle t : innerTriangles(mesh))
+			{
+				assertEquals(qproc.quality(t), qproc.quality(compact, i), 1.e-6f);
+				i++;
+			}
+		}
+		assertFalse(new NodeConnectivity().supportsCompactMesh());
+	}
+
+	@Test public void readWrite() throws IOException
+	{
+		Mesh mesh = createMxNShell(9, 4);
+		File dir1 = TempDirectories.create("compact");
+		File dir2 = TempDirectories.create("compact");
+		MeshWriter.writeObject3D(mesh, dir1.getPath(), null);
+		MeshWriter.writeObject3D(CompactMesh.fromMesh(mesh), dir2.getPath(), null);
+
+		CompactMesh compact = MeshReader.readCompactMesh(dir2.getPath());
+		assertEquals(9*4, compact.getNumberOfVertices());
+		assertEquals(2*8*3, compact.getNumberOfTriangles());
+		assertEquals("row1", compact.getGroupName(compact.getGroups()[2*8]));
+
+		// Exporting the compact mesh gives the same file as exporting
+		// the mesh written on disk
+		ByteArrayOutputStream expected = new ByteArrayOutputStream();
+		ByteArrayOutputStream actual = new ByteArrayOutputStream();
+		try
+		{
+			new MeshExporter.UNV(dir1.getPath()).write(new PrintStream(expected));
+			new MeshExporter.UNV(compact, null).write(new PrintStream(actual));
+		}
+		catch (Exception ex)
+		{
+			throw new RuntimeException(ex);
+		}
+		assertEquals(expected.toString(), actual.toString());
+	}
+}
@@ -21,6 +21,7 @@ package org.jcae.mesh.amibe.ds;
 
 import org.jcae.mesh.amibe.traits.TriangleTraitsBuilder;
 import org.jcae.mesh.amibe.traits.MeshTraitsBuilder;
+import java.util.IdentityHashMap;
 import org.junit.Test;
 import static org.junit.Assert.*;
 
@@ -132,5 +133,66 @@ public class MeshTest
 		nr = mesh.scratchVirtualBoundaries();
 		assertTrue("Wrong return value of scratchVirtualBoundaries (2 was expected): "+nr, 2 == nr);
 	}
+
+	// Shell with non-manifold edges
+	private Mesh createShellWithFins(int m, int n)
+	{
+		TriangleTraitsBuilder ttb = new TriangleTraitsBuilder();
+		ttb.addHalfEdge();
+		MeshTraitsBuilder mtb = new MeshTraitsBuilder();
+		mtb.addTriangleList();
+		mtb.add(ttb);
+		mesh = new Mesh(mtb);
+		createMxNShell(m, n);
+		for (int i = 0; i < T.length; i += 7)
+		{
+			Vertex v0 = T[i].vertex[0];
+			Vertex v1 = T[i].vertex[1];
+			for (int j = 0; j < 1 + i % 3; j++)
+			{
+				Vertex apex = mesh.createVertex(i, j, 1.0);
+				if ((i + j) % 2 == 0)
+					mesh.add(mesh.createTriangle(v0, v1, apex));
+				else
+					mesh.add(mesh.createTriangle(v1, v0, apex));
+			}
+		}
+		return mesh;
+	}
+
+	@Test public void parallelAdjacency()
+	{
+		Mesh mesh1 = createShellWithFins(30, 30);
+		mesh1.buildAdjacency();
+		assertTrue("Mesh is not valid", mesh1.isValid());
+		Mesh mesh4 = createShellWithFins(30, 30);
+		mesh4.buildAdjacency(0, 4);
+		assertTrue("Mesh is not valid", mesh4.isValid());
+
+		assertEquals(mesh1.getTriangles().size(), mesh4.getTriangles().size());
+		IdentityHashMap<Triangle, Integer> index1 = new IdentityHashMap<Triangle, Integer>();
+		for (Triangle t : mesh1.getTriangles())
+			index1.put(t, index1.size());
+		IdentityHashMap<Triangle, Integer> index4 = new IdentityHashMap<Triangle, Integer>();
+		for (Triangle t : mesh4.getTriangles())
+			index4.put(t, index4.size());
+		Triangle [] triangles4 = mesh4.getTriangles().toArray(new Triangle[0]);
+		int i = 0;
+		for (Triangle t1 : mesh1.getTriangles())
+		{
+			Triangle t4 = triangles4[i++];
+			AbstractHalfEdge ot1 = t1.getAbstractHalfEdge();
+			AbstractHalfEdge ot4 = t4.getAbstractHalfEdge();
+			for (int j = 0; j < 3; j++)
+			{
+				ot1 = ot1.next();
+				ot4 = ot4.next();
+				assertEquals(((HalfEdge) ot1).getAttributes(), ((HalfEdge) ot4).getAttributes());
+				assertEquals(ot1.hasSymmetricEdge(), ot4.hasSymmetricEdge());
+				if (ot1.hasSymmetricEdge())
+					assertEquals(index1.get(ot1.sym().getTri()), index4.get(ot4.sym().getTri()));
+			}
+		}
+	}
 	
 }
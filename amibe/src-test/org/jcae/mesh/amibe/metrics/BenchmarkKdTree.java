@@ -0,0 +1,115 @@
+/* jCAE stand for Java Computer Aided Engineering. Features are : Small CAD
+   modeler, Finite element mesher, Plugin architecture.
+
+    Copyright (C) 2011, by EADS France
+
+    This library is free software; you can redistribute it and/or
+    modify it under the terms of the GNU Lesser General Public
+    License as published by the Free Software Foundation; either
+    version 2.1 of the License, or (at your option) any later version.
+
+    This library is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+    Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public
+    License along with this library; if not, write to the Free Software
+    Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA */
+
+package org.jcae.mesh.amibe.metrics;
+
+import org.jcae.mesh.amibe.metrics.KdTreeTest.Euclidian;
+import org.jcae.mesh.amibe.metrics.KdTreeTest.Point;
+import java.util.Random;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Compare nearest vertex queries.  Vertices are inserted at random in the
+ * unit square or cube, like in <code>QuadTreeSample*</code> and
+ * <code>OctreeSample*</code>, but with much more vertices and without
+ * display.  Each query is run several times, and the best time is printed
+ * to reduce JIT and GC noise.  This benchmark is only run when the
+ * <code>run.test.large</code> system property is set.
+ */
+public class BenchmarkKdTree
+{
+	private static final int NR_VERTICES = 200000;
+	private static final int NR_QUERIES = 200000;
+	private static final int NR_RUNS = 5;
+
+	@BeforeClass public static void checkLarge()
+	{
+		assumeTrue(Boolean.getBoolean("run.test.large"));
+	}
+
+	private static double [] createQueries(Random rand, int dimension)
+	{
+		double [] ret = new double[dimension*NR_QUERIES];
+		for (int i = 0; i < ret.length; i++)
+			ret[i] = rand.nextDouble();
+		return ret;
+	}
+
+	private void run(int dimension)
+	{
+		Random rand = new Random(113L);
+		Point [] points = KdTreeTest.createPoints(rand, dimension, NR_VERTICES);
+		KdTree<Point> tree = KdTreeTest.createKdTree(dimension, points);
+		Metric metric = new Euclidian(dimension);
+		double [] coords = createQueries(rand, dimension);
+		double [] uv = new double[dimension];
+		Point [] expected = new Point[NR_QUERIES];
+		Point [] one = new Point[1];
+		Point [] batch = new Point[NR_QUERIES];
+
+		long bestNearest = Long.MAX_VALUE;
+		long bestBuffer = Long.MAX_VALUE;
+		long bestBatch = Long.MAX_VALUE;
+		for (int r = 0; r < NR_RUNS; r++)
+		{
+			long start = System.nanoTime();
+			for (int i = 0; i < NR_QUERIES; i++)
+			{
+				System.arraycopy(coords, dimension*i, uv, 0, dimension);
+				expected[i] = tree.getNearestVertex(metric, uv);
+			}
+			bestNearest = Math.min(bestNearest, System.nanoTime() - start);
+
+			start = System.nanoTime();
+			for (int i = 0; i < NR_QUERIES; i++)
+			{
+				System.arraycopy(coords, dimension*i, uv, 0, dimension);
+				tree.getNearestVertices(metric, uv, one, null);
+				assertSame(expected[i], one[0]);
+			}
+			bestBuffer = Math.min(bestBuffer, System.nanoTime() - start);
+
+			start = System.nanoTime();
+			tree.getNearestVertexBatch(metric, coords, batch);
+			bestBatch = Math.min(bestBatch, System.nanoTime() - start);
+			for (int i = 0; i < NR_QUERIES; i++)
+			{
+				System.arraycopy(coords, dimension*i, uv, 0, dimension);
+				assertEquals(metric.distance2(uv, expected[i].getUV()), metric.distance2(uv, batch[i].getUV()), 0.0);
+			}
+		}
+		System.out.println(dimension+"D, "+NR_VERTICES+" vertices, "+NR_QUERIES+" queries");
+		System.out.println("  getNearestVertex:      "+(bestNearest / 1000000L)+" ms");
+		System.out.println("  getNearestVertices:    "+(bestBuffer / 1000000L)+" ms");
+		System.out.println("  getNearestVertexBatch: "+(bestBatch / 1000000L)+" ms");
+	}
+
+	@Test public void quadtree()
+	{
+		run(2);
+	}
+
+	@Test public void octree()
+	{
+		run(3);
+	}
+}
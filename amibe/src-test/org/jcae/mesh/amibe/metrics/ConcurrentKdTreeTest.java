@@ -0,0 +1,145 @@
+/* jCAE stand for Java Computer Aided Engineering. Features are : Small CAD
+   modeler, Finite element mesher, Plugin architecture.
+
+    Copyright (C) 2011, by EADS France
+
+    This library is free software; you can redistribute it and/or
+    modify it under the terms of the GNU Lesser General Public
+    License as published by the Free Software Foundation; either
+    version 2.1 of the License, or (at your option) any later version.
+
+    This library is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+    Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public
+    License along with this library; if not, write to the Free Software
+    Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA */
+
+package org.jcae.mesh.amibe.metrics;
+
+import org.jcae.mesh.amibe.metrics.KdTreeTest.Euclidian;
+import org.jcae.mesh.amibe.metrics.KdTreeTest.Point;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicReference;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class ConcurrentKdTreeTest
+{
+	private static ConcurrentKdTree<Point> createTree(int dimension)
+	{
+		double [] bbox = new double[2*dimension];
+		for (int k = 0; k < dimension; k++)
+			bbox[k+dimension] = 1.0;
+		return new ConcurrentKdTree<Point>(bbox);
+	}
+
+	private static double bruteForceSqrDistance(Metric metric, Point [] points, double [] uv)
+	{
+		double ret = Double.MAX_VALUE;
+		for (Point p : points)
+			ret = Math.min(ret, metric.distance2(uv, p.getUV()));
+		return ret;
+	}
+
+	@Test public void bulkLoad()
+	{
+		Random rand = new Random(113L);
+		for (int dimension = 2; dimension <= 3; dimension++)
+		{
+			Point [] points = KdTreeTest.createPoints(rand, dimension, 5000);
+			ConcurrentKdTree<Point> tree = createTree(dimension);
+			assertNull(tree.getNearestVertex(new Euclidian(dimension), new double[dimension]));
+			tree.addAll(Arrays.asList(points), 4);
+			assertEquals(points.length, tree.getAllVertices(points.length).size());
+			Metric metric = new Euclidian(dimension);
+			double [] uv = new double[dimension];
+			for (int i = 0; i < 500; i++)
+			{
+				// Some points are outside of the bounding box
+				for (int k = 0; k < dimension; k++)
+					uv[k] = 1.4 * rand.nextDouble() - 0.2;
+				assertEquals(bruteForceSqrDistance(metric, points, uv),
+					metric.distance2(uv, tree.getNearestVertex(metric, uv).getUV()), 0.0);
+			}
+		}
+	}
+
+	@Test public void fewVertices()
+	{
+		// Nearest vertex is far away in another stripe
+		ConcurrentKdTree<Point> tree = createTree(3);
+		Metric metric = new Euclidian(3);
+		Point p = new Point(new double[] { 0.99, 0.99, 0.99 });
+		tree.add(p);
+		assertSame(p, tree.getNearestVertex(metric, new double[] { 0.0, 0.0, 0.0 }));
+		tree.remove(p);
+		assertNull(tree.getNearestVertex(metric, new double[] { 0.0, 0.0, 0.0 }));
+	}
+
+	@Test public void stress() throws InterruptedException
+	{
+		final int dimension = 3;
+		final ConcurrentKdTree<Point> tree = createTree(dimension);
+		final Metric metric = new Euclidian(dimension);
+		// These points are never removed
+		final Point [] permanent = KdTreeTest.createPoints(new Random(113L), dimension, 2000);
+		tree.addAll(Arrays.asList(permanent), 2);
+
+		final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+		int nrThreads = 8;
+		Thread [] threads = new Thread[nrThreads];
+		for (int t = 0; t < nrThreads; t++)
+		{
+			final long seed = t;
+			threads[t] = new Thread()
+			{
+				@Override
+				public void run()
+				{
+					try
+					{
+						Random rand = new Random(seed);
+						double [] uv = new double[dimension];
+						for (int i = 0; i < 5000; i++)
+						{
+							Point p = KdTreeTest.createPoints(rand, dimension, 1)[0];
+							tree.add(p);
+							// This thread inserted p, it must be found
+							Point q = tree.getNearestVertex(metric, p.getUV());
+							assertEquals(0.0, metric.distance2(p.getUV(), q.getUV()), 0.0);
+							// Nearest vertex cannot be farther than permanent vertices
+							for (int k = 0; k < dimension; k++)
+								uv[k] = rand.nextDouble();
+							q = tree.getNearestVertex(metric, uv);
+							assertTrue(metric.distance2(uv, q.getUV()) <= bruteForceSqrDistance(metric, permanent, uv));
+							tree.remove(p);
+						}
+					}
+					catch (Throwable ex)
+					{
+						failure.compareAndSet(null, ex);
+					}
+				}
+			};
+			threads[t].start();
+		}
+		for (Thread t : threads)
+			t.join();
+		if (failure.get() != null)
+			throw new RuntimeException(failure.get());
+		assertEquals(permanent.length, tree.getAllVertices(permanent.length).size());
+		double [] uv = new double[dimension];
+		Random rand = new Random(1234L);
+		for (int i = 0; i < 200; i++)
+		{
+			for (int k = 0; k < dimension; k++)
+				uv[k] = rand.nextDouble();
+			assertEquals(bruteForceSqrDistance(metric, permanent, uv),
+				metric.distance2(uv, tree.getNearestVertex(metric, uv).getUV()), 0.0);
+		}
+	}
+}
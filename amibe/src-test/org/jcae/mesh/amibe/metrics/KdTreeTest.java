@@ -0,0 +1,200 @@
+/* jCAE stand for Java Computer Aided Engineering. Features are : Small CAD
+   modeler, Finite element mesher, Plugin architecture.
+
+    Copyright (C) 2011, by EADS France
+
+    This library is free software; you can redistribute it and/or
+    modify it under the terms of the GNU Lesser General Public
+    License as published by the Free Software Foundation; either
+    version 2.1 of the License, or (at your option) any later version.
+
+    This library is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+    Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public
+    License along with this library; if not, write to the Free Software
+    Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA */
+
+package org.jcae.mesh.amibe.metrics;
+
+import java.util.Arrays;
+import java.util.Random;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class KdTreeTest
+{
+	static class Point implements Location
+	{
+		private final double [] uv;
+		Point(double [] uv)
+		{
+			this.uv = uv.clone();
+		}
+		public double [] getUV()
+		{
+			return uv;
+		}
+		public void moveTo(double u, double v)
+		{
+			throw new UnsupportedOperationException();
+		}
+		public void moveTo(double x, double y, double z)
+		{
+			throw new UnsupportedOperationException();
+		}
+	}
+
+	// Euclidian metric in any dimension
+	static class Euclidian implements Metric
+	{
+		private final double [] unitBall;
+		Euclidian(int dimension)
+		{
+			unitBall = new double[dimension];
+			Arrays.fill(unitBall, 1.0);
+		}
+		public double distance2(double [] p1, double [] p2)
+		{
+			double ret = 0.0;
+			for (int k = 0; k < unitBall.length; k++)
+				ret += (p1[k] - p2[k]) * (p1[k] - p2[k]);
+			return ret;
+		}
+		public double [] getUnitBallBBox()
+		{
+			return unitBall;
+		}
+	}
+
+	static Point [] createPoints(Random rand, int dimension, int n)
+	{
+		Point [] ret = new Point[n];
+		double [] uv = new double[dimension];
+		for (int i = 0; i < n; i++)
+		{
+			for (int k = 0; k < dimension; k++)
+				uv[k] = rand.nextDouble();
+			ret[i] = new Point(uv);
+		}
+		return ret;
+	}
+
+	static KdTree<Point> createKdTree(int dimension, Point [] points)
+	{
+		double [] bbox = new double[2*dimension];
+		for (int k = 0; k < dimension; k++)
+			bbox[k+dimension] = 1.0;
+		KdTree<Point> ret = new KdTree<Point>(bbox);
+		for (Point p : points)
+			ret.add(p);
+		return ret;
+	}
+
+	private static double [] sortedDistances(Metric metric, Point [] points, double [] uv)
+	{
+		double [] ret = new double[points.length];
+		for (int i = 0; i < points.length; i++)
+			ret[i] = metric.distance2(uv, points[i].getUV());
+		Arrays.sort(ret);
+		return ret;
+	}
+
+	private void checkNearest(int dimension)
+	{
+		Random rand = new Random(113L);
+		Point [] points = createPoints(rand, dimension, 2000);
+		KdTree<Point> tree = createKdTree(dimension, points);
+		Metric metric = new Euclidian(dimension);
+		Point [] result = new Point[7];
+		double [] dist2 = new double[result.length];
+		double [] uv = new double[dimension];
+		for (int i = 0; i < 300; i++)
+		{
+			// Some points are outside of the bounding box
+			for (int k = 0; k < dimension; k++)
+				uv[k] = 1.2 * rand.nextDouble() - 0.1;
+			double [] expected = sortedDistances(metric, points, uv);
+			assertEquals(result.length, tree.getNearestVertices(metric, uv, result, dist2));
+			for (int j = 0; j < result.length; j++)
+			{
+				assertEquals(expected[j], dist2[j], 0.0);
+				assertEquals(expected[j], metric.distance2(uv, result[j].getUV()), 0.0);
+			}
+			assertEquals(tree.getNearestVertex(metric, uv), result[0]);
+		}
+	}
+
+	@Test public void nearest2D()
+	{
+		checkNearest(2);
+	}
+
+	@Test public void nearest3D()
+	{
+		checkNearest(3);
+	}
+
+	@Test public void fewVertices()
+	{
+		Random rand = new Random(113L);
+		Point [] points = createPoints(rand, 3, 4);
+		KdTree<Point> tree = createKdTree(3, points);
+		Point [] result = new Point[10];
+		double [] uv = { 0.5, 0.5, 0.5 };
+		assertEquals(4, tree.getNearestVertices(new Euclidian(3), uv, result, null));
+		assertEquals(0, createKdTree(3, new Point[0]).getNearestVertices(new Euclidian(3), uv, result, null));
+	}
+
+	@Test public void radius()
+	{
+		Random rand = new Random(1234L);
+		Point [] points = createPoints(rand, 3, 2000);
+		KdTree<Point> tree = createKdTree(3, points);
+		Metric metric = new Euclidian(3);
+		Point [] result = new Point[20];
+		double [] uv = new double[3];
+		for (int i = 0; i < 300; i++)
+		{
+			for (int k = 0; k < 3; k++)
+				uv[k] = rand.nextDouble();
+			double radius2 = 0.01 * rand.nextDouble();
+			int expected = 0;
+			for (Point p : points)
+			{
+				if (metric.distance2(uv, p.getUV()) <= radius2)
+					expected++;
+			}
+			int found = tree.getVerticesInRadius(metric, uv, radius2, result);
+			assertEquals(expected, found);
+			for (int j = 0; j < Math.min(found, result.length); j++)
+				assertTrue(metric.distance2(uv, result[j].getUV()) <= radius2);
+		}
+	}
+
+	@Test public void batch()
+	{
+		Random rand = new Random(4321L);
+		for (int dimension = 2; dimension <= 3; dimension++)
+		{
+			Point [] points = createPoints(rand, dimension, 3000);
+			KdTree<Point> tree = createKdTree(dimension, points);
+			Metric metric = new Euclidian(dimension);
+			int n = 1000;
+			double [] coords = new double[dimension*n];
+			for (int i = 0; i < coords.length; i++)
+				coords[i] = rand.nextDouble();
+			Point [] result = new Point[n];
+			tree.getNearestVertexBatch(metric, coords, result);
+			double [] uv = new double[dimension];
+			for (int i = 0; i < n; i++)
+			{
+				System.arraycopy(coords, dimension*i, uv, 0, dimension);
+				assertEquals(metric.distance2(uv, tree.getNearestVertex(metric, uv).getUV()),
+					metric.distance2(uv, result[i].getUV()), 0.0);
+			}
+		}
+	}
+}
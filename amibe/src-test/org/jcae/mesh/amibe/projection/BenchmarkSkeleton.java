@@ -0,0 +1,158 @@
+/* jCAE stand for Java Computer Aided Engineering. Features are : Small CAD
+   modeler, Finite element mesher, Plugin architecture.
+
+    Copyright (C) 2011, by EADS France
+
+    This library is free software; you can redistribute it and/or
+    modify it under the terms of the GNU Lesser General Public
+    License as published by the Free Software Foundation; either
+    version 2.1 of the License, or (at your option) any later version.
+
+    This library is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+    Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public
+    License along with this library; if not, write to the Free Software
+    Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA */
+
+package org.jcae.mesh.amibe.projection;
+
+import org.jcae.mesh.amibe.ds.AbstractHalfEdge;
+import org.jcae.mesh.amibe.ds.Mesh;
+import org.jcae.mesh.amibe.ds.Triangle;
+import org.jcae.mesh.amibe.ds.Vertex;
+import org.jcae.mesh.amibe.traits.MeshTraitsBuilder;
+import java.util.ArrayList;
+import java.util.Random;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Compare skeleton distance queries with a linear scan of border edges,
+ * on a wavy grid whose horizontal lines are all ridges.  This benchmark is
+ * only run when the <code>run.test.large</code> system property is set.
+ */
+public class BenchmarkSkeleton
+{
+	// With 320x320 vertices, there are more than 100k ridge edges
+	private static final int GRID_SIZE = 320;
+	private static final int NR_QUERIES = 100000;
+	// Linear scan is so slow that it is run on fewer queries
+	private static final int NR_LINEAR_QUERIES = 200;
+
+	private static Mesh mesh;
+	private static MeshLiaison liaison;
+	private static double [] ridges;
+	private static Vertex [] queries;
+
+	@BeforeClass public static void createMesh()
+	{
+		assumeTrue(Boolean.getBoolean("run.test.large"));
+		mesh = new Mesh(MeshTraitsBuilder.getDefault3D());
+		Vertex [] v = new Vertex[GRID_SIZE*GRID_SIZE];
+		for (int j = 0; j < GRID_SIZE; j++)
+			for (int i = 0; i < GRID_SIZE; i++)
+				v[GRID_SIZE*j+i] = mesh.createVertex(i, j, Math.sin(0.2*i) + ((j % 2) == 0 ? 0.0 : 0.3));
+		for (int j = 0; j < GRID_SIZE - 1; j++)
+		{
+			for (int i = 0; i < GRID_SIZE - 1; i++)
+			{
+				int n = GRID_SIZE*j+i;
+				mesh.add(mesh.createTriangle(v[n], v[n+1], v[n+GRID_SIZE]));
+				mesh.add(mesh.createTriangle(v[n+1], v[n+GRID_SIZE+1], v[n+GRID_SIZE]));
+			}
+		}
+		mesh.buildAdjacency();
+		AbstractHalfEdge ot = null;
+		for (Triangle t : mesh.getTriangles())
+		{
+			if (t.hasAttributes(AbstractHalfEdge.OUTER))
+				continue;
+			ot = t.getAbstractHalfEdge(ot);
+			for (int i = 0; i < 3; i++)
+			{
+				ot = ot.next();
+				if (ot.origin().getUV()[1] == ot.destination().getUV()[1] &&
+					!ot.hasAttributes(AbstractHalfEdge.BOUNDARY))
+				{
+					ot.setAttributes(AbstractHalfEdge.SHARP);
+					ot.sym().setAttributes(AbstractHalfEdge.SHARP);
+				}
+			}
+		}
+		// Collect border edges for the linear scan
+		ArrayList<Vertex> endPoints = new ArrayList<Vertex>();
+		for (Triangle t : mesh.getTriangles())
+		{
+			if (t.hasAttributes(AbstractHalfEdge.OUTER))
+				continue;
+			ot = t.getAbstractHalfEdge(ot);
+			for (int i = 0; i < 3; i++)
+			{
+				ot = ot.next();
+				if (ot.hasAttributes(AbstractHalfEdge.BOUNDARY | AbstractHalfEdge.SHARP))
+				{
+					endPoints.add(ot.origin());
+					endPoints.add(ot.destination());
+				}
+			}
+		}
+		ridges = new double[3*endPoints.size()];
+		for (int i = 0; i < endPoints.size(); i++)
+			System.arraycopy(endPoints.get(i).getUV(), 0, ridges, 3*i, 3);
+		System.out.println("Number of border edges: "+(endPoints.size() / 2));
+
+		long start = System.currentTimeMillis();
+		liaison = new MeshLiaison(mesh);
+		liaison.buildSkeleton();
+		System.out.println("Skeleton built in "+(System.currentTimeMillis() - start)+" ms");
+
+		Random rand = new Random(1234L);
+		queries = new Vertex[NR_QUERIES];
+		for (int i = 0; i < NR_QUERIES; i++)
+			queries[i] = mesh.createVertex(
+				GRID_SIZE * rand.nextDouble(), GRID_SIZE * rand.nextDouble(), 2.0 * rand.nextDouble() - 1.0);
+	}
+
+	@Test public void nearest()
+	{
+		long start = System.nanoTime();
+		double sum = 0.0;
+		for (Vertex q : queries)
+			sum += liaison.getSqrDistanceToSkeleton(q, -1);
+		double tree = (System.nanoTime() - start) / 1000.0 / NR_QUERIES;
+
+		start = System.nanoTime();
+		for (int i = 0; i < NR_LINEAR_QUERIES; i++)
+		{
+			double d = SegmentBoundingTreeTest.bruteForceSqrDistance(ridges, queries[i].getUV());
+			assertEquals(d, liaison.getSqrDistanceToSkeleton(queries[i], -1), 1.e-12 * (1.0 + d));
+		}
+		double linear = (System.nanoTime() - start) / 1000.0 / NR_LINEAR_QUERIES;
+		System.out.println("Nearest distance: "+tree+" us by query, linear scan: "+linear+" us by query");
+		assertTrue(sum >= 0.0);
+	}
+
+	@Test public void withinRadius()
+	{
+		double radius2 = 0.1;
+		long start = System.nanoTime();
+		int nrNear = 0;
+		for (Vertex q : queries)
+		{
+			if (liaison.isNearSkeleton(q, -1, radius2))
+				nrNear++;
+		}
+		double tree = (System.nanoTime() - start) / 1000.0 / NR_QUERIES;
+		System.out.println("Within radius: "+tree+" us by query, "+nrNear+" vertices found");
+		for (int i = 0; i < NR_LINEAR_QUERIES; i++)
+		{
+			double d = SegmentBoundingTreeTest.bruteForceSqrDistance(ridges, queries[i].getUV());
+			assertEquals(d <= radius2, liaison.isNearSkeleton(queries[i], -1, radius2));
+		}
+	}
+}
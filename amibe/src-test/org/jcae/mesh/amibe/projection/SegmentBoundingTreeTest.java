@@ -0,0 +1,117 @@
+/* jCAE stand for Java Computer Aided Engineering. Features are : Small CAD
+   modeler, Finite element mesher, Plugin architecture.
+
+    Copyright (C) 2011, by EADS France
+
+    This library is free software; you can redistribute it and/or
+    modify it under the terms of the GNU Lesser General Public
+    License as published by the Free Software Foundation; either
+    version 2.1 of the License, or (at your option) any later version.
+
+    This library is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+    Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public
+    License along with this library; if not, write to the Free Software
+    Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA */
+
+package org.jcae.mesh.amibe.projection;
+
+import java.util.Random;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class SegmentBoundingTreeTest
+{
+	// Squared distance computed by scanning all segments
+	static double bruteForceSqrDistance(double [] coords, double [] pos)
+	{
+		double dMin = Double.MAX_VALUE;
+		for (int s = 0; s < coords.length / 6; s++)
+		{
+			double t = 0.0;
+			double sqrNorm = 0.0;
+			for (int k = 0; k < 3; k++)
+			{
+				double u = coords[6*s+3+k] - coords[6*s+k];
+				t += u * (pos[k] - coords[6*s+k]);
+				sqrNorm += u * u;
+			}
+			if (t <= 0)
+				t = 0.0;
+			else if (t >= sqrNorm)
+				t = 1.0;
+			else
+				t /= sqrNorm;
+			double d = 0.0;
+			for (int k = 0; k < 3; k++)
+			{
+				double x = pos[k] - (coords[6*s+k] + t * (coords[6*s+3+k] - coords[6*s+k]));
+				d += x * x;
+			}
+			if (d < dMin)
+				dMin = d;
+		}
+		return dMin;
+	}
+
+	// Random polyline, segments are short compared to the bounding box
+	private static double [] createPolyline(Random rand, int n)
+	{
+		double [] coords = new double[6*n];
+		double [] current = new double[3];
+		for (int s = 0; s < n; s++)
+		{
+			System.arraycopy(current, 0, coords, 6*s, 3);
+			for (int k = 0; k < 3; k++)
+				current[k] += rand.nextDouble() - 0.5;
+			System.arraycopy(current, 0, coords, 6*s+3, 3);
+		}
+		return coords;
+	}
+
+	@Test public void empty()
+	{
+		SegmentBoundingTree tree = new SegmentBoundingTree(new double[0]);
+		double [] pos = { 1.0, 2.0, 3.0 };
+		assertEquals(Double.MAX_VALUE, tree.sqrDistance(pos), 0.0);
+		assertFalse(tree.isNearer(pos, 1.e10));
+	}
+
+	@Test public void sqrDistance()
+	{
+		Random rand = new Random(1234L);
+		for (int n : new int[] { 1, 3, 5, 17, 1000 })
+		{
+			double [] coords = createPolyline(rand, n);
+			SegmentBoundingTree tree = new SegmentBoundingTree(coords);
+			assertEquals(n, tree.size());
+			double [] pos = new double[3];
+			for (int i = 0; i < 200; i++)
+			{
+				for (int k = 0; k < 3; k++)
+					pos[k] = 10.0 * (rand.nextDouble() - 0.5);
+				double d2 = bruteForceSqrDistance(coords, pos);
+				assertEquals(d2, tree.sqrDistance(pos), 1.e-12 * (1.0 + d2));
+			}
+		}
+	}
+
+	@Test public void isNearer()
+	{
+		Random rand = new Random(4321L);
+		double [] coords = createPolyline(rand, 500);
+		SegmentBoundingTree tree = new SegmentBoundingTree(coords);
+		double [] pos = new double[3];
+		for (int i = 0; i < 1000; i++)
+		{
+			for (int k = 0; k < 3; k++)
+				pos[k] = 10.0 * (rand.nextDouble() - 0.5);
+			double d2 = bruteForceSqrDistance(coords, pos);
+			assertTrue(tree.isNearer(pos, 1.01 * d2));
+			assertFalse(tree.isNearer(pos, 0.99 * d2));
+		}
+	}
+}
@@ -0,0 +1,109 @@
+/* jCAE stand for Java Computer Aided Engineering. Features are : Small CAD
+   modeler, Finite element mesher, Plugin architecture.
+
+    Copyright (C) 2011, by EADS France
+
+    This library is free software; you can redistribute it and/or
+    modify it under the terms of the GNU Lesser General Public
+    License as published by the Free Software Foundation; either
+    version 2.1 of the License, or (at your option) any later version.
+
+    This library is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+    Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public
+    License along with this library; if not, write to the Free Software
+    Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA */
+
+package org.jcae.mesh.amibe.util;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+/**
+ * Compare sorted trees on a workload similar to edge decimation: the
+ * lowest object is removed, and costs of some neighbours are updated.
+ * All trees must remove objects in the same order as the AVL tree.
+ */
+public class BenchmarkSortedTree
+{
+	private static final int NR_OBJECTS = 1000000;
+	private static final int NR_STEPS = 300000;
+	private static final int NR_UPDATES = 10;
+
+	private static int [] expected;
+
+	private static class Item implements IndexedHeapSortedTree.Indexed
+	{
+		private final int id;
+		private int heapIndex = -1;
+		Item(int id)
+		{
+			this.id = id;
+		}
+		public int getHeapIndex()
+		{
+			return heapIndex;
+		}
+		public void setHeapIndex(int index)
+		{
+			heapIndex = index;
+		}
+	}
+
+	/**
+	 * Returns identifiers of removed objects, in removal order.
+	 */
+	private static int [] run(QSortedTree<Item> tree)
+	{
+		Random rand = new Random(4321L);
+		Item [] items = new Item[NR_OBJECTS];
+		for (int i = 0; i < items.length; i++)
+			items[i] = new Item(i);
+		int [] removed = new int[NR_STEPS];
+		long start = System.currentTimeMillis();
+		for (Item item : items)
+			tree.insert(item, rand.nextDouble());
+		for (int step = 0; step < NR_STEPS; step++)
+		{
+			Item current = tree.iterator().next().getData();
+			tree.remove(current);
+			removed[step] = current.id;
+			for (int i = 0; i < NR_UPDATES; i++)
+			{
+				Item neighbour = items[rand.nextInt(items.length)];
+				if (!tree.update(neighbour, rand.nextDouble()))
+					tree.insert(neighbour, rand.nextDouble());
+			}
+		}
+		long time = System.currentTimeMillis() - start;
+		System.out.println(tree.getClass().getSimpleName()+" Processing time: "+time+" ms");
+		return removed;
+	}
+
+	private static synchronized int [] expected()
+	{
+		if (expected == null)
+			expected = run(new PAVLSortedTree<Item>());
+		return expected;
+	}
+
+	@Test public void avl()
+	{
+		expected();
+	}
+
+	@Test public void redBlack()
+	{
+		assertArrayEquals(expected(), run(new PRedBlackSortedTree<Item>()));
+	}
+
+	@Test public void heap()
+	{
+		assertArrayEquals(expected(), run(new IndexedHeapSortedTree<Item>(NR_OBJECTS)));
+	}
+}
@@ -0,0 +1,151 @@
+/* jCAE stand for Java Computer Aided Engineering. Features are : Small CAD
+   modeler, Finite element mesher, Plugin architecture.
+
+    Copyright (C) 2011, by EADS France
+
+    This library is free software; you can redistribute it and/or
+    modify it under the terms of the GNU Lesser General Public
+    License as published by the Free Software Foundation; either
+    version 2.1 of the License, or (at your option) any later version.
+
+    This library is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+    Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public
+    License along with this library; if not, write to the Free Software
+    Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA */
+
+package org.jcae.mesh.amibe.util;
+
+import java.util.Iterator;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+import org.junit.Before;
+
+public class IndexedHeapSortedTreeTest
+{
+	static class Item implements IndexedHeapSortedTree.Indexed
+	{
+		final int id;
+		private int heapIndex = -1;
+		Item(int i)
+		{
+			id = i;
+		}
+		public int getHeapIndex()
+		{
+			return heapIndex;
+		}
+		public void setHeapIndex(int index)
+		{
+			heapIndex = index;
+		}
+	}
+
+	private IndexedHeapSortedTree<Item> heap;
+
+	@Before public void createHeap()
+	{
+		heap = new IndexedHeapSortedTree<Item>(4);
+	}
+
+	private Item [] init(int n)
+	{
+		Item [] ret = new Item[n];
+		for (int i = 0; i < n; i++)
+			ret[i] = new Item(i);
+		// Insert in a shuffled order
+		int prime = gnu.trove.PrimeFinder.nextPrime(n);
+		for (int i = 0, index = 1; i < prime; i++)
+		{
+			index += 7;
+			while (index >= prime)
+				index -= prime;
+			if (index < n)
+				heap.insert(ret[index], index);
+		}
+		assertEquals(n, heap.size());
+		return ret;
+	}
+
+	private void checkOrder(int n)
+	{
+		int i = 0;
+		double last = Double.NEGATIVE_INFINITY;
+		for (Iterator<QSortedTree.Node<Item>> it = heap.iterator(); it.hasNext(); i++)
+		{
+			QSortedTree.Node<Item> node = it.next();
+			assertTrue("Wrong iterator: "+last+" > "+node.getValue(), last <= node.getValue());
+			last = node.getValue();
+		}
+		assertEquals(n, i);
+	}
+
+	@Test public void iterator()
+	{
+		init(100);
+		int i = 0;
+		for (Iterator<QSortedTree.Node<Item>> it = heap.iterator(); it.hasNext(); i++)
+			assertEquals(i, it.next().getData().id);
+		assertEquals(100, i);
+	}
+
+	@Test public void backwardIterator()
+	{
+		init(100);
+		int i = 99;
+		for (Iterator<QSortedTree.Node<Item>> it = heap.backwardIterator(); it.hasNext(); i--)
+			assertEquals(i, it.next().getData().id);
+		assertEquals(-1, i);
+	}
+
+	@Test public void emptyIterator()
+	{
+		assertTrue(heap.isEmpty());
+		assertFalse(heap.iterator().hasNext());
+		assertFalse(heap.backwardIterator().hasNext());
+	}
+
+	@Test public void remove()
+	{
+		Item [] items = init(1000);
+		for (int i = 0; i < items.length; i += 2)
+			assertTrue(heap.remove(items[i]));
+		assertFalse(heap.remove(items[0]));
+		assertFalse(heap.contains(items[0]));
+		assertTrue(heap.contains(items[1]));
+		checkOrder(500);
+		for (int i = 1; i < items.length; i += 2)
+			assertTrue(heap.remove(items[i]));
+		assertTrue(heap.isEmpty());
+	}
+
+	@Test public void update()
+	{
+		Item [] items = init(1000);
+		Random rand = new Random(1234L);
+		for (int i = 0; i < 10000; i++)
+			assertTrue(heap.update(items[rand.nextInt(items.length)], rand.nextDouble()));
+		checkOrder(1000);
+		heap.update(items[42], -1.0);
+		assertSame(items[42], heap.iterator().next().getData());
+	}
+
+	@Test public void clear()
+	{
+		Item [] items = init(100);
+		heap.clear();
+		assertTrue(heap.isEmpty());
+		for (Item item : items)
+			assertFalse(heap.contains(item));
+		// Items can then be inserted into another heap
+		IndexedHeapSortedTree<Item> other = new IndexedHeapSortedTree<Item>();
+		other.insert(items[5], 5.0);
+		assertTrue(other.contains(items[5]));
+		assertFalse(heap.contains(items[5]));
+	}
+}
@@ -0,0 +1,93 @@
+/* jCAE stand for Java Computer Aided Engineering. Features are : Small CAD
+   modeler, Finite element mesher, Plugin architecture.
+
+    Copyright (C) 2011, by EADS France
+
+    This library is free software; you can redistribute it and/or
+    modify it under the terms of the GNU Lesser General Public
+    License as published by the Free Software Foundation; either
+    version 2.1 of the License, or (at your option) any later version.
+
+    This library is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+    Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public
+    License along with this library; if not, write to the Free Software
+    Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA */
+
+package org.jcae.mesh.oemm;
+
+import org.jcae.mesh.TempDirectories;
+import java.io.File;
+import java.io.IOException;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Build an OEMM from a triangle soup with 1, 4 and 16 threads, and with
+ * dispatched file written by positional writes or through memory mapping.
+ * Time spent in each step is logged by {@link RawStorage}.  This
+ * benchmark is only run when the <code>run.test.large</code> system
+ * property is set.
+ */
+public class BenchmarkRawStorage
+{
+	// 2 millions of triangles, soup file is about 160MB
+	private static final int GRID_SIZE = 1000;
+	private static final long MEMORY_BUDGET = 32L << 20;
+	private static File soup;
+
+	@BeforeClass public static void createSoup() throws IOException
+	{
+		assumeTrue(Boolean.getBoolean("run.test.large"));
+		soup = new File(TempDirectories.create("oemm"), "soup");
+		RawStorageTest.writeSoup(soup, GRID_SIZE);
+	}
+
+	@AfterClass public static void deleteTempDirs()
+	{
+		TempDirectories.deleteAll();
+	}
+
+	private void build(int nrThreads, long memoryBudget) throws IOException
+	{
+		long start = System.currentTimeMillis();
+		OEMM oemm = RawStorageTest.buildOEMM(soup, TempDirectories.create("oemm"), nrThreads, memoryBudget);
+		long time = Math.max(1L, System.currentTimeMillis() - start);
+		System.out.println(nrThreads+" thread(s), "+
+			(memoryBudget > 0L ? "mapped dispatch" : "positional writes")+
+			": OEMM built in "+time+" ms, "+
+			(soup.length() * 1000L / 1048576L / time)+" MB/s of triangle soup");
+		assertTrue(oemm.getNumberOfLeaves() > 0);
+	}
+
+	@Test public void threads1() throws IOException
+	{
+		build(1, 0L);
+	}
+
+	@Test public void threads4() throws IOException
+	{
+		build(4, 0L);
+	}
+
+	@Test public void threads16() throws IOException
+	{
+		build(16, 0L);
+	}
+
+	@Test public void threads1Mapped() throws IOException
+	{
+		build(1, MEMORY_BUDGET);
+	}
+
+	@Test public void threads4Mapped() throws IOException
+	{
+		build(4, MEMORY_BUDGET);
+	}
+}
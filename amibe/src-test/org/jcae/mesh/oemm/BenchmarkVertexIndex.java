@@ -0,0 +1,109 @@
+/* jCAE stand for Java Computer Aided Engineering. Features are : Small CAD
+   modeler, Finite element mesher, Plugin architecture.
+
+    Copyright (C) 2011, by EADS France
+
+    This library is free software; you can redistribute it and/or
+    modify it under the terms of the GNU Lesser General Public
+    License as published by the Free Software Foundation; either
+    version 2.1 of the License, or (at your option) any later version.
+
+    This library is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+    Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public
+    License along with this library; if not, write to the Free Software
+    Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA */
+
+package org.jcae.mesh.oemm;
+
+import org.jcae.mesh.TempDirectories;
+import java.io.File;
+import java.io.IOException;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Index a dispatched file whose leaves contain more than one million
+ * vertices, duplicate vertices being removed either by hash tables or by
+ * AVL trees.  Only the indexing stage is timed.  This benchmark is only
+ * run when the <code>run.test.large</code> system property is set.
+ */
+public class BenchmarkVertexIndex
+{
+	// 4.5 millions of triangles, soup file is about 360MB
+	private static final int GRID_SIZE = 1500;
+	// Leaves have at least 1 million vertices
+	private static final int TRIANGLES_MAX = 3000000;
+	private static File dir;
+
+	@BeforeClass public static void dispatch() throws IOException
+	{
+		assumeTrue(Boolean.getBoolean("run.test.large"));
+		dir = TempDirectories.create("oemm");
+		File soup = new File(dir, "soup");
+		RawStorageTest.writeSoup(soup, GRID_SIZE);
+		String soupName = soup.getPath();
+		OEMM oemm = new OEMM(5);
+		if (!RawStorage.countTriangles(oemm, soupName, true, 1))
+			assertTrue(RawStorage.countTriangles(oemm, soupName, true, 1));
+		Aggregate.compute(oemm, TRIANGLES_MAX);
+		RawStorage.dispatch(oemm, soupName, new File(dir, "dispatched").getPath(), new File(dir, "dispatched.data").getPath());
+		soup.delete();
+	}
+
+	@AfterClass public static void deleteTempDirs()
+	{
+		TempDirectories.deleteAll();
+	}
+
+	private void index(boolean avl, int nrThreads) throws IOException
+	{
+		if (avl)
+			System.setProperty("org.jcae.mesh.oemm.avlVertexIndex", "true");
+		String outDir = new File(TempDirectories.create("oemm"), "oemm").getPath();
+		long start = System.currentTimeMillis();
+		try
+		{
+			RawStorage.indexOEMM(new File(dir, "dispatched").getPath(), outDir, nrThreads);
+		}
+		finally
+		{
+			System.clearProperty("org.jcae.mesh.oemm.avlVertexIndex");
+		}
+		long time = System.currentTimeMillis() - start;
+		OEMM oemm = Storage.readOEMMStructure(outDir);
+		int maxVertices = 0;
+		for (OEMM.Node current : oemm.leaves)
+			maxVertices = Math.max(maxVertices, current.vn);
+		System.out.println((avl ? "AVL trees" : "Hash tables")+", "+nrThreads+" thread(s): "+
+			oemm.getNumberOfLeaves()+" leaves, up to "+maxVertices+
+			" vertices per leaf, indexed in "+time+" ms");
+		assertTrue(maxVertices > 1000000);
+	}
+
+	@Test public void hash1() throws IOException
+	{
+		index(false, 1);
+	}
+
+	@Test public void avl1() throws IOException
+	{
+		index(true, 1);
+	}
+
+	@Test public void hash4() throws IOException
+	{
+		index(false, 4);
+	}
+
+	@Test public void avl4() throws IOException
+	{
+		index(true, 4);
+	}
+}
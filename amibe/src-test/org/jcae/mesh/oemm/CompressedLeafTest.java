@@ -0,0 +1,126 @@
+/* jCAE stand for Java Computer Aided Engineering. Features are : Small CAD
+   modeler, Finite element mesher, Plugin architecture.
+
+    Copyright (C) 2011, by EADS France
+
+    This library is free software; you can redistribute it and/or
+    modify it under the terms of the GNU Lesser General Public
+    License as published by the Free Software Foundation; either
+    version 2.1 of the License, or (at your option) any later version.
+
+    This library is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+    Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public
+    License along with this library; if not, write to the Free Software
+    Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA */
+
+package org.jcae.mesh.oemm;
+
+import org.jcae.mesh.TempDirectories;
+import org.jcae.mesh.amibe.ds.Mesh;
+import gnu.trove.TIntHashSet;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.List;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class CompressedLeafTest
+{
+	private static File soup;
+
+	@BeforeClass public static void createSoup() throws IOException
+	{
+		soup = new File(TempDirectories.create("oemm"), "soup");
+		RawStorageTest.writeSoup(soup, 60);
+	}
+
+	@AfterClass public static void deleteTempDirs()
+	{
+		TempDirectories.deleteAll();
+	}
+
+	private static OEMM buildOEMM(int leafFormat) throws IOException
+	{
+		return RawStorageTest.buildOEMM(soup, TempDirectories.create("oemm"), 2, 0L, leafFormat);
+	}
+
+	private static long getLeavesSize(OEMM oemm)
+	{
+		long ret = 0L;
+		for (OEMM.Node current : oemm.leaves)
+		{
+			ret += Storage.getVerticesFile(oemm, current).length();
+			ret += Storage.getTrianglesFile(oemm, current).length();
+			ret += Storage.getAdjacencyFile(oemm, current).length();
+		}
+		return ret;
+	}
+
+	@Test public void sameMesh() throws IOException
+	{
+		OEMM oemm1 = buildOEMM(OEMM.RAW_FORMAT);
+		OEMM oemm2 = buildOEMM(OEMM.COMPRESSED_FORMAT);
+		assertEquals(OEMM.RAW_FORMAT, oemm1.getLeafFormat());
+		// Format is stored in OEMM structure file
+		assertEquals(OEMM.COMPRESSED_FORMAT, oemm2.getLeafFormat());
+		RawStorageTest.assertSameStructure(oemm1, oemm2);
+		// Vertices are on OEMM grid, coordinates are not modified
+		assertEquals(RawStorageTest.getTriangles(oemm1), RawStorageTest.getTriangles(oemm2));
+		long rawSize = getLeavesSize(oemm1);
+		long compressedSize = getLeavesSize(oemm2);
+		assertTrue("Compressed size: "+compressedSize+", raw size: "+rawSize, 3L * compressedSize < rawSize);
+	}
+
+	@Test public void encode()
+	{
+		OEMM oemm = new OEMM(5);
+		oemm.setBoundingBox(new double[] { 0.0, 0.0, 0.0, 10.0, 10.0, 10.0 });
+		OEMM.Node node = new OEMM.Node(1 << 25, 1 << 26, 0, 3 << 25);
+		node.leafIndex = 12;
+		int [] triangles = new int[] {
+			12, 12, 12, 0, 1, 2, 1,
+			12, 3, 12, 2, 400000, 3, 1,
+			4, 12, 35, 70000, 4, 12, -1
+		};
+		ByteBuffer raw = ByteBuffer.allocate(4 * triangles.length);
+		raw.asIntBuffer().put(triangles);
+		byte [] encoded = CompressedLeaf.encode(oemm, node, 't', raw);
+		assertTrue(encoded.length < 4 * triangles.length / 2);
+		int [] decoded = new int[triangles.length];
+		CompressedLeaf.decode(oemm, node, 't', encoded).asIntBuffer().get(decoded);
+		assertArrayEquals(triangles, decoded);
+
+		// Vertices are rounded to the nearest grid point
+		double [] coords = new double[] { 5.0, 0.3, 9.0, 5.1, 0.3, 9.1, 4.9, 0.2, 8.9 };
+		raw = ByteBuffer.allocate(8 * coords.length);
+		raw.asDoubleBuffer().put(coords);
+		encoded = CompressedLeaf.encode(oemm, node, 'v', raw);
+		double [] result = new double[coords.length];
+		CompressedLeaf.decode(oemm, node, 'v', encoded).asDoubleBuffer().get(result);
+		assertArrayEquals(coords, result, 2.0 / oemm.x0[3]);
+	}
+
+	@Test public void saveNodes() throws IOException
+	{
+		for (int leafFormat : new int[] { OEMM.RAW_FORMAT, OEMM.COMPRESSED_FORMAT })
+		{
+			OEMM oemm = buildOEMM(leafFormat);
+			List<String> expected = RawStorageTest.getTriangles(oemm);
+			TIntHashSet leaves = new TIntHashSet();
+			for (int i = 0; i < oemm.getNumberOfLeaves(); i += 2)
+				leaves.add(i);
+			Mesh mesh = new MeshReader(oemm).buildMesh(leaves);
+			Storage.saveNodes(oemm, mesh, leaves);
+			OEMM saved = Storage.readOEMMStructure(oemm.getDirectory());
+			assertEquals(leafFormat, saved.getLeafFormat());
+			assertEquals(expected, RawStorageTest.getTriangles(saved));
+		}
+	}
+}
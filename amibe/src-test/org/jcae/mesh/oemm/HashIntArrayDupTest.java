@@ -0,0 +1,108 @@
+/* jCAE stand for Java Computer Aided Engineering. Features are : Small CAD
+   modeler, Finite element mesher, Plugin architecture.
+
+    Copyright (C) 2011, by EADS France
+
+    This library is free software; you can redistribute it and/or
+    modify it under the terms of the GNU Lesser General Public
+    License as published by the Free Software Foundation; either
+    version 2.1 of the License, or (at your option) any later version.
+
+    This library is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+    Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public
+    License along with this library; if not, write to the Free Software
+    Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA */
+
+package org.jcae.mesh.oemm;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+public class HashIntArrayDupTest
+{
+	private final int [] ijk = new int[3];
+
+	@Test public void duplicates()
+	{
+		HashIntArrayDup table = new HashIntArrayDup();
+		// This number can be increased to test performance
+		final int size = 200000;
+		int dup = 0;
+		for (int i = 0; i < size; i++)
+		{
+			ijk[0] = i / 6;
+			ijk[1] = - (i / 6);
+			ijk[2] = Integer.MAX_VALUE - i / 6;
+			if (table.insert(ijk, i) != i)
+				dup++;
+		}
+		assertEquals(size * 5 / 6, dup);
+		assertEquals(1 + size / 6, table.size());
+		for (int i = 0; i < size; i += 6)
+		{
+			ijk[0] = i / 6;
+			ijk[1] = - (i / 6);
+			ijk[2] = Integer.MAX_VALUE - i / 6;
+			assertEquals(i, table.get(ijk));
+		}
+	}
+
+	@Test public void sameAsAVLTree()
+	{
+		HashIntArrayDup table = new HashIntArrayDup(10);
+		PAVLTreeIntArrayDup tree = new PAVLTreeIntArrayDup();
+		for (int i = 0; i < 50000; i++)
+		{
+			ijk[0] = (i * 7919) % 101;
+			ijk[1] = (i * 104729) % 97;
+			ijk[2] = i % 13;
+			assertEquals(tree.insert(ijk, i), table.insert(ijk, i));
+		}
+		assertEquals(tree.size(), table.size());
+		for (int i = 0; i < 200; i++)
+		{
+			ijk[0] = i;
+			ijk[1] = i % 97;
+			ijk[2] = i % 17;
+			assertEquals(tree.get(ijk), table.get(ijk));
+		}
+	}
+
+	@Test public void clear()
+	{
+		HashIntArrayDup table = new HashIntArrayDup();
+		ijk[0] = 1; ijk[1] = 2; ijk[2] = 3;
+		table.insert(ijk, 10);
+		table.clear();
+		assertEquals(0, table.size());
+		assertEquals(-1, table.get(ijk));
+		assertEquals(20, table.insert(ijk, 20));
+		assertEquals(20, table.get(ijk));
+		assertEquals(1, table.size());
+	}
+
+	@Test public void clearAfterGrowth()
+	{
+		HashIntArrayDup table = new HashIntArrayDup();
+		for (int n : new int[] { 100000, 50, 3000, 10 })
+		{
+			for (int i = 0; i < n; i++)
+			{
+				ijk[0] = i % 31; ijk[1] = i / 31; ijk[2] = n;
+				assertEquals(i, table.insert(ijk, i));
+			}
+			assertEquals(n, table.size());
+			table.clear();
+			assertEquals(0, table.size());
+			for (int i = 0; i < n; i++)
+			{
+				ijk[0] = i % 31; ijk[1] = i / 31; ijk[2] = n;
+				assertEquals(-1, table.get(ijk));
+			}
+		}
+	}
+}
@@ -0,0 +1,128 @@
+/* jCAE stand for Java Computer Aided Engineering. Features are : Small CAD
+   modeler, Finite element mesher, Plugin architecture.
+
+    Copyright (C) 2011, by EADS France
+
+    This library is free software; you can redistribute it and/or
+    modify it under the terms of the GNU Lesser General Public
+    License as published by the Free Software Foundation; either
+    version 2.1 of the License, or (at your option) any later version.
+
+    This library is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+    Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public
+    License along with this library; if not, write to the Free Software
+    Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA */
+
+package org.jcae.mesh.oemm;
+
+import org.jcae.mesh.TempDirectories;
+import org.jcae.mesh.amibe.ds.Mesh;
+import org.jcae.mesh.amibe.ds.Triangle;
+import gnu.trove.TIntHashSet;
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class LeafCacheTest
+{
+	private static OEMM oemm;
+
+	@BeforeClass public static void createOEMM() throws IOException
+	{
+		File soup = new File(TempDirectories.create("oemm"), "soup");
+		RawStorageTest.writeSoup(soup, 40);
+		oemm = RawStorageTest.buildOEMM(soup, 1);
+	}
+
+	@AfterClass public static void deleteTempDirs()
+	{
+		TempDirectories.deleteAll();
+	}
+
+	@Test public void sameMesh()
+	{
+		assertNull(oemm.getLeafCache());
+		List<String> expected = RawStorageTest.getTriangles(oemm);
+		LeafCache cache = new LeafCache(oemm, 64L << 20);
+		oemm.setLeafCache(cache);
+		try
+		{
+			assertEquals(expected, RawStorageTest.getTriangles(oemm));
+			int nrLeaves = oemm.getNumberOfLeaves();
+			// Vertices and triangles of each leaf are read
+			assertEquals(nrLeaves, cache.getMisses());
+			assertEquals(nrLeaves, cache.getHits());
+			assertEquals(nrLeaves, cache.size());
+			assertEquals(expected, RawStorageTest.getTriangles(oemm));
+			assertEquals(nrLeaves, cache.getMisses());
+			assertEquals(3*nrLeaves, cache.getHits());
+			assertEquals(0L, cache.getEvictions());
+		}
+		finally
+		{
+			oemm.setLeafCache(null);
+		}
+	}
+
+	@Test public void writability()
+	{
+		// Load a single leaf, vertices shared with other leaves are not writable
+		TIntHashSet leaves = new TIntHashSet();
+		leaves.add(0);
+		Mesh mesh1 = new MeshReader(oemm).buildMesh(leaves);
+		oemm.setLeafCache(new LeafCache(oemm, 64L << 20));
+		Mesh mesh2;
+		try
+		{
+			mesh2 = new MeshReader(oemm).buildMesh(leaves);
+		}
+		finally
+		{
+			oemm.setLeafCache(null);
+		}
+		assertEquals(mesh1.getTriangles().size(), mesh2.getTriangles().size());
+		int nrWritable1 = 0;
+		for (Triangle t : mesh1.getTriangles())
+			if (t.isWritable() && t.vertex[0].isWritable() && t.vertex[1].isWritable() && t.vertex[2].isWritable())
+				nrWritable1++;
+		int nrWritable2 = 0;
+		for (Triangle t : mesh2.getTriangles())
+			if (t.isWritable() && t.vertex[0].isWritable() && t.vertex[1].isWritable() && t.vertex[2].isWritable())
+				nrWritable2++;
+		assertEquals(nrWritable1, nrWritable2);
+		assertTrue(nrWritable1 < mesh1.getTriangles().size());
+	}
+
+	@Test public void eviction()
+	{
+		long leafSize = LeafCache.load(oemm, oemm.leaves[0]).memoryUsage();
+		LeafCache cache = new LeafCache(oemm, 2L * leafSize + leafSize / 2L);
+		for (OEMM.Node current : oemm.leaves)
+		{
+			cache.get(current);
+			assertTrue(cache.getMemoryUsage() <= cache.getMemoryBudget());
+		}
+		int nrLeaves = oemm.getNumberOfLeaves();
+		assertEquals(nrLeaves, cache.getMisses());
+		assertTrue(cache.getEvictions() > 0L);
+		assertEquals(nrLeaves - cache.size(), cache.getEvictions());
+		// Most recently used leaf is kept
+		assertNotNull(cache.peek(nrLeaves - 1));
+		assertNull(cache.peek(0));
+		cache.get(oemm.leaves[nrLeaves - 1]);
+		assertEquals(1L, cache.getHits());
+		cache.invalidate(nrLeaves - 1);
+		assertNull(cache.peek(nrLeaves - 1));
+		cache.clear();
+		assertEquals(0, cache.size());
+		assertEquals(0L, cache.getMemoryUsage());
+	}
+}
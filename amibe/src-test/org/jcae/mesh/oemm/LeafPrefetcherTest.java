@@ -0,0 +1,150 @@
+/* jCAE stand for Java Computer Aided Engineering. Features are : Small CAD
+   modeler, Finite element mesher, Plugin architecture.
+
+    Copyright (C) 2011, by EADS France
+
+    This library is free software; you can redistribute it and/or
+    modify it under the terms of the GNU Lesser General Public
+    License as published by the Free Software Foundation; either
+    version 2.1 of the License, or (at your option) any later version.
+
+    This library is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+    Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public
+    License along with this library; if not, write to the Free Software
+    Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA */
+
+package org.jcae.mesh.oemm;
+
+import org.jcae.mesh.TempDirectories;
+import gnu.trove.TIntHashSet;
+import java.io.File;
+import java.io.IOException;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class LeafPrefetcherTest
+{
+	private static OEMM oemm;
+	private LeafPrefetcher prefetcher;
+
+	@BeforeClass public static void createOEMM() throws IOException
+	{
+		File soup = new File(TempDirectories.create("oemm"), "soup");
+		RawStorageTest.writeSoup(soup, 60);
+		oemm = RawStorageTest.buildOEMM(soup, 1);
+	}
+
+	@AfterClass public static void deleteTempDirs()
+	{
+		TempDirectories.deleteAll();
+	}
+
+	@Before public void setUp()
+	{
+		oemm.setLeafCache(new LeafCache(oemm, 64L << 20));
+		prefetcher = new LeafPrefetcher(oemm, 1);
+	}
+
+	@After public void tearDown()
+	{
+		prefetcher.shutdown();
+		oemm.setLeafCache(null);
+	}
+
+	/**
+	 * Camera above mesh plane z=0, looking down at (x, y, 0).
+	 */
+	private static LeafPrefetcher.Camera camera(double x, double y, double height)
+	{
+		return new LeafPrefetcher.Camera(
+			new double[] { x, y, height },
+			new double[] { x, y, 0.0 },
+			new double[] { 0.0, 1.0, 0.0 },
+			60.0, 1.0, 2.0 * height);
+	}
+
+	private static TIntHashSet visibleLeaves(LeafPrefetcher.Camera camera)
+	{
+		return camera.getFrustum(1.0).getLeaves(oemm);
+	}
+
+	@Test public void prediction()
+	{
+		prefetcher.setExpansion(1.0);
+		prefetcher.setLookAhead(2.0);
+		TIntHashSet allRequested = new TIntHashSet();
+		for (int step = 0; step < 20; step++)
+		{
+			TIntHashSet requested = new TIntHashSet();
+			requested.addAll(prefetcher.update(camera(5.0 + 2.0 * step, 30.0, 10.0)));
+			allRequested.addAll(requested.toArray());
+			if (step == 0)
+				continue;
+			// Leaves visible at the 2 next steps have been requested
+			for (int next = 1; next <= 2; next++)
+			{
+				int [] expected = visibleLeaves(camera(5.0 + 2.0 * (step + next), 30.0, 10.0)).toArray();
+				assertTrue(expected.length > 0);
+				for (int leaf : expected)
+					assertTrue("Leaf "+leaf+" not predicted at step "+step, requested.contains(leaf));
+			}
+		}
+		assertTrue(allRequested.size() < oemm.getNumberOfLeaves());
+	}
+
+	@Test public void scriptedPath()
+	{
+		int nrDemanded = 0;
+		for (int step = 0; step < 25; step++)
+		{
+			LeafPrefetcher.Camera camera = camera(5.0 + 2.0 * step, 10.0 + step, 10.0);
+			prefetcher.update(camera);
+			// Rendering of the previous frame
+			prefetcher.waitForPending();
+			for (int leaf : visibleLeaves(camera).toArray())
+			{
+				LeafCache.Leaf data = prefetcher.get(oemm.leaves[leaf]);
+				assertEquals(3 * oemm.leaves[leaf].vn, data.coords.length);
+				nrDemanded++;
+			}
+		}
+		assertEquals(0, prefetcher.getNumberOfPendingRequests());
+		assertEquals(0L, prefetcher.getDemandLoads());
+		assertEquals(0L, prefetcher.getLate());
+		assertTrue(prefetcher.getUsed() > 0L);
+		assertTrue(prefetcher.getUsed() < nrDemanded);
+		assertTrue(prefetcher.getCompleted() >= prefetcher.getUsed());
+		assertEquals(prefetcher.getSubmitted(), prefetcher.getCompleted() + prefetcher.getCancelled());
+		assertTrue(prefetcher.getAccuracy() > 0.0 && prefetcher.getAccuracy() <= 1.0);
+		assertTrue(prefetcher.getSavedStallTime() > 0L);
+	}
+
+	@Test public void cancel()
+	{
+		// Whole mesh is visible
+		int [] requested = prefetcher.update(camera(30.0, 30.0, 100.0));
+		assertEquals(oemm.getNumberOfLeaves(), requested.length);
+		// Camera looks away
+		assertEquals(0, prefetcher.update(new LeafPrefetcher.Camera(
+			new double[] { 30.0, 30.0, 100.0 },
+			new double[] { 30.0, 30.0, 200.0 },
+			new double[] { 0.0, 1.0, 0.0 },
+			60.0, 1.0, 100.0)).length);
+		prefetcher.waitForPending();
+		assertTrue(prefetcher.getCancelled() > 0L);
+		assertEquals(prefetcher.getSubmitted(), prefetcher.getCompleted() + prefetcher.getCancelled());
+		// Leaves which are not requested are read on demand
+		int nrLoaded = oemm.getLeafCache().size();
+		for (OEMM.Node current : oemm.leaves)
+			prefetcher.get(current);
+		assertEquals(oemm.getNumberOfLeaves() - nrLoaded, prefetcher.getDemandLoads());
+	}
+}
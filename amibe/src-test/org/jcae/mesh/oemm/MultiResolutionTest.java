@@ -0,0 +1,191 @@
+/* jCAE stand for Java Computer Aided Engineering. Features are : Small CAD
+   modeler, Finite element mesher, Plugin architecture.
+
+    Copyright (C) 2011, by EADS France
+
+    This library is free software; you can redistribute it and/or
+    modify it under the terms of the GNU Lesser General Public
+    License as published by the Free Software Foundation; either
+    version 2.1 of the License, or (at your option) any later version.
+
+    This library is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+    Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public
+    License along with this library; if not, write to the Free Software
+    Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA */
+
+package org.jcae.mesh.oemm;
+
+import org.jcae.mesh.TempDirectories;
+import org.jcae.mesh.amibe.ds.AbstractHalfEdge;
+import org.jcae.mesh.amibe.ds.Mesh;
+import org.jcae.mesh.amibe.ds.Triangle;
+import org.jcae.mesh.amibe.ds.Vertex;
+import gnu.trove.TLongObjectHashMap;
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class MultiResolutionTest
+{
+	private static final int GRID_SIZE = 40;
+	private static OEMM oemm;
+	private static MultiResolution lod;
+
+	@BeforeClass public static void createOEMM() throws IOException
+	{
+		File soup = new File(TempDirectories.create("oemm"), "soup");
+		RawStorageTest.writeSoup(soup, GRID_SIZE);
+		oemm = RawStorageTest.buildOEMM(soup, 1);
+		lod = MultiResolution.build(oemm, 4);
+	}
+
+	@AfterClass public static void deleteTempDirs()
+	{
+		TempDirectories.deleteAll();
+	}
+
+	private static int getTotalTriangles()
+	{
+		int ret = 0;
+		for (OEMM.Node current : oemm.leaves)
+			ret += current.tn;
+		return ret;
+	}
+
+	private static int countInnerTriangles(Mesh mesh)
+	{
+		int ret = 0;
+		for (Triangle t : mesh.getTriangles())
+			if (!t.hasAttributes(AbstractHalfEdge.OUTER))
+				ret++;
+		return ret;
+	}
+
+	/**
+	 * Checks that mesh has no crack: edges are shared by 2 triangles,
+	 * except edges along the boundary of the grid.  Vertices on this
+	 * boundary may have been slightly moved by decimation.
+	 */
+	private static void checkNoCrack(Mesh mesh)
+	{
+		int label = 0;
+		for (Vertex v : mesh.getNodes())
+			v.setLabel(label++);
+		mesh.outerVertex.setLabel(-1);
+		TLongObjectHashMap<int []> edges = new TLongObjectHashMap<int []>();
+		for (Triangle t : mesh.getTriangles())
+		{
+			if (t.hasAttributes(AbstractHalfEdge.OUTER))
+				continue;
+			for (int j = 0; j < 3; j++)
+			{
+				int i1 = t.vertex[j].getLabel();
+				int i2 = t.vertex[(j+1)%3].getLabel();
+				long key = ((long) Math.min(i1, i2) << 32) | Math.max(i1, i2);
+				int [] count = edges.get(key);
+				if (count == null)
+					edges.put(key, new int[] { 1 });
+				else
+					count[0]++;
+			}
+		}
+		int nrBoundary = 0;
+		for (Triangle t : mesh.getTriangles())
+		{
+			if (t.hasAttributes(AbstractHalfEdge.OUTER))
+				continue;
+			for (int j = 0; j < 3; j++)
+			{
+				int i1 = t.vertex[j].getLabel();
+				int i2 = t.vertex[(j+1)%3].getLabel();
+				int count = edges.get(((long) Math.min(i1, i2) << 32) | Math.max(i1, i2))[0];
+				assertTrue(count <= 2);
+				if (count == 2)
+					continue;
+				nrBoundary++;
+				double [] p1 = t.vertex[j].getUV();
+				double [] p2 = t.vertex[(j+1)%3].getUV();
+				boolean onBoundary = false;
+				for (int k = 0; k < 2; k++)
+				{
+					for (double c : new double[] { 0.0, GRID_SIZE - 1.0 })
+						onBoundary |= Math.abs(p1[k] - c) < 0.1 && Math.abs(p2[k] - c) < 0.1;
+				}
+				assertTrue("Crack found", onBoundary);
+			}
+		}
+		assertTrue(nrBoundary >= 4);
+	}
+
+	@Test public void hierarchy()
+	{
+		final int [] nrInternal = new int[1];
+		oemm.walk(new TraversalProcedure()
+		{
+			@Override
+			public final int action(OEMM o, OEMM.Node current, int octant, int visit)
+			{
+				if (visit != POSTORDER)
+					return OK;
+				nrInternal[0]++;
+				int sum = 0;
+				for (OEMM.Node child : current.child)
+					if (child != null)
+						sum += lod.getNumberOfTriangles(child);
+				assertTrue(lod.getNumberOfTriangles(current) > 0);
+				assertTrue(lod.getNumberOfTriangles(current) < sum);
+				return OK;
+			}
+		});
+		assertTrue(nrInternal[0] > 1);
+		assertTrue(4 * lod.getNumberOfTriangles(oemm.root) < getTotalTriangles());
+		assertTrue(MultiResolution.exists(oemm));
+		// Index is read again
+		MultiResolution other = MultiResolution.open(oemm);
+		assertEquals(lod.getNumberOfTriangles(oemm.root), other.getNumberOfTriangles(oemm.root));
+	}
+
+	@Test public void fullResolution()
+	{
+		List<OEMM.Node> nodes = lod.select(null, Long.MAX_VALUE);
+		assertEquals(oemm.getNumberOfLeaves(), nodes.size());
+		Mesh mesh = lod.buildMesh(nodes);
+		assertEquals(getTotalTriangles(), countInnerTriangles(mesh));
+		assertEquals(GRID_SIZE * GRID_SIZE, mesh.getNodes().size());
+		checkNoCrack(mesh);
+	}
+
+	@Test public void budget()
+	{
+		int total = getTotalTriangles();
+		for (long budget : new long[] { total / 2, total / 4, lod.getNumberOfTriangles(oemm.root) })
+		{
+			List<OEMM.Node> nodes = lod.select(new double[] { 0.0, 0.0, 10.0 }, budget);
+			long nrTriangles = 0L;
+			for (OEMM.Node current : nodes)
+				nrTriangles += lod.getNumberOfTriangles(current);
+			assertTrue(nrTriangles <= budget);
+			Mesh mesh = lod.buildMesh(nodes);
+			assertEquals(nrTriangles, countInnerTriangles(mesh));
+			checkNoCrack(mesh);
+			// Octants near eye are refined first
+			OEMM.Node nearest = null;
+			int minSize = Integer.MAX_VALUE;
+			for (OEMM.Node current : nodes)
+			{
+				minSize = Math.min(minSize, current.size);
+				if (nearest == null || current.i0 + current.j0 < nearest.i0 + nearest.j0)
+					nearest = current;
+			}
+			assertEquals(minSize, nearest.size);
+		}
+	}
+}
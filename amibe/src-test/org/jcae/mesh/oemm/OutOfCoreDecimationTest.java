@@ -0,0 +1,225 @@
+/* jCAE stand for Java Computer Aided Engineering. Features are : Small CAD
+   modeler, Finite element mesher, Plugin architecture.
+
+    Copyright (C) 2011, by EADS France
+
+    This library is free software; you can redistribute it and/or
+    modify it under the terms of the GNU Lesser General Public
+    License as published by the Free Software Foundation; either
+    version 2.1 of the License, or (at your option) any later version.
+
+    This library is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+    Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public
+    License along with this library; if not, write to the Free Software
+    Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA */
+
+package org.jcae.mesh.oemm;
+
+import org.jcae.mesh.TempDirectories;
+import org.jcae.mesh.amibe.ds.AbstractHalfEdge;
+import org.jcae.mesh.amibe.ds.Mesh;
+import org.jcae.mesh.amibe.ds.Triangle;
+import org.jcae.mesh.amibe.ds.Vertex;
+import gnu.trove.TIntArrayList;
+import gnu.trove.TIntHashSet;
+import gnu.trove.TIntObjectHashMap;
+import gnu.trove.TLongObjectHashMap;
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.junit.AfterClass;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class OutOfCoreDecimationTest
+{
+	private static final int GRID_SIZE = 60;
+
+	private static OEMM createOEMM() throws IOException
+	{
+		File soup = new File(TempDirectories.create("oemm"), "soup");
+		RawStorageTest.writeSoup(soup, GRID_SIZE);
+		return RawStorageTest.buildOEMM(soup, 1);
+	}
+
+	private static void checkPartition(OEMM oemm, List<TIntHashSet> neighbourhoods, int maxLoad)
+	{
+		TIntHashSet seen = new TIntHashSet();
+		for (TIntHashSet leaves : neighbourhoods)
+		{
+			int nrT = 0;
+			for (int leaf : leaves.toArray())
+			{
+				assertTrue(seen.add(leaf));
+				nrT += oemm.leaves[leaf].tn;
+			}
+			assertTrue(nrT <= maxLoad || leaves.size() == 1);
+		}
+		assertEquals(oemm.getNumberOfLeaves(), seen.size());
+	}
+
+	/**
+	 * Checks that edges are shared by at most 2 triangles, and that free
+	 * edges form a single loop, which is the boundary of the grid.  Its
+	 * vertices may have been moved by decimation.
+	 */
+	private static void checkNoCrack(Mesh mesh)
+	{
+		TLongObjectHashMap<int []> edges = new TLongObjectHashMap<int []>();
+		for (Triangle t : mesh.getTriangles())
+		{
+			if (t.hasAttributes(AbstractHalfEdge.OUTER))
+				continue;
+			for (int j = 0; j < 3; j++)
+			{
+				long key = getEdgeKey(t.vertex[j], t.vertex[(j+1)%3]);
+				int [] count = edges.get(key);
+				if (count == null)
+					edges.put(key, new int[] { 1 });
+				else
+					count[0]++;
+			}
+		}
+		// Free edges
+		TIntObjectHashMap<TIntArrayList> neighbours = new TIntObjectHashMap<TIntArrayList>();
+		int nrFree = 0;
+		for (long key : edges.keys())
+		{
+			int count = edges.get(key)[0];
+			assertTrue(count <= 2);
+			if (count == 2)
+				continue;
+			nrFree++;
+			int [] ends = new int[] { (int) (key >> 32), (int) key };
+			for (int j = 0; j < 2; j++)
+			{
+				TIntArrayList list = neighbours.get(ends[j]);
+				if (list == null)
+				{
+					list = new TIntArrayList();
+					neighbours.put(ends[j], list);
+				}
+				list.add(ends[1-j]);
+			}
+		}
+		for (Object o : neighbours.getValues())
+			assertEquals(2, ((TIntArrayList) o).size());
+		// Walk along the first loop
+		int start = neighbours.keys()[0];
+		int previous = start;
+		int current = neighbours.get(start).get(0);
+		int length = 1;
+		while (current != start)
+		{
+			TIntArrayList list = neighbours.get(current);
+			int next = (list.get(0) == previous ? list.get(1) : list.get(0));
+			previous = current;
+			current = next;
+			length++;
+		}
+		assertEquals("Crack found", nrFree, length);
+	}
+
+	private static long getEdgeKey(Vertex v1, Vertex v2)
+	{
+		int i1 = v1.getLabel();
+		int i2 = v2.getLabel();
+		return ((long) Math.min(i1, i2) << 32) | Math.max(i1, i2);
+	}
+
+	@AfterClass public static void deleteTempDirs()
+	{
+		TempDirectories.deleteAll();
+	}
+
+	@Test public void neighbourhoods() throws IOException
+	{
+		OEMM oemm = createOEMM();
+		Map<String, String> options = new HashMap<String, String>();
+		options.put("maxtriangles", "1000");
+		options.put("maxload", "1500");
+		OutOfCoreDecimation algo = new OutOfCoreDecimation(oemm, options);
+		List<TIntHashSet> aligned = algo.getNeighbourhoods(false);
+		List<TIntHashSet> shifted = algo.getNeighbourhoods(true);
+		assertTrue(aligned.size() > 1);
+		checkPartition(oemm, aligned, 1500);
+		checkPartition(oemm, shifted, 1500);
+		// Most seams between aligned neighbourhoods are moved
+		int [] alignedIndex = getNeighbourhoodIndex(oemm, aligned);
+		int [] shiftedIndex = getNeighbourhoodIndex(oemm, shifted);
+		int nrSeams = 0;
+		int nrRemaining = 0;
+		for (OEMM.Node current : oemm.leaves)
+		{
+			for (int i = 0, n = current.adjLeaves.size(); i < n; i++)
+			{
+				int other = current.adjLeaves.get(i);
+				if (alignedIndex[current.leafIndex] == alignedIndex[other])
+					continue;
+				nrSeams++;
+				if (shiftedIndex[current.leafIndex] != shiftedIndex[other])
+					nrRemaining++;
+			}
+		}
+		assertTrue(nrSeams > 0);
+		assertTrue(2 * nrRemaining < nrSeams);
+	}
+
+	private static int [] getNeighbourhoodIndex(OEMM oemm, List<TIntHashSet> neighbourhoods)
+	{
+		int [] ret = new int[oemm.getNumberOfLeaves()];
+		for (int i = 0; i < neighbourhoods.size(); i++)
+		{
+			for (int leaf : neighbourhoods.get(i).toArray())
+				ret[leaf] = i;
+		}
+		return ret;
+	}
+
+	@Test public void maxTriangles() throws IOException
+	{
+		OEMM oemm = createOEMM();
+		long total = 0L;
+		for (OEMM.Node current : oemm.leaves)
+			total += current.tn;
+		Map<String, String> options = new HashMap<String, String>();
+		options.put("maxtriangles", Long.toString(total / 10));
+		options.put("maxload", Long.toString(total / 5));
+		OutOfCoreDecimation algo = new OutOfCoreDecimation(oemm, options);
+		algo.compute();
+		assertTrue(algo.getNumberOfPasses() > 1);
+		assertTrue(algo.getMaxLoadedTriangles() <= total / 5);
+		assertTrue(algo.getNumberOfTriangles() <= total / 10 + total / 100);
+
+		// Check result on disk
+		OEMM result = Storage.readOEMMStructure(oemm.getDirectory());
+		Mesh mesh = new MeshReader(result).buildWholeMesh();
+		int nrT = 0;
+		for (Triangle t : mesh.getTriangles())
+			if (!t.hasAttributes(AbstractHalfEdge.OUTER))
+				nrT++;
+		assertEquals(algo.getNumberOfTriangles(), nrT);
+		checkNoCrack(mesh);
+	}
+
+	@Test public void tolerance() throws IOException
+	{
+		OEMM oemm = createOEMM();
+		Map<String, String> options = new HashMap<String, String>();
+		options.put("size", "0.5");
+		options.put("maxload", "2000");
+		OutOfCoreDecimation algo = new OutOfCoreDecimation(oemm, options);
+		long total = algo.getNumberOfTriangles();
+		algo.compute();
+		assertTrue(algo.getNumberOfPasses() > 1);
+		assertTrue(algo.getMaxLoadedTriangles() <= 2000);
+		assertTrue(algo.getNumberOfTriangles() < total / 4);
+		checkNoCrack(new MeshReader(oemm).buildWholeMesh());
+	}
+}
@@ -0,0 +1,235 @@
+/* jCAE stand for Java Computer Aided Engineering. Features are : Small CAD
+   modeler, Finite element mesher, Plugin architecture.
+
+    Copyright (C) 2011, by EADS France
+
+    This library is free software; you can redistribute it and/or
+    modify it under the terms of the GNU Lesser General Public
+    License as published by the Free Software Foundation; either
+    version 2.1 of the License, or (at your option) any later version.
+
+    This library is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+    Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public
+    License along with this library; if not, write to the Free Software
+    Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA */
+
+package org.jcae.mesh.oemm;
+
+import org.jcae.mesh.TempDirectories;
+import org.jcae.mesh.amibe.ds.Mesh;
+import org.jcae.mesh.amibe.ds.Triangle;
+import org.jcae.mesh.amibe.traits.MeshTraitsBuilder;
+import gnu.trove.TIntHashSet;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class RawStorageTest
+{
+	private static final int GRID_SIZE = 60;
+	private static File soup;
+
+	@BeforeClass public static void createSoup() throws IOException
+	{
+		soup = new File(TempDirectories.create("oemm"), "soup");
+		writeSoup(soup, GRID_SIZE);
+	}
+
+	@AfterClass public static void deleteTempDirs()
+	{
+		TempDirectories.deleteAll();
+	}
+
+	/**
+	 * Writes a triangle soup of a wavy n*n grid.
+	 */
+	static void writeSoup(File file, int n) throws IOException
+	{
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+		double [] xyz = new double[3*n*n];
+		for (int j = 0; j < n; j++)
+		{
+			for (int i = 0; i < n; i++)
+			{
+				xyz[3*(n*j+i)] = i;
+				xyz[3*(n*j+i)+1] = j;
+				xyz[3*(n*j+i)+2] = 5.0 * Math.sin(0.1 * i) * Math.cos(0.07 * j);
+			}
+		}
+		for (int j = 0; j < n - 1; j++)
+		{
+			for (int i = 0; i < n - 1; i++)
+			{
+				int v = n*j+i;
+				int group = 1 + (i / 10 + j / 10) % 3;
+				writeTriangle(out, xyz, v, v+1, v+n, group);
+				writeTriangle(out, xyz, v+1, v+n+1, v+n, group);
+			}
+		}
+		out.close();
+	}
+
+	private static void writeTriangle(DataOutputStream out, double [] xyz, int v0, int v1, int v2, int group)
+		throws IOException
+	{
+		for (int v : new int[] { v0, v1, v2 })
+			for (int k = 0; k < 3; k++)
+				out.writeDouble(xyz[3*v+k]);
+		out.writeInt(group);
+		out.writeInt(0);
+	}
+
+	static OEMM buildOEMM(File soupFile, int nrThreads) throws IOException
+	{
+		return buildOEMM(soupFile, TempDirectories.create("oemm"), nrThreads, 0L);
+	}
+
+	static OEMM buildOEMM(File soupFile, File dir, int nrThreads, long memoryBudget) throws IOException
+	{
+		return buildOEMM(soupFile, dir, nrThreads, memoryBudget, OEMM.RAW_FORMAT);
+	}
+
+	static OEMM buildOEMM(File soupFile, File dir, int nrThreads, long memoryBudget, int leafFormat) throws IOException
+	{
+		String soupName = soupFile.getPath();
+		OEMM oemm = new OEMM(5);
+		if (!RawStorage.countTriangles(oemm, soupName, true, nrThreads))
+			assertTrue(RawStorage.countTriangles(oemm, soupName, true, nrThreads));
+		Aggregate.compute(oemm, 500);
+		String structFile = new File(dir, "dispatched").getPath();
+		RawStorage.dispatch(oemm, soupName, structFile, new File(dir, "dispatched.data").getPath(), nrThreads, memoryBudget);
+		String outDir = new File(dir, "oemm").getPath();
+		RawStorage.indexOEMM(structFile, outDir, nrThreads, leafFormat);
+		return Storage.readOEMMStructure(outDir);
+	}
+
+	/**
+	 * Returns a sorted list of triangles described by their coordinates
+	 * and group.
+	 */
+	static List<String> getTriangles(OEMM oemm)
+	{
+		MeshTraitsBuilder mtb = new MeshTraitsBuilder();
+		mtb.addNodeList();
+		mtb.addTriangleList();
+		TIntHashSet leaves = new TIntHashSet();
+		for (OEMM.Node current : oemm.leaves)
+			leaves.add(current.leafIndex);
+		Mesh mesh = new MeshReader(oemm).buildMesh(mtb, leaves);
+		List<String> ret = new ArrayList<String>(mesh.getTriangles().size());
+		String [] v = new String[3];
+		for (Triangle t : mesh.getTriangles())
+		{
+			for (int i = 0; i < 3; i++)
+				v[i] = Arrays.toString(t.vertex[i].getUV());
+			Arrays.sort(v);
+			ret.add(Arrays.toString(v)+" "+t.getGroupId());
+		}
+		Collections.sort(ret);
+		return ret;
+	}
+
+	static void assertSameStructure(OEMM expected, OEMM actual)
+	{
+		assertEquals(expected.getNumberOfLeaves(), actual.getNumberOfLeaves());
+		assertArrayEquals(expected.x0, actual.x0, 0.0);
+		for (int i = 0; i < expected.getNumberOfLeaves(); i++)
+		{
+			OEMM.Node n1 = expected.leaves[i];
+			OEMM.Node n2 = actual.leaves[i];
+			assertEquals(n1.i0, n2.i0);
+			assertEquals(n1.j0, n2.j0);
+			assertEquals(n1.k0, n2.k0);
+			assertEquals(n1.size, n2.size);
+			assertEquals(n1.tn, n2.tn);
+			assertEquals(n1.vn, n2.vn);
+			assertEquals(n1.minIndex, n2.minIndex);
+			assertEquals(n1.maxIndex, n2.maxIndex);
+			int [] adj1 = n1.adjLeaves.toNativeArray();
+			int [] adj2 = n2.adjLeaves.toNativeArray();
+			Arrays.sort(adj1);
+			Arrays.sort(adj2);
+			assertArrayEquals(adj1, adj2);
+		}
+	}
+
+	@Test public void sameAsSequential() throws IOException
+	{
+		OEMM oemm1 = buildOEMM(soup, 1);
+		OEMM oemm3 = buildOEMM(soup, 3);
+		assertTrue(oemm1.getNumberOfLeaves() > 8);
+		assertSameStructure(oemm1, oemm3);
+		List<String> triangles = getTriangles(oemm1);
+		assertEquals(2*(GRID_SIZE-1)*(GRID_SIZE-1), triangles.size());
+		assertEquals(triangles, getTriangles(oemm3));
+	}
+
+	private static byte [] readFile(File file) throws IOException
+	{
+		byte [] ret = new byte[(int) file.length()];
+		DataInputStream in = new DataInputStream(new FileInputStream(file));
+		in.readFully(ret);
+		in.close();
+		return ret;
+	}
+
+	@Test public void mappedDispatch() throws IOException
+	{
+		File dir1 = TempDirectories.create("oemm");
+		File dir2 = TempDirectories.create("oemm");
+		OEMM oemm1 = buildOEMM(soup, dir1, 1, 0L);
+		// Buffers are much smaller than leaves
+		OEMM oemm2 = buildOEMM(soup, dir2, 1, 16000L);
+		OEMM oemm3 = buildOEMM(soup, TempDirectories.create("oemm"), 3, 16000L);
+		// Triangles are written in the same order with a single thread
+		assertArrayEquals(readFile(new File(dir1, "dispatched.data")), readFile(new File(dir2, "dispatched.data")));
+		assertSameStructure(oemm1, oemm2);
+		assertSameStructure(oemm1, oemm3);
+		assertEquals(getTriangles(oemm1), getTriangles(oemm3));
+	}
+
+	@Test public void avlVertexIndex() throws IOException
+	{
+		OEMM oemm1 = buildOEMM(soup, 2);
+		OEMM oemm2;
+		System.setProperty("org.jcae.mesh.oemm.avlVertexIndex", "true");
+		try
+		{
+			oemm2 = buildOEMM(soup, 2);
+		}
+		finally
+		{
+			System.clearProperty("org.jcae.mesh.oemm.avlVertexIndex");
+		}
+		assertSameStructure(oemm1, oemm2);
+		assertEquals(getTriangles(oemm1), getTriangles(oemm2));
+	}
+
+	@Test public void countExistingTree() throws IOException
+	{
+		OEMM oemm = buildOEMM(soup, 1);
+		int [] expected = new int[oemm.getNumberOfLeaves()];
+		RawStorage.countTriangles(oemm, soup.getPath(), false, 1);
+		for (int i = 0; i < expected.length; i++)
+			expected[i] = oemm.leaves[i].tn;
+		RawStorage.countTriangles(oemm, soup.getPath(), false, 4);
+		for (int i = 0; i < expected.length; i++)
+			assertEquals(expected[i], oemm.leaves[i].tn);
+	}
+}
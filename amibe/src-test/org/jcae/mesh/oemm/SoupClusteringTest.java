@@ -0,0 +1,131 @@
+/* jCAE stand for Java Computer Aided Engineering. Features are : Small CAD
+   modeler, Finite element mesher, Plugin architecture.
+
+    Copyright (C) 2011, by EADS France
+
+    This library is free software; you can redistribute it and/or
+    modify it under the terms of the GNU Lesser General Public
+    License as published by the Free Software Foundation; either
+    version 2.1 of the License, or (at your option) any later version.
+
+    This library is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+    Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public
+    License along with this library; if not, write to the Free Software
+    Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA */
+
+package org.jcae.mesh.oemm;
+
+import org.jcae.mesh.TempDirectories;
+import org.jcae.mesh.amibe.ds.Mesh;
+import org.jcae.mesh.amibe.ds.Triangle;
+import org.jcae.mesh.amibe.traits.MeshTraitsBuilder;
+import org.jcae.mesh.xmldata.MeshReader;
+import gnu.trove.TIntIntHashMap;
+import gnu.trove.TLongHashSet;
+import java.io.File;
+import java.io.IOException;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class SoupClusteringTest
+{
+	private static final int GRID_SIZE = 60;
+	private static File soup;
+
+	@BeforeClass public static void createSoup() throws IOException
+	{
+		soup = new File(TempDirectories.create("oemm"), "soup");
+		RawStorageTest.writeSoup(soup, GRID_SIZE);
+	}
+
+	@AfterClass public static void deleteTempDirs()
+	{
+		TempDirectories.deleteAll();
+	}
+
+	private static void checkResult(SoupClustering algo, double cellSize)
+	{
+		int nrInput = 2 * (GRID_SIZE - 1) * (GRID_SIZE - 1);
+		assertEquals(nrInput, algo.getNumberOfInputTriangles());
+		int nrV = algo.getNumberOfVertices();
+		int nrT = algo.getNumberOfTriangles();
+		assertTrue(nrT > 0);
+		assertTrue(10 * nrT < nrInput);
+		assertTrue(nrV < GRID_SIZE * GRID_SIZE / 10);
+		// Vertices are near the surface
+		double [] xyz = algo.getCoordinates();
+		for (int v = 0; v < nrV; v++)
+		{
+			double x = xyz[3*v];
+			double y = xyz[3*v+1];
+			assertTrue(x > - 0.5 * cellSize && x < GRID_SIZE - 1.0 + 0.5 * cellSize);
+			assertTrue(y > - 0.5 * cellSize && y < GRID_SIZE - 1.0 + 0.5 * cellSize);
+			double z = 5.0 * Math.sin(0.1 * x) * Math.cos(0.07 * y);
+			assertEquals(z, xyz[3*v+2], 0.5 * cellSize);
+		}
+		// No degenerated nor duplicate triangles, and triangles are
+		// oriented upwards
+		int [] triangles = algo.getTriangles();
+		TLongHashSet seen = new TLongHashSet();
+		for (int t = 0; t < nrT; t++)
+		{
+			int [] v = new int[] { triangles[3*t], triangles[3*t+1], triangles[3*t+2] };
+			assertTrue(v[0] != v[1] && v[1] != v[2] && v[2] != v[0]);
+			java.util.Arrays.sort(v);
+			assertTrue(seen.add(((long) v[0] << 42) | ((long) v[1] << 21) | v[2]));
+		}
+		int [] groups = algo.getGroups();
+		assertEquals(nrT, groups.length);
+		for (int g : groups)
+			assertTrue(g >= 1 && g <= 3);
+	}
+
+	@Test public void numberOfCells()
+	{
+		SoupClustering algo = new SoupClustering(soup.getPath());
+		algo.setNumberOfCells(10);
+		algo.compute();
+		checkResult(algo, (GRID_SIZE - 1.0) / 10);
+	}
+
+	@Test public void cellSize()
+	{
+		SoupClustering algo = new SoupClustering(soup.getPath());
+		algo.setCellSize(4.0);
+		algo.compute();
+		checkResult(algo, 4.0);
+	}
+
+	@Test public void write() throws IOException
+	{
+		SoupClustering algo = new SoupClustering(soup.getPath());
+		algo.setNumberOfCells(10);
+		algo.compute();
+		String dir = new File(TempDirectories.create("oemm"), "amibe").getPath();
+		algo.writeAmibe(dir);
+
+		MeshTraitsBuilder mtb = new MeshTraitsBuilder();
+		mtb.addNodeList();
+		mtb.addTriangleList();
+		Mesh mesh = new Mesh(mtb);
+		MeshReader.readObject3D(mesh, dir);
+		assertEquals(algo.getNumberOfVertices(), mesh.getNodes().size());
+		assertEquals(algo.getNumberOfTriangles(), mesh.getTriangles().size());
+		TIntIntHashMap expected = new TIntIntHashMap();
+		for (int g : algo.getGroups())
+			expected.put(g, expected.get(g) + 1);
+		TIntIntHashMap found = new TIntIntHashMap();
+		for (Triangle t : mesh.getTriangles())
+		{
+			int g = Integer.parseInt(mesh.getGroupName(t.getGroupId()));
+			found.put(g, found.get(g) + 1);
+		}
+		assertEquals(expected, found);
+	}
+}
@@ -0,0 +1,153 @@
+/* jCAE stand for Java Computer Aided Engineering. Features are : Small CAD
+   modeler, Finite element mesher, Plugin architecture.
+
+    Copyright (C) 2011, by EADS France
+
+    This library is free software; you can redistribute it and/or
+    modify it under the terms of the GNU Lesser General Public
+    License as published by the Free Software Foundation; either
+    version 2.1 of the License, or (at your option) any later version.
+
+    This library is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+    Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public
+    License along with this library; if not, write to the Free Software
+    Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA */
+
+package org.jcae.mesh.oemm;
+
+import org.jcae.mesh.TempDirectories;
+import org.jcae.mesh.amibe.ds.Mesh;
+import org.jcae.mesh.amibe.ds.Triangle;
+import gnu.trove.TIntHashSet;
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class SpatialQueryTest
+{
+	private static OEMM oemm;
+
+	@BeforeClass public static void createOEMM() throws IOException
+	{
+		File soup = new File(TempDirectories.create("oemm"), "soup");
+		RawStorageTest.writeSoup(soup, 60);
+		oemm = RawStorageTest.buildOEMM(soup, 1);
+	}
+
+	@AfterClass public static void deleteTempDirs()
+	{
+		TempDirectories.deleteAll();
+	}
+
+	/**
+	 * Selects leaves by testing all of them.
+	 */
+	private static TIntHashSet getLeaves(SpatialQuery query)
+	{
+		TIntHashSet ret = new TIntHashSet();
+		int [] ijk = new int[3];
+		double [] lower = new double[3];
+		double [] upper = new double[3];
+		for (OEMM.Node current : oemm.leaves)
+		{
+			ijk[0] = current.i0;
+			ijk[1] = current.j0;
+			ijk[2] = current.k0;
+			oemm.int2double(ijk, lower);
+			for (int i = 0; i < 3; i++)
+				ijk[i] += current.size;
+			oemm.int2double(ijk, upper);
+			if (query.intersects(lower, upper))
+				ret.add(current.leafIndex);
+		}
+		return ret;
+	}
+
+	private static int [] sorted(TIntHashSet set)
+	{
+		int [] ret = set.toArray();
+		Arrays.sort(ret);
+		return ret;
+	}
+
+	private static void check(SpatialQuery query, SpatialIndex index)
+	{
+		int [] expected = sorted(getLeaves(query));
+		assertArrayEquals(expected, sorted(query.getLeaves(oemm)));
+		assertArrayEquals(expected, sorted(index.getLeaves(query)));
+	}
+
+	@Test public void queries()
+	{
+		SpatialIndex index = SpatialIndex.open(oemm.getDirectory());
+		assertEquals(oemm.getNumberOfLeaves(), index.getNumberOfLeaves());
+		assertTrue(index.getNumberOfNodes() > index.getNumberOfLeaves());
+		Random rand = new Random(42L);
+		int nrSelected = 0;
+		for (int n = 0; n < 50; n++)
+		{
+			double [] lower = new double[] { 60.0 * rand.nextDouble(), 60.0 * rand.nextDouble(), -5.0 + 10.0 * rand.nextDouble() };
+			double [] upper = new double[] { lower[0] + 10.0 * rand.nextDouble(), lower[1] + 10.0 * rand.nextDouble(), lower[2] + 2.0 };
+			SpatialQuery box = SpatialQuery.box(lower, upper);
+			check(box, index);
+			check(SpatialQuery.sphere(lower, 8.0 * rand.nextDouble()), index);
+			// Frustum bounded by planes of a box selects the same leaves
+			SpatialQuery frustum = SpatialQuery.frustum(new double[][] {
+				{ 1.0, 0.0, 0.0, -lower[0] }, { -1.0, 0.0, 0.0, upper[0] },
+				{ 0.0, 1.0, 0.0, -lower[1] }, { 0.0, -1.0, 0.0, upper[1] },
+				{ 0.0, 0.0, 1.0, -lower[2] }, { 0.0, 0.0, -1.0, upper[2] }
+			});
+			TIntHashSet selected = index.getLeaves(box);
+			assertArrayEquals(sorted(selected), sorted(index.getLeaves(frustum)));
+			nrSelected += selected.size();
+		}
+		assertTrue(nrSelected > 0);
+		assertTrue(nrSelected < 50 * oemm.getNumberOfLeaves());
+	}
+
+	@Test public void buildMesh()
+	{
+		double [] lower = new double[] { 10.0, 20.0, -10.0 };
+		double [] upper = new double[] { 25.0, 30.0, 10.0 };
+		SpatialQuery query = SpatialQuery.box(lower, upper);
+		Mesh mesh = new MeshReader(oemm).buildMesh(query);
+		assertTrue(query.getLeaves(oemm).size() < oemm.getNumberOfLeaves());
+		// All triangles inside this box have been loaded, vertices
+		// on its boundary may have been moved by conversion to OEMM
+		// integer coordinates.
+		int nrInside = 0;
+		for (Triangle t : mesh.getTriangles())
+		{
+			if (!t.isWritable())
+				continue;
+			boolean inside = true;
+			for (int i = 0; i < 3; i++)
+			{
+				double [] xyz = t.vertex[i].getUV();
+				for (int k = 0; k < 3; k++)
+					inside &= (xyz[k] >= lower[k] - 1.e-6 && xyz[k] <= upper[k] + 1.e-6);
+			}
+			if (inside)
+				nrInside++;
+		}
+		assertEquals(2 * 15 * 10, nrInside);
+	}
+
+	@Test public void missingIndex()
+	{
+		File file = new File(oemm.getDirectory(), SpatialIndex.FILE_NAME);
+		assertTrue(file.delete());
+		SpatialIndex index = SpatialIndex.open(oemm.getDirectory());
+		assertTrue(file.exists());
+		assertEquals(oemm.getNumberOfLeaves(), index.getNumberOfLeaves());
+	}
+}
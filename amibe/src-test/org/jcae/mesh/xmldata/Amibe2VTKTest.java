@@ -0,0 +1,164 @@
+/*
+ * Project Info:  http://jcae.sourceforge.net
+ *
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 2.1 of the License, or (at your option)
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation, Inc.,
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307, USA.
+ *
+ * (C) Copyright 2011, by EADS France
+ */
+
+package org.jcae.mesh.xmldata;
+
+import org.jcae.mesh.TempDirectories;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class Amibe2VTKTest
+{
+	private static final Pattern OFFSET = Pattern.compile("offset=\"(\\d+)\"");
+	private static File dir;
+
+	@BeforeClass public static void createMesh() throws IOException
+	{
+		File unv = File.createTempFile("mesh", ".unv");
+		unv.deleteOnExit();
+		UNV2AmibeTest.writeUNV(unv, 30, false);
+		dir = TempDirectories.create("amibe");
+		new UNV2Amibe().importMesh(unv, dir.getPath());
+	}
+
+	@AfterClass public static void deleteTempDirs()
+	{
+		TempDirectories.deleteAll();
+	}
+
+	/**
+	 * Returns data arrays of a VTK file, compressed arrays are inflated.
+	 */
+	private static List<byte[]> readArrays(File file, boolean compressed)
+		throws IOException, DataFormatException
+	{
+		byte [] bytes = UNV2AmibeTest.readFile(file);
+		String text = new String(bytes, "ISO-8859-1");
+		int start = text.indexOf("<AppendedData");
+		assertEquals(compressed, text.substring(0, start).contains(
+			"compressor=\"vtkZLibDataCompressor\""));
+		start = text.indexOf('_', start) + 1;
+		assertTrue(text.endsWith("</AppendedData></VTKFile>"+System.getProperty("line.separator")));
+		List<byte[]> ret = new ArrayList<byte[]>();
+		Matcher m = OFFSET.matcher(text.substring(0, start));
+		while (m.find())
+		{
+			ByteBuffer bb = ByteBuffer.wrap(bytes);
+			bb.position(start + Integer.parseInt(m.group(1)));
+			if (!compressed)
+			{
+				byte [] a = new byte[bb.getInt()];
+				bb.get(a);
+				ret.add(a);
+				continue;
+			}
+			int nblocks = bb.getInt();
+			int blockSize = bb.getInt();
+			int last = bb.getInt();
+			int [] sizes = new int[nblocks];
+			for (int i = 0; i < nblocks; i++)
+				sizes[i] = bb.getInt();
+			ByteArrayOutputStream a = new ByteArrayOutputStream();
+			for (int i = 0; i < nblocks; i++)
+			{
+				byte [] c = new byte[sizes[i]];
+				bb.get(c);
+				Inflater inflater = new Inflater();
+				inflater.setInput(c);
+				byte [] block = new byte[blockSize];
+				int n = inflater.inflate(block);
+				assertTrue(inflater.finished());
+				inflater.end();
+				if (i < nblocks - 1 || last == 0)
+					assertEquals(blockSize, n);
+				else
+					assertEquals(last, n);
+				a.write(block, 0, n);
+			}
+			ret.add(a.toByteArray());
+		}
+		return ret;
+	}
+
+	private static void assertSameArrays(List<byte[]> expected, List<byte[]> actual)
+	{
+		assertEquals(expected.size(), actual.size());
+		for (int i = 0; i < expected.size(); i++)
+			assertArrayEquals("Array "+i, expected.get(i), actual.get(i));
+	}
+
+	private static File amibe2VTK(boolean compressed, int blockSize, int nrThreads)
+		throws Exception
+	{
+		File out = File.createTempFile("mesh", ".vtp");
+		out.deleteOnExit();
+		Amibe2VTK a = new Amibe2VTK(dir);
+		a.setDummyData(true);
+		a.setCompressed(compressed);
+		a.setBlockSize(blockSize);
+		a.setNumberOfThreads(nrThreads);
+		a.write(out.getPath());
+		return out;
+	}
+
+	private static File exportVTK(boolean compressed, int blockSize, int nrThreads)
+	{
+		File out = new File(dir, "mesh"+compressed+blockSize+nrThreads+".vtp");
+		out.deleteOnExit();
+		MeshExporter.VTK e = new MeshExporter.VTK(dir.getPath());
+		e.setCompressed(compressed);
+		e.setBlockSize(blockSize);
+		e.setNumberOfThreads(nrThreads);
+		e.write(out.getPath());
+		return out;
+	}
+
+	@Test public void amibe2VTK() throws Exception
+	{
+		List<byte[]> expected = readArrays(amibe2VTK(false, 32768, 1), false);
+		assertEquals(9, expected.size());
+		// Block sizes which are not multiples of values
+		assertSameArrays(expected, readArrays(amibe2VTK(true, 32768, 1), true));
+		assertSameArrays(expected, readArrays(amibe2VTK(true, 101, 1), true));
+		assertSameArrays(expected, readArrays(amibe2VTK(true, 101, 3), true));
+		assertSameArrays(expected, readArrays(amibe2VTK(true, 1 << 20, 3), true));
+	}
+
+	@Test public void meshExporter() throws Exception
+	{
+		List<byte[]> expected = readArrays(exportVTK(false, 32768, 1), false);
+		assertEquals(6, expected.size());
+		assertSameArrays(expected, readArrays(exportVTK(true, 32768, 1), true));
+		assertSameArrays(expected, readArrays(exportVTK(true, 101, 1), true));
+		assertSameArrays(expected, readArrays(exportVTK(true, 101, 3), true));
+	}
+}
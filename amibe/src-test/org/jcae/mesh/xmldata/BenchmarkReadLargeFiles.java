@@ -27,9 +27,14 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.IntBuffer;
+import java.util.Iterator;
 import java.util.Random;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import org.jcae.mesh.amibe.ds.Mesh;
+import org.jcae.mesh.amibe.ds.Triangle;
+import org.jcae.mesh.amibe.ds.Vertex;
+import org.jcae.mesh.amibe.traits.MeshTraitsBuilder;
 
 import org.junit.Test;
 import org.junit.AfterClass;
@@ -40,6 +45,9 @@ public class BenchmarkReadLargeFiles
 {	
 	private static File file;
 	private static int checkSum;
+	// Number of vertices on each side of the grid written into meshDir
+	private static final int GRID_SIZE = 400;
+	private static File meshDir;
 
 	@BeforeClass public static void createBinaryFile() throws IOException
 	{
@@ -63,9 +71,89 @@ public class BenchmarkReadLargeFiles
 		out.close();
 	}
 
+	@BeforeClass public static void createMeshFile() throws IOException
+	{
+		Mesh mesh = new Mesh(MeshTraitsBuilder.getDefault3D());
+		Vertex [] v = new Vertex[GRID_SIZE*GRID_SIZE];
+		for (int j = 0; j < GRID_SIZE; j++)
+			for (int i = 0; i < GRID_SIZE; i++)
+				v[GRID_SIZE*j+i] = mesh.createVertex(i, j, Math.cos(0.1*i) * Math.sin(0.1*j));
+		for (int j = 0; j < GRID_SIZE - 1; j++)
+		{
+			for (int i = 0; i < GRID_SIZE - 1; i++)
+			{
+				int n = GRID_SIZE*j+i;
+				mesh.add(mesh.createTriangle(v[n], v[n+1], v[n+GRID_SIZE]));
+				mesh.add(mesh.createTriangle(v[n+1], v[n+GRID_SIZE+1], v[n+GRID_SIZE]));
+			}
+		}
+		meshDir = File.createTempFile("BenchmarkReadLargeFiles", ".dir");
+		meshDir.delete();
+		meshDir.mkdir();
+		MeshWriter.writeObject3D(mesh, meshDir.getPath(), null);
+	}
+
 	@AfterClass public static void deleteBinaryFile()
 	{
 		file.delete();
+		deleteRecursively(meshDir);
+	}
+
+	private static void deleteRecursively(File f)
+	{
+		File [] children = f.listFiles();
+		if (children != null)
+		{
+			for (File c : children)
+				deleteRecursively(c);
+		}
+		f.delete();
+	}
+
+	private static Mesh readMesh(boolean bulk) throws IOException
+	{
+		Mesh mesh = new Mesh(MeshTraitsBuilder.getDefault3D());
+		long start = System.currentTimeMillis();
+		if (bulk)
+			MeshReader.readObject3DBulk(mesh, meshDir.getPath());
+		else
+			MeshReader.readObject3D(mesh, meshDir.getPath());
+		long time = Math.max(1L, System.currentTimeMillis() - start);
+		int nrTriangles = mesh.getTriangles().size();
+		System.out.println((bulk ? "readObject3DBulk" : "readObject3D")+" Processing time: "+time+" ms, "+
+			(1000L * nrTriangles / time)+" triangles/s");
+		return mesh;
+	}
+
+	@Test public void readObject3D() throws IOException
+	{
+		Mesh mesh = readMesh(false);
+		assertTrue(mesh.isValid());
+	}
+
+	@Test public void readObject3DBulk() throws IOException
+	{
+		Mesh mesh = readMesh(true);
+		assertTrue(mesh.isValid());
+	}
+
+	@Test public void bulkLoadIsIdentical() throws IOException
+	{
+		Mesh mesh1 = readMesh(false);
+		Mesh mesh2 = readMesh(true);
+		assertEquals(mesh1.getTriangles().size(), mesh2.getTriangles().size());
+		Iterator<Triangle> it2 = mesh2.getTriangles().iterator();
+		for (Triangle t1 : mesh1.getTriangles())
+		{
+			Triangle t2 = it2.next();
+			assertEquals(t1.getGroupId(), t2.getGroupId());
+			assertEquals(t1.isWritable(), t2.isWritable());
+			for (int i = 0; i < 3; i++)
+			{
+				assertArrayEquals(t1.vertex[i].getUV(), t2.vertex[i].getUV(), 0.0);
+				assertEquals(t1.vertex[i].getRef(), t2.vertex[i].getRef());
+			}
+		}
 	}
 
 	private static int computeSum(IntFileReader ifr)
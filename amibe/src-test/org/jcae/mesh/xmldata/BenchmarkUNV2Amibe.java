@@ -0,0 +1,100 @@
+/*
+ * Project Info:  http://jcae.sourceforge.net
+ *
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 2.1 of the License, or (at your option)
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation, Inc.,
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307, USA.
+ *
+ * (C) Copyright 2011, by EADS France
+ */
+
+package org.jcae.mesh.xmldata;
+
+import org.jcae.mesh.TempDirectories;
+import java.io.File;
+import java.io.IOException;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Import synthetic UNV files of 1, 10 and 50 millions of triangles with
+ * the <code>BufferedReader</code> parser and with the memory mapped parser.
+ * The largest file takes about 10GB.  This benchmark is only run when the
+ * <code>run.test.large</code> system property is set.  Imported meshes are
+ * removed after each file.
+ */
+public class BenchmarkUNV2Amibe
+{
+	@BeforeClass public static void checkLarge()
+	{
+		assumeTrue(Boolean.getBoolean("run.test.large"));
+	}
+
+	private static File importMesh(File unv, boolean mapped, int nrThreads) throws IOException
+	{
+		File dir = TempDirectories.create("amibe");
+		UNV2Amibe u = new UNV2Amibe();
+		u.setMappedParser(mapped);
+		u.setNumberOfThreads(nrThreads);
+		long start = System.currentTimeMillis();
+		u.importMesh(unv, dir.getPath());
+		long time = Math.max(1L, System.currentTimeMillis() - start);
+		System.out.println((mapped ? "Mapped parser, "+nrThreads+" thread(s)" : "BufferedReader parser")+
+			": "+time+" ms, "+(unv.length() * 1000L / 1048576L / time)+" MB/s");
+		return dir;
+	}
+
+	private void run(int nrTriangles) throws IOException
+	{
+		// A n*n grid has 2*(n-1)*(n-1) triangles
+		int n = 1 + (int) Math.ceil(Math.sqrt(0.5 * nrTriangles));
+		File unv = File.createTempFile("benchmark", ".unv");
+		unv.deleteOnExit();
+		try
+		{
+			UNV2AmibeTest.writeUNV(unv, n, false);
+			System.out.println("UNV file with "+(2*(n-1)*(n-1))+" triangles, "+(unv.length() >> 20)+" MB");
+			File expected = importMesh(unv, false, 1);
+			UNV2AmibeTest.assertSameFiles(expected, importMesh(unv, true, 1));
+			UNV2AmibeTest.assertSameFiles(expected, importMesh(unv, true, 4));
+			UNV2AmibeTest.assertSameFiles(expected, importMesh(unv, true, 16));
+		}
+		finally
+		{
+			unv.delete();
+			TempDirectories.deleteAll();
+		}
+	}
+
+	@AfterClass public static void deleteTempDirs()
+	{
+		TempDirectories.deleteAll();
+	}
+
+	@Test public void triangles1M() throws IOException
+	{
+		run(1000000);
+	}
+
+	@Test public void triangles10M() throws IOException
+	{
+		run(10000000);
+	}
+
+	@Test public void triangles50M() throws IOException
+	{
+		run(50000000);
+	}
+}
@@ -0,0 +1,142 @@
+/*
+ * Project Info:  http://jcae.sourceforge.net
+ *
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 2.1 of the License, or (at your option)
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation, Inc.,
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307, USA.
+ *
+ * (C) Copyright 2011, by EADS France
+ */
+
+package org.jcae.mesh.xmldata;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.text.NumberFormat;
+import java.util.Random;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class ByteFormatterTest
+{
+	private static final double [] SPECIAL = {
+		0.0, -0.0, 1.0, -1.0, 0.1, 0.3, 0.1 + 0.2, 100.0, 1.0E-5, 1.0E-24, 15E24,
+		123456789.0, 9.999999999999999E98, 1.0E99, 1.0E100, 1.0E-99, 1.0E-100,
+		Double.MAX_VALUE, Double.MIN_VALUE, Double.MIN_NORMAL,
+		Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY, Double.NaN
+	};
+
+	private static byte [] bytes(ByteFormatter f) throws IOException
+	{
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		f.writeTo(out);
+		return out.toByteArray();
+	}
+
+	// Returns bytes written by PrintStream, like MeshExporter did
+	private static byte [] print(String s)
+	{
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		PrintStream ps = new PrintStream(out);
+		ps.print(s);
+		ps.close();
+		return out.toByteArray();
+	}
+
+	private static double randomDouble(Random r, int i)
+	{
+		switch (i % 5)
+		{
+			case 0:
+				return (r.nextDouble() - 0.5) * Math.pow(10.0, r.nextInt(40) - 20);
+			case 1:
+				return Double.longBitsToDouble(r.nextLong());
+			case 2:
+				return Math.round(r.nextDouble() * 1.0E6) / 1.0E3;
+			case 3:
+				return 0.1 * r.nextInt(1000);
+			default:
+				return Math.sin(r.nextDouble());
+		}
+	}
+
+	@Test public void d25_16() throws IOException
+	{
+		NumberFormat expected = new MeshExporter.FormatD25_16();
+		ByteFormatter f = new ByteFormatter(16);
+		for (double d : SPECIAL)
+		{
+			f.clear();
+			f.appendD25_16(d);
+			assertArrayEquals(Double.toString(d), print(expected.format(d)), bytes(f));
+		}
+		Random r = new Random(12345L);
+		for (int i = 0; i < 200000; i++)
+		{
+			double d = randomDouble(r, i);
+			f.clear();
+			f.appendD25_16(d);
+			assertArrayEquals(Double.toString(d), print(expected.format(d)), bytes(f));
+		}
+	}
+
+	@Test public void i10() throws IOException
+	{
+		NumberFormat expected = new MeshExporter.FormatI10();
+		ByteFormatter f = new ByteFormatter(16);
+		int [] values = { 0, 1, -1, 9, 10, 999999999, 1000000000, -99999999,
+			-100000000, Integer.MAX_VALUE, Integer.MIN_VALUE };
+		for (int i : values)
+		{
+			f.clear();
+			f.appendI10(i);
+			assertArrayEquals(Integer.toString(i), print(expected.format(i)), bytes(f));
+			f.clear();
+			f.append(i);
+			assertArrayEquals(Integer.toString(i), print(Integer.toString(i)), bytes(f));
+		}
+		Random r = new Random(12345L);
+		for (int k = 0; k < 100000; k++)
+		{
+			int i = r.nextInt() >> r.nextInt(32);
+			f.clear();
+			f.appendI10(i);
+			assertArrayEquals(Integer.toString(i), print(expected.format(i)), bytes(f));
+		}
+	}
+
+	@Test public void append() throws IOException
+	{
+		NumberFormat d25 = new MeshExporter.FormatD25_16();
+		NumberFormat i10 = new MeshExporter.FormatI10();
+		// Buffer is grown while numbers are appended
+		ByteFormatter f = new ByteFormatter(16);
+		StringBuilder sb = new StringBuilder();
+		Random r = new Random(12345L);
+		for (int i = 0; i < 10000; i++)
+		{
+			double d = randomDouble(r, i);
+			f.append(d).append(" ").appendI10(i).appendD25_16(d);
+			sb.append(d).append(" ").append(i10.format(i)).append(d25.format(d));
+		}
+		for (double d : SPECIAL)
+		{
+			f.append(d).newLine();
+			sb.append(d).append(System.getProperty("line.separator"));
+		}
+		f.append("Groupe \u00e9t\u00e9");
+		sb.append("Groupe \u00e9t\u00e9");
+		assertArrayEquals(print(sb.toString()), bytes(f));
+	}
+}
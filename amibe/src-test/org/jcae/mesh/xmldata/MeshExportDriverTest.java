@@ -0,0 +1,103 @@
+/*
+ * Project Info:  http://jcae.sourceforge.net
+ *
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 2.1 of the License, or (at your option)
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation, Inc.,
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307, USA.
+ *
+ * (C) Copyright 2011, by EADS France
+ */
+
+package org.jcae.mesh.xmldata;
+
+import org.jcae.mesh.TempDirectories;
+import java.io.File;
+import java.io.IOException;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class MeshExportDriverTest
+{
+	private static final String [] EXTENSIONS = { "unv", "mesh", "stl", "poly", "vtp" };
+	private static File dir;
+	private static File expected;
+
+	private static MeshExporter newExporter(String extension)
+	{
+		if (extension.equals("unv"))
+			return new MeshExporter.UNV(dir.getPath());
+		else if (extension.equals("mesh"))
+			return new MeshExporter.MESH(dir.getPath());
+		else if (extension.equals("stl"))
+			return new MeshExporter.STL(dir.getPath());
+		else if (extension.equals("poly"))
+			return new MeshExporter.POLY(dir.getPath());
+		else
+			return new MeshExporter.VTK(dir.getPath());
+	}
+
+	@BeforeClass public static void createMesh() throws IOException
+	{
+		File unv = File.createTempFile("mesh", ".unv");
+		unv.deleteOnExit();
+		UNV2AmibeTest.writeUNV(unv, 30, false);
+		dir = TempDirectories.create("amibe");
+		new UNV2Amibe().importMesh(unv, dir.getPath());
+		// Files written one after another
+		expected = TempDirectories.create("amibe");
+		for (String ext : EXTENSIONS)
+			newExporter(ext).write(new File(expected, "mesh."+ext).getPath());
+	}
+
+	@AfterClass public static void deleteTempDirs()
+	{
+		TempDirectories.deleteAll();
+	}
+
+	private static File export(int chunkSize, int queueCapacity) throws IOException
+	{
+		File out = TempDirectories.create("amibe");
+		MeshExportDriver driver = new MeshExportDriver();
+		driver.setChunkSize(chunkSize);
+		driver.setQueueCapacity(queueCapacity);
+		for (String ext : EXTENSIONS)
+			driver.add(newExporter(ext), new File(out, "mesh."+ext).getPath());
+		driver.write();
+		return out;
+	}
+
+	@Test public void sameFiles() throws IOException
+	{
+		UNV2AmibeTest.assertSameFiles(expected, export(3 * 65536, 16));
+	}
+
+	@Test public void smallQueues() throws IOException
+	{
+		UNV2AmibeTest.assertSameFiles(expected, export(5, 1));
+	}
+
+	@Test public void reuseExporters() throws IOException
+	{
+		// Exporters can still be used alone after the driver has run
+		MeshExporter stl = newExporter("stl");
+		MeshExportDriver driver = new MeshExportDriver();
+		File out = TempDirectories.create("amibe");
+		driver.add(stl, new File(out, "mesh.stl").getPath());
+		driver.write();
+		File alone = new File(out, "alone.stl");
+		stl.write(alone.getPath());
+		UNV2AmibeTest.assertSameFiles(new File(expected, "mesh.stl"), alone);
+	}
+}
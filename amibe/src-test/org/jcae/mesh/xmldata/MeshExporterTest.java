@@ -0,0 +1,101 @@
+/*
+ * Project Info:  http://jcae.sourceforge.net
+ *
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 2.1 of the License, or (at your option)
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation, Inc.,
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307, USA.
+ *
+ * (C) Copyright 2011, by EADS France
+ */
+
+package org.jcae.mesh.xmldata;
+
+import org.jcae.mesh.TempDirectories;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class MeshExporterTest
+{
+	private static File dir;
+
+	@BeforeClass public static void createMesh() throws IOException
+	{
+		File unv = File.createTempFile("mesh", ".unv");
+		unv.deleteOnExit();
+		UNV2AmibeTest.writeUNV(unv, 40, false);
+		dir = TempDirectories.create("amibe");
+		new UNV2Amibe().importMesh(unv, dir.getPath());
+	}
+
+	@AfterClass public static void deleteTempDirs()
+	{
+		TempDirectories.deleteAll();
+	}
+
+	private static byte [] export(MeshExporter exporter, int nrThreads, int chunkSize)
+		throws Exception
+	{
+		exporter.setNumberOfThreads(nrThreads);
+		if (chunkSize > 0)
+			exporter.setChunkSize(chunkSize);
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		PrintStream ps = new PrintStream(out);
+		exporter.write(ps);
+		ps.close();
+		return out.toByteArray();
+	}
+
+	@Test public void unvNodes() throws Exception
+	{
+		// Nodes are written in the same order as in Amibe files
+		MeshExporter.UNV exporter = new MeshExporter.UNV(dir.getPath());
+		exporter.setUnit(MeshExporter.UNV.Unit.Unknown);
+		byte [] actual = export(exporter, 1, 0);
+		AmibeReader.Dim3 reader = new AmibeReader.Dim3(dir.getPath());
+		DoubleFileReader nodes = reader.getSubmeshes().get(0).getNodes();
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		PrintStream ps = new PrintStream(out);
+		ps.println("    -1");
+		ps.println("  2411");
+		for (int i = 0; 3 * i < nodes.size(); i++)
+			MeshExporter.UNV.writeSingleNode(ps, i + 1, nodes.get(3*i), nodes.get(3*i+1), nodes.get(3*i+2));
+		ps.println("    -1");
+		ps.close();
+		nodes.close();
+		byte [] expected = out.toByteArray();
+		assertTrue(actual.length > expected.length);
+		for (int i = 0; i < expected.length; i++)
+			assertEquals(expected[i], actual[i]);
+	}
+
+	@Test public void unvParallel() throws Exception
+	{
+		byte [] expected = export(new MeshExporter.UNV(dir.getPath()), 1, 0);
+		assertArrayEquals(expected, export(new MeshExporter.UNV(dir.getPath()), 1, 7));
+		assertArrayEquals(expected, export(new MeshExporter.UNV(dir.getPath()), 3, 7));
+		assertArrayEquals(expected, export(new MeshExporter.UNV(dir.getPath()), 4, 1));
+	}
+
+	@Test public void meshParallel() throws Exception
+	{
+		byte [] expected = export(new MeshExporter.MESH(dir.getPath()), 1, 0);
+		assertArrayEquals(expected, export(new MeshExporter.MESH(dir.getPath()), 3, 7));
+		assertArrayEquals(expected, export(new MeshExporter.MESH(dir.getPath()), 4, 1));
+	}
+}
@@ -0,0 +1,123 @@
+/*
+ * Project Info:  http://jcae.sourceforge.net
+ *
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 2.1 of the License, or (at your option)
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation, Inc.,
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307, USA.
+ *
+ * (C) Copyright 2011, by EADS France
+ */
+
+package org.jcae.mesh.xmldata;
+
+import org.jcae.mesh.TempDirectories;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class STL2AmibeTest
+{
+	private static final int GRID_SIZE = 30;
+	private static File dir;
+
+	@BeforeClass public static void createMesh() throws IOException
+	{
+		File unv = File.createTempFile("mesh", ".unv");
+		unv.deleteOnExit();
+		UNV2AmibeTest.writeUNV(unv, GRID_SIZE, false);
+		dir = TempDirectories.create("amibe");
+		new UNV2Amibe().importMesh(unv, dir.getPath());
+	}
+
+	@AfterClass public static void deleteTempDirs()
+	{
+		TempDirectories.deleteAll();
+	}
+
+	private static File exportSTL(File from, boolean binary, int nrThreads, int chunkSize)
+		throws IOException
+	{
+		File stl = File.createTempFile("mesh", ".stl");
+		stl.deleteOnExit();
+		MeshExporter.STL exporter = new MeshExporter.STL(from.getPath());
+		exporter.setBinary(binary);
+		exporter.setNumberOfThreads(nrThreads);
+		if (chunkSize > 0)
+			exporter.setChunkSize(chunkSize);
+		exporter.write(stl.getPath());
+		return stl;
+	}
+
+	private static File importSTL(File stl) throws IOException
+	{
+		File out = TempDirectories.create("amibe");
+		new STL2Amibe(out.getPath()).read(stl.getPath());
+		return out;
+	}
+
+	@Test public void binaryFormat() throws IOException
+	{
+		File stl = exportSTL(dir, true, 1, 0);
+		int nbt = 2 * (GRID_SIZE - 1) * (GRID_SIZE - 1);
+		assertEquals(84L + 50L * nbt, stl.length());
+		DataInputStream in = new DataInputStream(new FileInputStream(stl));
+		in.skipBytes(80);
+		assertEquals(nbt, Integer.reverseBytes(in.readInt()));
+		// Normals are unit vectors
+		double norm2 = 0.0;
+		for (int i = 0; i < 3; i++)
+		{
+			double c = Float.intBitsToFloat(Integer.reverseBytes(in.readInt()));
+			norm2 += c * c;
+		}
+		assertEquals(1.0, norm2, 1.e-6);
+		in.close();
+	}
+
+	@Test public void parallel() throws IOException
+	{
+		File expected = exportSTL(dir, true, 1, 0);
+		UNV2AmibeTest.assertSameFiles(expected, exportSTL(dir, true, 3, 7));
+		UNV2AmibeTest.assertSameFiles(expected, exportSTL(dir, true, 4, 1));
+	}
+
+	@Test public void binaryRoundTrip() throws Exception
+	{
+		File imported = importSTL(exportSTL(dir, true, 1, 0));
+		AmibeReader.Dim3 reader = new AmibeReader.Dim3(imported.getPath());
+		AmibeReader.SubMesh sm = reader.getSubmeshes().get(0);
+		// Vertices have been merged
+		assertEquals(GRID_SIZE * GRID_SIZE, sm.getNumberOfNodes());
+		assertEquals(2 * (GRID_SIZE - 1) * (GRID_SIZE - 1), sm.getNumberOfTrias());
+		// Coordinates are floats, so a second round trip gives the same mesh
+		File again = importSTL(exportSTL(imported, true, 2, 100));
+		UNV2AmibeTest.assertSameFiles(imported, again);
+	}
+
+	@Test public void asciiRoundTrip() throws Exception
+	{
+		File expected = exportSTL(dir, false, 1, 0);
+		File imported = importSTL(expected);
+		AmibeReader.Dim3 reader = new AmibeReader.Dim3(imported.getPath());
+		AmibeReader.SubMesh sm = reader.getSubmeshes().get(0);
+		assertEquals(GRID_SIZE * GRID_SIZE, sm.getNumberOfNodes());
+		assertEquals("export", sm.getGroups().get(0).getName());
+		// ASCII files keep double coordinates
+		UNV2AmibeTest.assertSameFiles(expected, exportSTL(imported, false, 1, 0));
+	}
+}
@@ -0,0 +1,273 @@
+/*
+ * Project Info:  http://jcae.sourceforge.net
+ *
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 2.1 of the License, or (at your option)
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation, Inc.,
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307, USA.
+ *
+ * (C) Copyright 2011, by EADS France
+ */
+
+package org.jcae.mesh.xmldata;
+
+import org.jcae.mesh.TempDirectories;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.text.NumberFormat;
+import java.util.Arrays;
+import java.util.Locale;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class UNV2AmibeTest
+{
+	private static final int GRID_SIZE = 60;
+	private static File unv;
+
+	@BeforeClass public static void createUNV() throws IOException
+	{
+		unv = File.createTempFile("mesh", ".unv");
+		unv.deleteOnExit();
+		writeUNV(unv, GRID_SIZE, true);
+	}
+
+	@AfterClass public static void deleteTempDirs()
+	{
+		TempDirectories.deleteAll();
+	}
+
+	private static String i10(int i)
+	{
+		String s = Integer.toString(i);
+		StringBuilder sb = new StringBuilder();
+		for (int k = s.length(); k < 10; k++)
+			sb.append(' ');
+		return sb.append(s).toString();
+	}
+
+	/**
+	 * Writes a UNV file of a wavy n*n grid.  Each quad is split into two
+	 * triangles, and groups are written into dataset 2467.  If
+	 * <code>all</code> is true, other datasets and element types
+	 * are written, as well as numbers in various formats.
+	 */
+	static void writeUNV(File file, int n, boolean all) throws IOException
+	{
+		PrintStream out = new PrintStream(new BufferedOutputStream(new FileOutputStream(file), 1 << 16));
+		NumberFormat d25 = new MeshExporter.FormatD25_16();
+		if (all)
+		{
+			out.println("    -1");
+			out.println("   164");
+			out.println("         5mm (milli-newton)            2");
+			out.println("  1.00000000000000000D+03  1.00000000000000000D+03  1.00000000000000000D+00");
+			out.println("  2.73149999999999977D+02");
+			out.println("    -1");
+			out.println("    -1");
+			out.println("  2420");
+			out.println("         1");
+			out.println("SMS_CS");
+			out.println("    -1");
+		}
+		out.println("    -1");
+		out.println("  2411");
+		for (int j = 0; j < n; j++)
+		{
+			for (int i = 0; i < n; i++)
+			{
+				int v = n*j+i+1;
+				double x = 0.1 * i;
+				double y = 0.1 * j;
+				double z = 5.0 * Math.sin(0.1 * i) * Math.cos(0.07 * j);
+				out.println(i10(v)+"         1         1         1");
+				if (!all || v % 5 == 0)
+					out.println(d25.format(x)+d25.format(y)+d25.format(z));
+				else if (v % 5 == 1)
+					out.println("  "+i+".5 "+(-j)+"E-3 "+(j % 3)+"e+0");
+				else if (v % 5 == 2)
+					out.println(" "+x+"\t"+y);
+				else if (v % 5 == 3)
+					out.println(String.format(Locale.US, "%25.16E%25.16E%25.16E", x, -y, z));
+				else
+					out.println("  -0.0 00.0012300D+01 "+z);
+			}
+		}
+		out.println("    -1");
+		out.println("    -1");
+		out.println("  2412");
+		int nrElements = 0;
+		// Tetrahedra are not stored into Amibe mesh and must not be
+		// put into groups
+		int nrTetras = 0;
+		for (int j = 0; j < n - 1; j++)
+		{
+			for (int i = 0; i < n - 1; i++)
+			{
+				int v = n*j+i+1;
+				nrElements++;
+				out.println(i10(nrElements)+"        91         1         1         1         3");
+				out.println(i10(v)+i10(v+1)+i10(v+n));
+				nrElements++;
+				if (all && i == 0)
+				{
+					out.println(i10(nrElements)+"        92         1         1         1         6");
+					out.println(i10(v+1)+i10(v+n)+i10(v+n+1)+i10(v+n)+i10(v+n)+i10(v+1));
+				}
+				else
+				{
+					out.println(i10(nrElements)+"        91         1         1         1         3");
+					out.println(i10(v+1)+i10(v+n+1)+i10(v+n));
+				}
+				if (all && i == n - 2)
+				{
+					nrElements++;
+					out.println(i10(nrElements)+"        21         1         1         1         2");
+					out.println("         0         1         1");
+					out.println(i10(v+1)+i10(v+n+1));
+					nrElements++;
+					out.println(i10(nrElements)+"        24         1         1         1         3");
+					out.println("         0         1         1");
+					out.println(i10(v)+i10(v+n)+i10(v+n+n));
+					nrElements++;
+					out.println(i10(nrElements)+"       111         1         1         1         4");
+					out.println(i10(v)+i10(v+1)+i10(v+n)+i10(v+n+1));
+					nrElements++;
+					out.println(i10(nrElements)+"       118         1         1         1        10");
+					out.println(i10(v)+i10(v+1)+i10(v+n)+i10(v+n+1)+i10(v)+i10(v+1)+i10(v+n)+i10(v+n+1));
+					out.println(i10(v)+i10(v+1));
+					out.println(i10(v+n)+i10(v+n+1));
+					nrTetras += 2;
+				}
+			}
+		}
+		out.println("    -1");
+		out.println("    -1");
+		out.println("  2467");
+		int nrGroups = 3;
+		for (int g = 0; g < nrGroups; g++)
+		{
+			int count = 0;
+			for (int e = 1 + g; e <= nrElements - nrTetras; e += nrGroups)
+				count++;
+			out.println(i10(g+1)+"         0         0         0         0         0         0"+i10(count));
+			out.println("Group "+g);
+			int c = 0;
+			for (int e = 1 + g; e <= nrElements - nrTetras; e += nrGroups)
+			{
+				out.print("         8"+i10(e)+"         0         0");
+				c++;
+				if (c % 2 == 0)
+					out.println();
+			}
+			if (c % 2 != 0)
+				out.println();
+		}
+		if (all)
+		{
+			out.println(i10(nrGroups+1)+"         0         0         0         0         0         0         4");
+			out.println("  Nodes ");
+			out.println("         7         1         0         0         7         2         0         0");
+			out.println("         7         3         0         0         7         4         0         0");
+		}
+		out.println("    -1");
+		out.close();
+	}
+
+	static byte [] readFile(File file) throws IOException
+	{
+		byte [] ret = new byte[(int) file.length()];
+		DataInputStream in = new DataInputStream(new FileInputStream(file));
+		in.readFully(ret);
+		in.close();
+		return ret;
+	}
+
+	static void assertSameFiles(File expected, File actual) throws IOException
+	{
+		if (expected.isDirectory())
+		{
+			String [] names = expected.list();
+			String [] names2 = actual.list();
+			Arrays.sort(names);
+			Arrays.sort(names2);
+			assertArrayEquals(names, names2);
+			for (String name : names)
+				assertSameFiles(new File(expected, name), new File(actual, name));
+		}
+		else
+			assertArrayEquals(expected.getPath(), readFile(expected), readFile(actual));
+	}
+
+	private static File importMesh(File file, boolean mapped, int nrThreads, int chunkSize) throws IOException
+	{
+		File dir = TempDirectories.create("amibe");
+		UNV2Amibe u = new UNV2Amibe();
+		u.setMappedParser(mapped);
+		u.setNumberOfThreads(nrThreads);
+		if (chunkSize > 0)
+			u.setChunkSize(chunkSize);
+		u.importMesh(file, dir.getPath());
+		return dir;
+	}
+
+	@Test public void byteReader() throws IOException
+	{
+		File file = File.createTempFile("reader", ".txt");
+		file.deleteOnExit();
+		PrintStream out = new PrintStream(new FileOutputStream(file));
+		out.print("  -1 \r\n 12 -3 +4\r  0.5D+01 -1.25e-2 1.2345678901234567D+00 7.\n\n");
+		out.close();
+		FileInputStream fis = new FileInputStream(file);
+		UNVByteReader in = new UNVByteReader(fis.getChannel(), 0L);
+		assertTrue(in.isMinusOne());
+		in.nextLine();
+		assertFalse(in.isMinusOne());
+		assertEquals('1', in.firstNonBlank());
+		assertEquals(12, in.nextInt());
+		assertEquals(-3, in.nextInt());
+		assertEquals(4, in.nextInt());
+		assertFalse(in.hasToken());
+		in.nextLine();
+		assertEquals(5.0, in.nextDouble(), 0.0);
+		assertEquals(-0.0125, in.nextDouble(), 0.0);
+		assertEquals(1.2345678901234567, in.nextDouble(), 0.0);
+		assertEquals(7.0, in.nextDouble(), 0.0);
+		in.nextLine();
+		assertEquals("", in.line());
+		assertEquals(0, in.firstNonBlank());
+		in.nextLine();
+		assertTrue(in.eof());
+		fis.close();
+	}
+
+	@Test public void sameAsBufferedReader() throws IOException
+	{
+		File expected = importMesh(unv, false, 1, 0);
+		assertSameFiles(expected, importMesh(unv, true, 1, 0));
+		assertSameFiles(expected, importMesh(unv, true, 1, 100));
+	}
+
+	@Test public void parallel() throws IOException
+	{
+		File expected = importMesh(unv, false, 1, 0);
+		assertSameFiles(expected, importMesh(unv, true, 3, 100));
+		assertSameFiles(expected, importMesh(unv, true, 4, 1));
+	}
+}
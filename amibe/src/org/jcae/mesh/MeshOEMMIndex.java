@@ -36,6 +36,9 @@ public class MeshOEMMIndex
 
 	private static void check(String brepfilename, int lmax, int triangles_max, String soupDir, String outDir)
 	{
+		int nrThreads = Integer.getInteger("org.jcae.mesh.oemm.nrThreads", 1).intValue();
+		long dispatchMemory = Long.getLong("org.jcae.mesh.oemm.dispatchMemory", 0L).longValue() << 20;
+		int leafFormat = Boolean.getBoolean("org.jcae.mesh.oemm.compressLeaves") ? OEMM.COMPRESSED_FORMAT : OEMM.RAW_FORMAT;
 		logger.info("Reading "+brepfilename);
 		final OEMM oemm = new OEMM(lmax);
 		if(brepfilename!=null)
@@ -46,18 +49,18 @@ public class MeshOEMMIndex
 			oemm.setBoundingBox(bbox);
 		}
 		String soupFile = soupDir+File.separator+"soup";
-		if (!RawStorage.countTriangles(oemm, soupFile))
+		if (!RawStorage.countTriangles(oemm, soupFile, true, nrThreads))
 		{
 			// Bounding box was invalid and has been fixed
 			// in RawStorage.countTriangles(), we need to
 			// count triangles against the new OEMM.
 			logger.info("Invalid bounding box has been detected");
-			if (!RawStorage.countTriangles(oemm, soupFile))
+			if (!RawStorage.countTriangles(oemm, soupFile, true, nrThreads))
 				throw new RuntimeException("Fatal error... aborting");
 		}
 		Aggregate.compute(oemm, triangles_max);
-		RawStorage.dispatch(oemm, soupFile, "dispatched", "dispatched.data");
-		RawStorage.indexOEMM("dispatched", outDir);
+		RawStorage.dispatch(oemm, soupFile, "dispatched", "dispatched.data", nrThreads, dispatchMemory);
+		RawStorage.indexOEMM("dispatched", outDir, nrThreads, leafFormat);
 		logger.info("End processing");
 	}
 	
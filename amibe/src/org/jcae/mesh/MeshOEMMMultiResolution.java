@@ -0,0 +1,49 @@
+/* jCAE stand for Java Computer Aided Engineering. Features are : Small CAD
+   modeler, Finite element mesher, Plugin architecture.
+
+    Copyright (C) 2011, by EADS France
+
+    This library is free software; you can redistribute it and/or
+    modify it under the terms of the GNU Lesser General Public
+    License as published by the Free Software Foundation; either
+    version 2.1 of the License, or (at your option) any later version.
+
+    This library is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+    Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public
+    License along with this library; if not, write to the Free Software
+    Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA */
+
+package org.jcae.mesh;
+
+import org.jcae.mesh.oemm.MultiResolution;
+import org.jcae.mesh.oemm.OEMM;
+import org.jcae.mesh.oemm.Storage;
+import java.util.logging.Logger;
+
+/**
+ * Computes simplified meshes of all internal octants of an OEMM.
+ */
+public class MeshOEMMMultiResolution
+{
+	private static final Logger logger=Logger.getLogger(MeshOEMMMultiResolution.class.getName());
+
+	public static void main(String[] args)
+	{
+		if (args.length < 1)
+		{
+			System.out.println("Usage: MeshOEMMMultiResolution oemm [scaleTriangles]");
+			System.exit(0);
+		}
+		int scale = 4;
+		if (args.length > 1)
+			scale = Integer.parseInt(args[1]);
+		logger.info("Read OEMM structure");
+		OEMM oemm = Storage.readOEMMStructure(args[0]);
+		MultiResolution.build(oemm, scale);
+		logger.info("End processing");
+	}
+}
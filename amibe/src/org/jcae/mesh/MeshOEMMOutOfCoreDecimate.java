@@ -0,0 +1,56 @@
+/* jCAE stand for Java Computer Aided Engineering. Features are : Small CAD
+   modeler, Finite element mesher, Plugin architecture.
+
+    Copyright (C) 2011, by EADS France
+
+    This library is free software; you can redistribute it and/or
+    modify it under the terms of the GNU Lesser General Public
+    License as published by the Free Software Foundation; either
+    version 2.1 of the License, or (at your option) any later version.
+
+    This library is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+    Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public
+    License along with this library; if not, write to the Free Software
+    Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA */
+
+package org.jcae.mesh;
+
+import org.jcae.mesh.oemm.OEMM;
+import org.jcae.mesh.oemm.OutOfCoreDecimation;
+import org.jcae.mesh.oemm.Storage;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.logging.Logger;
+
+/**
+ * Decimates the whole mesh of an OEMM with a bounded number of triangles
+ * loaded in memory.
+ */
+public class MeshOEMMOutOfCoreDecimate
+{
+	private static final Logger logger=Logger.getLogger(MeshOEMMOutOfCoreDecimate.class.getName());
+
+	public static void main(String[] args)
+	{
+		if (args.length < 3 || !("-n".equals(args[1]) || "-t".equals(args[1])))
+		{
+			System.out.println("Usage: MeshOEMMOutOfCoreDecimate oemm <-n nrTriangles | -t tolerance> [maxLoadedTriangles]");
+			System.exit(0);
+		}
+		Map<String, String> options = new HashMap<String, String>();
+		if ("-n".equals(args[1]))
+			options.put("maxtriangles", args[2]);
+		else
+			options.put("size", args[2]);
+		if (args.length > 3)
+			options.put("maxload", args[3]);
+		logger.info("Read OEMM structure");
+		OEMM oemm = Storage.readOEMMStructure(args[0]);
+		new OutOfCoreDecimation(oemm, options).compute();
+		logger.info("End processing");
+	}
+}
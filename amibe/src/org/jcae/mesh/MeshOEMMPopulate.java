@@ -42,18 +42,24 @@ public class MeshOEMMPopulate
 		String inOEMM   = args[0];
 		String outOEMM  = args[1];
 		String soupFile = args[2];
+		int nrThreads = Integer.getInteger("org.jcae.mesh.oemm.nrThreads", 1).intValue();
+		long dispatchMemory = Long.getLong("org.jcae.mesh.oemm.dispatchMemory", 0L).longValue() << 20;
 		// Read initial OEMM structure
 		logger.info("Start processing");
 		OEMM oemm = Storage.readOEMMStructure(inOEMM);
 		// Count triangles for this new triangle soup
 		int save_nrLeaves = oemm.getNumberOfLeaves();
-		RawStorage.countTriangles(oemm, soupFile, false);
+		RawStorage.countTriangles(oemm, soupFile, false, nrThreads);
 		if (oemm.getNumberOfLeaves() != save_nrLeaves)
 			throw new RuntimeException("Octree structure does not fit triangle soup");
 		// Convert triangle soup into an intermediate OEMM file
-		RawStorage.dispatch(oemm, soupFile, "dispatched", "dispatched.data");
+		RawStorage.dispatch(oemm, soupFile, "dispatched", "dispatched.data", nrThreads, dispatchMemory);
 		// Convert intermediate OEMM file into final OEMM
-		RawStorage.indexOEMM("dispatched", outOEMM);
+		// Keep format of initial OEMM unless compression is requested
+		int leafFormat = oemm.getLeafFormat();
+		if (Boolean.getBoolean("org.jcae.mesh.oemm.compressLeaves"))
+			leafFormat = OEMM.COMPRESSED_FORMAT;
+		RawStorage.indexOEMM("dispatched", outOEMM, nrThreads, leafFormat);
 		logger.info("End processing");
 	}
 
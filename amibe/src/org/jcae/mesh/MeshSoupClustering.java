@@ -0,0 +1,49 @@
+/* jCAE stand for Java Computer Aided Engineering. Features are : Small CAD
+   modeler, Finite element mesher, Plugin architecture.
+
+    Copyright (C) 2011, by EADS France
+
+    This library is free software; you can redistribute it and/or
+    modify it under the terms of the GNU Lesser General Public
+    License as published by the Free Software Foundation; either
+    version 2.1 of the License, or (at your option) any later version.
+
+    This library is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+    Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public
+    License along with this library; if not, write to the Free Software
+    Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA */
+
+package org.jcae.mesh;
+
+import org.jcae.mesh.oemm.SoupClustering;
+import java.util.logging.Logger;
+
+/**
+ * Simplifies a triangle soup by vertex clustering and writes the result
+ * into an Amibe directory.
+ */
+public class MeshSoupClustering
+{
+	private static final Logger logger=Logger.getLogger(MeshSoupClustering.class.getName());
+
+	public static void main(String[] args)
+	{
+		if (args.length < 4 || !("-n".equals(args[2]) || "-s".equals(args[2])))
+		{
+			System.out.println("Usage: MeshSoupClustering soup outputDir <-n nrCells | -s cellSize>");
+			System.exit(0);
+		}
+		SoupClustering algo = new SoupClustering(args[0]);
+		if ("-n".equals(args[2]))
+			algo.setNumberOfCells(Integer.parseInt(args[3]));
+		else
+			algo.setCellSize(Double.parseDouble(args[3]));
+		algo.compute();
+		algo.writeAmibe(args[1]);
+		logger.info("End processing");
+	}
+}
@@ -28,9 +28,17 @@ import java.io.PrintStream;
 import java.io.InputStream;
 import java.io.FileInputStream;
 import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
 import java.util.Properties;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.text.SimpleDateFormat;
 
 import org.jcae.mesh.amibe.patch.InitialTriangulationException;
@@ -97,6 +105,11 @@ public class Mesher
 	private int minFace=0;
 	private int maxFace=0;
 	private int numFace=0;
+	private int nrThreads=1;
+	/** Faces which have been meshed, in increasing order */
+	private final TIntArrayList meshedFaces = new TIntArrayList();
+	/** Time spent to mesh these faces, in milliseconds */
+	private final TIntArrayList meshingTimes = new TIntArrayList();
 		
 	/**
 	 * Read system properties which affect the meshing behavior.
@@ -215,6 +228,14 @@ public class Mesher
 			System.setProperty("org.jcae.mesh.Mesher.quadrangles", quadranglesProp);
 		}
 		quadrangles=quadranglesProp.equals("true");
+		
+		String nrThreadsProp = System.getProperty("org.jcae.mesh.Mesher.nrThreads");
+		if (nrThreadsProp == null)
+		{
+			nrThreadsProp = "1";
+			System.setProperty("org.jcae.mesh.Mesher.nrThreads", nrThreadsProp);
+		}
+		nrThreads=Integer.parseInt(nrThreadsProp);
 	}
 	
 	/**
@@ -303,29 +324,125 @@ public class Mesher
 		return toReturn;
 	}
 	
+	/**
+	 * Compute 2D meshes of several faces.  Faces are meshed independently
+	 * from each other, by <code>nrThreads</code> threads.  Output files
+	 * are the same as when calling {@link #mesh2D(int, CADFace, MMesh1D,
+	 * MeshParameters, String, MeshTraitsBuilder)} on each face, and results
+	 * are returned in the same order as <code>faces</code>.
+	 *
+	 * @param faces  faces to mesh
+	 * @param faceIds  face ids
+	 * @param nrFaces  total number of faces, for log messages
+	 * @param mesh1D  the boundary mesh used to create 2D meshes
+	 * @param options2d  2D mesh parameters
+	 * @param brepFile  basename of the BRep file
+	 * @return an array telling whether each face had been successfully meshed
+	 */
+	final boolean [] mesh2D(final List<CADFace> faces, final TIntArrayList faceIds,
+		final int nrFaces, final MMesh1D mesh1D, final Map<String, String> options2d,
+		final String brepFile)
+	{
+		final boolean [] ret = new boolean[faces.size()];
+		final int [] times = new int[faces.size()];
+		List<Callable<Object>> tasks = new ArrayList<Callable<Object>>(faces.size());
+		for (int i = 0; i < faces.size(); i++)
+		{
+			final int index = i;
+			tasks.add(new Callable<Object>()
+			{
+				public Object call()
+				{
+					int iFace = faceIds.get(index);
+					logger.info("Meshing face " + iFace+"/"+nrFaces);
+					long start = System.currentTimeMillis();
+					MeshParameters mp = new MeshParameters(options2d);
+					ret[index] = mesh2D(iFace, faces.get(index), mesh1D, mp, brepFile,
+						MeshTraitsBuilder.getDefault2D());
+					times[index] = (int) (System.currentTimeMillis() - start);
+					logger.fine("Face "+iFace+" meshed in "+times[index]+" ms");
+					return null;
+				}
+			});
+		}
+		if (nrThreads <= 1 || faces.size() <= 1)
+		{
+			for (Callable<Object> c : tasks)
+			{
+				try
+				{
+					c.call();
+				}
+				catch (RuntimeException ex)
+				{
+					throw ex;
+				}
+				catch (Exception ex)
+				{
+					throw new RuntimeException(ex);
+				}
+			}
+		}
+		else
+		{
+			logger.info("Meshing faces with "+nrThreads+" threads");
+			ExecutorService executor = Executors.newFixedThreadPool(nrThreads);
+			try
+			{
+				for (Future<Object> f : executor.invokeAll(tasks))
+					f.get();
+			}
+			catch (InterruptedException ex)
+			{
+				Thread.currentThread().interrupt();
+				throw new RuntimeException(ex);
+			}
+			catch (ExecutionException ex)
+			{
+				Throwable cause = ex.getCause();
+				if (cause instanceof RuntimeException)
+					throw (RuntimeException) cause;
+				if (cause instanceof Error)
+					throw (Error) cause;
+				throw new RuntimeException(cause);
+			}
+			finally
+			{
+				executor.shutdown();
+			}
+		}
+		for (int i = 0; i < faces.size(); i++)
+		{
+			meshedFaces.add(faceIds.get(i));
+			meshingTimes.add(times[i]);
+		}
+		return ret;
+	}
+	
 	/**
 	 * Export the created mesh to various format
 	 */
 	final void exportMesh()
 	{
+		// Mesh is read once and files are written in parallel
+		MeshExportDriver driver = new MeshExportDriver();
+		String baseName = geometryFile.substring(0, geometryFile.lastIndexOf('.'));
 		if (exportMESH)
 		{
 			logger.info("Exporting MESH");
-			String MESHName=geometryFile.substring(0, geometryFile.lastIndexOf('.'))+".mesh";
-			new MeshExporter.MESH(outputDir).write(MESHName);
+			driver.add(new MeshExporter.MESH(outputDir), baseName+".mesh");
 		}
 		if (exportSTL)
 		{
 			logger.info("Exporting STL");
-			String STLName=geometryFile.substring(0, geometryFile.lastIndexOf('.'))+".stl";
-			new MeshExporter.STL(outputDir).write(STLName);
+			driver.add(new MeshExporter.STL(outputDir), baseName+".stl");
 		}
 		if (exportPOLY)
 		{
 			logger.info("Exporting POLY");
-			String MESHName=geometryFile.substring(0, geometryFile.lastIndexOf('.'))+".poly";
-			new MeshExporter.POLY(outputDir).write(MESHName);
+			driver.add(new MeshExporter.POLY(outputDir), baseName+".poly");
 		}
+		driver.write();
 	}
 	
 	/**
@@ -396,7 +513,6 @@ public class Mesher
 			edgeLength *= 2.0;
 			//defl *= 2.0;
 		}
-		MeshTraitsBuilder mtb = MeshTraitsBuilder.getDefault2D();
 		if (processMesh1d) {
 			//  Step 1: Compute 1D mesh
 			mesh1D = mesh1D(brepFile);
@@ -426,6 +542,8 @@ public class Mesher
 				seen.add(expF.current());
 			nrFaces = seen.size();			
 			seen.clear();
+			List<CADFace> faces = new ArrayList<CADFace>();
+			TIntArrayList faceIds = new TIntArrayList();
 			for (expF.init(shape, CADShapeEnum.FACE); expF.more(); expF.next())
 			{
 				CADFace face = (CADFace) expF.current();
@@ -440,10 +558,14 @@ public class Mesher
 				if (seen.contains(face))
 					continue;
 				seen.add(face);
-				logger.info("Meshing face " + iFace+"/"+nrFaces);
-				MeshParameters mp = new MeshParameters(options2d);
-				if(!mesh2D(iFace, face, mesh1D, mp, brepFile, mtb))
-					badGroups.add(iFace);
+				faces.add(face);
+				faceIds.add(iFace);
+			}
+			boolean [] meshed = mesh2D(faces, faceIds, nrFaces, mesh1D, options2d, brepFile);
+			for (int i = 0; i < meshed.length; i++)
+			{
+				if (!meshed[i])
+					badGroups.add(faceIds.get(i));
 			}
 		}
 
@@ -520,6 +642,13 @@ public class Mesher
 			out.println("Number of groups which cannot be meshed: "+badGroups.size());
 			if (badGroups.size() > 0)
 				out.println(""+badGroups);
+			if (meshedFaces.size() > 0)
+			{
+				out.println("Number of threads for 2D meshing: "+nrThreads);
+				out.println("Time to mesh each face (ms):");
+				for (int i = 0; i < meshedFaces.size(); i++)
+					out.println("  face "+meshedFaces.get(i)+": "+meshingTimes.get(i));
+			}
 			out.println("amibe.jar build time: "+buildDate);
 			Properties sys = System.getProperties();
 			sys.list(out);
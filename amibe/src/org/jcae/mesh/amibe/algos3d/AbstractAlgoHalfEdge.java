@@ -30,6 +30,8 @@ import org.jcae.mesh.amibe.ds.Vertex;
 import org.jcae.mesh.amibe.projection.MeshLiaison;
 import org.jcae.mesh.amibe.util.QSortedTree;
 import org.jcae.mesh.amibe.util.PAVLSortedTree;
+import org.jcae.mesh.amibe.util.PRedBlackSortedTree;
+import org.jcae.mesh.amibe.util.IndexedHeapSortedTree;
 import java.util.Stack;
 import java.util.Iterator;
 import java.io.ObjectOutputStream;
@@ -104,6 +106,26 @@ public abstract class AbstractAlgoHalfEdge
 		postCheck();
 	}
 
+	/**
+	 * Selects the structure used to sort edges by cost.
+	 *
+	 * @param name  <code>avl</code> (default) for {@link PAVLSortedTree},
+	 *        <code>redblack</code> for {@link PRedBlackSortedTree}, or
+	 *        <code>heap</code> for {@link IndexedHeapSortedTree}
+	 */
+	final void setSortedTree(String name)
+	{
+		if ("avl".equals(name))
+			tree = new PAVLSortedTree<HalfEdge>();
+		else if ("redblack".equals(name))
+			tree = new PRedBlackSortedTree<HalfEdge>();
+		else if ("heap".equals(name))
+			tree = new IndexedHeapSortedTree<HalfEdge>(3 * mesh.getTriangles().size() / 2 + 1);
+		else
+			throw new IllegalArgumentException("Unknown sorted tree: "+name);
+		thisLogger().fine("Sorted tree: "+tree.getClass().getName());
+	}
+
 	public void setProgressBarStatus(int n)
 	{
 		progressBarStatus = n;
@@ -24,18 +24,45 @@ package org.jcae.mesh.amibe.algos3d;
 import org.jcae.mesh.amibe.ds.Mesh;
 import org.jcae.mesh.amibe.ds.Triangle;
 import org.jcae.mesh.amibe.ds.Vertex;
+import org.jcae.mesh.amibe.metrics.ConcurrentKdTree;
+import org.jcae.mesh.amibe.metrics.EuclidianMetric3D;
 import org.jcae.mesh.amibe.metrics.KdTree;
+import org.jcae.mesh.amibe.metrics.Metric;
+import gnu.trove.TIntArrayList;
+import gnu.trove.TObjectIntHashMap;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
  * (Obsolete) Fuse near nodes in a <code>MMesh3D</code> instance.
+ *
+ * <p>
+ * When several threads are used, boundary nodes are first put into a
+ * {@link ConcurrentKdTree}, and all pairs of nodes closer than tolerance
+ * are found concurrently.  Merges are then resolved transitively with a
+ * union-find structure, each node is replaced by the first node of its
+ * set, and triangles are updated concurrently.  With a null tolerance,
+ * this gives the same result as the sequential algorithm.  Otherwise,
+ * chains of near nodes are merged together, whereas the sequential
+ * algorithm only merges nodes into the first node found within tolerance.
+ * </p>
  */
 public class Fuse
 {
 	private static final Logger LOGGER=Logger.getLogger(Fuse.class.getName());
 	private final Mesh mesh;
 	private final double tolerance;
+	private final int nrThreads;
 	
 	/**
 	 * Creates a <code>Fuse</code> instance.
@@ -54,9 +81,23 @@ public class Fuse
 	 * @param eps  tolerance.
 	 */
 	public Fuse(Mesh m, double eps)
+	{
+		this(m, eps, 1);
+	}
+	
+	/**
+	 * Creates a <code>Fuse</code> instance.
+	 *
+	 * @param m  the <code>MMesh3D</code> instance to refine.
+	 * @param eps  tolerance.
+	 * @param nrThreads  number of threads, parallel algorithm is used
+	 *        when it is greater than 1.
+	 */
+	public Fuse(Mesh m, double eps, int nrThreads)
 	{
 		mesh = m;
 		tolerance = eps*eps;
+		this.nrThreads = nrThreads;
 	}
 	
 	/**
@@ -65,6 +106,48 @@ public class Fuse
 	public void compute()
 	{
 		LOGGER.fine("Running Fuse");
+		if (nrThreads > 1)
+		{
+			computeParallel();
+			return;
+		}
+		double [] bbox = getBoundingBox();
+		KdTree<Vertex> octree = new KdTree<Vertex>(bbox);
+		HashMap<Vertex, Vertex> map = new HashMap<Vertex, Vertex>();
+		int nSubst = 0;
+		for (Vertex n: mesh.getNodes())
+		{
+			if (n.getRef() <= 0)
+				continue;
+			Vertex p = octree.getNearestVertex(mesh.getMetric(n), n.getUV());
+			if (p == null || p.getRef() <= 0 || n.sqrDistance3D(p) > tolerance)
+				octree.add(n);
+			else
+			{
+				if (LOGGER.isLoggable(Level.FINE))
+					LOGGER.fine("Node "+n+" is removed, it is too close from "+p);
+				nSubst++;
+				map.put(n, p);
+				n.setRef(0);
+			}
+		}
+		LOGGER.fine(""+nSubst+" node(s) are removed");
+		for (Triangle t: mesh.getTriangles())
+		{
+			for (int j = 0; j < 3; j++)
+			{
+				Vertex n = t.vertex[j];
+				Vertex p = map.get(n);
+				if (p != null)
+					t.vertex[j] = p;
+			}
+		}
+		// Removing nodes one by one is slow with node lists
+		mesh.getNodes().removeAll(map.keySet());
+	}
+
+	private double [] getBoundingBox()
+	{
 		double [] bmin = new double[3];
 		double [] bmax = new double[3];
 		for (int i = 0; i < 3; i++)
@@ -99,37 +182,171 @@ public class Fuse
 			bbox[i] = bmin[i];
 			bbox[i+3] = bmax[i];
 		}
-		KdTree<Vertex> octree = new KdTree<Vertex>(bbox);
-		HashMap<Vertex, Vertex> map = new HashMap<Vertex, Vertex>();
-		int nSubst = 0;
+		return bbox;
+	}
+
+	private void computeParallel()
+	{
+		long startTime = System.currentTimeMillis();
+		final List<Vertex> boundary = new ArrayList<Vertex>();
 		for (Vertex n: mesh.getNodes())
 		{
-			if (n.getRef() <= 0)
-				continue;
-			Vertex p = octree.getNearestVertex(mesh.getMetric(n), n.getUV());
-			if (p == null || p.getRef() <= 0 || n.sqrDistance3D(p) > tolerance)
-				octree.add(n);
-			else
+			if (n.getRef() > 0)
+				boundary.add(n);
+		}
+		final int nrNodes = boundary.size();
+		// Index of boundary nodes, shifted by 1 because 0 means not found
+		final TObjectIntHashMap<Vertex> index = new TObjectIntHashMap<Vertex>(nrNodes);
+		for (int i = 0; i < nrNodes; i++)
+			index.put(boundary.get(i), i + 1);
+		final ConcurrentKdTree<Vertex> octree = new ConcurrentKdTree<Vertex>(getBoundingBox());
+		octree.addAll(boundary, nrThreads);
+		long buildTime = System.currentTimeMillis();
+
+		// Find pairs of near nodes
+		int nrRanges = 4 * nrThreads;
+		final TIntArrayList [] pairs = new TIntArrayList[nrRanges];
+		List<Callable<Object>> tasks = new ArrayList<Callable<Object>>(nrRanges);
+		for (int r = 0; r < nrRanges; r++)
+		{
+			final int range = r;
+			final int start = (int) ((long) nrNodes * r / nrRanges);
+			final int end = (int) ((long) nrNodes * (r + 1) / nrRanges);
+			tasks.add(new Callable<Object>()
 			{
-				LOGGER.fine("Node "+n+" is removed, it is too close from "+p);
-				nSubst++;
-				map.put(n, p);
+				public Object call()
+				{
+					Metric metric = new EuclidianMetric3D();
+					TIntArrayList found = new TIntArrayList();
+					Vertex [] near = new Vertex[8];
+					for (int i = start; i < end; i++)
+					{
+						double [] uv = boundary.get(i).getUV();
+						int nr = octree.getVerticesInRadius(metric, uv, tolerance, near);
+						if (nr > near.length)
+						{
+							near = new Vertex[2*nr];
+							nr = octree.getVerticesInRadius(metric, uv, tolerance, near);
+						}
+						for (int j = 0; j < nr; j++)
+						{
+							int other = index.get(near[j]) - 1;
+							if (other < i)
+							{
+								found.add(i);
+								found.add(other);
+							}
+						}
+					}
+					pairs[range] = found;
+					return null;
+				}
+			});
+		}
+		runTasks(tasks);
+		long searchTime = System.currentTimeMillis();
+
+		// Merge sets, the root of each set is its first node
+		final int [] parent = new int[nrNodes];
+		for (int i = 0; i < nrNodes; i++)
+			parent[i] = i;
+		for (TIntArrayList list : pairs)
+		{
+			for (int k = 0; k < list.size(); k += 2)
+			{
+				int r1 = find(parent, list.get(k));
+				int r2 = find(parent, list.get(k+1));
+				if (r1 < r2)
+					parent[r2] = r1;
+				else if (r2 < r1)
+					parent[r1] = r2;
+			}
+		}
+		Set<Vertex> removed = new HashSet<Vertex>();
+		for (int i = 0; i < nrNodes; i++)
+		{
+			parent[i] = find(parent, i);
+			if (parent[i] != i)
+			{
+				Vertex n = boundary.get(i);
+				if (LOGGER.isLoggable(Level.FINE))
+					LOGGER.fine("Node "+n+" is removed, it is too close from "+boundary.get(parent[i]));
+				removed.add(n);
 				n.setRef(0);
 			}
 		}
-		LOGGER.fine(""+nSubst+" node(s) are removed");
-		for (Triangle t: mesh.getTriangles())
+		mesh.getNodes().removeAll(removed);
+		LOGGER.fine(""+removed.size()+" node(s) are removed");
+
+		// Substitute triangle vertices
+		final Triangle [] triangles = mesh.getTriangles().toArray(new Triangle[mesh.getTriangles().size()]);
+		tasks.clear();
+		for (int r = 0; r < nrRanges; r++)
 		{
-			for (int j = 0; j < 3; j++)
+			final int start = (int) ((long) triangles.length * r / nrRanges);
+			final int end = (int) ((long) triangles.length * (r + 1) / nrRanges);
+			tasks.add(new Callable<Object>()
 			{
-				Vertex n = t.vertex[j];
-				Vertex p = map.get(n);
-				if (p != null)
+				public Object call()
 				{
-					t.vertex[j] = p;
-					mesh.remove(n);
+					for (int i = start; i < end; i++)
+					{
+						Triangle t = triangles[i];
+						for (int j = 0; j < 3; j++)
+						{
+							int n = index.get(t.vertex[j]) - 1;
+							if (n >= 0 && parent[n] != n)
+								t.vertex[j] = boundary.get(parent[n]);
+						}
+					}
+					return null;
 				}
-			}
+			});
+		}
+		runTasks(tasks);
+		long endTime = System.currentTimeMillis();
+		LOGGER.info("Parallel fuse with "+nrThreads+" threads: "+(endTime - startTime)+" ms ("+
+			(buildTime - startTime)+" ms to build kd-tree, "+
+			(searchTime - buildTime)+" ms to find near nodes, "+
+			(endTime - searchTime)+" ms to merge them)");
+	}
+
+	private static int find(int [] parent, int i)
+	{
+		while (parent[i] != i)
+		{
+			// Path halving
+			parent[i] = parent[parent[i]];
+			i = parent[i];
+		}
+		return i;
+	}
+
+	private void runTasks(List<Callable<Object>> tasks)
+	{
+		ExecutorService executor = Executors.newFixedThreadPool(nrThreads);
+		try
+		{
+			for (Future<Object> f : executor.invokeAll(tasks))
+				f.get();
+		}
+		catch (InterruptedException ex)
+		{
+			Thread.currentThread().interrupt();
+			throw new RuntimeException(ex);
+		}
+		catch (ExecutionException ex)
+		{
+			Throwable cause = ex.getCause();
+			if (cause instanceof RuntimeException)
+				throw (RuntimeException) cause;
+			if (cause instanceof Error)
+				throw (Error) cause;
+			throw new RuntimeException(cause);
+		}
+		finally
+		{
+			executor.shutdown();
 		}
 	}
 }
@@ -53,7 +53,8 @@ public class ImproveEdgeConnectivity extends AbstractAlgoHalfEdge
 	 *
 	 * @param m  the <code>Mesh</code> instance to modify
 	 * @param options  map containing key-value pairs to modify algorithm
-	 *        behaviour.  Valid key is <code>coplanar</code>.
+	 *        behaviour.  Valid keys are <code>coplanar</code> and
+	 *        <code>sortedTree</code>.
 	 */
 	public ImproveEdgeConnectivity(final Mesh m, final Map<String, String> options)
 	{
@@ -77,6 +78,8 @@ public class ImproveEdgeConnectivity extends AbstractAlgoHalfEdge
 				minCos = Double.parseDouble(val);
 				LOGGER.fine("Coplanar value: "+minCos);
 			}
+			else if ("sortedTree".equals(key))
+				setSortedTree(val);
 			else
 				throw new RuntimeException("Unknown option: "+key);
 		}
@@ -50,7 +50,8 @@ public class LengthDecimateHalfEdge extends AbstractAlgoHalfEdge
 	 * @param m  the <code>Mesh</code> instance to refine.
 	 * @param options  map containing key-value pairs to modify algorithm
 	 *        behaviour.  Valid keys are <code>size</code>,
-	 *        <code>placement</code> and <code>maxtriangles</code>.
+	 *        <code>placement</code>, <code>maxtriangles</code> and
+	 *        <code>sortedTree</code>.
 	 */
 	public LengthDecimateHalfEdge(final Mesh m, final Map<String, String> options)
 	{
@@ -104,6 +105,8 @@ public class LengthDecimateHalfEdge extends AbstractAlgoHalfEdge
 				minCos = Double.parseDouble(val);
 				LOGGER.fine("Minimum dot product of face normals allowed for swapping an edge: "+minCos);
 			}
+			else if ("sortedTree".equals(key))
+				setSortedTree(val);
 			else
 				throw new IllegalArgumentException("Unknown option: "+key);
 		}
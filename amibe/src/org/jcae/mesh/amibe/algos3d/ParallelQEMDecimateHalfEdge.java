@@ -0,0 +1,470 @@
+/* jCAE stand for Java Computer Aided Engineering. Features are : Small CAD
+   modeler, Finite element mesher, Plugin architecture.
+
+    Copyright (C) 2011, by EADS France
+
+    This library is free software; you can redistribute it and/or
+    modify it under the terms of the GNU Lesser General Public
+    License as published by the Free Software Foundation; either
+    version 2.1 of the License, or (at your option) any later version.
+
+    This library is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+    Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public
+    License along with this library; if not, write to the Free Software
+    Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA */
+
+package org.jcae.mesh.amibe.algos3d;
+
+import org.jcae.mesh.amibe.ds.Mesh;
+import org.jcae.mesh.amibe.ds.AbstractHalfEdge;
+import org.jcae.mesh.amibe.ds.Triangle;
+import org.jcae.mesh.amibe.ds.Vertex;
+import org.jcae.mesh.amibe.traits.MeshTraitsBuilder;
+import gnu.trove.TObjectIntHashMap;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Parallel version of {@link QEMDecimateHalfEdge}.  Triangles are split into
+ * spatial partitions by recursive coordinate bisection of their centroids.
+ * Each partition is copied into a separate {@link Mesh} instance, vertices
+ * shared with other partitions are frozen, and partitions are decimated
+ * concurrently.  Partitions are then merged back into the original mesh,
+ * and a final sequential pass of {@link QEMDecimateHalfEdge} is run to
+ * process edges near partition interfaces and reach the global target.
+ *
+ * <p>
+ * When <code>deterministic</code> option is <code>true</code> (default),
+ * the number of partitions does not depend on the number of threads, and
+ * output mesh is always the same for a given input mesh.  Otherwise
+ * there is one partition per thread.
+ * </p>
+ */
+public class ParallelQEMDecimateHalfEdge
+{
+	private static final Logger LOGGER=Logger.getLogger(ParallelQEMDecimateHalfEdge.class.getName());
+	private static final int DEFAULT_PARTITIONS = 32;
+	// Partitions with less triangles are not worth the copy overhead
+	private static final int MIN_TRIANGLES_BY_PARTITION = 5000;
+	private static final double INTERFACE_MARGIN = 1.3;
+
+	private final Mesh mesh;
+	private final Map<String, String> qemOptions = new HashMap<String, String>();
+	private int nrThreads = Runtime.getRuntime().availableProcessors();
+	private int nrPartitions = 0;
+	private boolean deterministic = true;
+	private int nrFinal = 0;
+
+	/**
+	 * Creates a <code>ParallelQEMDecimateHalfEdge</code> instance.
+	 *
+	 * @param m  the <code>Mesh</code> instance to decimate.
+	 * @param options  map containing key-value pairs to modify algorithm
+	 *        behaviour.  Valid keys are <code>threads</code>,
+	 *        <code>partitions</code>, <code>deterministic</code>, and all
+	 *        keys accepted by {@link QEMDecimateHalfEdge}.
+	 */
+	public ParallelQEMDecimateHalfEdge(final Mesh m, final Map<String, String> options)
+	{
+		mesh = m;
+		for (final Map.Entry<String, String> opt: options.entrySet())
+		{
+			final String key = opt.getKey();
+			final String val = opt.getValue();
+			if ("threads".equals(key))
+			{
+				nrThreads = Integer.valueOf(val).intValue();
+				LOGGER.info("Nr threads: "+nrThreads);
+			}
+			else if ("partitions".equals(key))
+			{
+				nrPartitions = Integer.valueOf(val).intValue();
+				LOGGER.info("Nr partitions: "+nrPartitions);
+			}
+			else if ("deterministic".equals(key))
+			{
+				deterministic = Boolean.parseBoolean(val);
+				LOGGER.info("Deterministic: "+deterministic);
+			}
+			else
+			{
+				if ("maxtriangles".equals(key))
+					nrFinal = Integer.valueOf(val).intValue();
+				qemOptions.put(key, val);
+			}
+		}
+		if (nrThreads < 1)
+			nrThreads = 1;
+		if (nrPartitions <= 0)
+			nrPartitions = deterministic ? DEFAULT_PARTITIONS : nrThreads;
+	}
+
+	/**
+	 * Decimates mesh.  Partitions are processed only if mesh is large
+	 * enough, otherwise this is the same as running {@link QEMDecimateHalfEdge}.
+	 */
+	public final void compute()
+	{
+		if (!mesh.hasAdjacency())
+			throw new IllegalArgumentException("Mesh data structure does not contain adjacency relations");
+		List<Triangle> triangles = new ArrayList<Triangle>(mesh.getTriangles().size());
+		boolean hasImmutableEdges = false;
+		for (Triangle t : mesh.getTriangles())
+		{
+			if (t.hasAttributes(AbstractHalfEdge.OUTER))
+				continue;
+			triangles.add(t);
+			AbstractHalfEdge ot = t.getAbstractHalfEdge();
+			for (int i = 0; i < 3; i++)
+			{
+				ot = ot.next();
+				if (ot.hasAttributes(AbstractHalfEdge.IMMUTABLE))
+					hasImmutableEdges = true;
+			}
+		}
+		int nrParts = Math.min(nrPartitions, triangles.size() / MIN_TRIANGLES_BY_PARTITION);
+		if (hasImmutableEdges)
+			LOGGER.info("Edge attributes cannot be copied into partitions, run sequential decimation");
+		else if (nrParts > 1)
+			computeParallel(triangles, nrParts);
+		new QEMDecimateHalfEdge(mesh, qemOptions).compute();
+	}
+
+	private void computeParallel(List<Triangle> triangles, int nrParts)
+	{
+		long start = System.currentTimeMillis();
+		final int [] partOf = partition(triangles, nrParts);
+		// Vertices shared by several partitions or by non-writable
+		// triangles are frozen, their value is set to -1.  Other
+		// vertices are mapped to their partition number.
+		final TObjectIntHashMap<Vertex> owner = new TObjectIntHashMap<Vertex>(triangles.size() / 2);
+		final int [] partSize = new int[nrParts];
+		for (int i = 0, n = triangles.size(); i < n; i++)
+		{
+			Triangle t = triangles.get(i);
+			int part = partOf[i];
+			partSize[part]++;
+			for (Vertex v : t.vertex)
+			{
+				if (!t.isWritable())
+					owner.put(v, -1);
+				else if (!owner.containsKey(v))
+					owner.put(v, part);
+				else if (owner.get(v) != part)
+					owner.put(v, -1);
+			}
+		}
+		if (LOGGER.isLoggable(Level.CONFIG))
+		{
+			for (int i = 0; i < nrParts; i++)
+				LOGGER.config(" * Partition "+i+": "+partSize[i]+" triangles");
+		}
+		long partitionTime = System.currentTimeMillis();
+
+		List<Callable<Partition>> tasks = new ArrayList<Callable<Partition>>(nrParts);
+		for (int i = 0; i < nrParts; i++)
+		{
+			Map<String, String> opts = new HashMap<String, String>(qemOptions);
+			if (nrFinal > 0)
+			{
+				// Partitions keep more triangles than needed, final pass
+				// will then be able to remove edges near interfaces.
+				long target = (long) (INTERFACE_MARGIN * nrFinal * partSize[i] / triangles.size());
+				opts.put("maxtriangles", Long.toString(target));
+			}
+			tasks.add(new Partition(i, triangles, partOf, owner, partSize[i], opts));
+		}
+		ExecutorService executor = Executors.newFixedThreadPool(Math.min(nrThreads, nrParts));
+		List<Partition> results = new ArrayList<Partition>(nrParts);
+		try
+		{
+			for (Future<Partition> f : executor.invokeAll(tasks))
+				results.add(f.get());
+		}
+		catch (InterruptedException ex)
+		{
+			Thread.currentThread().interrupt();
+			throw new RuntimeException(ex);
+		}
+		catch (ExecutionException ex)
+		{
+			throw new RuntimeException(ex.getCause());
+		}
+		finally
+		{
+			executor.shutdown();
+		}
+		long decimateTime = System.currentTimeMillis();
+
+		merge(results);
+		long mergeTime = System.currentTimeMillis();
+		LOGGER.info("Partitioning into "+nrParts+" parts: "+(partitionTime - start)+" ms");
+		LOGGER.info("Parallel decimation with "+nrThreads+" threads: "+(decimateTime - partitionTime)+" ms");
+		LOGGER.info("Merging partitions: "+(mergeTime - decimateTime)+" ms");
+	}
+
+	/**
+	 * Replaces mesh triangles by triangles of decimated partitions.
+	 * Frozen vertices are mapped back to original vertices, so that
+	 * partitions are glued together by {@link Mesh#buildAdjacency}.
+	 */
+	private void merge(List<Partition> results)
+	{
+		mesh.getTriangles().clear();
+		LinkedHashSet<Vertex> nodes = new LinkedHashSet<Vertex>();
+		Vertex [] v = new Vertex[3];
+		for (Partition p : results)
+		{
+			HashMap<Vertex, Vertex> newVertices = new HashMap<Vertex, Vertex>();
+			for (Triangle t : p.submesh.getTriangles())
+			{
+				if (t.hasAttributes(AbstractHalfEdge.OUTER))
+					continue;
+				for (int i = 0; i < 3; i++)
+				{
+					Vertex copy = t.vertex[i];
+					v[i] = p.originals.get(copy);
+					if (v[i] == null)
+					{
+						v[i] = newVertices.get(copy);
+						if (v[i] == null)
+						{
+							v[i] = mesh.createVertex(copy.getUV());
+							v[i].setRef(copy.getRef());
+							newVertices.put(copy, v[i]);
+						}
+					}
+					else if (copy.isWritable())
+					{
+						double [] xyz = copy.getUV();
+						v[i].moveTo(xyz[0], xyz[1], xyz[2]);
+						v[i].setRef(copy.getRef());
+					}
+					nodes.add(v[i]);
+				}
+				Triangle newT = mesh.createTriangle(v);
+				newT.setGroupId(t.getGroupId());
+				newT.setReadable(t.isReadable());
+				newT.setWritable(t.isWritable());
+				mesh.add(newT);
+			}
+			// Release memory as soon as possible
+			p.submesh = null;
+			p.originals = null;
+		}
+		if (mesh.hasNodes())
+		{
+			mesh.getNodes().clear();
+			for (Vertex n : nodes)
+				mesh.add(n);
+		}
+		mesh.buildAdjacency();
+	}
+
+	/**
+	 * Splits triangles into partitions by recursive coordinate bisection
+	 * of their centroids.
+	 *
+	 * @return  partition number of each triangle
+	 */
+	private static int [] partition(List<Triangle> triangles, int nrParts)
+	{
+		int n = triangles.size();
+		double [] centroids = new double[3*n];
+		int [] index = new int[n];
+		for (int i = 0; i < n; i++)
+		{
+			index[i] = i;
+			Vertex [] v = triangles.get(i).vertex;
+			double [] p0 = v[0].getUV();
+			double [] p1 = v[1].getUV();
+			double [] p2 = v[2].getUV();
+			for (int k = 0; k < 3; k++)
+				centroids[3*i+k] = (p0[k] + p1[k] + p2[k]) / 3.0;
+		}
+		int [] ret = new int[n];
+		bisect(centroids, index, 0, n, 0, nrParts, ret);
+		return ret;
+	}
+
+	private static void bisect(double [] centroids, int [] index, int lo, int hi,
+		int firstPart, int nrParts, int [] partOf)
+	{
+		if (nrParts == 1)
+		{
+			for (int i = lo; i < hi; i++)
+				partOf[index[i]] = firstPart;
+			return;
+		}
+		// Split along the longest side of bounding box
+		double [] bmin = new double[] { Double.MAX_VALUE, Double.MAX_VALUE, Double.MAX_VALUE };
+		double [] bmax = new double[] { -Double.MAX_VALUE, -Double.MAX_VALUE, -Double.MAX_VALUE };
+		for (int i = lo; i < hi; i++)
+		{
+			for (int k = 0; k < 3; k++)
+			{
+				double c = centroids[3*index[i]+k];
+				if (c < bmin[k])
+					bmin[k] = c;
+				if (c > bmax[k])
+					bmax[k] = c;
+			}
+		}
+		int axis = 0;
+		for (int k = 1; k < 3; k++)
+		{
+			if (bmax[k] - bmin[k] > bmax[axis] - bmin[axis])
+				axis = k;
+		}
+		int leftParts = nrParts / 2;
+		int mid = lo + (int) ((long) (hi - lo) * leftParts / nrParts);
+		select(centroids, axis, index, lo, hi - 1, mid);
+		bisect(centroids, index, lo, mid, firstPart, leftParts, partOf);
+		bisect(centroids, index, mid, hi, firstPart + leftParts, nrParts - leftParts, partOf);
+	}
+
+	/**
+	 * Reorders <code>index[left..right]</code> so that elements before
+	 * <code>k</code> are not greater than elements after <code>k</code>.
+	 */
+	private static void select(double [] centroids, int axis, int [] index, int left, int right, int k)
+	{
+		while (right > left)
+		{
+			// Median of three pivot, there is no randomness to keep
+			// results reproducible.
+			int middle = (left + right) >>> 1;
+			if (key(centroids, axis, index[middle]) < key(centroids, axis, index[left]))
+				swap(index, left, middle);
+			if (key(centroids, axis, index[right]) < key(centroids, axis, index[left]))
+				swap(index, left, right);
+			if (key(centroids, axis, index[right]) < key(centroids, axis, index[middle]))
+				swap(index, middle, right);
+			double pivot = key(centroids, axis, index[middle]);
+			int i = left;
+			int j = right;
+			while (i <= j)
+			{
+				while (key(centroids, axis, index[i]) < pivot)
+					i++;
+				while (key(centroids, axis, index[j]) > pivot)
+					j--;
+				if (i <= j)
+				{
+					swap(index, i, j);
+					i++;
+					j--;
+				}
+			}
+			if (k <= j)
+				right = j;
+			else if (k >= i)
+				left = i;
+			else
+				return;
+		}
+	}
+
+	private static double key(double [] centroids, int axis, int i)
+	{
+		return centroids[3*i+axis];
+	}
+
+	private static void swap(int [] index, int i, int j)
+	{
+		int temp = index[i];
+		index[i] = index[j];
+		index[j] = temp;
+	}
+
+	/**
+	 * Copy of a partition into a separate mesh, which is decimated
+	 * when {@link #call} is invoked.
+	 */
+	private static class Partition implements Callable<Partition>
+	{
+		private final int part;
+		private final List<Triangle> triangles;
+		private final int [] partOf;
+		private final TObjectIntHashMap<Vertex> owner;
+		private final int size;
+		private final Map<String, String> options;
+		// Decimated mesh
+		private Mesh submesh;
+		// Map between frozen or unmodified vertices and original vertices
+		private HashMap<Vertex, Vertex> originals;
+
+		Partition(int part, List<Triangle> triangles, int [] partOf,
+			TObjectIntHashMap<Vertex> owner, int size, Map<String, String> options)
+		{
+			this.part = part;
+			this.triangles = triangles;
+			this.partOf = partOf;
+			this.owner = owner;
+			this.size = size;
+			this.options = options;
+		}
+
+		public Partition call()
+		{
+			submesh = new Mesh(MeshTraitsBuilder.getDefault3D());
+			originals = new HashMap<Vertex, Vertex>(size);
+			HashMap<Vertex, Vertex> copies = new HashMap<Vertex, Vertex>(size);
+			List<Vertex> frozen = new ArrayList<Vertex>();
+			Vertex [] v = new Vertex[3];
+			for (int i = 0, n = triangles.size(); i < n; i++)
+			{
+				if (partOf[i] != part)
+					continue;
+				Triangle t = triangles.get(i);
+				for (int j = 0; j < 3; j++)
+				{
+					Vertex orig = t.vertex[j];
+					v[j] = copies.get(orig);
+					if (v[j] != null)
+						continue;
+					v[j] = submesh.createVertex(orig.getUV());
+					v[j].setRef(orig.getRef());
+					v[j].setMutable(orig.isMutable());
+					if (owner.get(orig) < 0)
+						frozen.add(v[j]);
+					else
+					{
+						v[j].setReadable(orig.isReadable());
+						v[j].setWritable(orig.isWritable());
+					}
+					copies.put(orig, v[j]);
+					originals.put(v[j], orig);
+				}
+				Triangle newT = submesh.createTriangle(v);
+				newT.setGroupId(t.getGroupId());
+				newT.setReadable(t.isReadable());
+				newT.setWritable(t.isWritable());
+				submesh.add(newT);
+			}
+			// Vertices must be readable when building adjacency relations
+			submesh.buildAdjacency();
+			for (Vertex f : frozen)
+			{
+				f.setReadable(false);
+				f.setWritable(false);
+			}
+			new QEMDecimateHalfEdge(submesh, options).compute();
+			return this;
+		}
+	}
+}
@@ -127,7 +127,8 @@ public class QEMDecimateHalfEdge extends AbstractAlgoHalfEdge
 	 * @param m  the <code>Mesh</code> instance to refine.
 	 * @param options  map containing key-value pairs to modify algorithm
 	 *        behaviour.  Valid keys are <code>size</code>,
-	 *        <code>placement</code> and <code>maxtriangles</code>.
+	 *        <code>placement</code>, <code>maxtriangles</code> and
+	 *        <code>sortedTree</code>.
 	 */
 	public QEMDecimateHalfEdge(final Mesh m, final Map<String, String> options)
 	{
@@ -175,6 +176,8 @@ public class QEMDecimateHalfEdge extends AbstractAlgoHalfEdge
 				freeEdgesOnly = Boolean.parseBoolean(val);
 				LOGGER.info("freeEdgesOnly: "+freeEdgesOnly);
 			}
+			else if ("sortedTree".equals(key))
+				setSortedTree(val);
 			else if(!metrics.isKnownOption(key))
 				throw new RuntimeException("Unknown option: "+key);
 		}
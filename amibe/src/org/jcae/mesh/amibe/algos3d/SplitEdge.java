@@ -73,8 +73,8 @@ public class SplitEdge extends AbstractAlgoHalfEdge
 	 *
 	 * @param m  the <code>Mesh</code> instance to refine.
 	 * @param options  map containing key-value pairs to modify algorithm
-	 *        behaviour.  Valid keys are <code>size</code> and
-	 *        <code>maxtriangles</code>.
+	 *        behaviour.  Valid keys are <code>size</code>,
+	 *        <code>maxtriangles</code> and <code>sortedTree</code>.
 	 */
 	public SplitEdge(final Mesh m, final Map<String, String> options)
 	{
@@ -106,6 +106,8 @@ public class SplitEdge extends AbstractAlgoHalfEdge
 				minCos = Double.parseDouble(val);
 				LOGGER.fine("Minimum dot product of face normals allowed for swapping an edge: "+minCos);
 			}
+			else if ("sortedTree".equals(key))
+				setSortedTree(val);
 			else
 				throw new RuntimeException("Unknown option: "+key);
 		}
@@ -49,7 +49,8 @@ public class SwapEdge extends AbstractAlgoHalfEdge
 	 *
 	 * @param m  the <code>Mesh</code> instance to modify
 	 * @param options  map containing key-value pairs to modify algorithm
-	 *        behaviour.  Valid key is <code>coplanarity</code>.
+	 *        behaviour.  Valid keys are <code>coplanarity</code> and
+	 *        <code>sortedTree</code>.
 	 */
 	public SwapEdge(final Mesh m, final Map<String, String> options)
 	{
@@ -81,6 +82,8 @@ public class SwapEdge extends AbstractAlgoHalfEdge
 			{
 				expectInsert = Boolean.parseBoolean(val);
 			}
+			else if ("sortedTree".equals(key))
+				setSortedTree(val);
 			else
 				throw new RuntimeException("Unknown option: "+key);
 		}
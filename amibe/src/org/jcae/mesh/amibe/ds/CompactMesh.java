@@ -0,0 +1,537 @@
+/* jCAE stand for Java Computer Aided Engineering. Features are : Small CAD
+   modeler, Finite element mesher, Plugin architecture.
+
+    Copyright (C) 2011, by EADS France
+
+    This library is free software; you can redistribute it and/or
+    modify it under the terms of the GNU Lesser General Public
+    License as published by the Free Software Foundation; either
+    version 2.1 of the License, or (at your option) any later version.
+
+    This library is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+    Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public
+    License along with this library; if not, write to the Free Software
+    Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA */
+
+package org.jcae.mesh.amibe.ds;
+
+import org.jcae.mesh.amibe.traits.MeshTraitsBuilder;
+import gnu.trove.TObjectIntHashMap;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Compact triangle mesh for read-only pipelines.  Vertices and triangles are
+ * not objects but indices into flat arrays:
+ * <ul>
+ *   <li>coordinates of vertex <code>i</code> are stored at positions
+ *       <code>3*i</code> to <code>3*i+2</code> of {@link #getCoordinates};</li>
+ *   <li>vertices of triangle <code>t</code> are stored at positions
+ *       <code>3*t</code> to <code>3*t+2</code> of {@link #getTriangles};</li>
+ *   <li>half-edge <code>3*t+i</code> is the edge of triangle
+ *       <code>t</code> opposite to its <code>i</code>-th vertex, as in
+ *       {@link AbstractHalfEdge}; its symmetric half-edge and its attributes
+ *       are found at the same position in {@link #getOpposite} and
+ *       {@link #getAttributes}.</li>
+ * </ul>
+ *
+ * Such a mesh takes much less memory than {@link Mesh}, and can be
+ * loaded without creating any object.  It cannot be modified, it has to be
+ * converted into a {@link Mesh} for that purpose.  Outer triangles are not
+ * stored; boundary and non-manifold half-edges have no symmetric half-edge,
+ * their opposite index is <code>-1</code>.  Beams and node groups are not
+ * supported.
+ */
+public final class CompactMesh
+{
+	private final double [] coords;
+	private final int [] refs;
+	private final int [] triangles;
+	private final int [] groups;
+	private final int [] opposite;
+	private final byte [] attributes;
+	private final Map<Integer, String> groupNames = new HashMap<Integer, String>();
+	private boolean persistentReferences = false;
+
+	/**
+	 * Creates a compact mesh.  Arrays are not copied, they must not be
+	 * modified afterwards.  Adjacency relations are computed from
+	 * triangle connectivity.
+	 *
+	 * @param coords  vertex coordinates
+	 * @param refs  vertex references, or <code>null</code> if all references are 0
+	 * @param triangles  triangle connectivity
+	 * @param groups  triangle group ids, or <code>null</code> if triangles
+	 *        do not belong to any group
+	 */
+	public CompactMesh(double [] coords, int [] refs, int [] triangles, int [] groups)
+	{
+		if (coords.length % 3 != 0 || triangles.length % 3 != 0)
+			throw new IllegalArgumentException("Array lengths must be multiples of 3");
+		int nrVertices = coords.length / 3;
+		if (refs == null)
+			refs = new int[nrVertices];
+		if (refs.length != nrVertices)
+			throw new IllegalArgumentException("Wrong number of references: "+refs.length);
+		if (groups == null)
+		{
+			groups = new int[triangles.length / 3];
+			for (int i = 0; i < groups.length; i++)
+				groups[i] = -1;
+		}
+		if (groups.length != triangles.length / 3)
+			throw new IllegalArgumentException("Wrong number of group ids: "+groups.length);
+		for (int v : triangles)
+		{
+			if (v < 0 || v >= nrVertices)
+				throw new IllegalArgumentException("Invalid vertex index: "+v);
+		}
+		this.coords = coords;
+		this.refs = refs;
+		this.triangles = triangles;
+		this.groups = groups;
+		opposite = new int[triangles.length];
+		attributes = new byte[triangles.length];
+		buildAdjacency();
+	}
+
+	/**
+	 * Creates a compact mesh from a <code>Mesh</code> instance.  Only
+	 * writable triangles are copied.  Vertices are numbered in the same
+	 * order as {@link org.jcae.mesh.xmldata.MeshWriter}: nodes
+	 * if mesh has nodes, otherwise vertices of writable triangles in their
+	 * order of appearance.  If mesh has adjacency relations, half-edge
+	 * attributes are copied too.
+	 *
+	 * @param mesh  mesh
+	 * @return a compact copy of this mesh
+	 */
+	public static CompactMesh fromMesh(Mesh mesh)
+	{
+		Collection<Triangle> triangleList = mesh.getTriangles();
+		ArrayList<Triangle> tList = new ArrayList<Triangle>(triangleList.size());
+		for (Triangle t : triangleList)
+		{
+			if (t.isWritable())
+				tList.add(t);
+		}
+		ArrayList<Vertex> vList;
+		TObjectIntHashMap<Vertex> index;
+		if (mesh.hasNodes())
+		{
+			Collection<Vertex> nodes = mesh.getNodes();
+			vList = new ArrayList<Vertex>(nodes.size());
+			index = new TObjectIntHashMap<Vertex>(nodes.size());
+			for (Vertex v : nodes)
+			{
+				if (v != mesh.outerVertex && !index.containsKey(v))
+				{
+					index.put(v, vList.size());
+					vList.add(v);
+				}
+			}
+		}
+		else
+		{
+			vList = new ArrayList<Vertex>(tList.size() / 2);
+			index = new TObjectIntHashMap<Vertex>(tList.size() / 2);
+		}
+		for (Triangle t : tList)
+		{
+			for (int i = 0; i < 3; i++)
+			{
+				Vertex v = t.vertex[i];
+				if (!index.containsKey(v))
+				{
+					index.put(v, vList.size());
+					vList.add(v);
+				}
+			}
+		}
+
+		double [] coords = new double[3*vList.size()];
+		int [] refs = new int[vList.size()];
+		for (int i = 0; i < refs.length; i++)
+		{
+			Vertex v = vList.get(i);
+			System.arraycopy(v.getUV(), 0, coords, 3*i, 3);
+			refs[i] = v.getRef();
+		}
+		int [] triangles = new int[3*tList.size()];
+		int [] groups = new int[tList.size()];
+		for (int ti = 0; ti < groups.length; ti++)
+		{
+			Triangle t = tList.get(ti);
+			for (int i = 0; i < 3; i++)
+				triangles[3*ti+i] = index.get(t.vertex[i]);
+			groups[ti] = t.getGroupId();
+		}
+		CompactMesh ret = new CompactMesh(coords, refs, triangles, groups);
+		ret.persistentReferences = mesh.hasPersistentReferences();
+		for (int ti = 0; ti < groups.length; ti++)
+		{
+			int id = groups[ti];
+			if (!ret.groupNames.containsKey(id) && mesh.getGroupName(id) != null)
+				ret.groupNames.put(id, mesh.getGroupName(id));
+		}
+		if (mesh.hasAdjacency())
+		{
+			AbstractHalfEdge ot = null;
+			for (int ti = 0; ti < groups.length; ti++)
+			{
+				ot = tList.get(ti).getAbstractHalfEdge(ot);
+				for (int i = 0; i < 3; i++)
+				{
+					ot = ot.next();
+					ret.attributes[3*ti+ot.getLocalNumber()] |= (byte) copiedAttributes(ot);
+				}
+			}
+		}
+		return ret;
+	}
+
+	/**
+	 * Converts this compact mesh into a <code>Mesh</code> instance.
+	 * Adjacency relations are built if required by <code>builder</code>,
+	 * and half-edge attributes are then copied.
+	 *
+	 * @param builder  mesh traits builder
+	 * @return a new <code>Mesh</code> instance
+	 */
+	public Mesh toMesh(MeshTraitsBuilder builder)
+	{
+		Mesh mesh = new Mesh(builder);
+		int nrVertices = getNumberOfVertices();
+		int nrTriangles = getNumberOfTriangles();
+		mesh.ensureCapacity(2 * nrVertices);
+		mesh.setPersistentReferences(persistentReferences);
+		Vertex [] vertices = new Vertex[nrVertices];
+		for (int i = 0; i < nrVertices; i++)
+		{
+			vertices[i] = mesh.createVertex(coords[3*i], coords[3*i+1], coords[3*i+2]);
+			vertices[i].setRef(refs[i]);
+		}
+		if (mesh.hasNodes())
+		{
+			for (Vertex v : vertices)
+				mesh.add(v);
+		}
+		Triangle [] tList = new Triangle[nrTriangles];
+		for (int ti = 0; ti < nrTriangles; ti++)
+		{
+			tList[ti] = mesh.createTriangle(vertices[triangles[3*ti]],
+				vertices[triangles[3*ti+1]], vertices[triangles[3*ti+2]]);
+			tList[ti].setGroupId(groups[ti]);
+			mesh.add(tList[ti]);
+		}
+		for (Map.Entry<Integer, String> e : groupNames.entrySet())
+			mesh.setGroupName(e.getKey(), e.getValue());
+		if (mesh.hasAdjacency())
+		{
+			mesh.buildAdjacency();
+			AbstractHalfEdge ot = null;
+			for (int ti = 0; ti < nrTriangles; ti++)
+			{
+				ot = tList[ti].getAbstractHalfEdge(ot);
+				for (int i = 0; i < 3; i++)
+				{
+					ot = ot.next();
+					int attr = attributes[3*ti+ot.getLocalNumber()] & COPIED_ATTRIBUTES;
+					if (attr != 0)
+						ot.setAttributes(attr);
+				}
+			}
+		}
+		return mesh;
+	}
+
+	// Attributes which are not computed by buildAdjacency
+	private static final int COPIED_ATTRIBUTES = 0xff & ~(AbstractHalfEdge.BOUNDARY |
+		AbstractHalfEdge.OUTER | AbstractHalfEdge.NONMANIFOLD);
+
+	private static int copiedAttributes(AbstractHalfEdge ot)
+	{
+		int ret = 0;
+		for (int bit = 1; bit <= 0x80; bit <<= 1)
+		{
+			if ((bit & COPIED_ATTRIBUTES) != 0 && ot.hasAttributes(bit))
+				ret |= bit;
+		}
+		return ret;
+	}
+
+	/**
+	 * Computes opposite half-edges from triangle connectivity.  Half-edges
+	 * are sorted by their origin, and symmetric half-edge of
+	 * <code>(a,b)</code> is searched among half-edges starting from
+	 * <code>b</code>.  Edges shared by more than two half-edges, or by
+	 * two half-edges with the same orientation, are marked as non-manifold.
+	 */
+	private void buildAdjacency()
+	{
+		int nrVertices = getNumberOfVertices();
+		int nrHalfEdges = triangles.length;
+		int [] offsets = new int[nrVertices + 1];
+		for (int he = 0; he < nrHalfEdges; he++)
+			offsets[origin(he) + 1]++;
+		for (int i = 0; i < nrVertices; i++)
+			offsets[i+1] += offsets[i];
+		int [] byOrigin = new int[nrHalfEdges];
+		int [] fill = new int[nrVertices];
+		System.arraycopy(offsets, 0, fill, 0, nrVertices);
+		for (int he = 0; he < nrHalfEdges; he++)
+		{
+			int o = origin(he);
+			byOrigin[fill[o]] = he;
+			fill[o]++;
+		}
+		fill = null;
+
+		for (int he = 0; he < nrHalfEdges; he++)
+		{
+			int a = origin(he);
+			int b = destination(he);
+			int nrSame = 0;
+			int nrReverse = 0;
+			int reverse = -1;
+			for (int k = offsets[a]; k < offsets[a+1]; k++)
+			{
+				if (destination(byOrigin[k]) == b)
+					nrSame++;
+			}
+			for (int k = offsets[b]; k < offsets[b+1]; k++)
+			{
+				if (destination(byOrigin[k]) == a)
+				{
+					reverse = byOrigin[k];
+					nrReverse++;
+				}
+			}
+			opposite[he] = -1;
+			if (nrSame == 1 && nrReverse == 1)
+				opposite[he] = reverse;
+			else if (nrSame == 1 && nrReverse == 0)
+				attributes[he] = (byte) AbstractHalfEdge.BOUNDARY;
+			else
+				attributes[he] = (byte) AbstractHalfEdge.NONMANIFOLD;
+		}
+	}
+
+	/**
+	 * Returns the number of vertices.
+	 *
+	 * @return the number of vertices
+	 */
+	public int getNumberOfVertices()
+	{
+		return coords.length / 3;
+	}
+
+	/**
+	 * Returns the number of triangles.
+	 *
+	 * @return the number of triangles
+	 */
+	public int getNumberOfTriangles()
+	{
+		return groups.length;
+	}
+
+	/**
+	 * Returns vertex coordinates.  This array must not be modified.
+	 *
+	 * @return vertex coordinates
+	 */
+	public double [] getCoordinates()
+	{
+		return coords;
+	}
+
+	/**
+	 * Returns vertex references.  This array must not be modified.
+	 *
+	 * @return vertex references
+	 */
+	public int [] getReferences()
+	{
+		return refs;
+	}
+
+	/**
+	 * Returns triangle connectivity.  This array must not be modified.
+	 *
+	 * @return triangle connectivity
+	 */
+	public int [] getTriangles()
+	{
+		return triangles;
+	}
+
+	/**
+	 * Returns triangle group ids.  This array must not be modified.
+	 *
+	 * @return triangle group ids
+	 */
+	public int [] getGroups()
+	{
+		return groups;
+	}
+
+	/**
+	 * Returns symmetric half-edges.  This array must not be modified.
+	 *
+	 * @return symmetric half-edges
+	 */
+	public int [] getOpposite()
+	{
+		return opposite;
+	}
+
+	/**
+	 * Returns half-edge attributes.  This array must not be modified.
+	 *
+	 * @return half-edge attributes
+	 */
+	public byte [] getAttributes()
+	{
+		return attributes;
+	}
+
+	public void setGroupName(int id, String name)
+	{
+		groupNames.put(id, name);
+	}
+
+	public String getGroupName(int id)
+	{
+		return groupNames.get(id);
+	}
+
+	public boolean hasPersistentReferences()
+	{
+		return persistentReferences;
+	}
+
+	public void setPersistentReferences(boolean persistentReferences)
+	{
+		this.persistentReferences = persistentReferences;
+	}
+
+	/**
+	 * Returns the next half-edge in the same triangle.
+	 *
+	 * @param he  half-edge index
+	 * @return the next half-edge in the same triangle
+	 */
+	public static int next(int he)
+	{
+		return (he % 3 == 2 ? he - 2 : he + 1);
+	}
+
+	/**
+	 * Returns the previous half-edge in the same triangle.
+	 *
+	 * @param he  half-edge index
+	 * @return the previous half-edge in the same triangle
+	 */
+	public static int prev(int he)
+	{
+		return (he % 3 == 0 ? he + 2 : he - 1);
+	}
+
+	/**
+	 * Returns the symmetric half-edge.
+	 *
+	 * @param he  half-edge index
+	 * @return the symmetric half-edge, or <code>-1</code> if this is a
+	 *         boundary or non-manifold half-edge
+	 */
+	public int sym(int he)
+	{
+		return opposite[he];
+	}
+
+	public int origin(int he)
+	{
+		return triangles[next(he)];
+	}
+
+	public int destination(int he)
+	{
+		return triangles[prev(he)];
+	}
+
+	public int apex(int he)
+	{
+		return triangles[he];
+	}
+
+	/**
+	 * Checks if some attributes of a half-edge are set.
+	 *
+	 * @param he  half-edge index
+	 * @param attr  attributes to check
+	 * @return <code>true</code> if this half-edge has one of these attributes set,
+	 *         <code>false</code> otherwise
+	 */
+	public boolean hasAttributes(int he, int attr)
+	{
+		return (attributes[he] & attr) != 0;
+	}
+
+	/**
+	 * Returns the distance between two vertices.
+	 *
+	 * @param v1  first vertex
+	 * @param v2  second vertex
+	 * @return the distance between these vertices
+	 * @see Vertex#distance3D
+	 */
+	public double distance3D(int v1, int v2)
+	{
+		double x = coords[3*v1] - coords[3*v2];
+		double y = coords[3*v1+1] - coords[3*v2+1];
+		double z = coords[3*v1+2] - coords[3*v2+2];
+		return Math.sqrt(x*x+y*y+z*z);
+	}
+
+	/**
+	 * Returns the angle at which a segment is seen.
+	 *
+	 * @param v  vertex
+	 * @param n1  first end point of the segment
+	 * @param n2  second end point of the segment
+	 * @return the angle at which the segment is seen
+	 * @see Vertex#angle3D
+	 */
+	public double angle3D(int v, int n1, int n2)
+	{
+		double normPn1 = distance3D(v, n1);
+		double normPn2 = distance3D(v, n2);
+		if ((normPn1 == 0.0) || (normPn2 == 0.0))
+			return 0.0;
+		double normPn3 = distance3D(n1, n2);
+		double mu, alpha;
+		if (normPn1 < normPn2)
+		{
+			double temp = normPn1;
+			normPn1 = normPn2;
+			normPn2 = temp;
+		}
+		if (normPn2 < normPn3)
+			mu = normPn2 - (normPn1 - normPn3);
+		else
+			mu = normPn3 - (normPn1 - normPn2);
+		alpha = 2.0 * Math.atan(Math.sqrt(
+			((normPn1-normPn2)+normPn3)*mu/
+				((normPn1+(normPn2+normPn3))*((normPn1-normPn3)+normPn2))
+		));
+		return alpha;
+	}
+}
@@ -22,6 +22,7 @@ package org.jcae.mesh.amibe.ds;
 
 import org.jcae.mesh.amibe.traits.HalfEdgeTraitsBuilder;
 import org.jcae.mesh.amibe.metrics.Matrix3D;
+import org.jcae.mesh.amibe.util.IndexedHeapSortedTree;
 import java.util.Collection;
 import java.util.ArrayList;
 import java.util.HashSet;
@@ -39,7 +40,7 @@ import java.util.logging.Logger;
  * (between 0 and 2) and a triangle.  It has a link to the next edge in the
  * same triangle, and to its symmetric edge.
  */
-public class HalfEdge extends AbstractHalfEdge implements Serializable
+public class HalfEdge extends AbstractHalfEdge implements IndexedHeapSortedTree.Indexed, Serializable
 {
 	private static final long serialVersionUID = -2460993797089718106L;
 	private static final Logger logger=Logger.getLogger(HalfEdge.class.getName());
@@ -48,6 +49,8 @@ public class HalfEdge extends AbstractHalfEdge implements Serializable
 	private byte attributes;
 	private HalfEdge sym;
 	private HalfEdge next;
+	// Position in IndexedHeapSortedTree
+	private int heapIndex = -1;
 
 	private static final int [] next3 = { 1, 2, 0 };
 	private static final int [] prev3 = { 2, 0, 1 };
@@ -86,6 +89,16 @@ public class HalfEdge extends AbstractHalfEdge implements Serializable
 	{
 		return attributes;
 	}
+
+	public final int getHeapIndex()
+	{
+		return heapIndex;
+	}
+
+	public final void setHeapIndex(int index)
+	{
+		heapIndex = index;
+	}
 	
 	/**
 	 * Sets the edge tied to this object.
@@ -37,7 +37,6 @@ import java.util.Collection;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.LinkedHashSet;
-import java.util.LinkedHashMap;
 import java.util.HashSet;
 import java.util.Map;
 import java.util.Iterator;
@@ -583,14 +582,89 @@ public class Mesh implements Serializable
 	}
 	public final void buildAdjacency(int currentMaxLabel)
 	{
-		//  Connect all edges together
-		logger.fine("Connect triangles");
-		ArrayList<Triangle> newTri = new ArrayList<Triangle>();
+		buildAdjacency(currentMaxLabel, 1);
+	}
+
+	/**
+	 * Build adjacency relations between triangles.  Manifold edges are
+	 * glued concurrently when triangles contain {@link HalfEdge}
+	 * instances, other edges are then processed sequentially.  Result
+	 * does not depend on the number of threads.
+	 *
+	 * @param currentMaxLabel  highest reference already used, references
+	 *        created for boundary nodes are greater than this value
+	 * @param nrThreads  number of threads
+	 */
+	public final void buildAdjacency(int currentMaxLabel, int nrThreads)
+	{
 		//  For each vertex, build the list of triangles
 		//  connected to this vertex.
-		Map<Vertex, ArrayList<Triangle>> tVertList = getMapVertexLinks();
+		buildAdjacency(new VertexTriangleIncidence(nodeList, triangleList), currentMaxLabel, nrThreads);
+	}
+
+	/**
+	 * Build adjacency relations between triangles when vertex indices of
+	 * triangles are already known, for instance when triangles have just
+	 * been read from disk.  Vertices do not have to be hashed, otherwise
+	 * this method gives the same result as {@link #buildAdjacency(int, int)}.
+	 *
+	 * @param vertices  vertex array; if mesh has nodes, it must contain the
+	 *        same vertices as node list, in the same order
+	 * @param connectivity  indices in <code>vertices</code> of triangle
+	 *        vertices, in the same order as in triangle list, which must not
+	 *        contain outer triangles
+	 * @param currentMaxLabel  highest reference already used, references
+	 *        created for boundary nodes are greater than this value
+	 * @param nrThreads  number of threads
+	 */
+	public final void buildAdjacency(Vertex [] vertices, int [] connectivity, int currentMaxLabel, int nrThreads)
+	{
+		Triangle [] triangles = new Triangle[triangleList.size()];
+		triangleList.toArray(triangles);
+		if (3 * triangles.length != connectivity.length)
+			throw new IllegalArgumentException("Connectivity array does not match triangle list");
+		VertexTriangleIncidence incidence;
+		if (nodeList != null)
+		{
+			assert nodeList.size() == vertices.length;
+			incidence = new VertexTriangleIncidence(vertices, triangles, connectivity);
+		}
+		else
+		{
+			//  Number vertices of writable triangles by order of
+			//  appearance, as is done when vertices are hashed
+			int [] newIndex = new int[vertices.length];
+			int [] triangleVertices = new int[connectivity.length];
+			ArrayList<Vertex> vList = new ArrayList<Vertex>(vertices.length);
+			for (int ti = 0; ti < triangles.length; ti++)
+			{
+				if (!triangles[ti].isWritable())
+					continue;
+				for (int i = 3*ti; i < 3*ti+3; i++)
+				{
+					int v = connectivity[i];
+					if (newIndex[v] == 0)
+					{
+						vList.add(vertices[v]);
+						newIndex[v] = vList.size();
+					}
+				}
+			}
+			for (int i = 0; i < connectivity.length; i++)
+				triangleVertices[i] = newIndex[connectivity[i]] - 1;
+			newIndex = null;
+			incidence = new VertexTriangleIncidence(vList.toArray(new Vertex[vList.size()]),
+				triangles, triangleVertices);
+		}
+		buildAdjacency(incidence, currentMaxLabel, nrThreads);
+	}
+
+	private void buildAdjacency(VertexTriangleIncidence incidence, int currentMaxLabel, int nrThreads)
+	{
 		//  Connect all edges together
-		glueSymmetricHalfEdges(tVertList, newTri);
+		logger.fine("Connect triangles");
+		ArrayList<Triangle> newTri = new ArrayList<Triangle>();
+		glueSymmetricHalfEdges(incidence, newTri, nrThreads);
 
 		//  Mark boundary edges and bind them to virtual triangles.
 		logger.fine("Connect boundary triangles");
@@ -598,7 +672,7 @@ public class Mesh implements Serializable
 
 		//  Fix links for junctions
 		logger.fine("Fix vertex links");
-		rebuildVertexLinks(tVertList);
+		rebuildVertexLinks(incidence, nrThreads);
 		
 		//  Find the list of vertices which are on mesh boundary
 		logger.fine("Build the list of nodes on boundaries and non-manifold edges");
@@ -631,7 +705,7 @@ public class Mesh implements Serializable
 
 		int nrJunctionPoints = 0;
 		Collection<Vertex> freeVertices = new HashSet<Vertex>();
-		for (Vertex v: tVertList.keySet())
+		for (Vertex v: incidence.vertices)
 		{
 			if (bndNodes.contains(v))
 				continue;
@@ -658,9 +732,6 @@ public class Mesh implements Serializable
 		}
 		if (maxLabel != currentMaxLabel)
 			logger.fine("Created "+(maxLabel - currentMaxLabel)+" more references");
-		//  Remove all references to help the garbage collector.
-		for (ArrayList<Triangle> list : tVertList.values())
-			list.clear();
 		// Add outer triangles
 		triangleList.addAll(newTri);
 		if (traitsBuilder.hasTrace())
@@ -671,57 +742,29 @@ public class Mesh implements Serializable
 		}
 	}
 
-	private Map<Vertex, ArrayList<Triangle>> getMapVertexLinks()
+	private void rebuildVertexLinks()
 	{
-		Collection<Vertex> vertices;
-		if (nodeList == null)
-		{
-			vertices = new LinkedHashSet<Vertex>(triangleList.size()/2);
-			for (Triangle t: triangleList)
-			{
-				if (!t.isWritable())
-					continue;
-				for (Vertex v: t.vertex)
-					vertices.add(v);
-			}
-		}
-		else
-		{
-			vertices = nodeList;
-		}
-		Map<Vertex, ArrayList<Triangle>> tVertList = new LinkedHashMap<Vertex, ArrayList<Triangle>>(vertices.size());
-		for (Vertex v: vertices)
-			tVertList.put(v, new ArrayList<Triangle>(10));
-		for (Triangle t: triangleList)
-		{
-			if (t.hasAttributes(AbstractHalfEdge.OUTER))
-				continue;
-			for (Vertex v: t.vertex)
-			{
-				if (v.isReadable())
-				{
-					ArrayList<Triangle> list = tVertList.get(v);
-					list.add(t);
-				}
-				v.setLink(t);
-			}
- 		}
-		return tVertList;
+		rebuildVertexLinks(new VertexTriangleIncidence(nodeList, triangleList), 1);
 	}
 
-	private void rebuildVertexLinks()
+	private void rebuildVertexLinks(final VertexTriangleIncidence incidence, int nrThreads)
 	{
-		rebuildVertexLinks(getMapVertexLinks());
+		incidence.forEachRange(nrThreads, new VertexTriangleIncidence.RangeProcedure()
+		{
+			public void run(int start, int end)
+			{
+				rebuildVertexLinks(incidence, start, end);
+			}
+		});
 	}
 
-	private void rebuildVertexLinks(Map<Vertex, ArrayList<Triangle>> tVertList)
+	private static void rebuildVertexLinks(VertexTriangleIncidence incidence, int start, int end)
 	{
-		for (Map.Entry<Vertex, ArrayList<Triangle>> entry : tVertList.entrySet())
+		AbstractHalfEdge ot = null;
+		for (int i = start; i < end; i++)
 		{
-			Vertex v = entry.getKey();
-			ArrayList<Triangle> list = entry.getValue();
+			Vertex v = incidence.vertices[i];
 			int cnt = 0;
-			AbstractHalfEdge ot = null;
 			if (null == v.getLink())
 				continue;
 			ot = v.getIncidentAbstractHalfEdge((Triangle) v.getLink(), ot);
@@ -738,10 +781,12 @@ public class Mesh implements Serializable
 				ot = ot.nextOriginLoop();
 			}
 			while (ot.destination() != d);
-			if (cnt == list.size())
+			if (cnt == incidence.degree(i))
 				continue;
 			// Non-manifold vertex
-			LinkedHashSet<Triangle> neighbours = new LinkedHashSet<Triangle>(list);
+			LinkedHashSet<Triangle> neighbours = new LinkedHashSet<Triangle>();
+			for (int k = incidence.offsets[i]; k < incidence.offsets[i+1]; k++)
+				neighbours.add(incidence.triangles[incidence.incidence[k]]);
 			ArrayList<Triangle> fans = new ArrayList<Triangle>();
 			while (!neighbours.isEmpty())
 			{
@@ -800,34 +845,46 @@ public class Mesh implements Serializable
 		}
 	}
 
-	private void glueSymmetricHalfEdges(Map<Vertex, ArrayList<Triangle>> tVertList, ArrayList<Triangle> newTri)
+	private void glueSymmetricHalfEdges(final VertexTriangleIncidence incidence, ArrayList<Triangle> newTri, int nrThreads)
 	{
-		Triangle.List markedTri = new Triangle.List();
+		final int nrVertices = incidence.vertices.length;
+		// Vertices of edges which are not processed by glueManifoldHalfEdges
+		final boolean [] pending = new boolean[nrVertices];
+		// Virtual half-edges store adjacency relations of the 3 edges
+		// of a triangle into the same byte, they cannot be glued concurrently
+		if (incidence.triangles.length == 0 || !(incidence.triangles[0] instanceof TriangleHE))
+			nrThreads = 1;
+		incidence.forEachRange(nrThreads, new VertexTriangleIncidence.RangeProcedure()
+		{
+			public void run(int start, int end)
+			{
+				glueManifoldHalfEdges(incidence, start, end, pending);
+			}
+		});
+
 		AbstractHalfEdge ot = null;
 		AbstractHalfEdge ot2 = null;
 		AbstractHalfEdge [] work = new AbstractHalfEdge[3];
-		for (Map.Entry<Vertex, ArrayList<Triangle>> e: tVertList.entrySet())
+		for (int i = 0; i < nrVertices; i++)
 		{
-			//  Mark all triangles having v as vertex
-			Vertex v = e.getKey();
-			ArrayList<Triangle> neighTriList = e.getValue();
-			if (neighTriList == null)
+			if (!pending[i])
 				continue;
-			for (Triangle t: neighTriList)
-				markedTri.add(t);
+			Vertex v = incidence.vertices[i];
 			//  Loop on all edges incident to v
-			for (Triangle t: neighTriList)
+			for (int k = incidence.offsets[i]; k < incidence.offsets[i+1]; k++)
 			{
+				int ti = incidence.incidence[k];
+				Triangle t = incidence.triangles[ti];
 				ot = v.getIncidentAbstractHalfEdge(t, ot);
 				// Skip this edge if adjacency relations already exist, 
 				if (ot.hasSymmetricEdge())
 					continue;
 				Vertex v2 = ot.destination();
-				ArrayList<Triangle> neighTriList2 = tVertList.get(v2);
-				if (neighTriList2 == null)
+				int i2 = incidence.indexOf(ti, v2);
+				if (i2 < 0)
 					continue;
 				// Edge (v,v2) has not yet been processed.
-				// List of triangles incident to v2.
+				// Loop on triangles incident to v2.
 				boolean manifold = true;
 				// Ensure that work[0] and work[1] are non null to avoid
 				// tests in glueNonManifoldHalfEdges
@@ -835,10 +892,12 @@ public class Mesh implements Serializable
 					work[0] = t.getAbstractHalfEdge(work[0]);
 				if (work[1] == null)
 					work[1] = t.getAbstractHalfEdge(work[1]);
-				for (Triangle t2: neighTriList2)
+				for (int k2 = incidence.offsets[i2]; k2 < incidence.offsets[i2+1]; k2++)
 				{
-					if (t == t2 || !markedTri.contains(t2))
+					int ti2 = incidence.incidence[k2];
+					if (ti == ti2 || !incidence.contains(ti2, i))
 						continue;
+					Triangle t2 = incidence.triangles[ti2];
 					// t2 contains v and v2, we now look for an edge
 					// (v,v2) or (v2,v)
 					ot2 = v2.getIncidentAbstractHalfEdge(t2, ot2);
@@ -864,8 +923,72 @@ public class Mesh implements Serializable
 					logger.fine("Non-manifold edge: "+v+" "+v2+" "+" connected to "+cnt+" fans");
 				}
 			}
-			//  Unmark adjacent triangles
-			markedTri.clear();
+		}
+	}
+
+	/**
+	 * Glue edges which are shared by exactly two triangles with compatible
+	 * orientations.  Each edge is processed by its endpoint with the lowest
+	 * index, so vertex ranges can be processed concurrently.  Endpoints
+	 * of other edges are marked as pending.
+	 */
+	private static void glueManifoldHalfEdges(VertexTriangleIncidence incidence, int start, int end, boolean [] pending)
+	{
+		AbstractHalfEdge ot = null;
+		AbstractHalfEdge temp = null;
+		AbstractHalfEdge out = null;
+		AbstractHalfEdge in = null;
+		for (int i = start; i < end; i++)
+		{
+			Vertex v = incidence.vertices[i];
+			int first = incidence.offsets[i];
+			int last = incidence.offsets[i+1];
+			for (int k = first; k < last; k++)
+			{
+				int ti = incidence.incidence[k];
+				ot = v.getIncidentAbstractHalfEdge(incidence.triangles[ti], ot);
+				// Check edges (v,destination) and (apex,v)
+				for (int j = 0; j < 2; j++)
+				{
+					Vertex v2 = (j == 0 ? ot.destination() : ot.apex());
+					int i2 = incidence.indexOf(ti, v2);
+					if (i2 <= i || !v2.isReadable())
+						continue;
+					boolean seen = false;
+					for (int k2 = first; k2 < k && !seen; k2++)
+						seen = incidence.contains(incidence.incidence[k2], i2);
+					if (seen)
+						continue;
+					int nrOut = 0;
+					int nrIn = 0;
+					for (int k2 = k; k2 < last; k2++)
+					{
+						int ti2 = incidence.incidence[k2];
+						if (!incidence.contains(ti2, i2))
+							continue;
+						Triangle t2 = incidence.triangles[ti2];
+						temp = v.getIncidentAbstractHalfEdge(t2, temp);
+						if (temp.destination() == v2)
+						{
+							nrOut++;
+							out = v.getIncidentAbstractHalfEdge(t2, out);
+						}
+						else
+						{
+							nrIn++;
+							in = v.getIncidentAbstractHalfEdge(t2, in);
+							in = in.prev();
+						}
+					}
+					if (nrOut == 1 && nrIn == 1 && !out.hasSymmetricEdge() && !in.hasSymmetricEdge())
+						out.glue(in);
+					else if (nrOut + nrIn > 1)
+					{
+						pending[i] = true;
+						pending[i2] = true;
+					}
+				}
+			}
 		}
 	}
 
@@ -2013,6 +2136,9 @@ public class Mesh implements Serializable
 		{
 			if (t.hasAttributes(AbstractHalfEdge.OUTER))
 				continue;
+			// Coordinates of non-readable vertices are unknown
+			if (!t.vertex[0].isReadable() || !t.vertex[1].isReadable() || !t.vertex[2].isReadable())
+				continue;
 			double[] t0 = t.vertex[0].getUV();
 			double[] t1 = t.vertex[1].getUV();
 			double[] t2 = t.vertex[2].getUV();
@@ -0,0 +1,303 @@
+/* jCAE stand for Java Computer Aided Engineering. Features are : Small CAD
+   modeler, Finite element mesher, Plugin architecture.
+
+    Copyright (C) 2011, by EADS France
+
+    This library is free software; you can redistribute it and/or
+    modify it under the terms of the GNU Lesser General Public
+    License as published by the Free Software Foundation; either
+    version 2.1 of the License, or (at your option) any later version.
+
+    This library is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+    Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public
+    License along with this library; if not, write to the Free Software
+    Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA */
+
+package org.jcae.mesh.amibe.ds;
+
+import gnu.trove.TObjectIntHashMap;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Compact storage of triangles incident to vertices.  Vertices are
+ * numbered from 0 to <code>n-1</code>, and triangles incident to vertex
+ * <code>i</code> are found at positions <code>offsets[i]</code> to
+ * <code>offsets[i+1]-1</code> of <code>incidence</code> array, in the
+ * same order as in triangle list.  This is the classical compressed
+ * sparse row format, which is much lighter than a map between vertices
+ * and lists of triangles.
+ *
+ * Only triangles which are not outer triangles are stored, and only
+ * readable vertices have incident triangles.  Once built, this structure
+ * is never modified and can be read concurrently.
+ */
+final class VertexTriangleIncidence
+{
+	/**
+	 * Procedure called on a range of vertex indices.
+	 */
+	interface RangeProcedure
+	{
+		void run(int start, int end);
+	}
+
+	// Map between vertices and their index plus one, so that 0 means that
+	// vertex is not numbered.  It is null when vertex indices are given.
+	private final TObjectIntHashMap<Vertex> index;
+	// Vertices, sorted by their index
+	final Vertex [] vertices;
+	// Inner triangles, sorted by their index
+	final Triangle [] triangles;
+	// Indices of the first 3 vertices of each triangle, or -1 if vertex is
+	// not numbered
+	private final int [] triangleVertices;
+	final int [] offsets;
+	final int [] incidence;
+
+	/**
+	 * Creates incidence arrays.
+	 *
+	 * @param nodes  vertices to be numbered.  If <code>null</code>,
+	 *        vertices of writable triangles are numbered in their order of
+	 *        appearance in <code>triangleList</code>.
+	 * @param triangleList  triangles
+	 */
+	VertexTriangleIncidence(Collection<Vertex> nodes, Collection<Triangle> triangleList)
+	{
+		ArrayList<Vertex> vList;
+		if (nodes == null)
+		{
+			vList = new ArrayList<Vertex>(triangleList.size() / 2);
+			index = new TObjectIntHashMap<Vertex>(triangleList.size() / 2);
+			for (Triangle t: triangleList)
+			{
+				if (!t.isWritable())
+					continue;
+				for (Vertex v: t.vertex)
+				{
+					if (index.get(v) == 0)
+					{
+						vList.add(v);
+						index.put(v, vList.size());
+					}
+				}
+			}
+		}
+		else
+		{
+			vList = new ArrayList<Vertex>(nodes.size());
+			index = new TObjectIntHashMap<Vertex>(nodes.size());
+			for (Vertex v: nodes)
+			{
+				if (index.get(v) == 0)
+				{
+					vList.add(v);
+					index.put(v, vList.size());
+				}
+			}
+		}
+		vertices = new Vertex[vList.size()];
+		vList.toArray(vertices);
+		vList = null;
+
+		int nrTriangles = 0;
+		for (Triangle t: triangleList)
+		{
+			if (!t.hasAttributes(AbstractHalfEdge.OUTER))
+				nrTriangles++;
+		}
+		triangles = new Triangle[nrTriangles];
+		triangleVertices = new int[3*nrTriangles];
+		offsets = new int[vertices.length + 1];
+		int cnt = 0;
+		for (Triangle t: triangleList)
+		{
+			if (t.hasAttributes(AbstractHalfEdge.OUTER))
+				continue;
+			triangles[cnt] = t;
+			for (int i = 0; i < t.vertex.length; i++)
+			{
+				Vertex v = t.vertex[i];
+				int vIndex = index.get(v) - 1;
+				if (i < 3)
+					triangleVertices[3*cnt+i] = vIndex;
+				if (vIndex >= 0 && v.isReadable())
+					offsets[vIndex+1]++;
+				v.setLink(t);
+			}
+			cnt++;
+		}
+		incidence = fillIncidence();
+	}
+
+	/**
+	 * Creates incidence arrays when vertex indices of triangles are
+	 * already known.  All triangles must have 3 vertices and must not
+	 * be outer triangles.
+	 *
+	 * @param vertices  numbered vertices
+	 * @param triangles  triangles
+	 * @param triangleVertices  vertex indices of triangles, or -1 if
+	 *        vertex is not numbered; its length is <code>3*triangles.length</code>
+	 */
+	VertexTriangleIncidence(Vertex [] vertices, Triangle [] triangles, int [] triangleVertices)
+	{
+		index = null;
+		this.vertices = vertices;
+		this.triangles = triangles;
+		this.triangleVertices = triangleVertices;
+		offsets = new int[vertices.length + 1];
+		for (int ti = 0; ti < triangles.length; ti++)
+		{
+			Vertex [] tv = triangles[ti].vertex;
+			assert tv.length == 3 && !triangles[ti].hasAttributes(AbstractHalfEdge.OUTER);
+			for (int i = 0; i < 3; i++)
+			{
+				int vIndex = triangleVertices[3*ti+i];
+				assert vIndex < 0 || tv[i] == vertices[vIndex];
+				if (vIndex >= 0 && tv[i].isReadable())
+					offsets[vIndex+1]++;
+				tv[i].setLink(triangles[ti]);
+			}
+		}
+		incidence = fillIncidence();
+	}
+
+	/**
+	 * Computes <code>offsets</code> from vertex degrees, and returns
+	 * <code>incidence</code> array.
+	 */
+	private int [] fillIncidence()
+	{
+		for (int i = 0; i < vertices.length; i++)
+			offsets[i+1] += offsets[i];
+		int [] incidence = new int[offsets[vertices.length]];
+		int [] fill = new int[vertices.length];
+		System.arraycopy(offsets, 0, fill, 0, vertices.length);
+		for (int ti = 0; ti < triangles.length; ti++)
+		{
+			Vertex [] tv = triangles[ti].vertex;
+			for (int i = 0; i < tv.length; i++)
+			{
+				int vIndex = (i < 3 ? triangleVertices[3*ti+i] : index.get(tv[i]) - 1);
+				if (vIndex < 0 || !tv[i].isReadable())
+					continue;
+				incidence[fill[vIndex]] = ti;
+				fill[vIndex]++;
+			}
+		}
+		return incidence;
+	}
+
+	/**
+	 * Returns the number of triangles incident to a vertex.
+	 *
+	 * @param i  vertex index
+	 * @return the number of triangles incident to this vertex
+	 */
+	int degree(int i)
+	{
+		return offsets[i+1] - offsets[i];
+	}
+
+	/**
+	 * Returns the index of a vertex of a given triangle, or -1 if this
+	 * vertex is not numbered.
+	 *
+	 * @param ti  triangle index
+	 * @param v  vertex of this triangle
+	 * @return the index of this vertex
+	 */
+	int indexOf(int ti, Vertex v)
+	{
+		Vertex [] tv = triangles[ti].vertex;
+		for (int i = 0; i < 3; i++)
+		{
+			if (tv[i] == v)
+				return triangleVertices[3*ti+i];
+		}
+		return -1;
+	}
+
+	/**
+	 * Tells whether a triangle contains a given vertex.
+	 *
+	 * @param ti  triangle index
+	 * @param vIndex  vertex index
+	 * @return <code>true</code> if this triangle contains this vertex
+	 */
+	boolean contains(int ti, int vIndex)
+	{
+		return triangleVertices[3*ti] == vIndex || triangleVertices[3*ti+1] == vIndex ||
+			triangleVertices[3*ti+2] == vIndex;
+	}
+
+	/**
+	 * Calls a procedure on consecutive ranges of vertices.  If
+	 * <code>nrThreads</code> is greater than 1, ranges are processed
+	 * concurrently and procedure must be thread-safe.
+	 *
+	 * @param nrThreads  number of threads
+	 * @param proc  procedure
+	 */
+	void forEachRange(int nrThreads, final RangeProcedure proc)
+	{
+		int n = vertices.length;
+		if (nrThreads <= 1 || n < 2 * nrThreads)
+		{
+			proc.run(0, n);
+			return;
+		}
+		// Use more ranges than threads to balance load
+		int nrRanges = 4 * nrThreads;
+		List<Callable<Object>> tasks = new ArrayList<Callable<Object>>(nrRanges);
+		for (int r = 0; r < nrRanges; r++)
+		{
+			final int start = (int) ((long) n * r / nrRanges);
+			final int end = (int) ((long) n * (r + 1) / nrRanges);
+			tasks.add(new Callable<Object>()
+			{
+				public Object call()
+				{
+					proc.run(start, end);
+					return null;
+				}
+			});
+		}
+		ExecutorService executor = Executors.newFixedThreadPool(nrThreads);
+		try
+		{
+			for (Future<Object> f : executor.invokeAll(tasks))
+				f.get();
+		}
+		catch (InterruptedException ex)
+		{
+			Thread.currentThread().interrupt();
+			throw new RuntimeException(ex);
+		}
+		catch (ExecutionException ex)
+		{
+			Throwable cause = ex.getCause();
+			if (cause instanceof RuntimeException)
+				throw (RuntimeException) cause;
+			if (cause instanceof Error)
+				throw (Error) cause;
+			throw new RuntimeException(cause);
+		}
+		finally
+		{
+			executor.shutdown();
+		}
+	}
+}
@@ -0,0 +1,414 @@
+/* jCAE stand for Java Computer Aided Engineering. Features are : Small CAD
+   modeler, Finite element mesher, Plugin architecture.
+
+    Copyright (C) 2011, by EADS France
+
+    This library is free software; you can redistribute it and/or
+    modify it under the terms of the GNU Lesser General Public
+    License as published by the Free Software Foundation; either
+    version 2.1 of the License, or (at your option) any later version.
+
+    This library is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+    Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public
+    License along with this library; if not, write to the Free Software
+    Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA */
+
+package org.jcae.mesh.amibe.metrics;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Thread-safe variant of {@link KdTree}.  The bounding box is divided into
+ * a regular grid of stripes, each stripe is a {@link KdTree} protected
+ * by its own read-write lock.  Stripes share the same integer coordinates,
+ * a vertex is stored in the stripe containing it.
+ *
+ * <p>
+ * {@link #add} and {@link #remove} only lock the stripe of their vertex,
+ * so that threads working in different regions do not wait for each other.
+ * {@link #getNearestVertex} locks in read mode all stripes which may contain
+ * the nearest vertex, and searches them while all these locks are held.
+ * If the vertex found shows that other stripes have to be searched, locks
+ * are released and the search is run again on a larger set of stripes.
+ * Locks are always acquired by increasing stripe index to avoid deadlocks.
+ * Each operation thus acts on a consistent state of the tree, and results
+ * are linearizable.
+ * </p>
+ *
+ * <p>
+ * Like with {@link KdTree}, vertices must not be moved while they are
+ * stored in this tree.
+ * </p>
+ */
+public class ConcurrentKdTree<T extends Location>
+{
+	// Number of subdivisions of the bounding box along each axis is
+	// 2^STRIPE_LEVELS, there are 16 stripes in 2D and 64 in 3D.
+	private static final int STRIPE_LEVELS = 2;
+	private static final int STRIPE_SHIFT = KdTree.MAXLEVEL - STRIPE_LEVELS;
+	private static final int STRIPES_BY_AXIS = 1 << STRIPE_LEVELS;
+
+	private final int dimension;
+	private final KdTree<T> [] stripes;
+	private final ReadWriteLock [] locks;
+	// Used for integer conversions, never modified
+	private final KdTree<T> reference;
+
+	// Temporary arrays.  This class is static so that values stored in
+	// threads do not keep trees alive.
+	private static final class QueryBuffers
+	{
+		private final int [] ijk;
+		private final int [] lo;
+		private final int [] hi;
+		private final int [] newLo;
+		private final int [] newHi;
+		private final int [] locked;
+		QueryBuffers(int dimension, int nrStripes)
+		{
+			ijk = new int[dimension];
+			lo = new int[dimension];
+			hi = new int[dimension];
+			newLo = new int[dimension];
+			newHi = new int[dimension];
+			locked = new int[nrStripes];
+		}
+	}
+
+	private final ThreadLocal<QueryBuffers> queryBuffers = new ThreadLocal<QueryBuffers>()
+	{
+		@Override
+		protected QueryBuffers initialValue()
+		{
+			return new QueryBuffers(dimension, stripes.length);
+		}
+	};
+
+	/**
+	 * Create a new <code>ConcurrentKdTree</code> of the desired size.
+	 *
+	 * @param bbox   coordinates of bottom-left vertex and upper-right vertices
+	 */
+	@SuppressWarnings("unchecked")
+	public ConcurrentKdTree(double [] bbox)
+	{
+		dimension = bbox.length / 2;
+		int nrStripes = 1 << (STRIPE_LEVELS * dimension);
+		stripes = (KdTree<T> []) new KdTree<?>[nrStripes];
+		locks = new ReadWriteLock[nrStripes];
+		for (int i = 0; i < nrStripes; i++)
+		{
+			stripes[i] = new KdTree<T>(bbox);
+			locks[i] = new ReentrantReadWriteLock();
+		}
+		reference = new KdTree<T>(bbox);
+	}
+
+	// Stripe coordinate of an integer coordinate
+	private static int stripeCoordinate(long i)
+	{
+		long ret = i >> STRIPE_SHIFT;
+		if (ret < 0L)
+			return 0;
+		if (ret >= STRIPES_BY_AXIS)
+			return STRIPES_BY_AXIS - 1;
+		return (int) ret;
+	}
+
+	private int stripeIndex(double [] uv, int [] ijk)
+	{
+		reference.double2int(uv, ijk);
+		int ret = 0;
+		for (int k = dimension - 1; k >= 0; k--)
+			ret = ret * STRIPES_BY_AXIS + stripeCoordinate(ijk[k]);
+		return ret;
+	}
+
+	/**
+	 * Add a vertex.
+	 *
+	 * @param v  the vertex being added.
+	 */
+	public final void add(T v)
+	{
+		int s = stripeIndex(v.getUV(), queryBuffers.get().ijk);
+		locks[s].writeLock().lock();
+		try
+		{
+			stripes[s].add(v);
+		}
+		finally
+		{
+			locks[s].writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Remove a vertex.
+	 *
+	 * @param v  the vertex being removed.
+	 */
+	public final void remove(T v)
+	{
+		int s = stripeIndex(v.getUV(), queryBuffers.get().ijk);
+		locks[s].writeLock().lock();
+		try
+		{
+			stripes[s].remove(v);
+		}
+		finally
+		{
+			locks[s].writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Add vertices by building stripes concurrently.  Vertices are first
+	 * dispatched into stripes, then each stripe is filled by a separate
+	 * task.
+	 *
+	 * @param vertices  vertices to add
+	 * @param nrThreads  number of threads
+	 */
+	public final void addAll(Collection<? extends T> vertices, int nrThreads)
+	{
+		final List<List<T>> buckets = new ArrayList<List<T>>(stripes.length);
+		for (int i = 0; i < stripes.length; i++)
+			buckets.add(new ArrayList<T>());
+		int [] ijk = queryBuffers.get().ijk;
+		for (T v : vertices)
+			buckets.get(stripeIndex(v.getUV(), ijk)).add(v);
+
+		List<Callable<Object>> tasks = new ArrayList<Callable<Object>>(stripes.length);
+		for (int i = 0; i < stripes.length; i++)
+		{
+			if (buckets.get(i).isEmpty())
+				continue;
+			final int s = i;
+			tasks.add(new Callable<Object>()
+			{
+				public Object call()
+				{
+					locks[s].writeLock().lock();
+					try
+					{
+						for (T v : buckets.get(s))
+							stripes[s].add(v);
+					}
+					finally
+					{
+						locks[s].writeLock().unlock();
+					}
+					return null;
+				}
+			});
+		}
+		if (nrThreads <= 1)
+		{
+			for (Callable<Object> c : tasks)
+			{
+				try
+				{
+					c.call();
+				}
+				catch (Exception ex)
+				{
+					throw new RuntimeException(ex);
+				}
+			}
+			return;
+		}
+		ExecutorService executor = Executors.newFixedThreadPool(nrThreads);
+		try
+		{
+			for (Future<Object> f : executor.invokeAll(tasks))
+				f.get();
+		}
+		catch (InterruptedException ex)
+		{
+			Thread.currentThread().interrupt();
+			throw new RuntimeException(ex);
+		}
+		catch (ExecutionException ex)
+		{
+			Throwable cause = ex.getCause();
+			if (cause instanceof RuntimeException)
+				throw (RuntimeException) cause;
+			if (cause instanceof Error)
+				throw (Error) cause;
+			throw new RuntimeException(cause);
+		}
+		finally
+		{
+			executor.shutdown();
+		}
+	}
+
+	// Lock all stripes in [lo, hi] by increasing index, and return the
+	// number of locked stripes.
+	private int lockStripes(int [] lo, int [] hi, int [] locked)
+	{
+		int n = 0;
+		if (dimension == 2)
+		{
+			for (int j = lo[1]; j <= hi[1]; j++)
+				for (int i = lo[0]; i <= hi[0]; i++)
+					locked[n++] = j * STRIPES_BY_AXIS + i;
+		}
+		else
+		{
+			for (int k = lo[2]; k <= hi[2]; k++)
+				for (int j = lo[1]; j <= hi[1]; j++)
+					for (int i = lo[0]; i <= hi[0]; i++)
+						locked[n++] = (k * STRIPES_BY_AXIS + j) * STRIPES_BY_AXIS + i;
+		}
+		for (int i = 0; i < n; i++)
+			locks[locked[i]].readLock().lock();
+		return n;
+	}
+
+	/**
+	 * Return the nearest vertex stored in this tree.
+	 *
+	 * @param metric  metric
+	 * @param uv  coordinates.
+	 * @return the nearest vertex, or <code>null</code> if tree is empty.
+	 */
+	public final T getNearestVertex(Metric metric, double[] uv)
+	{
+		QueryBuffers buf = queryBuffers.get();
+		int [] ijk = buf.ijk;
+		reference.double2int(uv, ijk);
+		for (int k = 0; k < dimension; k++)
+		{
+			buf.lo[k] = stripeCoordinate(ijk[k]);
+			buf.hi[k] = buf.lo[k];
+		}
+		double [] r = metric.getUnitBallBBox();
+		double scale = 1.005 * reference.getScale();
+		while (true)
+		{
+			T ret = null;
+			double dMin = Double.MAX_VALUE;
+			int n = lockStripes(buf.lo, buf.hi, buf.locked);
+			try
+			{
+				for (int i = 0; i < n; i++)
+				{
+					T v = stripes[buf.locked[i]].getNearestVertex(metric, uv);
+					if (v == null)
+						continue;
+					double d = metric.distance2(uv, v.getUV());
+					if (d < dMin)
+					{
+						dMin = d;
+						ret = v;
+					}
+				}
+			}
+			finally
+			{
+				for (int i = 0; i < n; i++)
+					locks[buf.locked[i]].readLock().unlock();
+			}
+			// Check that stripes intersecting the ball around uv of
+			// radius dMin had all been searched.
+			boolean contained = true;
+			double dist = Math.sqrt(dMin);
+			for (int k = 0; k < dimension; k++)
+			{
+				// Add 1 to take rounding errors into account
+				long idist = (long) Math.min(dist * scale * r[k], (double) Long.MAX_VALUE / 4) + 1L;
+				buf.newLo[k] = stripeCoordinate(ijk[k] - idist);
+				buf.newHi[k] = stripeCoordinate(ijk[k] + idist);
+				if (buf.newLo[k] < buf.lo[k] || buf.newHi[k] > buf.hi[k])
+					contained = false;
+			}
+			if (contained)
+				return ret;
+			for (int k = 0; k < dimension; k++)
+			{
+				buf.lo[k] = Math.min(buf.lo[k], buf.newLo[k]);
+				buf.hi[k] = Math.max(buf.hi[k], buf.newHi[k]);
+			}
+		}
+	}
+
+	/**
+	 * Find all vertices whose distance to a point is lower than a given
+	 * value.  If there are more such vertices than <code>result.length</code>,
+	 * only the first ones are stored, and caller may run this query again
+	 * with a larger array.
+	 *
+	 * @param metric  metric
+	 * @param uv  coordinates
+	 * @param radius2  squared distance
+	 * @param result  array in which vertices are stored, in no particular
+	 *        order
+	 * @return the number of vertices within this distance
+	 */
+	public final int getVerticesInRadius(Metric metric, double[] uv, double radius2, T[] result)
+	{
+		QueryBuffers buf = queryBuffers.get();
+		int [] ijk = buf.ijk;
+		reference.double2int(uv, ijk);
+		double [] r = metric.getUnitBallBBox();
+		double dist = Math.sqrt(radius2) * 1.005 * reference.getScale();
+		for (int k = 0; k < dimension; k++)
+		{
+			long idist = (long) Math.min(dist * r[k], (double) Long.MAX_VALUE / 4) + 1L;
+			buf.lo[k] = stripeCoordinate(ijk[k] - idist);
+			buf.hi[k] = stripeCoordinate(ijk[k] + idist);
+		}
+		int found = 0;
+		int n = lockStripes(buf.lo, buf.hi, buf.locked);
+		try
+		{
+			for (int i = 0; i < n; i++)
+				found = stripes[buf.locked[i]].getVerticesInRadius(metric, uv, radius2, result, found);
+		}
+		finally
+		{
+			for (int i = 0; i < n; i++)
+				locks[buf.locked[i]].readLock().unlock();
+		}
+		return found;
+	}
+
+	/**
+	 * Return a collection of all vertices.
+	 *
+	 * @param capacity  initial capacity of the <code>Collection</code>.
+	 * @return a collection containing all vertices.
+	 */
+	public final Collection<T> getAllVertices(int capacity)
+	{
+		Collection<T> ret = new ArrayList<T>(capacity);
+		for (int i = 0; i < locks.length; i++)
+			locks[i].readLock().lock();
+		try
+		{
+			for (KdTree<T> stripe : stripes)
+				ret.addAll(stripe.getAllVertices(0));
+		}
+		finally
+		{
+			for (int i = 0; i < locks.length; i++)
+				locks[i].readLock().unlock();
+		}
+		return ret;
+	}
+}
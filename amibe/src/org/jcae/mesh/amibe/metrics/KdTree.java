@@ -190,7 +190,7 @@ public class KdTree<T extends Location>
 	private final int nrSub;
 
 	// Integer coordinates (like gridSize) must be long if MAXLEVEL > 30
-	private static final int MAXLEVEL = 30;
+	static final int MAXLEVEL = 30;
 	private static final int gridSize = 1 << MAXLEVEL;
 	private static final double DGridSize = gridSize;
 	
@@ -311,11 +311,20 @@ public class KdTree<T extends Location>
 	 * @param p  double coordinates
 	 * @param i  integer coordinates
 	 */
-	private void double2int(double [] p, int [] i)
+	final void double2int(double [] p, int [] i)
 	{
 		for (int k = 0; k < dimension; k++)
 			i[k] = (int) ((p[k] - x0[k]) * x0[dimension]);
 	}
+
+	/**
+	 * Return the scale factor between double and integer coordinates.
+	 * @return the scale factor between double and integer coordinates.
+	 */
+	final double getScale()
+	{
+		return x0[dimension];
+	}
 	
 	/**
 	 * Transform integer coordinates into double coordinates.
@@ -495,7 +504,8 @@ public class KdTree<T extends Location>
 		}
 		if (offset == 0)
 			throw new RuntimeException("Vertex "+v+" is not present and can not be deleted");
-		if (current.nItems > 1)
+		// Root cell is never removed
+		if (current.nItems > 1 || current == root)
 		{
 			current.subCell[current.nItems-1] = null;
 			current.nItems--;
@@ -699,7 +709,7 @@ public class KdTree<T extends Location>
 			{
 				l++;
 				assert l <= MAXLEVEL;
-				for (int i = 0; i < 8; i++)
+				for (int i = 0; i < nrSub; i++)
 				{
 					if (null != s.subCell[i])
 					{
@@ -731,7 +741,7 @@ public class KdTree<T extends Location>
 				while (l > 0)
 				{
 					posStack[l]++;
-					if (posStack[l] == 8)
+					if (posStack[l] == nrSub)
 						l--;
 					else if (null != ((Cell) cellStack[l-1]).subCell[posStack[l]])
 						break;
@@ -894,6 +904,375 @@ public class KdTree<T extends Location>
 		return ret;
 	}
 	
+	/**
+	 * Temporary arrays used by {@link #getNearestVertices},
+	 * {@link #getVerticesInRadius} and {@link #getNearestVertexBatch}, so
+	 * that these queries do not allocate memory.  Each thread has its own
+	 * instance, queries can then be run concurrently when tree is not
+	 * modified.  This class is static so that values stored in threads
+	 * do not keep trees alive.
+	 */
+	private static final class QueryBuffers
+	{
+		private final int [] ijk;
+		private final int [] idist;
+		private final double [] i2d;
+		private final double [] uv;
+		private final int [] corner;
+		// Cells waiting to be visited, with their size and lower corner.
+		// Children are pushed all at once, so this stack contains at most
+		// nrSub-1 cells per level.
+		private final Object [] cells;
+		private final int [] sizes;
+		private final int [] corners;
+		// Current k-nearest vertices, sorted by increasing distance
+		private Object [] vertices = new Object[1];
+		private double [] distances = new double[1];
+
+		private QueryBuffers(int dimension)
+		{
+			int stackSize = MAXLEVEL * (1 << dimension) + 1;
+			ijk = new int[dimension];
+			idist = new int[dimension];
+			i2d = new double[dimension];
+			uv = new double[dimension];
+			corner = new int[dimension];
+			cells = new Object[stackSize];
+			sizes = new int[stackSize];
+			corners = new int[dimension * stackSize];
+		}
+
+		private void ensureCapacity(int k)
+		{
+			if (vertices.length < k)
+			{
+				vertices = new Object[k];
+				distances = new double[k];
+			}
+		}
+
+		private void setBound(double dist2)
+		{
+			double d = Math.sqrt(dist2);
+			for (int k = 0; k < idist.length; k++)
+			{
+				double id = d * i2d[k];
+				if (id > Integer.MAX_VALUE/2)
+					idist[k] = Integer.MAX_VALUE/2;
+				else
+					idist[k] = (int) id;
+			}
+		}
+	}
+
+	private final ThreadLocal<QueryBuffers> queryBuffers = new ThreadLocal<QueryBuffers>()
+	{
+		@Override
+		protected QueryBuffers initialValue()
+		{
+			return new QueryBuffers(dimension);
+		}
+	};
+
+	/**
+	 * Traverse cells which may contain vertices within a given distance.
+	 * Cells are visited in depth-first order, the child containing
+	 * <code>uv</code> being visited first.  When <code>k</code> is
+	 * positive, the <code>k</code> nearest vertices are stored into
+	 * <code>buf.vertices</code> and distance bound shrinks as soon as
+	 * <code>k</code> vertices have been found.  Otherwise all vertices
+	 * within <code>bound</code> are stored into <code>radiusResult</code>.
+	 *
+	 * @param buf  temporary arrays
+	 * @param metric  metric
+	 * @param uv  coordinates
+	 * @param k  number of nearest vertices, or 0 for radius search
+	 * @param found  number of candidates already stored into
+	 *        <code>buf.vertices</code>, only used when <code>k</code> is
+	 *        positive
+	 * @param bound  squared distance above which vertices are ignored
+	 * @param radiusResult  array to store vertices found by radius search
+	 * @return the number of vertices found
+	 */
+	// QueryBuffers is static and cannot hold typed cells, but all cells
+	// pushed onto buf.cells belong to this tree
+	@SuppressWarnings("unchecked")
+	private int search(QueryBuffers buf, Metric metric, double [] uv, int k,
+		int found, double bound, Object [] radiusResult)
+	{
+		int [] ijk = buf.ijk;
+		int [] idist = buf.idist;
+		int [] corners = buf.corners;
+		double2int(uv, ijk);
+		double [] r = metric.getUnitBallBBox();
+		for (int d = 0; d < dimension; d++)
+			buf.i2d[d] = 1.005 * x0[dimension] * r[d];
+		buf.setBound(bound);
+
+		int top = 0;
+		buf.cells[0] = root;
+		buf.sizes[0] = gridSize;
+		for (int d = 0; d < dimension; d++)
+			corners[d] = 0;
+		top++;
+		while (top > 0)
+		{
+			top--;
+			Cell current = (Cell) buf.cells[top];
+			buf.cells[top] = null;
+			int s = buf.sizes[top];
+			int c0 = dimension * top;
+			boolean skip = false;
+			for (int d = 0; d < dimension; d++)
+			{
+				if ((ijk[d] < corners[c0+d] - idist[d]) || (ijk[d] > corners[c0+d] + s + idist[d]))
+				{
+					skip = true;
+					break;
+				}
+			}
+			if (skip)
+				continue;
+			if (current.nItems >= 0)
+			{
+				for (int i = 0; i < current.nItems; i++)
+				{
+					T vtest = current.getVertex(i);
+					double dist = metric.distance2(uv, vtest.getUV());
+					if (k == 0)
+					{
+						if (dist <= bound)
+						{
+							if (found < radiusResult.length)
+								radiusResult[found] = vtest;
+							found++;
+						}
+						continue;
+					}
+					if (found == k && dist >= bound)
+						continue;
+					// Insertion sort, k is small
+					int pos = (found < k ? found : k - 1);
+					while (pos > 0 && buf.distances[pos-1] > dist)
+					{
+						buf.vertices[pos] = buf.vertices[pos-1];
+						buf.distances[pos] = buf.distances[pos-1];
+						pos--;
+					}
+					buf.vertices[pos] = vtest;
+					buf.distances[pos] = dist;
+					if (found < k)
+						found++;
+					if (found == k)
+					{
+						bound = buf.distances[k-1];
+						buf.setBound(bound);
+					}
+				}
+				continue;
+			}
+			// Push children, the one containing uv is pushed last so that
+			// it is visited first.
+			s >>= 1;
+			int near = 0;
+			for (int d = 0; d < dimension; d++)
+			{
+				if (ijk[d] >= corners[c0+d] + s)
+					near |= 1 << d;
+			}
+			int [] corner = buf.corner;
+			System.arraycopy(corners, c0, corner, 0, dimension);
+			for (int j = nrSub - 1; j >= 0; j--)
+			{
+				int ind = j ^ near;
+				Object child = current.subCell[ind];
+				if (null == child)
+					continue;
+				buf.cells[top] = child;
+				buf.sizes[top] = s;
+				int c1 = dimension * top;
+				for (int d = 0; d < dimension; d++)
+				{
+					corners[c1+d] = corner[d];
+					if ((ind & (1 << d)) != 0)
+						corners[c1+d] += s;
+				}
+				top++;
+			}
+		}
+		return found;
+	}
+
+	/**
+	 * Find the <code>k</code> nearest vertices of a point, where
+	 * <code>k</code> is the length of <code>result</code>.  Unlike
+	 * {@link #getNearestVertex}, this method does not allocate memory
+	 * once a thread has run a first query.
+	 *
+	 * @param metric  metric
+	 * @param uv  coordinates
+	 * @param result  array in which nearest vertices are stored, sorted by
+	 *        increasing distance
+	 * @param dist2  if not <code>null</code>, array in which squared
+	 *        distances of nearest vertices are stored
+	 * @return the number of vertices found, it is lower than
+	 *         <code>result.length</code> only if this tree contains less
+	 *         vertices
+	 */
+	public final int getNearestVertices(Metric metric, double[] uv, T[] result, double[] dist2)
+	{
+		int k = result.length;
+		if (root.nItems == 0 || k == 0)
+			return 0;
+		QueryBuffers buf = queryBuffers.get();
+		buf.ensureCapacity(k);
+		int found = search(buf, metric, uv, k, 0, Double.MAX_VALUE, null);
+		copyNearest(buf, found, result, dist2);
+		return found;
+	}
+
+	@SuppressWarnings("unchecked")
+	private void copyNearest(QueryBuffers buf, int found, T[] result, double[] dist2)
+	{
+		for (int i = 0; i < found; i++)
+		{
+			result[i] = (T) buf.vertices[i];
+			buf.vertices[i] = null;
+		}
+		if (dist2 != null)
+			System.arraycopy(buf.distances, 0, dist2, 0, found);
+	}
+
+	/**
+	 * Find all vertices whose distance to a point is lower than a given
+	 * value.  If there are more such vertices than <code>result.length</code>,
+	 * only the first ones are stored, and caller may run this query again
+	 * with a larger array.
+	 *
+	 * @param metric  metric
+	 * @param uv  coordinates
+	 * @param radius2  squared distance
+	 * @param result  array in which vertices are stored, in no particular
+	 *        order
+	 * @return the number of vertices within this distance
+	 */
+	public final int getVerticesInRadius(Metric metric, double[] uv, double radius2, T[] result)
+	{
+		return getVerticesInRadius(metric, uv, radius2, result, 0);
+	}
+
+	/**
+	 * Same as {@link #getVerticesInRadius(Metric, double[], double, Location[])},
+	 * but vertices are stored after the first <code>offset</code> elements
+	 * of <code>result</code>.
+	 *
+	 * @return <code>offset</code> plus the number of vertices within this
+	 *         distance
+	 */
+	final int getVerticesInRadius(Metric metric, double[] uv, double radius2, T[] result, int offset)
+	{
+		if (root.nItems == 0)
+			return offset;
+		return search(queryBuffers.get(), metric, uv, 0, offset, radius2, result);
+	}
+
+	/**
+	 * Find the nearest vertex of several points.  Points are sorted along
+	 * a Morton (Z-order) curve, so that consecutive queries visit the same
+	 * cells, and the nearest vertex of previous point gives a tight initial
+	 * bound for the next one.  This is much faster than calling
+	 * {@link #getNearestVertex} on each point.
+	 *
+	 * @param metric  metric
+	 * @param coords  coordinates of points, <code>dimension</code> values
+	 *        per point
+	 * @param result  array in which the nearest vertex of each point is
+	 *        stored, in the same order as <code>coords</code>
+	 */
+	public final void getNearestVertexBatch(Metric metric, double[] coords, T[] result)
+	{
+		int n = coords.length / dimension;
+		if (result.length < n)
+			throw new IllegalArgumentException("Result array is too small: "+result.length+" < "+n);
+		if (root.nItems == 0)
+		{
+			for (int i = 0; i < n; i++)
+				result[i] = null;
+			return;
+		}
+		int indexBits = nrBits(n);
+		long indexMask = (1L << indexBits) - 1L;
+		long [] keys = mortonOrder(coords, n, indexBits);
+		QueryBuffers buf = queryBuffers.get();
+		double [] uv = buf.uv;
+		T previous = null;
+		for (int i = 0; i < n; i++)
+		{
+			int index = (int) (keys[i] & indexMask);
+			System.arraycopy(coords, dimension * index, uv, 0, dimension);
+			int found = 0;
+			double bound = Double.MAX_VALUE;
+			if (previous != null)
+			{
+				bound = metric.distance2(uv, previous.getUV());
+				buf.vertices[0] = previous;
+				buf.distances[0] = bound;
+				found = 1;
+			}
+			search(buf, metric, uv, 1, found, bound, null);
+			previous = castVertex(buf.vertices[0]);
+			buf.vertices[0] = null;
+			result[index] = previous;
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	private T castVertex(Object o)
+	{
+		return (T) o;
+	}
+
+	// Number of bits needed to store integers lower than n
+	private static int nrBits(int n)
+	{
+		int ret = 1;
+		while ((1L << ret) < n)
+			ret++;
+		return ret;
+	}
+
+	/**
+	 * Sort points along a Morton curve.  Each returned value contains the
+	 * index of a point in its <code>indexBits</code> lowest bits, and the
+	 * interleaved most significant bits of its integer coordinates in
+	 * remaining bits.
+	 */
+	private long [] mortonOrder(double [] coords, int n, int indexBits)
+	{
+		int bitsPerDim = Math.min(MAXLEVEL, (63 - indexBits) / dimension);
+		long [] keys = new long[n];
+		int [] ijk = new int[dimension];
+		double [] uv = new double[dimension];
+		for (int i = 0; i < n; i++)
+		{
+			System.arraycopy(coords, dimension * i, uv, 0, dimension);
+			double2int(uv, ijk);
+			long code = 0L;
+			for (int b = MAXLEVEL - 1; b >= MAXLEVEL - bitsPerDim; b--)
+			{
+				for (int d = 0; d < dimension; d++)
+				{
+					// Points outside of the bounding box are clamped
+					int c = Math.max(0, Math.min(gridSize - 1, ijk[d]));
+					code = (code << 1) | ((c >> b) & 1);
+				}
+			}
+			keys[i] = (code << indexBits) | i;
+		}
+		Arrays.sort(keys);
+		return keys;
+	}
+
 	private static final class GetMinSizeProcedure implements KdTreeProcedure
 	{
 		private int searchedCells;
@@ -542,6 +542,21 @@ public class MeshLiaison
 		return skeleton.isNearer(v, groupId, distance2);
 	}
 
+	/**
+	 * Returns the squared distance between a vertex and the nearest border
+	 * edge of a group.  {@link #buildSkeleton} must have been called before.
+	 *
+	 * @param v  vertex
+	 * @param groupId  group identifier
+	 * @return the squared distance between this vertex and the nearest
+	 *         border edge, or <code>Double.MAX_VALUE</code> if this group
+	 *         has no border edge
+	 */
+	public final double getSqrDistanceToSkeleton(Vertex v, int groupId)
+	{
+		return skeleton.getSqrDistance(v, groupId);
+	}
+
 	public static double getDistanceVertexTriangle(Vertex v, Triangle tri)
 	{
 		int[] index = new int[2];
@@ -1134,23 +1149,26 @@ public class MeshLiaison
 
 	private static class Skeleton
 	{
-		private final TIntObjectHashMap<Collection<Line>> mapGroupBorder = new TIntObjectHashMap<Collection<Line>>();
+		// Border edges of each group, indexed by a bounding volume
+		// hierarchy so that distance queries do not scan all edges.
+		private final TIntObjectHashMap<SegmentBoundingTree> mapGroupBorder = new TIntObjectHashMap<SegmentBoundingTree>();
 	
 		Skeleton(Mesh mesh)
 		{
 			if (!mesh.hasAdjacency())
 				throw new IllegalArgumentException("Mesh does not contain adjacency relations");
+			TIntObjectHashMap<List<Vertex>> mapGroupEndPoints = new TIntObjectHashMap<List<Vertex>>();
 			AbstractHalfEdge ot = null;
 			for (Triangle t : mesh.getTriangles())
 			{
 				if (t.hasAttributes(AbstractHalfEdge.OUTER))
 					continue;
 				int groupId = t.getGroupId();
-				Collection<Line> borders = mapGroupBorder.get(groupId);
-				if (borders == null)
+				List<Vertex> endPoints = mapGroupEndPoints.get(groupId);
+				if (endPoints == null)
 				{
-					borders = new ArrayList<Line>();
-					mapGroupBorder.put(groupId, borders);
+					endPoints = new ArrayList<Vertex>();
+					mapGroupEndPoints.put(groupId, endPoints);
 				}
 				// This test is performed here so that mapGroupBorder.get(N)
 				// is not null if a group has no boundary edge.
@@ -1161,75 +1179,40 @@ public class MeshLiaison
 				{
 					ot = ot.next();
 					if (ot.hasAttributes(AbstractHalfEdge.BOUNDARY | AbstractHalfEdge.NONMANIFOLD | AbstractHalfEdge.SHARP))
-						borders.add(new Line(ot.origin(), ot.destination()));
+					{
+						endPoints.add(ot.origin());
+						endPoints.add(ot.destination());
+					}
 				}
 			}
+			for (int groupId : mapGroupEndPoints.keys())
+			{
+				List<Vertex> endPoints = mapGroupEndPoints.get(groupId);
+				double [] coords = new double[3*endPoints.size()];
+				int i = 0;
+				for (Vertex v : endPoints)
+				{
+					System.arraycopy(v.getUV(), 0, coords, i, 3);
+					i += 3;
+				}
+				mapGroupBorder.put(groupId, new SegmentBoundingTree(coords));
+			}
 		}
 	
 		double getSqrDistance(Vertex v, int groupId)
 		{
-			Collection<Line> borders = mapGroupBorder.get(groupId);
+			SegmentBoundingTree borders = mapGroupBorder.get(groupId);
 			if (borders == null)
 				throw new IllegalArgumentException("group identifier not found");
-			double[] pos = v.getUV();
-			double dMin = Double.MAX_VALUE;
-			for (Line l : borders)
-			{
-				double d = l.sqrDistance(pos);
-				if (d < dMin)
-					dMin = d;
-			}
-			return dMin;
+			return borders.sqrDistance(v.getUV());
 		}
 	
 		boolean isNearer(Vertex v, int groupId, double distance2)
 		{
-			Collection<Line> borders = mapGroupBorder.get(groupId);
+			SegmentBoundingTree borders = mapGroupBorder.get(groupId);
 			if (borders == null)
 				throw new IllegalArgumentException("group identifier "+groupId+" not found");
-			double[] pos = v.getUV();
-			for (Line l : borders)
-			{
-				if (l.sqrDistance(pos) <= distance2)
-				{
-					return true;
-				}
-			}
-			return false;
-		}
-	
-		private static class Line
-		{
-			private final double[] origin = new double[3];
-			private final double[] direction = new double[3];
-			private final double sqrNormDirection;
-			Line(Vertex v1, Vertex v2)
-			{
-				System.arraycopy(v1.getUV(), 0, origin, 0, 3);
-				double[] end = v2.getUV();
-				direction[0] = end[0] - origin[0];
-				direction[1] = end[1] - origin[1];
-				direction[2] = end[2] - origin[2];
-				sqrNormDirection = direction[0] * direction[0] + direction[1] * direction[1] + direction[2] * direction[2];
-			}
-	
-			double sqrDistance(double[] v)
-			{
-				double t =
-					direction[0] * (v[0] - origin[0]) +
-					direction[1] * (v[1] - origin[1]) +
-					direction[2] * (v[2] - origin[2]);
-				if (t <= 0)
-					t = 0.0;
-				else if (t >= sqrNormDirection)
-					t = 1.0;
-				else
-					t /= sqrNormDirection;
-				double dx = v[0] - (origin[0] + t * direction[0]);
-				double dy = v[1] - (origin[1] + t * direction[1]);
-				double dz = v[2] - (origin[2] + t * direction[2]);
-				return dx * dx + dy * dy + dz * dz;
-			}
+			return borders.isNearer(v.getUV(), distance2);
 		}
 	}
 }
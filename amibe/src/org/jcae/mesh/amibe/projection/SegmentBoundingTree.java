@@ -0,0 +1,333 @@
+/* jCAE stand for Java Computer Aided Engineering. Features are : Small CAD
+   modeler, Finite element mesher, Plugin architecture.
+
+    Copyright (C) 2011, by EADS France
+
+    This library is free software; you can redistribute it and/or
+    modify it under the terms of the GNU Lesser General Public
+    License as published by the Free Software Foundation; either
+    version 2.1 of the License, or (at your option) any later version.
+
+    This library is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+    Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public
+    License along with this library; if not, write to the Free Software
+    Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA */
+
+package org.jcae.mesh.amibe.projection;
+
+/**
+ * Bounding volume hierarchy of 3D segments.  Segments are recursively
+ * split into two halves along the longest axis of the bounding box of
+ * their centers, and each node of this binary tree stores the axis-aligned
+ * bounding box of its segments.  Distance queries then only look at
+ * segments whose boxes are close enough to the query point, and run in
+ * <code>O(log n)</code> on typical feature lines instead of
+ * <code>O(n)</code>.
+ *
+ * All data are stored into flat arrays, nodes are numbered in depth-first
+ * order so that the left child of node <code>i</code> is <code>i+1</code>.
+ * Once built, this tree is never modified and can be read concurrently.
+ */
+final class SegmentBoundingTree
+{
+	// Maximal number of segments in a leaf
+	private static final int LEAF_SIZE = 4;
+
+	// For each segment: origin, direction and squared norm of direction
+	private final double [] segments;
+	// Bounding boxes of nodes: xmin, ymin, zmin, xmax, ymax, zmax
+	private final double [] boxes;
+	// Index of the right child of inner nodes, or -1 for leaves
+	private final int [] right;
+	// Range of segments contained in a node
+	private final int [] start;
+	private final int [] end;
+	private int nrNodes;
+
+	/**
+	 * Creates a tree from segment end points.
+	 *
+	 * @param coords  coordinates of segment end points, segment
+	 *        <code>i</code> goes from <code>coords[6*i..6*i+2]</code> to
+	 *        <code>coords[6*i+3..6*i+5]</code>
+	 */
+	SegmentBoundingTree(double [] coords)
+	{
+		int nrSegments = coords.length / 6;
+		int [] order = new int[nrSegments];
+		double [] centers = new double[3*nrSegments];
+		for (int i = 0; i < nrSegments; i++)
+		{
+			order[i] = i;
+			for (int k = 0; k < 3; k++)
+				centers[3*i+k] = 0.5 * (coords[6*i+k] + coords[6*i+3+k]);
+		}
+		// A binary tree with leaves of at least LEAF_SIZE/2 segments has
+		// less than 4*n/LEAF_SIZE nodes
+		int maxNodes = Math.max(1, 4 * nrSegments / LEAF_SIZE + 1);
+		boxes = new double[6*maxNodes];
+		right = new int[maxNodes];
+		start = new int[maxNodes];
+		end = new int[maxNodes];
+		if (nrSegments > 0)
+			build(coords, centers, order, 0, nrSegments);
+
+		segments = new double[7*nrSegments];
+		for (int i = 0; i < nrSegments; i++)
+		{
+			int s = order[i];
+			double sqrNorm = 0.0;
+			for (int k = 0; k < 3; k++)
+			{
+				segments[7*i+k] = coords[6*s+k];
+				double d = coords[6*s+3+k] - coords[6*s+k];
+				segments[7*i+3+k] = d;
+				sqrNorm += d * d;
+			}
+			segments[7*i+6] = sqrNorm;
+		}
+	}
+
+	/**
+	 * Returns the number of segments.
+	 *
+	 * @return the number of segments
+	 */
+	int size()
+	{
+		return segments.length / 7;
+	}
+
+	private int build(double [] coords, double [] centers, int [] order, int first, int last)
+	{
+		int node = nrNodes;
+		nrNodes++;
+		start[node] = first;
+		end[node] = last;
+		for (int k = 0; k < 3; k++)
+		{
+			boxes[6*node+k] = Double.MAX_VALUE;
+			boxes[6*node+3+k] = - Double.MAX_VALUE;
+		}
+		double [] cmin = { Double.MAX_VALUE, Double.MAX_VALUE, Double.MAX_VALUE };
+		double [] cmax = { - Double.MAX_VALUE, - Double.MAX_VALUE, - Double.MAX_VALUE };
+		for (int i = first; i < last; i++)
+		{
+			int s = order[i];
+			for (int k = 0; k < 3; k++)
+			{
+				double a = coords[6*s+k];
+				double b = coords[6*s+3+k];
+				boxes[6*node+k] = Math.min(boxes[6*node+k], Math.min(a, b));
+				boxes[6*node+3+k] = Math.max(boxes[6*node+3+k], Math.max(a, b));
+				cmin[k] = Math.min(cmin[k], centers[3*s+k]);
+				cmax[k] = Math.max(cmax[k], centers[3*s+k]);
+			}
+		}
+		if (last - first <= LEAF_SIZE)
+		{
+			right[node] = -1;
+			return node;
+		}
+		int axis = 0;
+		for (int k = 1; k < 3; k++)
+		{
+			if (cmax[k] - cmin[k] > cmax[axis] - cmin[axis])
+				axis = k;
+		}
+		int middle = (first + last) / 2;
+		select(centers, order, axis, first, last - 1, middle);
+		build(coords, centers, order, first, middle);
+		right[node] = build(coords, centers, order, middle, last);
+		return node;
+	}
+
+	/**
+	 * Reorders <code>order[left..right]</code> so that segment at position
+	 * <code>k</code> has its center at the right place along axis, segments
+	 * before have lower coordinates and segments after have larger ones.
+	 */
+	private static void select(double [] centers, int [] order, int axis, int left, int right, int k)
+	{
+		while (right > left)
+		{
+			int mid = (left + right) >>> 1;
+			// Median of three
+			if (centers[3*order[mid]+axis] < centers[3*order[left]+axis])
+				swap(order, mid, left);
+			if (centers[3*order[right]+axis] < centers[3*order[left]+axis])
+				swap(order, right, left);
+			if (centers[3*order[right]+axis] < centers[3*order[mid]+axis])
+				swap(order, right, mid);
+			double pivot = centers[3*order[mid]+axis];
+			int i = left;
+			int j = right;
+			while (i <= j)
+			{
+				while (centers[3*order[i]+axis] < pivot)
+					i++;
+				while (centers[3*order[j]+axis] > pivot)
+					j--;
+				if (i <= j)
+				{
+					swap(order, i, j);
+					i++;
+					j--;
+				}
+			}
+			if (k <= j)
+				right = j;
+			else if (k >= i)
+				left = i;
+			else
+				return;
+		}
+	}
+
+	private static void swap(int [] array, int i, int j)
+	{
+		int temp = array[i];
+		array[i] = array[j];
+		array[j] = temp;
+	}
+
+	private double sqrDistanceToBox(int node, double [] pos)
+	{
+		double ret = 0.0;
+		for (int k = 0; k < 3; k++)
+		{
+			double d = boxes[6*node+k] - pos[k];
+			if (d > 0.0)
+				ret += d * d;
+			else
+			{
+				d = pos[k] - boxes[6*node+3+k];
+				if (d > 0.0)
+					ret += d * d;
+			}
+		}
+		return ret;
+	}
+
+	private double sqrDistanceToSegment(int i, double [] pos)
+	{
+		int offset = 7*i;
+		double dx = pos[0] - segments[offset];
+		double dy = pos[1] - segments[offset+1];
+		double dz = pos[2] - segments[offset+2];
+		double ux = segments[offset+3];
+		double uy = segments[offset+4];
+		double uz = segments[offset+5];
+		double sqrNorm = segments[offset+6];
+		double t = ux * dx + uy * dy + uz * dz;
+		if (t <= 0)
+			t = 0.0;
+		else if (t >= sqrNorm)
+			t = 1.0;
+		else
+			t /= sqrNorm;
+		dx -= t * ux;
+		dy -= t * uy;
+		dz -= t * uz;
+		return dx * dx + dy * dy + dz * dz;
+	}
+
+	/**
+	 * Returns the squared distance between a point and its nearest segment.
+	 *
+	 * @param pos  point coordinates
+	 * @return the squared distance between this point and its nearest
+	 *         segment, or <code>Double.MAX_VALUE</code> if tree is empty
+	 */
+	double sqrDistance(double [] pos)
+	{
+		double dMin = Double.MAX_VALUE;
+		if (nrNodes == 0)
+			return dMin;
+		int [] stack = new int[64];
+		int top = 0;
+		stack[top++] = 0;
+		while (top > 0)
+		{
+			int node = stack[--top];
+			if (sqrDistanceToBox(node, pos) >= dMin)
+				continue;
+			if (right[node] < 0)
+			{
+				for (int i = start[node]; i < end[node]; i++)
+				{
+					double d = sqrDistanceToSegment(i, pos);
+					if (d < dMin)
+						dMin = d;
+				}
+				continue;
+			}
+			int left = node + 1;
+			int other = right[node];
+			if (top + 2 > stack.length)
+			{
+				int [] temp = new int[2*stack.length];
+				System.arraycopy(stack, 0, temp, 0, top);
+				stack = temp;
+			}
+			// Visit nearest child first to shrink dMin faster
+			if (sqrDistanceToBox(left, pos) < sqrDistanceToBox(other, pos))
+			{
+				stack[top++] = other;
+				stack[top++] = left;
+			}
+			else
+			{
+				stack[top++] = left;
+				stack[top++] = other;
+			}
+		}
+		return dMin;
+	}
+
+	/**
+	 * Tells whether a point is within a given distance of a segment.
+	 * Search stops as soon as such a segment is found.
+	 *
+	 * @param pos  point coordinates
+	 * @param distance2  squared distance
+	 * @return <code>true</code> if a segment is found within this distance,
+	 *         <code>false</code> otherwise
+	 */
+	boolean isNearer(double [] pos, double distance2)
+	{
+		if (nrNodes == 0)
+			return false;
+		int [] stack = new int[64];
+		int top = 0;
+		stack[top++] = 0;
+		while (top > 0)
+		{
+			int node = stack[--top];
+			if (sqrDistanceToBox(node, pos) > distance2)
+				continue;
+			if (right[node] < 0)
+			{
+				for (int i = start[node]; i < end[node]; i++)
+				{
+					if (sqrDistanceToSegment(i, pos) <= distance2)
+						return true;
+				}
+				continue;
+			}
+			if (top + 2 > stack.length)
+			{
+				int [] temp = new int[2*stack.length];
+				System.arraycopy(stack, 0, temp, 0, top);
+				stack = temp;
+			}
+			stack[top++] = right[node];
+			stack[top++] = node + 1;
+		}
+		return false;
+	}
+}
@@ -0,0 +1,421 @@
+/* jCAE stand for Java Computer Aided Engineering. Features are : Small CAD
+   modeler, Finite element mesher, Plugin architecture.
+
+    Copyright (C) 2011, by EADS France
+
+    This library is free software; you can redistribute it and/or
+    modify it under the terms of the GNU Lesser General Public
+    License as published by the Free Software Foundation; either
+    version 2.1 of the License, or (at your option) any later version.
+
+    This library is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+    Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public
+    License along with this library; if not, write to the Free Software
+    Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA */
+
+package org.jcae.mesh.amibe.util;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Indexed binary heap to store quality factors.
+ * Objects and their quality factors are stored into two parallel arrays
+ * which are organized as a binary min-heap, and each object stores its own
+ * position within these arrays.  There is thus no need for a map between
+ * objects and nodes as in {@link QBinarySortedTree}, and insertions, removals
+ * and updates are performed in <code>O(log n)</code> without allocating
+ * any object.
+ *
+ * <p>
+ * An object can belong to a single heap at a time, since it has only one
+ * slot to store its position.  This slot is always checked against heap
+ * content, so a stale position is harmless.
+ * </p>
+ *
+ * <p>
+ * As with binary trees, {@link #iterator} returns objects by increasing
+ * quality factors.  Objects are retrieved lazily, so walking through the
+ * first <code>k</code> objects costs <code>O(k log k)</code>.  The same node
+ * is returned by all calls to <code>next()</code>, its content is updated
+ * on each call.  {@link #backwardIterator} has to sort the whole heap
+ * and is much slower.
+ * </p>
+ */
+public class IndexedHeapSortedTree<E extends IndexedHeapSortedTree.Indexed> extends QSortedTree<E>
+{
+	private static final long serialVersionUID = 7319858472904631082L;
+	private static final Logger logger=Logger.getLogger(IndexedHeapSortedTree.class.getName());
+
+	/**
+	 * Interface implemented by objects stored into an
+	 * <code>IndexedHeapSortedTree</code>.
+	 */
+	public interface Indexed
+	{
+		/**
+		 * Returns the position of this object in heap.
+		 *
+		 * @return the position of this object in heap
+		 */
+		int getHeapIndex();
+
+		/**
+		 * Sets the position of this object in heap.
+		 *
+		 * @param index  the position of this object in heap
+		 */
+		void setHeapIndex(int index);
+	}
+
+	private transient Object [] data;
+	private transient double [] values;
+	private transient int nrNodes = 0;
+	// Positions of heap nodes which are candidates during iteration,
+	// this array is itself organized as a binary heap.
+	private transient int [] candidates = new int[64];
+
+	public IndexedHeapSortedTree()
+	{
+		this(1024);
+	}
+
+	public IndexedHeapSortedTree(int capacity)
+	{
+		if (capacity < 1)
+			capacity = 1;
+		data = new Object[capacity];
+		values = new double[capacity];
+	}
+
+	@SuppressWarnings("unchecked")
+	private E get(int index)
+	{
+		return (E) data[index];
+	}
+
+	private int indexOf(E o)
+	{
+		int index = o.getHeapIndex();
+		if (index >= 0 && index < nrNodes && data[index] == o)
+			return index;
+		return -1;
+	}
+
+	private void ensureCapacity(int n)
+	{
+		if (n <= data.length)
+			return;
+		int newCapacity = 2 * data.length;
+		if (newCapacity < n)
+			newCapacity = n;
+		Object [] newData = new Object[newCapacity];
+		System.arraycopy(data, 0, newData, 0, nrNodes);
+		data = newData;
+		double [] newValues = new double[newCapacity];
+		System.arraycopy(values, 0, newValues, 0, nrNodes);
+		values = newValues;
+	}
+
+	private void set(int index, Object o, double value)
+	{
+		data[index] = o;
+		values[index] = value;
+		((Indexed) o).setHeapIndex(index);
+	}
+
+	private void siftUp(int index)
+	{
+		Object o = data[index];
+		double value = values[index];
+		while (index > 0)
+		{
+			int parent = (index - 1) >> 1;
+			if (values[parent] <= value)
+				break;
+			set(index, data[parent], values[parent]);
+			index = parent;
+		}
+		set(index, o, value);
+	}
+
+	private void siftDown(int index)
+	{
+		Object o = data[index];
+		double value = values[index];
+		int half = nrNodes >> 1;
+		while (index < half)
+		{
+			int child = 2 * index + 1;
+			int right = child + 1;
+			if (right < nrNodes && values[right] < values[child])
+				child = right;
+			if (value <= values[child])
+				break;
+			set(index, data[child], values[child]);
+			index = child;
+		}
+		set(index, o, value);
+	}
+
+	@Override
+	public final boolean isEmpty()
+	{
+		return nrNodes == 0;
+	}
+
+	@Override
+	public final void insert(E o, double value)
+	{
+		assert indexOf(o) < 0 : "Object already in tree: "+o;
+		if (logger.isLoggable(Level.FINE))
+			logger.fine("Insert value: "+value+" "+o);
+		ensureCapacity(nrNodes + 1);
+		data[nrNodes] = o;
+		values[nrNodes] = value;
+		nrNodes++;
+		siftUp(nrNodes - 1);
+	}
+
+	@Override
+	public final boolean remove(E o)
+	{
+		int index = indexOf(o);
+		if (logger.isLoggable(Level.FINE))
+			logger.fine("Remove "+index+" "+o);
+		if (index < 0)
+			return false;
+		nrNodes--;
+		if (index != nrNodes)
+		{
+			double oldValue = values[index];
+			set(index, data[nrNodes], values[nrNodes]);
+			if (values[index] < oldValue)
+				siftUp(index);
+			else
+				siftDown(index);
+		}
+		data[nrNodes] = null;
+		o.setHeapIndex(-1);
+		return true;
+	}
+
+	@Override
+	public final boolean update(E o, double value)
+	{
+		int index = indexOf(o);
+		if (logger.isLoggable(Level.FINE))
+			logger.fine("Update "+index+" content to "+value);
+		if (index < 0)
+			return false;
+		double oldValue = values[index];
+		values[index] = value;
+		if (value < oldValue)
+			siftUp(index);
+		else
+			siftDown(index);
+		return true;
+	}
+
+	@Override
+	public final void clear()
+	{
+		for (int i = 0; i < nrNodes; i++)
+		{
+			get(i).setHeapIndex(-1);
+			data[i] = null;
+		}
+		nrNodes = 0;
+	}
+
+	@Override
+	public final boolean contains(E o)
+	{
+		return indexOf(o) >= 0;
+	}
+
+	@Override
+	public final int size()
+	{
+		return nrNodes;
+	}
+
+	/**
+	 * Return the value of the parent of the last heap node.  This node
+	 * belongs to the lowest levels of the heap, its value is of the same
+	 * order of magnitude as the median value, which is good enough
+	 * to compute penalties.
+	 * @return the value of the parent of the last heap node.
+	 */
+	@Override
+	public final double getRootValue()
+	{
+		return values[(nrNodes - 1) >> 1];
+	}
+
+	/**
+	 * Push heap position into the <code>candidates</code> binary heap.
+	 */
+	private int pushCandidate(int nr, int index)
+	{
+		if (nr >= candidates.length)
+		{
+			int [] temp = new int[2 * candidates.length];
+			System.arraycopy(candidates, 0, temp, 0, nr);
+			candidates = temp;
+		}
+		double value = values[index];
+		int i = nr;
+		while (i > 0)
+		{
+			int parent = (i - 1) >> 1;
+			if (values[candidates[parent]] <= value)
+				break;
+			candidates[i] = candidates[parent];
+			i = parent;
+		}
+		candidates[i] = index;
+		return nr + 1;
+	}
+
+	/**
+	 * Pop heap position with lowest value from the <code>candidates</code>
+	 * binary heap.  Its children in the main heap are then pushed.
+	 */
+	private int popCandidate(int nr)
+	{
+		int ret = candidates[0];
+		nr--;
+		int last = candidates[nr];
+		double value = values[last];
+		int i = 0;
+		int half = nr >> 1;
+		while (i < half)
+		{
+			int child = 2 * i + 1;
+			if (child + 1 < nr && values[candidates[child+1]] < values[candidates[child]])
+				child++;
+			if (value <= values[candidates[child]])
+				break;
+			candidates[i] = candidates[child];
+			i = child;
+		}
+		candidates[i] = last;
+		return ret;
+	}
+
+	/**
+	 * Return an iterator over nodes, by increasing quality factors.
+	 * Only one iterator can be used at a time, and heap must not be
+	 * modified while being walked through.
+	 */
+	@Override
+	public final Iterator<Node<E>> iterator()
+	{
+		return new Iterator<Node<E>>()
+		{
+			private final Node<E> current = new Node<E>(null, 0.0);
+			private int nrCandidates = (nrNodes > 0 ? pushCandidate(0, 0) : 0);
+			public boolean hasNext()
+			{
+				return nrCandidates > 0;
+			}
+			public Node<E> next()
+			{
+				if (nrCandidates == 0)
+					throw new NoSuchElementException();
+				int index = popCandidate(nrCandidates);
+				nrCandidates--;
+				int child = 2 * index + 1;
+				if (child < nrNodes)
+					nrCandidates = pushCandidate(nrCandidates, child);
+				if (child + 1 < nrNodes)
+					nrCandidates = pushCandidate(nrCandidates, child + 1);
+				current.data = get(index);
+				current.value = values[index];
+				return current;
+			}
+			public void remove()
+			{
+				// Not supported yet!
+				throw new RuntimeException();
+			}
+		};
+	}
+
+	/**
+	 * Return an iterator over nodes, by decreasing quality factors.
+	 * The whole heap is sorted first, so this method is expensive.
+	 */
+	@Override
+	public final Iterator<Node<E>> backwardIterator()
+	{
+		final int [] order = new int[nrNodes];
+		int nr = (nrNodes > 0 ? pushCandidate(0, 0) : 0);
+		for (int i = 0; i < order.length; i++)
+		{
+			int index = popCandidate(nr);
+			nr--;
+			order[i] = index;
+			int child = 2 * index + 1;
+			if (child < nrNodes)
+				nr = pushCandidate(nr, child);
+			if (child + 1 < nrNodes)
+				nr = pushCandidate(nr, child + 1);
+		}
+		return new Iterator<Node<E>>()
+		{
+			private final Node<E> current = new Node<E>(null, 0.0);
+			private int next = order.length - 1;
+			public boolean hasNext()
+			{
+				return next >= 0;
+			}
+			public Node<E> next()
+			{
+				if (next < 0)
+					throw new NoSuchElementException();
+				current.data = get(order[next]);
+				current.value = values[order[next]];
+				next--;
+				return current;
+			}
+			public void remove()
+			{
+				// Not supported yet!
+				throw new RuntimeException();
+			}
+		};
+	}
+
+	private void writeObject(java.io.ObjectOutputStream s)
+		throws java.io.IOException
+	{
+		s.defaultWriteObject();
+		s.writeInt(nrNodes);
+		for (int i = 0; i < nrNodes; i++)
+		{
+			s.writeObject(data[i]);
+			s.writeDouble(values[i]);
+		}
+	}
+
+	private void readObject(java.io.ObjectInputStream s)
+		throws java.io.IOException, ClassNotFoundException
+	{
+		s.defaultReadObject();
+		nrNodes = s.readInt();
+		data = new Object[nrNodes > 0 ? nrNodes : 1];
+		values = new double[data.length];
+		candidates = new int[64];
+		for (int i = 0; i < nrNodes; i++)
+			set(i, s.readObject(), s.readDouble());
+	}
+
+}
@@ -41,7 +41,7 @@ import java.util.logging.Logger;
  * and removal.  Node insertions and removals are explained in detail at
  * <a href="http://en.wikipedia.org/wiki/Red-Black_tree">wikipedia</a>.
  */
-public class PRedBlackSortedTree<E> extends QSortedTree<E>
+public class PRedBlackSortedTree<E> extends QBinarySortedTree<E>
 {
 	private static final long serialVersionUID = 4767412412814775447L;
 	private static final Logger logger=Logger.getLogger(PRedBlackSortedTree.class.getName());	
@@ -20,6 +20,7 @@
 
 package org.jcae.mesh.amibe.validation;
 
+import org.jcae.mesh.amibe.ds.CompactMesh;
 import org.jcae.mesh.amibe.ds.Triangle;
 import org.jcae.mesh.amibe.metrics.Matrix3D;
 
@@ -58,4 +59,28 @@ public class Area extends QualityProcedure
 		Matrix3D.prodVect3D(v1, v2, v3);
 		return (float) (0.5 * Matrix3D.norm(v3));
 	}
+
+	@Override
+	public boolean supportsCompactMesh()
+	{
+		return true;
+	}
+
+	@Override
+	public float quality(CompactMesh mesh, int index)
+	{
+		double [] coords = mesh.getCoordinates();
+		int [] triangles = mesh.getTriangles();
+		int i1 = 3 * triangles[3*index];
+		int i2 = 3 * triangles[3*index+1];
+		int i3 = 3 * triangles[3*index+2];
+		for (int i = 0; i < 3; i++)
+		{
+			v1[i] = coords[i2+i] - coords[i1+i];
+			v2[i] = coords[i3+i] - coords[i1+i];
+		}
+		Matrix3D.prodVect3D(v1, v2, v3);
+		return (float) (0.5 * Matrix3D.norm(v3));
+	}
+
 }
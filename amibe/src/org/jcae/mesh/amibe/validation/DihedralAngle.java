@@ -21,6 +21,7 @@
 package org.jcae.mesh.amibe.validation;
 
 import org.jcae.mesh.amibe.ds.AbstractHalfEdge;
+import org.jcae.mesh.amibe.ds.CompactMesh;
 import org.jcae.mesh.amibe.ds.Triangle;
 import org.jcae.mesh.amibe.metrics.Matrix3D;
 import org.jcae.mesh.amibe.traits.MeshTraitsBuilder;
@@ -43,6 +44,10 @@ public class DihedralAngle extends QualityProcedure
 	private final double[] temp2 = new double[3];
 	private final double[] temp3 = new double[3];
 	private final double[] temp4 = new double[3];
+	private final double[] p0 = new double[3];
+	private final double[] p1 = new double[3];
+	private final double[] p2 = new double[3];
+	private final double[] p3 = new double[3];
 	
 	@Override
 	protected void setValidationFeatures()
@@ -94,5 +99,44 @@ public class DihedralAngle extends QualityProcedure
 		return ret;
 	}
 
-}
+	@Override
+	public boolean supportsCompactMesh()
+	{
+		return true;
+	}
 
+	@Override
+	public float quality(CompactMesh mesh, int index)
+	{
+		double [] coords = mesh.getCoordinates();
+		int [] groups = mesh.getGroups();
+		float ret = 1.0f;
+		for (int he = 3*index; he < 3*index+3; he++)
+		{
+			if (mesh.hasAttributes(he, AbstractHalfEdge.BOUNDARY | AbstractHalfEdge.NONMANIFOLD))
+				continue;
+			int sym = mesh.sym(he);
+			if (sym < 0)
+				continue;
+			if (groups[index] != groups[sym / 3])
+				continue;
+			copy(coords, mesh.origin(he), p0);
+			copy(coords, mesh.destination(he), p1);
+			copy(coords, mesh.apex(he), p2);
+			copy(coords, mesh.apex(sym), p3);
+
+			Matrix3D.computeNormal3D(p0, p1, p2, temp1, temp2, temp3);
+			Matrix3D.computeNormal3D(p1, p0, p3, temp1, temp2, temp4);
+			float dot = (float) Matrix3D.prodSca(temp3, temp4);
+			if (dot < ret)
+				ret = dot;
+		}
+		return ret;
+	}
+
+	private static void copy(double [] coords, int v, double [] dest)
+	{
+		System.arraycopy(coords, 3*v, dest, 0, 3);
+	}
+
+}
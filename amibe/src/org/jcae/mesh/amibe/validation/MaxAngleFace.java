@@ -20,6 +20,7 @@
 
 package org.jcae.mesh.amibe.validation;
 
+import org.jcae.mesh.amibe.ds.CompactMesh;
 import org.jcae.mesh.amibe.ds.Triangle;
 import org.jcae.mesh.amibe.ds.Vertex;
 
@@ -56,5 +57,28 @@ public class MaxAngleFace extends QualityProcedure
 			a1 = a3;
 		return (float) a1;
 	}
-	
+
+	@Override
+	public boolean supportsCompactMesh()
+	{
+		return true;
+	}
+
+	@Override
+	public float quality(CompactMesh mesh, int index)
+	{
+		int [] triangles = mesh.getTriangles();
+		int n1 = triangles[3*index];
+		int n2 = triangles[3*index+1];
+		int n3 = triangles[3*index+2];
+		double a1 = Math.abs(mesh.angle3D(n1, n2, n3));
+		double a2 = Math.abs(mesh.angle3D(n2, n3, n1));
+		double a3 = Math.abs(mesh.angle3D(n3, n1, n2));
+		if (a2 > a1)
+			a1 = a2;
+		if (a3 > a1)
+			a1 = a3;
+		return (float) a1;
+	}
+
 }
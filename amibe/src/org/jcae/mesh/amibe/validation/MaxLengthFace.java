@@ -20,6 +20,7 @@
 
 package org.jcae.mesh.amibe.validation;
 
+import org.jcae.mesh.amibe.ds.CompactMesh;
 import org.jcae.mesh.amibe.ds.Triangle;
 import org.jcae.mesh.amibe.ds.Vertex;
 
@@ -57,5 +58,28 @@ public class MaxLengthFace extends QualityProcedure
 			l1 = l3;
 		return (float) l1;
 	}
-	
+
+	@Override
+	public boolean supportsCompactMesh()
+	{
+		return true;
+	}
+
+	@Override
+	public float quality(CompactMesh mesh, int index)
+	{
+		int [] triangles = mesh.getTriangles();
+		int n1 = triangles[3*index];
+		int n2 = triangles[3*index+1];
+		int n3 = triangles[3*index+2];
+		double l1 = mesh.distance3D(n1, n2);
+		double l2 = mesh.distance3D(n2, n3);
+		double l3 = mesh.distance3D(n3, n1);
+		if (l2 > l1)
+			l1 = l2;
+		if (l3 > l1)
+			l1 = l3;
+		return (float) l1;
+	}
+
 }
@@ -20,6 +20,7 @@
 
 package org.jcae.mesh.amibe.validation;
 
+import org.jcae.mesh.amibe.ds.CompactMesh;
 import gnu.trove.TFloatArrayList;
 import java.io.FileNotFoundException;
 import java.io.IOException;
@@ -108,6 +109,22 @@ public class QualityFloat
 		data.add(qproc.quality(x));
 	}
 	
+	/**
+	 * Compute the quality of an entity of a compact mesh and add it to
+	 * the list.
+	 *
+	 * @param mesh  compact mesh
+	 * @param index  index of the entity on which quality is computed
+	 * @throws UnsupportedOperationException if quality procedure does not
+	 *         support compact meshes
+	 * @see QualityProcedure#supportsCompactMesh
+	 */
+	public final void compute(CompactMesh mesh, int index)
+	{
+		assert qproc != null;
+		data.add(qproc.quality(mesh, index));
+	}
+	
 	/**
 	 * Add a value to the list.
 	 *
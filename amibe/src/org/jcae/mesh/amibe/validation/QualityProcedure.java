@@ -19,6 +19,7 @@
 
 package org.jcae.mesh.amibe.validation;
 
+import org.jcae.mesh.amibe.ds.CompactMesh;
 import org.jcae.mesh.amibe.traits.MeshTraitsBuilder;
 import gnu.trove.TFloatArrayList;
 import java.lang.reflect.Constructor;
@@ -114,6 +115,36 @@ public abstract class QualityProcedure
 	 */
 	public abstract float quality(Object o);
 	
+	/**
+	 * Tells whether this procedure can run on compact meshes.  Callers
+	 * must check this method before calling
+	 * {@link #quality(CompactMesh, int)}.
+	 *
+	 * @return <code>true</code> if {@link #quality(CompactMesh, int)} is
+	 *         implemented, <code>false</code> otherwise
+	 */
+	public boolean supportsCompactMesh()
+	{
+		return false;
+	}
+	
+	/**
+	 * Return the quality factor of an entity of a compact mesh.
+	 * By default, this method throws an
+	 * <code>UnsupportedOperationException</code> and has to be overriden
+	 * by procedures which can run on compact meshes, along with
+	 * {@link #supportsCompactMesh}.
+	 *
+	 * @param mesh  compact mesh
+	 * @param index  triangle index if {@link #getType} returns
+	 *        <code>FACE</code>, vertex index if it returns <code>NODE</code>
+	 * @return quality factor
+	 */
+	public float quality(CompactMesh mesh, int index)
+	{
+		throw new UnsupportedOperationException(getClass().getName()+" does not support compact meshes");
+	}
+	
 	/**
 	 * Returns default scale factor.
 	 */
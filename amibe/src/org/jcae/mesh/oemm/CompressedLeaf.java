@@ -0,0 +1,271 @@
+/* jCAE stand for Java Computer Aided Engineering. Features are : Small CAD
+   modeler, Finite element mesher, Plugin architecture.
+
+    Copyright (C) 2011, by EADS France
+
+    This library is free software; you can redistribute it and/or
+    modify it under the terms of the GNU Lesser General Public
+    License as published by the Free Software Foundation; either
+    version 2.1 of the License, or (at your option) any later version.
+
+    This library is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+    Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public
+    License along with this library; if not, write to the Free Software
+    Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA */
+
+package org.jcae.mesh.oemm;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Compressed format of leaf files, used when {@link OEMM#getLeafFormat}
+ * returns {@link OEMM#COMPRESSED_FORMAT}.  Content of leaf files is the
+ * same as in raw format (see {@link Storage}), but it is encoded as
+ * follows.  All integers are zigzag encoded (so that small negative
+ * values are small too) and written as variable length integers,
+ * by groups of 7 bits.
+ * <ul>
+ *  <li>Vertex coordinates are converted into integer coordinates of
+ *      the OEMM grid.  First vertex is written relatively to the
+ *      octant corner, and other vertices relatively to the previous
+ *      one.  Vertices of an OEMM built by {@link RawStorage} are
+ *      already located on this grid and are not modified, but
+ *      coordinates of vertices written by {@link Storage#saveNodes}
+ *      are rounded to the nearest grid point.</li>
+ *  <li>For each triangle, leaf numbers are written relatively to the
+ *      current leaf, local vertex indices relatively to the previous
+ *      index, and group number relatively to the previous group.</li>
+ *  <li>Adjacency files are not encoded.</li>
+ * </ul>
+ * Encoded data are prefixed by the number of vertices, triangles or bytes,
+ * and the whole file is compressed with the deflate algorithm.
+ */
+final class CompressedLeaf
+{
+	private CompressedLeaf()
+	{
+	}
+
+	/**
+	 * Opens an output stream on a leaf file.  Data are written in raw
+	 * format, they are encoded and written into file when this stream
+	 * is closed.
+	 *
+	 * @param oemm  OEMM instance
+	 * @param node  OEMM leaf
+	 * @param file  leaf file
+	 * @param type  'v', 't' or 'a' for vertex, triangle or adjacency file
+	 * @return output stream
+	 */
+	static OutputStream newOutputStream(OEMM oemm, OEMM.Node node, File file, char type)
+		throws FileNotFoundException
+	{
+		return new EncoderOutputStream(oemm, node, type, new FileOutputStream(file));
+	}
+
+	/**
+	 * Reads a leaf file and returns its content in raw format.
+	 *
+	 * @param oemm  OEMM instance
+	 * @param node  OEMM leaf
+	 * @param file  leaf file
+	 * @param type  'v', 't' or 'a' for vertex, triangle or adjacency file
+	 * @return a buffer containing raw data, its position is 0 and its limit
+	 *         is the size of data
+	 */
+	static ByteBuffer read(OEMM oemm, OEMM.Node node, File file, char type)
+		throws IOException
+	{
+		InputStream in = new InflaterInputStream(new FileInputStream(file));
+		ByteArrayOutputStream out = new ByteArrayOutputStream((int) (4L * file.length()));
+		try
+		{
+			byte [] buf = new byte[65536];
+			int nr;
+			while ((nr = in.read(buf)) > 0)
+				out.write(buf, 0, nr);
+		}
+		finally
+		{
+			in.close();
+		}
+		return decode(oemm, node, type, out.toByteArray());
+	}
+
+	private static final class EncoderOutputStream extends ByteArrayOutputStream
+	{
+		private final OEMM oemm;
+		private final OEMM.Node node;
+		private final char type;
+		private final OutputStream out;
+		private boolean closed = false;
+
+		EncoderOutputStream(OEMM oemm, OEMM.Node node, char type, OutputStream out)
+		{
+			super(65536);
+			this.oemm = oemm;
+			this.node = node;
+			this.type = type;
+			this.out = out;
+		}
+
+		@Override
+		public void close() throws IOException
+		{
+			if (closed)
+				return;
+			closed = true;
+			DeflaterOutputStream dos = new DeflaterOutputStream(out);
+			try
+			{
+				dos.write(encode(oemm, node, type, ByteBuffer.wrap(buf, 0, count)));
+			}
+			finally
+			{
+				dos.close();
+			}
+		}
+	}
+
+	static byte [] encode(OEMM oemm, OEMM.Node node, char type, ByteBuffer raw)
+	{
+		ByteArrayOutputStream out = new ByteArrayOutputStream(raw.remaining() / 2);
+		if (type == 'v')
+		{
+			DoubleBuffer bbD = raw.asDoubleBuffer();
+			int nr = bbD.remaining() / 3;
+			writeInt(out, nr);
+			int [] last = new int[] { node.i0, node.j0, node.k0 };
+			for (int i = 0; i < nr; i++)
+			{
+				for (int k = 0; k < 3; k++)
+				{
+					int ijk = (int) Math.round((bbD.get() - oemm.x0[k]) * oemm.x0[3]);
+					writeInt(out, ijk - last[k]);
+					last[k] = ijk;
+				}
+			}
+		}
+		else if (type == 't')
+		{
+			IntBuffer bbI = raw.asIntBuffer();
+			int nr = bbI.remaining() / 7;
+			writeInt(out, nr);
+			int lastIndex = 0;
+			int lastGroup = 0;
+			for (int i = 0; i < nr; i++)
+			{
+				for (int j = 0; j < 3; j++)
+					writeInt(out, bbI.get() - node.leafIndex);
+				for (int j = 0; j < 3; j++)
+				{
+					int index = bbI.get();
+					writeInt(out, index - lastIndex);
+					lastIndex = index;
+				}
+				int group = bbI.get();
+				writeInt(out, group - lastGroup);
+				lastGroup = group;
+			}
+		}
+		else if (type == 'a')
+		{
+			writeInt(out, raw.remaining());
+			out.write(raw.array(), raw.arrayOffset() + raw.position(), raw.remaining());
+		}
+		else
+			throw new IllegalArgumentException("Unknown leaf file type: "+type);
+		return out.toByteArray();
+	}
+
+	static ByteBuffer decode(OEMM oemm, OEMM.Node node, char type, byte [] data)
+	{
+		int [] pos = new int[1];
+		int nr = readInt(data, pos);
+		ByteBuffer ret;
+		if (type == 'v')
+		{
+			ret = ByteBuffer.allocate(24 * nr);
+			DoubleBuffer bbD = ret.asDoubleBuffer();
+			int [] ijk = new int[] { node.i0, node.j0, node.k0 };
+			double [] xyz = new double[3];
+			for (int i = 0; i < nr; i++)
+			{
+				for (int k = 0; k < 3; k++)
+					ijk[k] += readInt(data, pos);
+				oemm.int2double(ijk, xyz);
+				bbD.put(xyz);
+			}
+		}
+		else if (type == 't')
+		{
+			ret = ByteBuffer.allocate(28 * nr);
+			IntBuffer bbI = ret.asIntBuffer();
+			int lastIndex = 0;
+			int lastGroup = 0;
+			for (int i = 0; i < nr; i++)
+			{
+				for (int j = 0; j < 3; j++)
+					bbI.put(node.leafIndex + readInt(data, pos));
+				for (int j = 0; j < 3; j++)
+				{
+					lastIndex += readInt(data, pos);
+					bbI.put(lastIndex);
+				}
+				lastGroup += readInt(data, pos);
+				bbI.put(lastGroup);
+			}
+		}
+		else if (type == 'a')
+		{
+			ret = ByteBuffer.allocate(nr);
+			ret.put(data, pos[0], nr);
+			ret.rewind();
+		}
+		else
+			throw new IllegalArgumentException("Unknown leaf file type: "+type);
+		return ret;
+	}
+
+	private static void writeInt(ByteArrayOutputStream out, int value)
+	{
+		int v = (value << 1) ^ (value >> 31);
+		while ((v & ~0x7f) != 0)
+		{
+			out.write((v & 0x7f) | 0x80);
+			v >>>= 7;
+		}
+		out.write(v);
+	}
+
+	private static int readInt(byte [] data, int [] pos)
+	{
+		int v = 0;
+		int shift = 0;
+		int b;
+		do
+		{
+			b = data[pos[0]++];
+			v |= (b & 0x7f) << shift;
+			shift += 7;
+		}
+		while ((b & 0x80) != 0);
+		return (v >>> 1) ^ -(v & 1);
+	}
+}
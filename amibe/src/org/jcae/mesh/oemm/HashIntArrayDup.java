@@ -0,0 +1,192 @@
+/* jCAE stand for Java Computer Aided Engineering. Features are : Small CAD
+   modeler, Finite element mesher, Plugin architecture.
+
+    Copyright (C) 2011, by EADS France
+
+    This library is free software; you can redistribute it and/or
+    modify it under the terms of the GNU Lesser General Public
+    License as published by the Free Software Foundation; either
+    version 2.1 of the License, or (at your option) any later version.
+
+    This library is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+    Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public
+    License along with this library; if not, write to the Free Software
+    Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA */
+
+package org.jcae.mesh.oemm;
+
+import java.util.Arrays;
+
+/**
+ * Open addressing hash table to store integer coordinates.  It provides
+ * the same services as {@link PAVLTreeIntArrayDup}, but vertices are not
+ * sorted, and insertion and lookup are done in constant time.
+ * <p>
+ * Entries are stored in insertion order into two int arrays, one for
+ * coordinates and one for values.  Hash table contains entry indices
+ * shifted by one, 0 denotes an empty slot, and collisions are resolved
+ * by linear probing.  There is no allocation per vertex, and when
+ * {@link #clear} is called, arrays are kept so that the same instance
+ * can process many leaves without allocating memory.
+ * </p>
+ */
+public class HashIntArrayDup implements IntTripletMap
+{
+	//  Minimal number of slots, it must be a power of 2
+	private static final int MIN_CAPACITY = 1024;
+
+	private int [] table;
+	private int mask;
+	//  Entries, they can hold half as many entries as table has slots,
+	//  table is grown when its load factor exceeds 1/2
+	private int [] keys;
+	private int [] values;
+	private int size = 0;
+
+	/**
+	 * Creates an empty hash table.
+	 */
+	public HashIntArrayDup()
+	{
+		this(MIN_CAPACITY / 2);
+	}
+
+	/**
+	 * Creates an empty hash table which can store a given number of
+	 * vertices without being resized.
+	 *
+	 * @param expected  expected number of vertices
+	 */
+	public HashIntArrayDup(int expected)
+	{
+		int capacity = MIN_CAPACITY;
+		while (capacity < 2 * expected)
+			capacity <<= 1;
+		table = new int[capacity];
+		mask = capacity - 1;
+		keys = new int[3 * (capacity / 2)];
+		values = new int[capacity / 2];
+	}
+
+	private static int hash(int i, int j, int k)
+	{
+		int h = i * 0x9e3779b1 + j * 0x85ebca6b + k * 0xc2b2ae35;
+		return h ^ (h >>> 15);
+	}
+
+	/**
+	 * Inserts a node associated to a value into the table.
+	 *
+	 * @param ijk    integer coordinates
+	 * @param value  node value
+	 * @return if the node is already present, returns its associated value,
+	 *         otherwise returns <code>value</code>
+	 */
+	public final int insert(int [] ijk, int value)
+	{
+		int i = ijk[0];
+		int j = ijk[1];
+		int k = ijk[2];
+		int slot = hash(i, j, k) & mask;
+		while (table[slot] != 0)
+		{
+			int e = table[slot] - 1;
+			if (keys[3*e] == i && keys[3*e+1] == j && keys[3*e+2] == k)
+				return values[e];
+			slot = (slot + 1) & mask;
+		}
+		if (size >= values.length)
+		{
+			rehash(2 * table.length);
+			slot = hash(i, j, k) & mask;
+			while (table[slot] != 0)
+				slot = (slot + 1) & mask;
+		}
+		keys[3*size]   = i;
+		keys[3*size+1] = j;
+		keys[3*size+2] = k;
+		values[size] = value;
+		size++;
+		table[slot] = size;
+		return value;
+	}
+
+	/**
+	 * Returns node value.
+	 *
+	 * @param ijk    coordinates
+	 * @return node value, or <code>-1</code> if this key does not
+	 *         exist in the table.
+	 */
+	public final int get(int [] ijk)
+	{
+		int i = ijk[0];
+		int j = ijk[1];
+		int k = ijk[2];
+		int slot = hash(i, j, k) & mask;
+		while (table[slot] != 0)
+		{
+			int e = table[slot] - 1;
+			if (keys[3*e] == i && keys[3*e+1] == j && keys[3*e+2] == k)
+				return values[e];
+			slot = (slot + 1) & mask;
+		}
+		return -1;
+	}
+
+	/**
+	 * Returns table size.
+	 *
+	 * @return table size.
+	 */
+	public final int size()
+	{
+		return size;
+	}
+
+	/**
+	 * Removes all nodes.  Arrays are not shrunk.
+	 */
+	public final void clear()
+	{
+		if (8 * size < table.length)
+		{
+			//  Only reset occupied slots, their entries are found by
+			//  probing from entry hash.  Probing cannot stop on empty
+			//  slots since slots of previous entries have been reset.
+			for (int e = 0; e < size; e++)
+			{
+				int slot = hash(keys[3*e], keys[3*e+1], keys[3*e+2]) & mask;
+				while (table[slot] != e + 1)
+					slot = (slot + 1) & mask;
+				table[slot] = 0;
+			}
+		}
+		else
+			Arrays.fill(table, 0);
+		size = 0;
+	}
+
+	private void rehash(int capacity)
+	{
+		table = new int[capacity];
+		mask = capacity - 1;
+		int [] newKeys = new int[3 * (capacity / 2)];
+		System.arraycopy(keys, 0, newKeys, 0, 3 * size);
+		keys = newKeys;
+		int [] newValues = new int[capacity / 2];
+		System.arraycopy(values, 0, newValues, 0, size);
+		values = newValues;
+		for (int e = 0; e < size; e++)
+		{
+			int slot = hash(keys[3*e], keys[3*e+1], keys[3*e+2]) & mask;
+			while (table[slot] != 0)
+				slot = (slot + 1) & mask;
+			table[slot] = e + 1;
+		}
+	}
+}
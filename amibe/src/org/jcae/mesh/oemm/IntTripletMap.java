@@ -0,0 +1,58 @@
+/* jCAE stand for Java Computer Aided Engineering. Features are : Small CAD
+   modeler, Finite element mesher, Plugin architecture.
+
+    Copyright (C) 2011, by EADS France
+
+    This library is free software; you can redistribute it and/or
+    modify it under the terms of the GNU Lesser General Public
+    License as published by the Free Software Foundation; either
+    version 2.1 of the License, or (at your option) any later version.
+
+    This library is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+    Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public
+    License along with this library; if not, write to the Free Software
+    Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA */
+
+package org.jcae.mesh.oemm;
+
+/**
+ * Map between integer coordinates and vertex indices, used by
+ * {@link RawStorage} to remove duplicate vertices of a leaf.
+ */
+interface IntTripletMap
+{
+	/**
+	 * Inserts a vertex associated to a value.
+	 *
+	 * @param ijk    integer coordinates
+	 * @param value  vertex value
+	 * @return if the vertex is already present, returns its associated
+	 *         value, otherwise returns <code>value</code>
+	 */
+	int insert(int [] ijk, int value);
+
+	/**
+	 * Returns vertex value.
+	 *
+	 * @param ijk    integer coordinates
+	 * @return vertex value, or <code>-1</code> if this vertex is not found
+	 */
+	int get(int [] ijk);
+
+	/**
+	 * Returns the number of vertices.
+	 *
+	 * @return the number of vertices
+	 */
+	int size();
+
+	/**
+	 * Removes all vertices.  Allocated memory is kept so that this
+	 * instance can be reused.
+	 */
+	void clear();
+}
@@ -0,0 +1,294 @@
+/* jCAE stand for Java Computer Aided Engineering. Features are : Small CAD
+   modeler, Finite element mesher, Plugin architecture.
+
+    Copyright (C) 2011, by EADS France
+
+    This library is free software; you can redistribute it and/or
+    modify it under the terms of the GNU Lesser General Public
+    License as published by the Free Software Foundation; either
+    version 2.1 of the License, or (at your option) any later version.
+
+    This library is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+    Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public
+    License along with this library; if not, write to the Free Software
+    Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA */
+
+package org.jcae.mesh.oemm;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Bounded cache of decoded OEMM leaves.  Vertex coordinates, triangles and
+ * vertex adjacency of a leaf are read from disk at once and kept in memory
+ * until the total size of cached leaves exceeds the memory budget; least
+ * recently used leaves are then evicted.  A cache is attached to an
+ * {@link OEMM} instance by {@link OEMM#setLeafCache}, it is used by
+ * {@link MeshReader} and its subclasses, and is cleared by
+ * {@link Storage#saveNodes} when leaves are written back to disk.
+ * This class is thread-safe.
+ */
+public class LeafCache
+{
+	private static final Logger logger=Logger.getLogger(LeafCache.class.getName());
+
+	/**
+	 * Decoded content of a leaf.  Arrays are shared between all readers
+	 * and must not be modified.
+	 */
+	public static final class Leaf
+	{
+		/**
+		 * Vertex coordinates, 3 doubles per vertex.
+		 */
+		public final double [] coords;
+		/**
+		 * Triangles, 7 integers per triangle: leaf indices of its 3 vertices,
+		 * local indices of its 3 vertices in these leaves, and group number.
+		 */
+		public final int [] triangles;
+		// Leaves adjacent to vertex i are adjLeaves[adjOffsets[i]] ... adjLeaves[adjOffsets[i+1]-1]
+		private final int [] adjOffsets;
+		private final int [] adjLeaves;
+
+		private Leaf(double [] coords, int [] triangles, int [] adjOffsets, int [] adjLeaves)
+		{
+			this.coords = coords;
+			this.triangles = triangles;
+			this.adjOffsets = adjOffsets;
+			this.adjLeaves = adjLeaves;
+		}
+
+		/**
+		 * Returns the number of leaves containing triangles adjacent to
+		 * a vertex, not counting its own leaf.
+		 *
+		 * @param vertex  local vertex index
+		 * @return number of adjacent leaves
+		 */
+		public int getNumberOfAdjacentLeaves(int vertex)
+		{
+			return adjOffsets[vertex+1] - adjOffsets[vertex];
+		}
+
+		/**
+		 * Returns the index of a leaf adjacent to a vertex.
+		 *
+		 * @param vertex  local vertex index
+		 * @param i  index between 0 and {@link #getNumberOfAdjacentLeaves}
+		 * @return leaf index
+		 */
+		public int getAdjacentLeaf(int vertex, int i)
+		{
+			return adjLeaves[adjOffsets[vertex] + i];
+		}
+
+		/**
+		 * Returns an estimate of memory used by this leaf, in bytes.
+		 */
+		long memoryUsage()
+		{
+			return 64L + 8L * coords.length +
+				4L * (triangles.length + adjOffsets.length + adjLeaves.length);
+		}
+	}
+
+	private final OEMM oemm;
+	private final long memoryBudget;
+	// Access ordered map, its first entry is the least recently used leaf
+	private final LinkedHashMap<Integer, Leaf> map = new LinkedHashMap<Integer, Leaf>(16, 0.75f, true);
+	private long memoryUsage = 0L;
+	private long hits = 0L;
+	private long misses = 0L;
+	private long evictions = 0L;
+
+	/**
+	 * Creates a cache for leaves of an OEMM.
+	 *
+	 * @param oemm  OEMM instance
+	 * @param memoryBudget  maximal memory used by cached leaves, in bytes
+	 */
+	public LeafCache(OEMM oemm, long memoryBudget)
+	{
+		this.oemm = oemm;
+		this.memoryBudget = memoryBudget;
+	}
+
+	/**
+	 * Returns the decoded content of a leaf, reads it from disk if it is
+	 * not in cache.
+	 *
+	 * @param node  OEMM leaf
+	 * @return decoded leaf
+	 */
+	public Leaf get(OEMM.Node node)
+	{
+		Integer key = Integer.valueOf(node.leafIndex);
+		synchronized (this)
+		{
+			Leaf ret = map.get(key);
+			if (ret != null)
+			{
+				hits++;
+				return ret;
+			}
+			misses++;
+		}
+		// Do not hold lock while reading files, another thread may then
+		// read the same leaf, the first one is kept.
+		Leaf ret = load(oemm, node);
+		synchronized (this)
+		{
+			Leaf other = map.get(key);
+			if (other != null)
+				return other;
+			long size = ret.memoryUsage();
+			if (size > memoryBudget)
+				return ret;
+			map.put(key, ret);
+			memoryUsage += size;
+			for (Iterator<Map.Entry<Integer, Leaf>> it = map.entrySet().iterator();
+				memoryUsage > memoryBudget && it.hasNext(); )
+			{
+				Leaf evicted = it.next().getValue();
+				if (evicted == ret)
+					continue;
+				memoryUsage -= evicted.memoryUsage();
+				it.remove();
+				evictions++;
+			}
+		}
+		return ret;
+	}
+
+	/**
+	 * Returns the decoded content of a leaf if it is in cache, without
+	 * reading it from disk otherwise.  Hit and miss counters are not
+	 * modified.
+	 *
+	 * @param leafIndex  leaf index
+	 * @return decoded leaf, or <code>null</code> if it is not in cache
+	 */
+	public synchronized Leaf peek(int leafIndex)
+	{
+		return map.get(Integer.valueOf(leafIndex));
+	}
+
+	/**
+	 * Removes a leaf from cache.
+	 *
+	 * @param leafIndex  leaf index
+	 */
+	public synchronized void invalidate(int leafIndex)
+	{
+		Leaf removed = map.remove(Integer.valueOf(leafIndex));
+		if (removed != null)
+			memoryUsage -= removed.memoryUsage();
+	}
+
+	/**
+	 * Removes all leaves from cache.
+	 */
+	public synchronized void clear()
+	{
+		map.clear();
+		memoryUsage = 0L;
+	}
+
+	public long getMemoryBudget()
+	{
+		return memoryBudget;
+	}
+
+	public synchronized long getMemoryUsage()
+	{
+		return memoryUsage;
+	}
+
+	public synchronized int size()
+	{
+		return map.size();
+	}
+
+	public synchronized long getHits()
+	{
+		return hits;
+	}
+
+	public synchronized long getMisses()
+	{
+		return misses;
+	}
+
+	public synchronized long getEvictions()
+	{
+		return evictions;
+	}
+
+	@Override
+	public synchronized String toString()
+	{
+		return "LeafCache: "+map.size()+" leaves, "+memoryUsage+"/"+memoryBudget+" bytes, "+
+			hits+" hits, "+misses+" misses, "+evictions+" evictions";
+	}
+
+	/**
+	 * Reads and decodes a leaf from disk.
+	 *
+	 * @param oemm  OEMM instance
+	 * @param node  OEMM leaf
+	 * @return decoded leaf
+	 */
+	static Leaf load(OEMM oemm, OEMM.Node node)
+	{
+		double [] coords = new double[3*node.vn];
+		readLeafFile(oemm, node, Storage.getVerticesFile(oemm, node), 'v').asDoubleBuffer().get(coords);
+		int [] triangles = new int[7*node.tn];
+		readLeafFile(oemm, node, Storage.getTrianglesFile(oemm, node), 't').asIntBuffer().get(triangles);
+
+		// Adjacency file contains for each vertex a byte count followed
+		// by indices in node.adjLeaves.
+		int [] adjOffsets = new int[node.vn+1];
+		File adjFile = Storage.getAdjacencyFile(oemm, node);
+		if (!adjFile.exists())
+			return new Leaf(coords, triangles, adjOffsets, new int[0]);
+		ByteBuffer bb = readLeafFile(oemm, node, adjFile, 'a');
+		int total = bb.limit() - node.vn;
+		if (total < 0)
+			throw new RuntimeException("Corrupted adjacency file "+adjFile);
+		int [] adjLeaves = new int[total];
+		int offset = 0;
+		for (int i = 0; i < node.vn; i++)
+		{
+			adjOffsets[i] = offset;
+			int count = bb.get();
+			for (int j = 0; j < count; j++)
+				adjLeaves[offset++] = node.adjLeaves.get(bb.get());
+		}
+		adjOffsets[node.vn] = offset;
+		return new Leaf(coords, triangles, adjOffsets, adjLeaves);
+	}
+
+	private static ByteBuffer readLeafFile(OEMM oemm, OEMM.Node node, File file, char type)
+	{
+		try
+		{
+			return Storage.readLeafFile(oemm, node, file, type);
+		}
+		catch (IOException ex)
+		{
+			logger.log(Level.SEVERE, "I/O error when reading file "+file, ex);
+			throw new RuntimeException(ex);
+		}
+	}
+}
@@ -0,0 +1,575 @@
+/* jCAE stand for Java Computer Aided Engineering. Features are : Small CAD
+   modeler, Finite element mesher, Plugin architecture.
+
+    Copyright (C) 2011, by EADS France
+
+    This library is free software; you can redistribute it and/or
+    modify it under the terms of the GNU Lesser General Public
+    License as published by the Free Software Foundation; either
+    version 2.1 of the License, or (at your option) any later version.
+
+    This library is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+    Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public
+    License along with this library; if not, write to the Free Software
+    Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA */
+
+package org.jcae.mesh.oemm;
+
+import gnu.trove.TIntHashSet;
+import gnu.trove.TIntObjectHashMap;
+import gnu.trove.TObjectProcedure;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Loads OEMM leaves in background before they become visible.  Viewers
+ * call {@link #update} each time the camera moves.  Camera motion between
+ * two updates is extrapolated, and leaves intersecting an expanded view
+ * frustum, either at current or at predicted camera position, are read
+ * into the {@link LeafCache} of the OEMM by a bounded pool of threads,
+ * nearest leaves first.  Requests which have not started yet are
+ * cancelled when their leaf is no more predicted.
+ * <p>
+ * Leaves needed for display are then obtained by {@link #get}, which
+ * waits for a pending request or reads the leaf itself.  This method
+ * measures the time spent waiting, and the time saved because leaves had
+ * already been loaded.  {@link MeshReader#setLeafPrefetcher} tells a
+ * reader to use this method.
+ * </p>
+ * This class is thread-safe.
+ */
+public class LeafPrefetcher
+{
+	private static final Logger logger=Logger.getLogger(LeafPrefetcher.class.getName());
+
+	/**
+	 * Perspective camera.
+	 */
+	public static final class Camera
+	{
+		private final double [] eye;
+		private final double [] focalPoint;
+		private final double [] viewUp;
+		private final double viewAngle;
+		private final double aspect;
+		private final double far;
+
+		/**
+		 * Creates a camera.
+		 *
+		 * @param eye  camera position
+		 * @param focalPoint  point the camera looks at
+		 * @param viewUp  up direction, it does not need to be orthogonal
+		 *        to the view direction
+		 * @param viewAngle  vertical view angle, in degrees
+		 * @param aspect  ratio between width and height of the view
+		 * @param far  distance of the far clipping plane
+		 */
+		public Camera(double [] eye, double [] focalPoint, double [] viewUp,
+			double viewAngle, double aspect, double far)
+		{
+			this.eye = eye.clone();
+			this.focalPoint = focalPoint.clone();
+			this.viewUp = viewUp.clone();
+			this.viewAngle = viewAngle;
+			this.aspect = aspect;
+			this.far = far;
+		}
+
+		/**
+		 * Returns the view frustum of this camera.  Its angles and its
+		 * depth are multiplied by a scale factor.
+		 *
+		 * @param scale  scale factor, 1 for the real view frustum
+		 * @return a frustum query
+		 */
+		public SpatialQuery getFrustum(double scale)
+		{
+			double [] dir = new double[3];
+			for (int i = 0; i < 3; i++)
+				dir[i] = focalPoint[i] - eye[i];
+			normalize(dir);
+			double [] right = cross(dir, viewUp);
+			normalize(right);
+			double [] up = cross(right, dir);
+			double tanV = scale * Math.tan(Math.toRadians(0.5 * viewAngle));
+			double tanH = tanV * aspect;
+			double [][] planes = new double[6][4];
+			for (int i = 0; i < 3; i++)
+			{
+				// Near plane goes through eye
+				planes[0][i] = dir[i];
+				planes[1][i] = -dir[i];
+				planes[2][i] = tanH * dir[i] - right[i];
+				planes[3][i] = tanH * dir[i] + right[i];
+				planes[4][i] = tanV * dir[i] - up[i];
+				planes[5][i] = tanV * dir[i] + up[i];
+			}
+			for (double [] p : planes)
+				p[3] = - (p[0] * eye[0] + p[1] * eye[1] + p[2] * eye[2]);
+			planes[1][3] += scale * far;
+			return SpatialQuery.frustum(planes);
+		}
+
+		/**
+		 * Returns the camera reached if motion from another camera
+		 * goes on.
+		 *
+		 * @param previous  previous camera
+		 * @param steps  number of steps, a step being the motion from
+		 *        <code>previous</code> to this camera
+		 * @return extrapolated camera
+		 */
+		Camera extrapolate(Camera previous, double steps)
+		{
+			double [] e = new double[3];
+			double [] f = new double[3];
+			for (int i = 0; i < 3; i++)
+			{
+				e[i] = eye[i] + steps * (eye[i] - previous.eye[i]);
+				f[i] = focalPoint[i] + steps * (focalPoint[i] - previous.focalPoint[i]);
+			}
+			return new Camera(e, f, viewUp, viewAngle, aspect, far);
+		}
+
+		private static double [] cross(double [] a, double [] b)
+		{
+			return new double[] {
+				a[1] * b[2] - a[2] * b[1],
+				a[2] * b[0] - a[0] * b[2],
+				a[0] * b[1] - a[1] * b[0]
+			};
+		}
+
+		private static void normalize(double [] v)
+		{
+			double n = Math.sqrt(v[0] * v[0] + v[1] * v[1] + v[2] * v[2]);
+			if (n > 0.0)
+			{
+				for (int i = 0; i < 3; i++)
+					v[i] /= n;
+			}
+		}
+	}
+
+	private final OEMM oemm;
+	private final LeafCache cache;
+	private final ThreadPoolExecutor executor;
+	private volatile double expansion = 1.5;
+	private volatile double lookAhead = 2.0;
+	private Camera previous;
+	// Requests which are not finished
+	private final TIntObjectHashMap<Future<Object>> pending = new TIntObjectHashMap<Future<Object>>();
+	// Requests which have been started
+	private final TIntHashSet running = new TIntHashSet();
+	// Time needed to read leaves loaded by prefetching and not yet
+	// used, or -1
+	private final long [] loadTime;
+
+	private long submitted = 0L;
+	private long cancelled = 0L;
+	private long completed = 0L;
+	private long used = 0L;
+	private long late = 0L;
+	private long demandLoads = 0L;
+	private long stallTime = 0L;
+	private long savedTime = 0L;
+
+	/**
+	 * Creates a prefetcher.  Leaves are loaded into the cache of the OEMM.
+	 *
+	 * @param oemm  OEMM instance, it must have a leaf cache
+	 * @param nrThreads  number of threads reading leaves
+	 */
+	public LeafPrefetcher(OEMM oemm, int nrThreads)
+	{
+		this.oemm = oemm;
+		cache = oemm.getLeafCache();
+		if (cache == null)
+			throw new IllegalArgumentException("OEMM has no leaf cache");
+		loadTime = new long[oemm.getNumberOfLeaves()];
+		Arrays.fill(loadTime, -1L);
+		executor = new ThreadPoolExecutor(nrThreads, nrThreads, 0L, TimeUnit.MILLISECONDS,
+			new LinkedBlockingQueue<Runnable>(), new ThreadFactory()
+			{
+				public Thread newThread(Runnable r)
+				{
+					Thread t = new Thread(r, "LeafPrefetcher");
+					// Do not prevent application from exiting
+					t.setDaemon(true);
+					return t;
+				}
+			});
+	}
+
+	/**
+	 * Sets the factor applied to view angles and depth of view frustum
+	 * when selecting leaves.  Default value is 1.5.
+	 *
+	 * @param expansion  scale factor
+	 */
+	public void setExpansion(double expansion)
+	{
+		this.expansion = expansion;
+	}
+
+	/**
+	 * Sets the number of camera updates by which motion is extrapolated.
+	 * Default value is 2, and 0 disables prediction.
+	 *
+	 * @param lookAhead  number of updates
+	 */
+	public void setLookAhead(double lookAhead)
+	{
+		this.lookAhead = lookAhead;
+	}
+
+	/**
+	 * Tells the new camera position.  Leaves which are predicted to be
+	 * visible are requested, and pending requests for other leaves are
+	 * cancelled.  Leaves are requested until their memory size reaches
+	 * half of the cache budget.
+	 *
+	 * @param camera  new camera
+	 * @return indices of requested leaves, nearest leaves first
+	 */
+	public int [] update(Camera camera)
+	{
+		Camera last;
+		synchronized (this)
+		{
+			last = previous;
+			previous = camera;
+		}
+		TIntHashSet predicted = camera.getFrustum(expansion).getLeaves(oemm);
+		if (last != null && lookAhead > 0.0)
+			predicted.addAll(camera.extrapolate(last, lookAhead).getFrustum(expansion).getLeaves(oemm).toArray());
+
+		// Sort leaves by distance to eye
+		int [] leaves = predicted.toArray();
+		final double [] dist2 = new double[oemm.getNumberOfLeaves()];
+		Integer [] order = new Integer[leaves.length];
+		int [] ijk = new int[3];
+		double [] xyz = new double[3];
+		for (int n = 0; n < leaves.length; n++)
+		{
+			OEMM.Node current = oemm.leaves[leaves[n]];
+			ijk[0] = current.i0 + current.size / 2;
+			ijk[1] = current.j0 + current.size / 2;
+			ijk[2] = current.k0 + current.size / 2;
+			oemm.int2double(ijk, xyz);
+			for (int i = 0; i < 3; i++)
+				dist2[current.leafIndex] += (xyz[i] - camera.eye[i]) * (xyz[i] - camera.eye[i]);
+			order[n] = Integer.valueOf(current.leafIndex);
+		}
+		Arrays.sort(order, new Comparator<Integer>()
+		{
+			public int compare(Integer o1, Integer o2)
+			{
+				return Double.compare(dist2[o1.intValue()], dist2[o2.intValue()]);
+			}
+		});
+		TIntHashSet requested = new TIntHashSet(leaves.length);
+		int [] ret = new int[leaves.length];
+		int nr = 0;
+		long memory = 0L;
+		for (Integer leaf : order)
+		{
+			OEMM.Node current = oemm.leaves[leaf.intValue()];
+			memory += 24L * current.vn + 28L * current.tn;
+			if (memory > cache.getMemoryBudget() / 2L)
+				break;
+			requested.add(current.leafIndex);
+			ret[nr++] = current.leafIndex;
+		}
+
+		synchronized (this)
+		{
+			// Cancel stale requests
+			boolean purge = false;
+			for (int leaf : pending.keys())
+			{
+				if (requested.contains(leaf))
+					continue;
+				// Running requests are not interrupted
+				if (running.contains(leaf))
+					continue;
+				pending.remove(leaf).cancel(false);
+				cancelled++;
+				purge = true;
+			}
+			if (purge)
+				executor.purge();
+			for (int n = 0; n < nr; n++)
+			{
+				int leaf = ret[n];
+				if (pending.containsKey(leaf) || cache.peek(leaf) != null)
+					continue;
+				// Leaf has been evicted before being used
+				loadTime[leaf] = -1L;
+				pending.put(leaf, executor.submit(new Loader(oemm.leaves[leaf])));
+				submitted++;
+			}
+		}
+		if (logger.isLoggable(Level.FINE))
+			logger.fine("Requested leaves: "+nr+", "+this);
+		int [] temp = new int[nr];
+		System.arraycopy(ret, 0, temp, 0, nr);
+		return temp;
+	}
+
+	private class Loader implements Callable<Object>
+	{
+		private final OEMM.Node node;
+		Loader(OEMM.Node node)
+		{
+			this.node = node;
+		}
+		public Object call()
+		{
+			synchronized (LeafPrefetcher.this)
+			{
+				// Request has been cancelled
+				if (!pending.containsKey(node.leafIndex))
+					return null;
+				running.add(node.leafIndex);
+			}
+			// Leaf may have been read by get()
+			boolean cached = (cache.peek(node.leafIndex) != null);
+			long start = System.nanoTime();
+			long time = -1L;
+			try
+			{
+				cache.get(node);
+				time = System.nanoTime() - start;
+			}
+			finally
+			{
+				// Leaf can be requested again if it could not be read
+				synchronized (LeafPrefetcher.this)
+				{
+					pending.remove(node.leafIndex);
+					running.remove(node.leafIndex);
+					if (!cached && time >= 0L)
+					{
+						loadTime[node.leafIndex] = time;
+						completed++;
+					}
+				}
+			}
+			return null;
+		}
+	}
+
+	/**
+	 * Returns the decoded content of a leaf.  If it has been requested,
+	 * waits until it is loaded, otherwise reads it.
+	 *
+	 * @param node  OEMM leaf
+	 * @return decoded leaf
+	 */
+	public LeafCache.Leaf get(OEMM.Node node)
+	{
+		int leaf = node.leafIndex;
+		Future<Object> f;
+		synchronized (this)
+		{
+			f = pending.get(leaf);
+		}
+		long start = System.nanoTime();
+		if (f != null)
+			waitFor(f);
+		boolean cached = (cache.peek(leaf) != null);
+		LeafCache.Leaf ret = cache.get(node);
+		long stall = System.nanoTime() - start;
+		synchronized (this)
+		{
+			stallTime += stall;
+			long time = loadTime[leaf];
+			loadTime[leaf] = -1L;
+			if (time >= 0L && cached)
+			{
+				if (f != null)
+					late++;
+				else
+					used++;
+				savedTime += Math.max(0L, time - stall);
+			}
+			else if (!cached)
+				demandLoads++;
+		}
+		return ret;
+	}
+
+	private static void waitFor(Future<Object> f)
+	{
+		try
+		{
+			f.get();
+		}
+		catch (CancellationException ex)
+		{
+			// Leaf will be read by caller
+		}
+		catch (InterruptedException ex)
+		{
+			Thread.currentThread().interrupt();
+		}
+		catch (ExecutionException ex)
+		{
+			Throwable cause = ex.getCause();
+			if (cause instanceof RuntimeException)
+				throw (RuntimeException) cause;
+			else if (cause instanceof Error)
+				throw (Error) cause;
+			else
+				throw new RuntimeException(cause);
+		}
+	}
+
+	/**
+	 * Waits until all pending requests are finished.
+	 */
+	public void waitForPending()
+	{
+		final List<Future<Object>> futures;
+		synchronized (this)
+		{
+			futures = new ArrayList<Future<Object>>(pending.size());
+			pending.forEachValue(new TObjectProcedure<Future<Object>>() {
+				public boolean execute(Future<Object> f)
+				{
+					futures.add(f);
+					return true;
+				}
+			});
+		}
+		for (Future<Object> f : futures)
+			waitFor(f);
+	}
+
+	/**
+	 * Stops background threads.  Pending requests are cancelled.
+	 */
+	public void shutdown()
+	{
+		executor.shutdownNow();
+		synchronized (this)
+		{
+			cancelled += pending.size() - running.size();
+			pending.clear();
+			running.clear();
+		}
+	}
+
+	/**
+	 * Returns the number of pending requests.
+	 */
+	public synchronized int getNumberOfPendingRequests()
+	{
+		return pending.size();
+	}
+
+	/**
+	 * Returns the number of requests submitted to background threads.
+	 */
+	public synchronized long getSubmitted()
+	{
+		return submitted;
+	}
+
+	/**
+	 * Returns the number of requests cancelled before they started.
+	 */
+	public synchronized long getCancelled()
+	{
+		return cancelled;
+	}
+
+	/**
+	 * Returns the number of leaves loaded by background threads.
+	 */
+	public synchronized long getCompleted()
+	{
+		return completed;
+	}
+
+	/**
+	 * Returns the number of leaves loaded by background threads and
+	 * then obtained by {@link #get} without waiting.
+	 */
+	public synchronized long getUsed()
+	{
+		return used;
+	}
+
+	/**
+	 * Returns the number of leaves which had been requested but not yet
+	 * loaded when {@link #get} was called.
+	 */
+	public synchronized long getLate()
+	{
+		return late;
+	}
+
+	/**
+	 * Returns the number of leaves which were not requested or had been
+	 * evicted from cache, and were read by {@link #get}.
+	 */
+	public synchronized long getDemandLoads()
+	{
+		return demandLoads;
+	}
+
+	/**
+	 * Returns the ratio of leaves loaded by background threads which
+	 * have been used.
+	 */
+	public synchronized double getAccuracy()
+	{
+		return completed == 0L ? 0.0 : (double) (used + late) / completed;
+	}
+
+	/**
+	 * Returns the time spent in {@link #get}, in nanoseconds.
+	 */
+	public synchronized long getStallTime()
+	{
+		return stallTime;
+	}
+
+	/**
+	 * Returns the time which would have been spent in {@link #get} to
+	 * read leaves loaded by background threads, minus the time spent
+	 * waiting for them, in nanoseconds.
+	 */
+	public synchronized long getSavedStallTime()
+	{
+		return savedTime;
+	}
+
+	@Override
+	public synchronized String toString()
+	{
+		return "LeafPrefetcher: "+submitted+" submitted, "+cancelled+" cancelled, "+
+			completed+" completed, "+used+" used, "+late+" late, "+demandLoads+
+			" demand loads, stall time "+(stallTime / 1000000L)+" ms, saved "+
+			(savedTime / 1000000L)+" ms";
+	}
+}
@@ -1,7 +1,7 @@
 /* jCAE stand for Java Computer Aided Engineering. Features are : Small CAD
    modeler, Finite element mesher, Plugin architecture.
 
-    Copyright (C) 2007,2008, by EADS France
+    Copyright (C) 2007,2008,2011, by EADS France
 
     This library is free software; you can redistribute it and/or
     modify it under the terms of the GNU Lesser General Public
@@ -24,7 +24,6 @@ import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.DoubleBuffer;
-import java.nio.IntBuffer;
 import java.nio.channels.FileChannel;
 import java.util.ArrayList;
 import java.util.Collections;
@@ -54,6 +53,8 @@ public class MeshReader extends Storage
 	protected TIntObjectHashMap<Mesh> mapNodeToMesh = null;
 	// Map between octant index and a list of vertices from adjacent triangles so that all triangles are readable
 	protected TIntObjectHashMap<List<FakeNonReadVertex>> mapNodeToNonReadVertexList = null;
+	// Loads leaves in background, may be null
+	private LeafPrefetcher prefetcher = null;
 
 	/**
 	 * Buffer size.  Vertices and triangles are read through buffers to improve
@@ -183,6 +184,27 @@ public class MeshReader extends Storage
 		return ret;
 	}
 
+	/**
+	 * Builds a mesh composed of octants intersecting a region.
+	 * @param query  region of interest
+	 * @return mesh contained in these octants
+	 */
+	public final Mesh buildMesh(SpatialQuery query)
+	{
+		return buildMesh(MeshTraitsBuilder.getDefault3D(), query);
+	}
+
+	/**
+	 * Builds a mesh composed of octants intersecting a region.
+	 * @param mtb  mesh traits builder used to create <code>Mesh</code> instances
+	 * @param query  region of interest
+	 * @return mesh contained in these octants
+	 */
+	public final Mesh buildMesh(MeshTraitsBuilder mtb, SpatialQuery query)
+	{
+		return buildMesh(mtb, query.getLeaves(oemm));
+	}
+
 	private void appendMesh(Mesh mesh, TIntHashSet leaves)
 	{
 		logger.fine("Loading nodes");
@@ -223,53 +245,55 @@ public class MeshReader extends Storage
 		logger.info("Nr. of triangles: "+cnt);
 	}
 
+	/**
+	 * Tells this reader to obtain leaves from a prefetcher.
+	 *
+	 * @param prefetcher  prefetcher of this OEMM, or <code>null</code>
+	 */
+	public final void setLeafPrefetcher(LeafPrefetcher prefetcher)
+	{
+		this.prefetcher = prefetcher;
+	}
+
+	/**
+	 * Returns the decoded content of a leaf.  It is obtained from the
+	 * prefetcher set by {@link #setLeafPrefetcher}, or taken from the cache
+	 * of the OEMM if there is one, otherwise it is read from disk.
+	 *
+	 * @param current  OEMM leaf
+	 * @return decoded leaf
+	 */
+	protected final LeafCache.Leaf getLeaf(OEMM.Node current)
+	{
+		if (prefetcher != null)
+			return prefetcher.get(current);
+		LeafCache cache = oemm.getLeafCache();
+		if (cache != null)
+			return cache.get(current);
+		return LeafCache.load(oemm, current);
+	}
+
 	/**
 	 * Reads vertex coordinates, create Vertex instances and store them into a map.
 	 */
 	private void readVertices(TIntHashSet leaves, Mesh mesh, TIntObjectHashMap<Vertex> vertMap, OEMM.Node current)
 	{
-		try
-		{
-			logger.fine("Reading "+current.vn+" vertices from "+getVerticesFile(oemm, current));
-			mesh.ensureCapacity(2*current.vn);
-			Vertex [] vert = new Vertex[current.vn];
-			double [] xyz = new double[3];
-			List<TIntArrayList> listAdjacentLeaves = readAdjacencyFile(oemm, current, leaves);
-			FileChannel fc = new FileInputStream(getVerticesFile(oemm, current)).getChannel();
-			buffer.clear();
-			DoubleBuffer bbD = buffer.asDoubleBuffer();
-			int remaining = current.vn;
-			int index = 0;
-			for (int nblock = (remaining * VERTEX_SIZE) / BUFFER_SIZE; nblock >= 0; --nblock)
-			{
-				buffer.rewind();
-				fc.read(buffer);
-				bbD.rewind();
-				int nf = BUFFER_SIZE / VERTEX_SIZE;
-				if (remaining < nf)
-					nf = remaining;
-				remaining -= nf;
-				for(int nr = 0; nr < nf; nr ++)
-				{
-					bbD.get(xyz);
-					vert[index] = mesh.createVertex(xyz);
-					vert[index].setLabel(current.minIndex + index);
-					vert[index].setReadable(true);
-					boolean writable = listAdjacentLeaves.get(index).isEmpty();
-					vert[index].setWritable(writable);
-					vertMap.put(current.minIndex + index, vert[index]);
-					mesh.add(vert[index]);
-					index++;
-					
-				}
-			}
-			fc.close();
-		}
-		catch (IOException ex)
+		logger.fine("Reading "+current.vn+" vertices from "+getVerticesFile(oemm, current));
+		LeafCache.Leaf data = getLeaf(current);
+		mesh.ensureCapacity(2*current.vn);
+		double [] coords = data.coords;
+		for (int index = 0; index < current.vn; index++)
 		{
-			logger.severe("I/O error when reading file "+getVerticesFile(oemm, current));
-			ex.printStackTrace();
-			throw new RuntimeException(ex);
+			Vertex v = mesh.createVertex(coords[3*index], coords[3*index+1], coords[3*index+2]);
+			v.setLabel(current.minIndex + index);
+			v.setReadable(true);
+			// Vertex is writable if all adjacent leaves are loaded
+			boolean writable = true;
+			for (int i = 0, n = data.getNumberOfAdjacentLeaves(index); writable && i < n; i++)
+				writable = leaves.contains(data.getAdjacentLeaf(index, i));
+			v.setWritable(writable);
+			vertMap.put(current.minIndex + index, v);
+			mesh.add(v);
 		}
 	}
 	
@@ -278,90 +302,67 @@ public class MeshReader extends Storage
 	 */
 	private void readTriangles(TIntHashSet leaves, Mesh mesh, TIntObjectHashMap<Vertex> vertMap, OEMM.Node current)
 	{
-		try
+		logger.fine("Reading "+current.tn+" triangles from "+getTrianglesFile(oemm, current));
+		int [] triangles = getLeaf(current).triangles;
+		Vertex [] vert = new Vertex[3];
+		TIntHashSet processedNode = new TIntHashSet();
+		int [] leaf = new int[3];
+		int [] pointIndex = new int[3];
+		mesh.ensureCapacity(current.tn);
+		for (int offset = 0; offset < 7*current.tn; offset += 7)
 		{
-			logger.fine("Reading "+current.tn+" triangles from "+getTrianglesFile(oemm, current));
-			FileChannel fc = new FileInputStream(getTrianglesFile(oemm, current)).getChannel();
-			Vertex [] vert = new Vertex[3];
-			TIntHashSet processedNode = new TIntHashSet();
-			int [] leaf = new int[3];
-			int [] pointIndex = new int[3];
-			mesh.ensureCapacity(current.tn);
-			int remaining = current.tn;
-			buffer.clear();
-			IntBuffer bbI = buffer.asIntBuffer();
-			for (int nblock = (remaining * TRIANGLE_SIZE) / BUFFER_SIZE; nblock >= 0; --nblock)
+			boolean readable = true;
+			boolean writable = true;
+			System.arraycopy(triangles, offset, leaf, 0, 3);
+			System.arraycopy(triangles, offset+3, pointIndex, 0, 3);
+			for (int j = 0; j < 3; j++)
 			{
-				buffer.rewind();
-				fc.read(buffer);
-				bbI.rewind();
-				int nf = BUFFER_SIZE / TRIANGLE_SIZE;
-				if (remaining < nf)
-					nf = remaining;
-				remaining -= nf;
-				for(int nr = 0; nr < nf; nr ++)
+				int globalIndex = oemm.leaves[leaf[j]].minIndex + pointIndex[j];
+				if (leaves.contains(leaf[j]))
 				{
-					boolean readable = true;
-					boolean writable = true;
-					bbI.get(leaf);
-					bbI.get(pointIndex);
-					for (int j = 0; j < 3; j++)
-					{
-						int globalIndex = oemm.leaves[leaf[j]].minIndex + pointIndex[j];
-						if (leaves.contains(leaf[j]))
-						{
-							vert[j] = vertMap.get(globalIndex);
-							assert vert[j] != null;
-						}
-						else
+					vert[j] = vertMap.get(globalIndex);
+					assert vert[j] != null;
+				}
+				else
+				{
+					writable = false;
+					vert[j] = vertMap.get(globalIndex);
+					if (vert[j] == null) {
+						vert[j] = new FakeNonReadVertex(oemm, leaf[j], pointIndex[j]);
+						vertMap.put(globalIndex, vert[j]);
+						if (mapNodeToNonReadVertexList != null)
 						{
-							writable = false;
-							vert[j] = vertMap.get(globalIndex);
-							if (vert[j] == null) {
-								vert[j] = new FakeNonReadVertex(oemm, leaf[j], pointIndex[j]);
-								vertMap.put(globalIndex, vert[j]);
-								if (mapNodeToNonReadVertexList != null)
-								{
-									FakeNonReadVertex vertex = (FakeNonReadVertex) vert[j];
-									List<FakeNonReadVertex> vertices = mapNodeToNonReadVertexList.get(leaf[j]);
-									if (vertices == null) {
-										vertices = new ArrayList<FakeNonReadVertex>();
-										mapNodeToNonReadVertexList.put(leaf[j], vertices);
-									}
-									vertices.add(vertex);
-								}
+							FakeNonReadVertex vertex = (FakeNonReadVertex) vert[j];
+							List<FakeNonReadVertex> vertices = mapNodeToNonReadVertexList.get(leaf[j]);
+							if (vertices == null) {
+								vertices = new ArrayList<FakeNonReadVertex>();
+								mapNodeToNonReadVertexList.put(leaf[j], vertices);
 							}
+							vertices.add(vertex);
 						}
 					}
-					// group number
-					int groupId = bbI.get();
-					createTriangle(groupId, vert, readable, writable, mesh);
-					// When called from buildMeshes(), cross boundary triangles are put into
-					// all crossed octants.
-					if (mapNodeToMesh != null && mapNodeToNonReadVertexList != null)
-					{
-						processedNode.clear();
-						for (int j = 0; j < 3; j++) {
-							if (vert[j] instanceof FakeNonReadVertex) {
-								FakeNonReadVertex fnrVertex = (FakeNonReadVertex) vert[j];
-								int leafIndex = fnrVertex.getOEMMIndex();
-								if (!processedNode.contains(leafIndex)) {
-									Mesh altMesh = mapNodeToMesh.get(leafIndex);
-									createTriangle(-leafIndex, vert, false, false, altMesh);
-									processedNode.add(leafIndex);
-								}
-							}
+				}
+			}
+			// group number
+			int groupId = triangles[offset+6];
+			createTriangle(groupId, vert, readable, writable, mesh);
+			// When called from buildMeshes(), cross boundary triangles are put into
+			// all crossed octants.
+			if (mapNodeToMesh != null && mapNodeToNonReadVertexList != null)
+			{
+				processedNode.clear();
+				for (int j = 0; j < 3; j++) {
+					if (vert[j] instanceof FakeNonReadVertex) {
+						FakeNonReadVertex fnrVertex = (FakeNonReadVertex) vert[j];
+						int leafIndex = fnrVertex.getOEMMIndex();
+						if (!processedNode.contains(leafIndex)) {
+							Mesh altMesh = mapNodeToMesh.get(leafIndex);
+							createTriangle(-leafIndex, vert, false, false, altMesh);
+							processedNode.add(leafIndex);
 						}
 					}
 				}
 			}
-			fc.close();
-		}
-		catch (IOException ex)
-		{
-			logger.severe("I/O error when reading indexed file "+getTrianglesFile(oemm, current));
-			ex.printStackTrace();
-			throw new RuntimeException(ex);
 		}
 	}
 
@@ -384,6 +385,7 @@ public class MeshReader extends Storage
 	private void loadVerticesFromUnloadedNodes()
 	{
 		assert mapNodeToNonReadVertexList != null;
+		LeafCache cache = oemm.getLeafCache();
 		int lastLimit = buffer.limit();
 		
 		try {
@@ -396,6 +398,19 @@ public class MeshReader extends Storage
 				it.advance();
 				OEMM.Node node = oemm.leaves[it.key()];
 				List<FakeNonReadVertex> list = it.value();
+				// Do not read whole leaf if it is not already in cache,
+				// unless compressed leaves have to be decoded anyway.
+				LeafCache.Leaf data = (cache == null ? null : cache.peek(node.leafIndex));
+				if (data == null && oemm.getLeafFormat() != OEMM.RAW_FORMAT)
+					data = getLeaf(node);
+				if (data != null)
+				{
+					for (FakeNonReadVertex vertex: list) {
+						System.arraycopy(data.coords, 3*vertex.getLocalNumber(), vertex.getUV(), 0, 3);
+						vertex.setReadable(true);
+					}
+					continue;
+				}
 				sortFakeNonReadVertexList(list);
 				FileChannel fch = null;
 				try {
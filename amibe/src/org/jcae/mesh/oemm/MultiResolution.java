@@ -0,0 +1,744 @@
+/* jCAE stand for Java Computer Aided Engineering. Features are : Small CAD
+   modeler, Finite element mesher, Plugin architecture.
+
+    Copyright (C) 2011, by EADS France
+
+    This library is free software; you can redistribute it and/or
+    modify it under the terms of the GNU Lesser General Public
+    License as published by the Free Software Foundation; either
+    version 2.1 of the License, or (at your option) any later version.
+
+    This library is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+    Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public
+    License along with this library; if not, write to the Free Software
+    Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA */
+
+package org.jcae.mesh.oemm;
+
+import org.jcae.mesh.amibe.ds.AbstractHalfEdge;
+import org.jcae.mesh.amibe.ds.Mesh;
+import org.jcae.mesh.amibe.ds.Triangle;
+import org.jcae.mesh.amibe.ds.Vertex;
+import org.jcae.mesh.amibe.algos3d.AbstractAlgoHalfEdge;
+import org.jcae.mesh.amibe.algos3d.QEMDecimateHalfEdge;
+import org.jcae.mesh.amibe.traits.MeshTraitsBuilder;
+import org.jcae.mesh.amibe.traits.TriangleTraitsBuilder;
+import gnu.trove.TIntIntHashMap;
+import gnu.trove.TObjectIntHashMap;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Multi-resolution representation of an OEMM.  A simplified mesh is
+ * computed for every internal octant, bottom-up: meshes of its children
+ * (full resolution meshes for leaves) are merged and decimated by
+ * {@link QEMDecimateHalfEdge}.  Vertices which belong to triangles outside
+ * this octant are not modified, so that interfaces with adjacent octants
+ * are kept at full resolution and meshes of octants at different levels
+ * can be displayed together without cracks.  Interfaces between children
+ * are inside the octant and can thus be simplified.
+ * <p>
+ * These meshes are stored into the {@link #DIR_NAME} subdirectory of the
+ * OEMM directory.  Octants are numbered in preorder like in
+ * {@link SpatialIndex}, the mesh of octant <code>n</code> is stored in a
+ * file named <code>n</code>, and file <code>index</code> contains the
+ * number of triangles of each octant.  They must be computed again when
+ * leaves are modified, {@link Storage#saveNodes} removes this index.
+ * </p>
+ * Level of detail is chosen per octant by {@link #select}, and a mesh is
+ * then built from selected octants by {@link #buildMesh}.
+ */
+public class MultiResolution
+{
+	private static final Logger logger=Logger.getLogger(MultiResolution.class.getName());
+
+	/**
+	 * Name of the subdirectory of OEMM directory containing simplified meshes.
+	 */
+	public static final String DIR_NAME = "lod";
+	private static final String INDEX_FILE = "index";
+
+	private final OEMM oemm;
+	private final LeafCache cache;
+	// Octant numbers in preorder
+	private final TObjectIntHashMap<OEMM.Node> records;
+	// Number of triangles of octants
+	private final int [] nrTriangles;
+
+	/**
+	 * Simplified mesh of an octant.  Vertices which may be shared with
+	 * other octants have a global index and a list of leaves containing
+	 * triangles adjacent to them, other vertices have a negative index.
+	 */
+	static final class Patch
+	{
+		final double [] coords;
+		final int [] ids;
+		final int [][] adjLeaves;
+		final int [] triangles;
+		final int [] groups;
+
+		Patch(double [] coords, int [] ids, int [][] adjLeaves, int [] triangles, int [] groups)
+		{
+			this.coords = coords;
+			this.ids = ids;
+			this.adjLeaves = adjLeaves;
+			this.triangles = triangles;
+			this.groups = groups;
+		}
+
+		int getNumberOfVertices()
+		{
+			return ids.length;
+		}
+
+		int getNumberOfTriangles()
+		{
+			return groups.length;
+		}
+	}
+
+	private MultiResolution(OEMM oemm)
+	{
+		this.oemm = oemm;
+		LeafCache c = oemm.getLeafCache();
+		cache = (c != null ? c : new LeafCache(oemm, 64L << 20));
+		records = new TObjectIntHashMap<OEMM.Node>(2 * oemm.getNumberOfLeaves());
+		oemm.walk(new TraversalProcedure()
+		{
+			@Override
+			public final int action(OEMM o, OEMM.Node current, int octant, int visit)
+			{
+				if (visit != POSTORDER)
+					records.put(current, records.size());
+				return OK;
+			}
+		});
+		nrTriangles = new int[records.size()];
+	}
+
+	/**
+	 * Opens multi-resolution representation of an OEMM.
+	 *
+	 * @param oemm  OEMM instance
+	 * @return multi-resolution representation
+	 * @throws RuntimeException if it has not been built
+	 */
+	public static MultiResolution open(OEMM oemm)
+	{
+		MultiResolution ret = new MultiResolution(oemm);
+		File file = new File(getDirectory(oemm), INDEX_FILE);
+		try
+		{
+			DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+			try
+			{
+				if (in.readInt() != ret.nrTriangles.length)
+					throw new RuntimeException("File "+file+" does not match OEMM structure");
+				for (int i = 0; i < ret.nrTriangles.length; i++)
+					ret.nrTriangles[i] = in.readInt();
+			}
+			finally
+			{
+				in.close();
+			}
+		}
+		catch (IOException ex)
+		{
+			logger.log(Level.SEVERE, "I/O error when reading file "+file, ex);
+			throw new RuntimeException(ex);
+		}
+		return ret;
+	}
+
+	/**
+	 * Computes simplified meshes of all internal octants and writes them
+	 * on disk.  Number of triangles of an octant is the sum of the number
+	 * of triangles of its children divided by a scale factor, unless
+	 * vertices on its boundary prevent decimation.
+	 *
+	 * @param oemm  OEMM instance
+	 * @param scale  scale factor
+	 * @return multi-resolution representation
+	 */
+	public static MultiResolution build(OEMM oemm, final int scale)
+	{
+		final MultiResolution ret = new MultiResolution(oemm);
+		File dir = getDirectory(oemm);
+		if (!dir.exists() && !dir.mkdir())
+			throw new RuntimeException("Cannot create directory "+dir);
+		// Index must not be valid until all meshes are written
+		new File(dir, INDEX_FILE).delete();
+		final MeshTraitsBuilder mtb = new MeshTraitsBuilder();
+		TriangleTraitsBuilder ttb = new TriangleTraitsBuilder();
+		ttb.addHalfEdge();
+		mtb.add(ttb);
+		mtb.addTriangleSet();
+		mtb.addNodeSet();
+		oemm.walk(new TraversalProcedure()
+		{
+			@Override
+			public final int action(OEMM o, OEMM.Node current, int octant, int visit)
+			{
+				if (visit == LEAF)
+					ret.nrTriangles[ret.records.get(current)] = current.tn;
+				if (visit != POSTORDER)
+					return OK;
+				List<Patch> patches = new ArrayList<Patch>(8);
+				for (OEMM.Node child : current.child)
+				{
+					if (child != null)
+						patches.add(ret.getPatch(child));
+				}
+				Patch merged = merge(patches);
+				Patch simplified = ret.decimate(mtb, merged, current, merged.getNumberOfTriangles() / scale);
+				int record = ret.records.get(current);
+				ret.nrTriangles[record] = simplified.getNumberOfTriangles();
+				ret.writePatch(record, simplified);
+				if (logger.isLoggable(Level.FINE))
+					logger.fine("Octant "+record+": "+merged.getNumberOfTriangles()+" -> "+simplified.getNumberOfTriangles()+" triangles");
+				return OK;
+			}
+		});
+		ret.writeIndex();
+		logger.info("Simplified meshes written into "+dir+", number of triangles of root octant: "+
+			ret.nrTriangles[0]);
+		return ret;
+	}
+
+	/**
+	 * Tells whether simplified meshes have been built and are up to date.
+	 *
+	 * @param oemm  OEMM instance
+	 * @return <code>true</code> if {@link #open} can be called
+	 */
+	public static boolean exists(OEMM oemm)
+	{
+		return new File(getDirectory(oemm), INDEX_FILE).exists();
+	}
+
+	/**
+	 * Removes index of simplified meshes, they must be built again.
+	 *
+	 * @param oemm  OEMM instance
+	 */
+	static void invalidate(OEMM oemm)
+	{
+		new File(getDirectory(oemm), INDEX_FILE).delete();
+	}
+
+	private static File getDirectory(OEMM oemm)
+	{
+		return new File(oemm.getDirectory(), DIR_NAME);
+	}
+
+	/**
+	 * Returns the number of triangles of an octant at its own level of
+	 * detail.
+	 *
+	 * @param node  octant
+	 * @return number of triangles of leaf or simplified mesh
+	 */
+	public int getNumberOfTriangles(OEMM.Node node)
+	{
+		return nrTriangles[records.get(node)];
+	}
+
+	/**
+	 * Selects octants to display under a triangle budget.  Starting from
+	 * the root octant, octants are replaced by their children, by
+	 * decreasing order of their size divided by their distance to the
+	 * eye, as long as the total number of triangles does not exceed the
+	 * budget.  Selected octants do not overlap and cover the whole mesh.
+	 *
+	 * @param eye  eye position, or <code>null</code> to refine octants by
+	 *        decreasing size
+	 * @param maxTriangles  maximal number of triangles
+	 * @return selected octants
+	 */
+	public List<OEMM.Node> select(double [] eye, long maxTriangles)
+	{
+		final Map<OEMM.Node, Double> priority = new HashMap<OEMM.Node, Double>();
+		PriorityQueue<OEMM.Node> queue = new PriorityQueue<OEMM.Node>(64, new Comparator<OEMM.Node>()
+		{
+			public int compare(OEMM.Node o1, OEMM.Node o2)
+			{
+				return Double.compare(priority.get(o2).doubleValue(), priority.get(o1).doubleValue());
+			}
+		});
+		priority.put(oemm.root, Double.valueOf(getPriority(oemm.root, eye)));
+		queue.add(oemm.root);
+		long total = getNumberOfTriangles(oemm.root);
+		List<OEMM.Node> ret = new ArrayList<OEMM.Node>();
+		while (!queue.isEmpty())
+		{
+			OEMM.Node current = queue.poll();
+			if (current.isLeaf)
+			{
+				ret.add(current);
+				continue;
+			}
+			long delta = - getNumberOfTriangles(current);
+			for (OEMM.Node child : current.child)
+			{
+				if (child != null)
+					delta += getNumberOfTriangles(child);
+			}
+			if (total + delta > maxTriangles)
+			{
+				ret.add(current);
+				continue;
+			}
+			total += delta;
+			for (OEMM.Node child : current.child)
+			{
+				if (child == null)
+					continue;
+				priority.put(child, Double.valueOf(getPriority(child, eye)));
+				queue.add(child);
+			}
+		}
+		if (logger.isLoggable(Level.FINE))
+			logger.fine("Selected "+ret.size()+" octants, "+total+" triangles");
+		return ret;
+	}
+
+	private double getPriority(OEMM.Node node, double [] eye)
+	{
+		if (eye == null)
+			return node.size;
+		int [] ijk = new int[] { node.i0, node.j0, node.k0 };
+		double [] lower = new double[3];
+		oemm.int2double(ijk, lower);
+		double size = node.size / oemm.x0[3];
+		double d2 = 0.0;
+		for (int i = 0; i < 3; i++)
+		{
+			double d = 0.0;
+			if (eye[i] < lower[i])
+				d = lower[i] - eye[i];
+			else if (eye[i] > lower[i] + size)
+				d = eye[i] - lower[i] - size;
+			d2 += d * d;
+		}
+		// Octants containing the eye are refined first
+		return size / Math.max(Math.sqrt(d2), 1.0 / oemm.x0[3]);
+	}
+
+	/**
+	 * Builds a mesh from octants at their level of detail.
+	 *
+	 * @param nodes  octants, they must not overlap
+	 * @return mesh
+	 */
+	public Mesh buildMesh(Collection<OEMM.Node> nodes)
+	{
+		return buildMesh(MeshTraitsBuilder.getDefault3D(), nodes);
+	}
+
+	/**
+	 * Builds a mesh from octants at their level of detail.
+	 *
+	 * @param mtb  mesh traits builder used to create <code>Mesh</code> instance
+	 * @param nodes  octants, they must not overlap
+	 * @return mesh
+	 */
+	public Mesh buildMesh(MeshTraitsBuilder mtb, Collection<OEMM.Node> nodes)
+	{
+		List<Patch> patches = new ArrayList<Patch>(nodes.size());
+		for (OEMM.Node current : nodes)
+			patches.add(getPatch(current));
+		Patch merged = merge(patches);
+		if (!mtb.hasTriangles())
+			mtb.addTriangleList();
+		if (!mtb.hasNodes())
+			mtb.addNodeList();
+		Mesh ret = new Mesh(mtb);
+		Vertex [] vertices = createVertices(ret, merged);
+		createTriangles(ret, merged, vertices);
+		if (ret.hasAdjacency())
+			ret.buildAdjacency();
+		return ret;
+	}
+
+	/**
+	 * Returns the mesh of an octant at its level of detail.
+	 */
+	private Patch getPatch(OEMM.Node node)
+	{
+		if (node.isLeaf)
+			return getLeafPatch(node);
+		return readPatch(records.get(node));
+	}
+
+	/**
+	 * Returns the full resolution mesh of a leaf.
+	 */
+	private Patch getLeafPatch(OEMM.Node node)
+	{
+		LeafCache.Leaf data = cache.get(node);
+		int nrT = node.tn;
+		double [] coords = new double[9*nrT];
+		int [] ids = new int[3*nrT];
+		int [][] adjLeaves = new int[3*nrT][];
+		int [] triangles = new int[3*nrT];
+		int [] groups = new int[nrT];
+		TIntIntHashMap localIndex = new TIntIntHashMap();
+		int nrV = 0;
+		for (int t = 0; t < nrT; t++)
+		{
+			for (int j = 0; j < 3; j++)
+			{
+				int leaf = data.triangles[7*t+j];
+				int index = data.triangles[7*t+3+j];
+				OEMM.Node owner = oemm.leaves[leaf];
+				int globalIndex = owner.minIndex + index;
+				if (!localIndex.containsKey(globalIndex))
+				{
+					LeafCache.Leaf ownerData = (owner == node ? data : cache.get(owner));
+					System.arraycopy(ownerData.coords, 3*index, coords, 3*nrV, 3);
+					ids[nrV] = globalIndex;
+					int nrAdj = ownerData.getNumberOfAdjacentLeaves(index);
+					int [] adj = new int[nrAdj+1];
+					adj[0] = leaf;
+					for (int i = 0; i < nrAdj; i++)
+						adj[i+1] = ownerData.getAdjacentLeaf(index, i);
+					adjLeaves[nrV] = adj;
+					localIndex.put(globalIndex, nrV);
+					nrV++;
+				}
+				triangles[3*t+j] = localIndex.get(globalIndex);
+			}
+			groups[t] = data.triangles[7*t+6];
+		}
+		return new Patch(trim(coords, 3*nrV), trim(ids, nrV), trim(adjLeaves, nrV), triangles, groups);
+	}
+
+	/**
+	 * Merges meshes, vertices with the same global index are merged.
+	 */
+	private static Patch merge(List<Patch> patches)
+	{
+		int maxV = 0;
+		int nrT = 0;
+		for (Patch p : patches)
+		{
+			maxV += p.getNumberOfVertices();
+			nrT += p.getNumberOfTriangles();
+		}
+		double [] coords = new double[3*maxV];
+		int [] ids = new int[maxV];
+		int [][] adjLeaves = new int[maxV][];
+		int [] triangles = new int[3*nrT];
+		int [] groups = new int[nrT];
+		TIntIntHashMap globalToLocal = new TIntIntHashMap();
+		int nrV = 0;
+		int offT = 0;
+		for (Patch p : patches)
+		{
+			int [] map = new int[p.getNumberOfVertices()];
+			for (int v = 0; v < map.length; v++)
+			{
+				int id = p.ids[v];
+				if (id >= 0 && globalToLocal.containsKey(id))
+				{
+					map[v] = globalToLocal.get(id);
+					continue;
+				}
+				System.arraycopy(p.coords, 3*v, coords, 3*nrV, 3);
+				ids[nrV] = id;
+				adjLeaves[nrV] = p.adjLeaves[v];
+				if (id >= 0)
+					globalToLocal.put(id, nrV);
+				map[v] = nrV;
+				nrV++;
+			}
+			for (int i = 0; i < p.triangles.length; i++)
+				triangles[3*offT+i] = map[p.triangles[i]];
+			System.arraycopy(p.groups, 0, groups, offT, p.groups.length);
+			offT += p.getNumberOfTriangles();
+		}
+		return new Patch(trim(coords, 3*nrV), trim(ids, nrV), trim(adjLeaves, nrV), triangles, groups);
+	}
+
+	/**
+	 * Decimates the mesh of an octant.  Vertices adjacent to leaves
+	 * outside this octant are not modified.
+	 */
+	private Patch decimate(MeshTraitsBuilder mtb, Patch patch, OEMM.Node node, int maxTriangles)
+	{
+		Mesh mesh = new Mesh(mtb);
+		Vertex [] vertices = createVertices(mesh, patch);
+		for (int v = 0; v < vertices.length; v++)
+		{
+			boolean writable = true;
+			if (patch.ids[v] >= 0)
+			{
+				for (int leaf : patch.adjLeaves[v])
+					writable &= contains(node, oemm.leaves[leaf]);
+			}
+			vertices[v].setWritable(writable);
+		}
+		createTriangles(mesh, patch, vertices);
+		mesh.buildAdjacency();
+		if (AbstractAlgoHalfEdge.countInnerTriangles(mesh) > maxTriangles)
+		{
+			Map<String, String> options = new HashMap<String, String>();
+			options.put("maxtriangles", Integer.toString(maxTriangles));
+			QEMDecimateHalfEdge algo = new QEMDecimateHalfEdge(mesh, options);
+			// Edge collapses around non-manifold vertices, which are
+			// created along ridges, are not reliable.  These vertices
+			// are kept as is.
+			for (Vertex v : vertices)
+			{
+				if (!v.isManifold())
+					v.setWritable(false);
+			}
+			algo.compute();
+		}
+
+		// Vertices which have not been modified keep their label,
+		// which is their index in patch
+		TObjectIntHashMap<Vertex> newIndex = new TObjectIntHashMap<Vertex>();
+		List<Vertex> newVertices = new ArrayList<Vertex>();
+		List<Triangle> newTriangles = new ArrayList<Triangle>();
+		for (Triangle t : mesh.getTriangles())
+		{
+			if (t.hasAttributes(AbstractHalfEdge.OUTER))
+				continue;
+			newTriangles.add(t);
+			for (Vertex v : t.vertex)
+			{
+				if (!newIndex.containsKey(v))
+				{
+					newIndex.put(v, newVertices.size());
+					newVertices.add(v);
+				}
+			}
+		}
+		int nrV = newVertices.size();
+		double [] coords = new double[3*nrV];
+		int [] ids = new int[nrV];
+		int [][] adjLeaves = new int[nrV][];
+		for (int v = 0; v < nrV; v++)
+		{
+			Vertex vertex = newVertices.get(v);
+			System.arraycopy(vertex.getUV(), 0, coords, 3*v, 3);
+			if (vertex.isWritable())
+				ids[v] = -1;
+			else
+			{
+				ids[v] = patch.ids[vertex.getLabel()];
+				adjLeaves[v] = patch.adjLeaves[vertex.getLabel()];
+			}
+		}
+		int nrT = newTriangles.size();
+		int [] triangles = new int[3*nrT];
+		int [] groups = new int[nrT];
+		for (int t = 0; t < nrT; t++)
+		{
+			Triangle tri = newTriangles.get(t);
+			for (int j = 0; j < 3; j++)
+				triangles[3*t+j] = newIndex.get(tri.vertex[j]);
+			groups[t] = tri.getGroupId();
+		}
+		return new Patch(coords, ids, adjLeaves, triangles, groups);
+	}
+
+	private static boolean contains(OEMM.Node node, OEMM.Node leaf)
+	{
+		return leaf.i0 >= node.i0 && leaf.i0 - node.i0 < node.size &&
+			leaf.j0 >= node.j0 && leaf.j0 - node.j0 < node.size &&
+			leaf.k0 >= node.k0 && leaf.k0 - node.k0 < node.size;
+	}
+
+	private static Vertex [] createVertices(Mesh mesh, Patch patch)
+	{
+		int nrV = patch.getNumberOfVertices();
+		Vertex [] ret = new Vertex[nrV];
+		mesh.ensureCapacity(2*nrV);
+		for (int v = 0; v < nrV; v++)
+		{
+			ret[v] = mesh.createVertex(patch.coords[3*v], patch.coords[3*v+1], patch.coords[3*v+2]);
+			ret[v].setLabel(v);
+			ret[v].setReadable(true);
+			ret[v].setWritable(true);
+			mesh.add(ret[v]);
+		}
+		return ret;
+	}
+
+	private static void createTriangles(Mesh mesh, Patch patch, Vertex [] vertices)
+	{
+		for (int t = 0, n = patch.getNumberOfTriangles(); t < n; t++)
+		{
+			Vertex v0 = vertices[patch.triangles[3*t]];
+			Vertex v1 = vertices[patch.triangles[3*t+1]];
+			Vertex v2 = vertices[patch.triangles[3*t+2]];
+			Triangle tri = mesh.createTriangle(v0, v1, v2);
+			tri.setGroupId(patch.groups[t]);
+			v0.setLink(tri);
+			v1.setLink(tri);
+			v2.setLink(tri);
+			mesh.add(tri);
+		}
+	}
+
+	private void writePatch(int record, Patch patch)
+	{
+		File file = new File(getDirectory(oemm), Integer.toString(record));
+		try
+		{
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+			try
+			{
+				int nrV = patch.getNumberOfVertices();
+				out.writeInt(nrV);
+				for (int v = 0; v < nrV; v++)
+				{
+					for (int i = 0; i < 3; i++)
+						out.writeDouble(patch.coords[3*v+i]);
+					out.writeInt(patch.ids[v]);
+					if (patch.ids[v] < 0)
+						continue;
+					out.writeInt(patch.adjLeaves[v].length);
+					for (int leaf : patch.adjLeaves[v])
+						out.writeInt(leaf);
+				}
+				int nrT = patch.getNumberOfTriangles();
+				out.writeInt(nrT);
+				for (int t = 0; t < nrT; t++)
+				{
+					for (int j = 0; j < 3; j++)
+						out.writeInt(patch.triangles[3*t+j]);
+					out.writeInt(patch.groups[t]);
+				}
+			}
+			finally
+			{
+				out.close();
+			}
+		}
+		catch (IOException ex)
+		{
+			logger.log(Level.SEVERE, "I/O error when writing file "+file, ex);
+			throw new RuntimeException(ex);
+		}
+	}
+
+	private Patch readPatch(int record)
+	{
+		File file = new File(getDirectory(oemm), Integer.toString(record));
+		try
+		{
+			DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+			try
+			{
+				int nrV = in.readInt();
+				double [] coords = new double[3*nrV];
+				int [] ids = new int[nrV];
+				int [][] adjLeaves = new int[nrV][];
+				for (int v = 0; v < nrV; v++)
+				{
+					for (int i = 0; i < 3; i++)
+						coords[3*v+i] = in.readDouble();
+					ids[v] = in.readInt();
+					if (ids[v] < 0)
+						continue;
+					adjLeaves[v] = new int[in.readInt()];
+					for (int i = 0; i < adjLeaves[v].length; i++)
+						adjLeaves[v][i] = in.readInt();
+				}
+				int nrT = in.readInt();
+				int [] triangles = new int[3*nrT];
+				int [] groups = new int[nrT];
+				for (int t = 0; t < nrT; t++)
+				{
+					for (int j = 0; j < 3; j++)
+						triangles[3*t+j] = in.readInt();
+					groups[t] = in.readInt();
+				}
+				return new Patch(coords, ids, adjLeaves, triangles, groups);
+			}
+			finally
+			{
+				in.close();
+			}
+		}
+		catch (IOException ex)
+		{
+			logger.log(Level.SEVERE, "I/O error when reading file "+file, ex);
+			throw new RuntimeException(ex);
+		}
+	}
+
+	private void writeIndex()
+	{
+		File file = new File(getDirectory(oemm), INDEX_FILE);
+		try
+		{
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+			try
+			{
+				out.writeInt(nrTriangles.length);
+				for (int n : nrTriangles)
+					out.writeInt(n);
+			}
+			finally
+			{
+				out.close();
+			}
+		}
+		catch (IOException ex)
+		{
+			logger.log(Level.SEVERE, "I/O error when writing file "+file, ex);
+			throw new RuntimeException(ex);
+		}
+	}
+
+	private static double [] trim(double [] array, int length)
+	{
+		if (array.length == length)
+			return array;
+		double [] ret = new double[length];
+		System.arraycopy(array, 0, ret, 0, length);
+		return ret;
+	}
+
+	private static int [] trim(int [] array, int length)
+	{
+		if (array.length == length)
+			return array;
+		int [] ret = new int[length];
+		System.arraycopy(array, 0, ret, 0, length);
+		return ret;
+	}
+
+	private static int [][] trim(int [][] array, int length)
+	{
+		if (array.length == length)
+			return array;
+		int [][] ret = new int[length][];
+		System.arraycopy(array, 0, ret, 0, length);
+		return ret;
+	}
+}
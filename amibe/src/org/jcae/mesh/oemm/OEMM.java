@@ -2,7 +2,7 @@
    modeler, Finite element mesher, Plugin architecture.
 
     Copyright (C) 2005, by EADS CRC
-    Copyright (C) 2007,2008, by EADS France
+    Copyright (C) 2007,2008,2011, by EADS France
 
     This library is free software; you can redistribute it and/or
     modify it under the terms of the GNU Lesser General Public
@@ -54,6 +54,16 @@ public class OEMM implements Serializable
 	 */
 	private static final int gridSize = 1 << MAXLEVEL;
 	private static final double dGridSize = gridSize;
+
+	/**
+	 * Leaf files contain raw doubles and integers.
+	 */
+	public static final int RAW_FORMAT = 0;
+
+	/**
+	 * Leaf files are compressed, see {@link CompressedLeaf}.
+	 */
+	public static final int COMPRESSED_FORMAT = 1;
 	
 	/**
 	 * Top-level directory.
@@ -90,6 +100,14 @@ public class OEMM implements Serializable
 	 */
 	public final double [] x0 = new double[4];
 
+	/**
+	 * Format of leaf files, either {@link #RAW_FORMAT} or
+	 * {@link #COMPRESSED_FORMAT}.  This field has been added after
+	 * OEMM files were first written, its default value is then
+	 * {@link #RAW_FORMAT} when reading older files.
+	 */
+	private int leafFormat = RAW_FORMAT;
+
 	/**
 	 * Root cell.
 	 */
@@ -99,6 +117,11 @@ public class OEMM implements Serializable
 	 * Array of leaves.
 	 */
 	public transient Node [] leaves;
+
+	/**
+	 * Cache of decoded leaves, may be null.
+	 */
+	private transient LeafCache leafCache;
 	
 	/**
 	 * Create an empty OEMM.
@@ -374,6 +397,51 @@ public class OEMM implements Serializable
 		topDir = dir;
 	}
 	
+	/**
+	 * Returns the format of leaf files.
+	 *
+	 * @return {@link #RAW_FORMAT} or {@link #COMPRESSED_FORMAT}
+	 */
+	public final int getLeafFormat()
+	{
+		return leafFormat;
+	}
+
+	/**
+	 * Sets the format of leaf files.  Leaf files already written are not
+	 * converted.
+	 *
+	 * @param format  {@link #RAW_FORMAT} or {@link #COMPRESSED_FORMAT}
+	 */
+	public final void setLeafFormat(int format)
+	{
+		if (format != RAW_FORMAT && format != COMPRESSED_FORMAT)
+			throw new IllegalArgumentException("Unknown leaf format: "+format);
+		leafFormat = format;
+	}
+
+	/**
+	 * Returns the cache of decoded leaves.
+	 *
+	 * @return cache of decoded leaves, or <code>null</code> if leaves are
+	 *         always read from disk
+	 */
+	public final LeafCache getLeafCache()
+	{
+		return leafCache;
+	}
+
+	/**
+	 * Sets the cache of decoded leaves.
+	 *
+	 * @param cache  cache of decoded leaves, or <code>null</code> to read
+	 *        leaves from disk each time they are needed
+	 */
+	public final void setLeafCache(LeafCache cache)
+	{
+		leafCache = cache;
+	}
+
 	/**
 	 * Returns file name containing {@link OEMM} data structure.
 	 *
@@ -0,0 +1,290 @@
+/* jCAE stand for Java Computer Aided Engineering. Features are : Small CAD
+   modeler, Finite element mesher, Plugin architecture.
+
+    Copyright (C) 2011, by EADS France
+
+    This library is free software; you can redistribute it and/or
+    modify it under the terms of the GNU Lesser General Public
+    License as published by the Free Software Foundation; either
+    version 2.1 of the License, or (at your option) any later version.
+
+    This library is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+    Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public
+    License along with this library; if not, write to the Free Software
+    Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA */
+
+package org.jcae.mesh.oemm;
+
+import org.jcae.mesh.amibe.ds.Mesh;
+import org.jcae.mesh.amibe.ds.Vertex;
+import org.jcae.mesh.amibe.algos3d.AbstractAlgoHalfEdge;
+import org.jcae.mesh.amibe.algos3d.QEMDecimateHalfEdge;
+import org.jcae.mesh.amibe.traits.MeshTraitsBuilder;
+import org.jcae.mesh.amibe.traits.TriangleTraitsBuilder;
+import gnu.trove.TIntArrayList;
+import gnu.trove.TIntHashSet;
+import gnu.trove.TLongObjectHashMap;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Decimates an OEMM which does not fit in memory.  Leaves are grouped into
+ * neighbourhoods containing at most <code>maxload</code> triangles; each
+ * neighbourhood is loaded by {@link MeshReader#buildMesh(MeshTraitsBuilder, TIntHashSet)},
+ * decimated by {@link QEMDecimateHalfEdge} and written back by
+ * {@link Storage#saveNodes}.  Vertices adjacent to leaves which are not
+ * loaded are not writable, so seams between neighbourhoods are not
+ * modified during a pass.  Next pass uses shifted neighbourhoods, so that
+ * these seams are now inside neighbourhoods and can be simplified.
+ * Passes are run until the global target is reached.
+ * <p>
+ * Options are the same as {@link QEMDecimateHalfEdge}, with the following
+ * differences:
+ * </p>
+ * <ul>
+ *   <li><code>maxtriangles</code>: number of triangles of the whole mesh,</li>
+ *   <li><code>maxload</code>: maximal number of triangles loaded at once
+ *       (default 500000),</li>
+ *   <li><code>passes</code>: maximal number of passes (default 4),</li>
+ *   <li><code>placement</code>: default is <code>vertex</code>, other
+ *       placements may move vertices outside leaves.</li>
+ * </ul>
+ */
+public class OutOfCoreDecimation
+{
+	private static final Logger logger=Logger.getLogger(OutOfCoreDecimation.class.getName());
+	// Shift of cells, its binary representation is 0101...01 so that
+	// for any cell size, boundaries of shifted cells are about a third
+	// of cell size away from boundaries of aligned cells.
+	private static final long SHIFT = 0x15555555L;
+
+	private final OEMM oemm;
+	private final Map<String, String> decimateOptions = new HashMap<String, String>();
+	private long maxTriangles = 0L;
+	private int maxLoad = 500000;
+	private int maxPasses = 4;
+	private int nrPasses = 0;
+	private int nrNeighbourhoods = 0;
+	private int maxLoaded = 0;
+
+	/**
+	 * Creates an <code>OutOfCoreDecimation</code> instance.
+	 *
+	 * @param oemm  OEMM instance, it is modified on disk
+	 * @param options  map containing key-value pairs to modify algorithm
+	 *        behaviour
+	 */
+	public OutOfCoreDecimation(OEMM oemm, Map<String, String> options)
+	{
+		this.oemm = oemm;
+		for (final Map.Entry<String, String> opt: options.entrySet())
+		{
+			final String key = opt.getKey();
+			final String val = opt.getValue();
+			if (key.equals("maxtriangles"))
+				maxTriangles = Long.parseLong(val);
+			else if (key.equals("maxload"))
+				maxLoad = Integer.parseInt(val);
+			else if (key.equals("passes"))
+				maxPasses = Integer.parseInt(val);
+			else
+				decimateOptions.put(key, val);
+		}
+		// Storage.saveNodes cannot move vertices into leaves which are
+		// not loaded, vertices are thus contracted into edge endpoints.
+		if (!decimateOptions.containsKey("placement"))
+			decimateOptions.put("placement", "vertex");
+		if (maxTriangles <= 0L && !decimateOptions.containsKey("size"))
+			throw new IllegalArgumentException("Either maxtriangles or size option must be set");
+	}
+
+	/**
+	 * Runs decimation.
+	 */
+	public void compute()
+	{
+		MeshTraitsBuilder mtb = new MeshTraitsBuilder();
+		TriangleTraitsBuilder ttb = new TriangleTraitsBuilder();
+		ttb.addHalfEdge();
+		mtb.add(ttb);
+		mtb.addTriangleSet();
+		mtb.addNodeSet();
+		MeshReader reader = new MeshReader(oemm);
+		Map<String, String> options = new HashMap<String, String>();
+		long total = getNumberOfTriangles();
+		logger.info("Initial number of triangles: "+total);
+		for (nrPasses = 0; nrPasses < maxPasses; )
+		{
+			if (maxTriangles > 0L && total <= maxTriangles)
+				break;
+			double ratio = (maxTriangles > 0L ? (double) maxTriangles / total : 1.0);
+			List<TIntHashSet> neighbourhoods = getNeighbourhoods(nrPasses % 2 != 0);
+			for (TIntHashSet leaves : neighbourhoods)
+			{
+				Mesh mesh = reader.buildMesh(mtb, leaves);
+				int nrT = AbstractAlgoHalfEdge.countInnerTriangles(mesh);
+				maxLoaded = Math.max(maxLoaded, nrT);
+				options.clear();
+				options.putAll(decimateOptions);
+				if (maxTriangles > 0L)
+				{
+					int target = (int) (ratio * nrT);
+					if (target >= nrT)
+						continue;
+					options.put("maxtriangles", Integer.toString(target));
+				}
+				QEMDecimateHalfEdge algo = new QEMDecimateHalfEdge(mesh, options);
+				// Ridges are bound to virtual triangles, vertices on
+				// ridges are then non-manifold and edge collapses
+				// around them are not reliable.
+				for (Vertex v : mesh.getNodes())
+				{
+					if (!v.isManifold())
+						v.setWritable(false);
+				}
+				algo.compute();
+				Storage.saveNodes(oemm, mesh, leaves);
+			}
+			nrPasses++;
+			nrNeighbourhoods += neighbourhoods.size();
+			long newTotal = getNumberOfTriangles();
+			logger.info("Pass "+nrPasses+": "+neighbourhoods.size()+" neighbourhoods, number of triangles: "+newTotal);
+			// Stop when there is no seam.  With a size criterion, also
+			// stop when seams cannot be simplified further; with a
+			// target number of triangles, passes go on until target is
+			// reached or nothing is removed.
+			boolean converged = neighbourhoods.size() == 1 || newTotal == total;
+			if (maxTriangles <= 0L && 100L * (total - newTotal) < total)
+				converged = true;
+			total = newTotal;
+			if (converged)
+				break;
+		}
+		logger.info("Final number of triangles: "+total);
+		if (maxTriangles > 0L && total > maxTriangles)
+			logger.warning("Target number of triangles not reached: "+total+" > "+maxTriangles);
+	}
+
+	/**
+	 * Returns the number of triangles of the whole mesh.
+	 *
+	 * @return the number of triangles of the whole mesh
+	 */
+	public long getNumberOfTriangles()
+	{
+		long ret = 0L;
+		for (OEMM.Node current : oemm.leaves)
+			ret += current.tn;
+		return ret;
+	}
+
+	/**
+	 * Returns the number of passes run by {@link #compute}.
+	 *
+	 * @return the number of passes
+	 */
+	public int getNumberOfPasses()
+	{
+		return nrPasses;
+	}
+
+	/**
+	 * Returns the number of neighbourhoods processed by {@link #compute}.
+	 *
+	 * @return the number of neighbourhoods
+	 */
+	public int getNumberOfNeighbourhoods()
+	{
+		return nrNeighbourhoods;
+	}
+
+	/**
+	 * Returns the largest number of triangles loaded at once.
+	 *
+	 * @return the largest number of triangles loaded at once
+	 */
+	public int getMaxLoadedTriangles()
+	{
+		return maxLoaded;
+	}
+
+	/**
+	 * Groups leaves into neighbourhoods.  Leaves are put into cubic cells
+	 * according to their center, cells containing more than
+	 * <code>maxload</code> triangles are subdivided.
+	 *
+	 * @param shifted  if <code>true</code>, cells are shifted so that
+	 *        their boundaries do not match the ones obtained with
+	 *        <code>false</code>
+	 * @return list of neighbourhoods
+	 */
+	List<TIntHashSet> getNeighbourhoods(boolean shifted)
+	{
+		List<TIntHashSet> ret = new ArrayList<TIntHashSet>();
+		TIntArrayList all = new TIntArrayList(oemm.getNumberOfLeaves());
+		for (OEMM.Node current : oemm.leaves)
+			all.add(current.leafIndex);
+		split(all, oemm.root.size, (shifted ? SHIFT : 0L), ret);
+		if (logger.isLoggable(Level.FINE))
+			logger.fine("Number of neighbourhoods: "+ret.size());
+		return ret;
+	}
+
+	private void split(TIntArrayList leaves, int cellSize, long offset, List<TIntHashSet> ret)
+	{
+		TLongObjectHashMap<TIntArrayList> cells = new TLongObjectHashMap<TIntArrayList>();
+		List<TIntArrayList> sortedCells = new ArrayList<TIntArrayList>();
+		// Cell indices may exceed 21 bits when cellSize is small, keys
+		// are computed from indices relative to the lowest cell.  Leaves
+		// belong to the same parent cell, relative indices are then at
+		// most 2 and keys are unique.
+		int n = leaves.size();
+		long [] cijk = new long[3*n];
+		long [] cmin = { Long.MAX_VALUE, Long.MAX_VALUE, Long.MAX_VALUE };
+		for (int i = 0; i < n; i++)
+		{
+			OEMM.Node current = oemm.leaves[leaves.get(i)];
+			long half = current.size / 2;
+			cijk[3*i]   = (current.i0 + half + offset) / cellSize;
+			cijk[3*i+1] = (current.j0 + half + offset) / cellSize;
+			cijk[3*i+2] = (current.k0 + half + offset) / cellSize;
+			for (int d = 0; d < 3; d++)
+				cmin[d] = Math.min(cmin[d], cijk[3*i+d]);
+		}
+		for (int i = 0; i < n; i++)
+		{
+			OEMM.Node current = oemm.leaves[leaves.get(i)];
+			long ci = cijk[3*i]   - cmin[0];
+			long cj = cijk[3*i+1] - cmin[1];
+			long ck = cijk[3*i+2] - cmin[2];
+			assert ci < (1L << 21) && cj < (1L << 21) && ck < (1L << 21);
+			long key = (ci << 42) | (cj << 21) | ck;
+			TIntArrayList cell = cells.get(key);
+			if (cell == null)
+			{
+				cell = new TIntArrayList();
+				cells.put(key, cell);
+				sortedCells.add(cell);
+			}
+			cell.add(current.leafIndex);
+		}
+		for (TIntArrayList cell : sortedCells)
+		{
+			long nrT = 0L;
+			for (int i = 0, nc = cell.size(); i < nc; i++)
+				nrT += oemm.leaves[cell.get(i)].tn;
+			if (nrT > maxLoad && cell.size() > 1 && cellSize > 1)
+				split(cell, cellSize / 2, offset, ret);
+			else
+				ret.add(new TIntHashSet(cell.toNativeArray()));
+		}
+	}
+}
@@ -29,7 +29,7 @@ package org.jcae.mesh.oemm;
  * so that extra memory is almost never allocated.  On trees with 2 millions
  * of nodes, this optimization gives a speedup of 5.
  */
-public class PAVLTreeIntArrayDup
+public class PAVLTreeIntArrayDup implements IntTripletMap
 {
 	//  An (x,y,z) triplet is stored in an int array of size nrInt.
 	//  It is 4 if coordinates are int, 8 if long.
@@ -436,6 +436,15 @@ public class PAVLTreeIntArrayDup
 	{
 		return nextIndex / TOTAL_SIZE;
 	}
+
+	/**
+	 * Removes all nodes.  Node array is not shrunk.
+	 */
+	public final void clear()
+	{
+		root = POS_NIL;
+		nextIndex = 0;
+	}
 	
 	/**
 	 * Dumps tree content.
@@ -2,7 +2,7 @@
    modeler, Finite element mesher, Plugin architecture.
 
     Copyright (C) 2005, by EADS CRC
-    Copyright (C) 2007,2008, by EADS France
+    Copyright (C) 2007,2008,2011, by EADS France
 
     This library is free software; you can redistribute it and/or
     modify it under the terms of the GNU Lesser General Public
@@ -34,10 +34,20 @@ import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.DoubleBuffer;
 import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
 import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.lang.ref.SoftReference;
 import gnu.trove.TIntIterator;
 import gnu.trove.TIntIntHashMap;
@@ -57,6 +67,16 @@ import java.util.logging.Logger;
  *      are sorted by octants.</li>
  *  <li>In each octant, write an indexed OEMM data structure.</li>
  * </ol>
+ * All steps can be run by several threads: the triangle soup is then split
+ * into ranges which are read concurrently, and leaves are indexed
+ * concurrently.  Each thread has its own I/O buffers.
+ * <p>
+ * When leaves are indexed, duplicate vertices are found by looking up their
+ * integer coordinates in {@link HashIntArrayDup} tables, which are reused
+ * from one leaf to the next.  If the
+ * <code>org.jcae.mesh.oemm.avlVertexIndex</code> system property is set to
+ * <code>true</code>, {@link PAVLTreeIntArrayDup} trees are used instead.
+ * </p>
  */
 public class RawStorage
 {
@@ -74,9 +94,15 @@ public class RawStorage
 	// As TRIANGLE_SIZE_RAW is 2*TRIANGLE_SIZE_DISPATCHED, the latter
 	// does not need to be taken into account
 	private static final int bufferSize = (TRIANGLE_SIZE_RAW * VERTEX_SIZE_INDEXED * TRIANGLE_SIZE_INDEXED);
-	private static final ByteBuffer bb = ByteBuffer.allocate(bufferSize);
-	private static final ByteBuffer bbt = ByteBuffer.allocate(bufferSize);
-	private static final ByteBuffer bbpos = ByteBuffer.allocate(8);
+	//  Number of triangles buffered by leaf when dispatching triangles
+	//  with a single thread.  With n threads, each thread has its own
+	//  buffers, so this number is divided by n, down to a quarter.
+	private static final int DISPATCH_BUFFERED_TRIANGLES = 100;
+	//  Dispatched file is mapped by segments of 2^MAPPED_SEGMENT_SHIFT bytes
+	private static final int MAPPED_SEGMENT_SHIFT = 28;
+	//  Duplicate vertices are removed with hash tables, AVL trees were
+	//  used previously and can still be selected for comparison.
+	private static final String AVL_VERTEX_INDEX_PROPERTY = "org.jcae.mesh.oemm.avlVertexIndex";
 
 	public static interface SoupReaderInterface
 	{
@@ -96,34 +122,10 @@ public class RawStorage
 	 */
 	public static void readSoup(String file, SoupReaderInterface proc)
 	{
-		double [] xyz = new double[3];
-		boolean hasNext = true;
-		bb.clear();
-		DoubleBuffer bbD = bb.asDoubleBuffer();
-		IntBuffer bbI = bb.asIntBuffer();
 		try
 		{
 			FileChannel fc = new FileInputStream(file).getChannel();
-			while (hasNext)
-			{
-				bb.rewind();
-				int nr = fc.read(bb);
-				if (nr < bufferSize)
-					hasNext = false;
-				bbD.rewind();
-				for(; nr > 0; nr -= TRIANGLE_SIZE_RAW)
-				{
-					for (int i = 0; i < 3; i++)
-					{
-						bbD.get(xyz);
-						proc.processVertex(i, xyz);
-					}
-					bbD.get();
-					bbI.position(2*bbD.position() - 2);
-					int attribute = bbI.get();
-					proc.processTriangle(attribute);
-				}
-			}
+			readSoup(fc, 0L, fc.size(), ByteBuffer.allocate(bufferSize), proc);
 			fc.close();
 		}
 		catch (FileNotFoundException ex)
@@ -140,6 +142,87 @@ public class RawStorage
 		}
 	}
 
+	/**
+	 * Reads triangles of a soup located between two file offsets.  This
+	 * method only performs positional reads, so several threads can read
+	 * the same channel if they use distinct buffers.
+	 *
+	 * @param  fc  triangle soup
+	 * @param  start  offset of the first triangle
+	 * @param  end  offset after the last triangle
+	 * @param  bb  buffer used to read file
+	 * @param  proc  procedure called on triangles and vertices
+	 */
+	private static void readSoup(FileChannel fc, long start, long end, ByteBuffer bb, SoupReaderInterface proc)
+		throws IOException
+	{
+		double [] xyz = new double[3];
+		DoubleBuffer bbD = bb.asDoubleBuffer();
+		IntBuffer bbI = bb.asIntBuffer();
+		long pos = start;
+		while (pos < end)
+		{
+			bb.clear();
+			if (end - pos < bb.capacity())
+				bb.limit((int) (end - pos));
+			int nr = readFully(fc, bb, pos);
+			if (nr <= 0)
+				break;
+			pos += nr;
+			bbD.rewind();
+			for(; nr >= TRIANGLE_SIZE_RAW; nr -= TRIANGLE_SIZE_RAW)
+			{
+				for (int i = 0; i < 3; i++)
+				{
+					bbD.get(xyz);
+					proc.processVertex(i, xyz);
+				}
+				bbD.get();
+				bbI.position(2*bbD.position() - 2);
+				int attribute = bbI.get();
+				proc.processTriangle(attribute);
+			}
+		}
+	}
+
+	/**
+	 * Fills a buffer from a given file position, unless end of file is
+	 * reached.
+	 *
+	 * @return number of bytes read
+	 */
+	private static int readFully(FileChannel fc, ByteBuffer bb, long position)
+		throws IOException
+	{
+		int ret = 0;
+		while (bb.hasRemaining())
+		{
+			int nr = fc.read(bb, position + ret);
+			if (nr < 0)
+				break;
+			ret += nr;
+		}
+		return ret;
+	}
+
+	/**
+	 * Splits a triangle soup into ranges of consecutive triangles.
+	 *
+	 * @param  size  file size
+	 * @param  nrRanges  number of ranges
+	 * @return  an array of <code>nrRanges+1</code> file offsets,
+	 *          range <code>r</code> is between offsets <code>r</code>
+	 *          and <code>r+1</code>.
+	 */
+	private static long [] splitSoup(long size, int nrRanges)
+	{
+		long nrTriangles = size / TRIANGLE_SIZE_RAW;
+		long [] ret = new long[nrRanges + 1];
+		for (int r = 0; r <= nrRanges; r++)
+			ret[r] = TRIANGLE_SIZE_RAW * (nrTriangles * r / nrRanges);
+		return ret;
+	}
+
 	/**
 	 * Builds an OEMM and counts the number of triangles which have to be
 	 * assigned to each leaf.
@@ -177,6 +260,26 @@ public class RawStorage
 	 *         bounds, <code>true</code> otherwise.
 	 */
 	public static boolean countTriangles(OEMM tree, String soupFile, boolean build)
+	{
+		return countTriangles(tree, soupFile, build, 1);
+	}
+
+	/**
+	 * Counts the number of triangles which have to be assigned to each leaf.
+	 * When several threads are used, each thread reads a range of the
+	 * triangle soup and updates its own counters, which are then merged
+	 * into <code>tree</code>.  If <code>build</code> is <code>true</code>,
+	 * each thread builds its own OEMM.
+	 *
+	 * @param  tree  an OEMM
+	 * @param  soupFile  triangle soup file name
+	 * @param  build  if <code>true</code>, OEMM instance is built.  Otherwise,
+	 *         it is supposed to have already been built.
+	 * @param  nrThreads  number of threads
+	 * @return <code>false</code> if a vertex was found outside of octree
+	 *         bounds, <code>true</code> otherwise.
+	 */
+	public static boolean countTriangles(OEMM tree, String soupFile, boolean build, int nrThreads)
 	{
 		if (tree == null)
 		{
@@ -185,10 +288,64 @@ public class RawStorage
 		}
 		logger.info("Count triangles");
 		logger.fine("Reading "+soupFile+" and count triangles");
-		CountTriangles ct = new CountTriangles(tree, build);
-		readSoup(soupFile, ct);
-		logger.info("Number of triangles: "+ct.getTriangleCount());
-		double [] bbox = ct.getBoundingBox();
+		if (!build)
+		{
+			for (int i = 0; i < tree.getNumberOfLeaves(); i++)
+				tree.leaves[i].tn = 0;
+		}
+		long startTime = System.currentTimeMillis();
+		CountTriangles [] counters = new CountTriangles[nrThreads];
+		try
+		{
+			final FileChannel fc = new FileInputStream(soupFile).getChannel();
+			long size = fc.size();
+			long [] bounds = splitSoup(size, nrThreads);
+			List<Callable<Object>> tasks = new ArrayList<Callable<Object>>(nrThreads);
+			for (int r = 0; r < nrThreads; r++)
+			{
+				if (nrThreads == 1)
+					counters[r] = new CountTriangles(tree, build, null);
+				else if (build)
+				{
+					OEMM copy = new OEMM(tree.getDepth());
+					System.arraycopy(tree.x0, 0, copy.x0, 0, tree.x0.length);
+					counters[r] = new CountTriangles(copy, true, null);
+				}
+				else
+					counters[r] = new CountTriangles(tree, false, new int[tree.getNumberOfLeaves()]);
+				tasks.add(new ReadSoupTask(fc, bounds[r], bounds[r+1], counters[r], soupFile));
+			}
+			runTasks(tasks, nrThreads);
+			fc.close();
+			logThroughput("Triangle soup read", size, startTime);
+		}
+		catch (FileNotFoundException ex)
+		{
+			logger.severe("File "+soupFile+" not found");
+			ex.printStackTrace();
+			throw new RuntimeException(ex);
+		}
+		catch (IOException ex)
+		{
+			logger.severe("I/O error when reading "+soupFile);
+			ex.printStackTrace();
+			throw new RuntimeException(ex);
+		}
+		long nrTriangles = 0L;
+		double [] bbox = counters[0].getBoundingBox();
+		for (CountTriangles ct : counters)
+		{
+			nrTriangles += ct.getTriangleCount();
+			double [] b = ct.getBoundingBox();
+			for (int k = 0; k < 3; k++)
+			{
+				bbox[k] = Math.min(bbox[k], b[k]);
+				bbox[k+3] = Math.max(bbox[k+3], b[k+3]);
+			}
+			if (nrThreads > 1)
+				ct.mergeInto(tree);
+		}
+		logger.info("Number of triangles: "+nrTriangles);
 		if (!tree.checkBoundingBox(bbox))
 		{
 			if (!build)
@@ -209,15 +366,14 @@ public class RawStorage
 		private final int [] ijk = new int[3];
 		private final double [] bbox = new double[6];
 		private final boolean build;
-		public CountTriangles(OEMM o, boolean b)
+		//  If not null, triangles are counted in this array instead of
+		//  leaf counters, it is indexed by leaf indices.
+		private final int [] leafCounts;
+		public CountTriangles(OEMM o, boolean b, int [] counts)
 		{
 			oemm = o;
 			build = b;
-			if (!build)
-			{
-				for (int i = 0; i < oemm.getNumberOfLeaves(); i++)
-					oemm.leaves[i].tn = 0;
-			}
+			leafCounts = counts;
 			for (int k = 0; k < 3; k++)
 			{
 				bbox[k] = Double.MAX_VALUE;
@@ -242,11 +398,18 @@ public class RawStorage
 		public void processTriangle(int group)
 		{
 			nrTriangles++;
-			cells[0].tn++;
+			increment(cells[0]);
 			if (cells[1] != cells[0])
-				cells[1].tn++;
+				increment(cells[1]);
 			if (cells[2] != cells[0] && cells[2] != cells[1])
-				cells[2].tn++;
+				increment(cells[2]);
+		}
+		private void increment(OEMM.Node cell)
+		{
+			if (leafCounts != null)
+				leafCounts[cell.leafIndex]++;
+			else
+				cell.tn++;
 		}
 		long getTriangleCount()
 		{
@@ -256,6 +419,73 @@ public class RawStorage
 		{
 			return bbox;
 		}
+		/**
+		 * Adds counters of this instance to another tree.
+		 */
+		void mergeInto(final OEMM tree)
+		{
+			if (leafCounts != null)
+			{
+				for (int i = 0; i < leafCounts.length; i++)
+					tree.leaves[i].tn += leafCounts[i];
+			}
+			else if (oemm != tree && oemm.getNumberOfLeaves() > 0)
+			{
+				oemm.walk(new TraversalProcedure()
+				{
+					private final int [] corner = new int[3];
+					@Override
+					public final int action(OEMM o, OEMM.Node current, int octant, int visit)
+					{
+						if (visit != LEAF)
+							return OK;
+						corner[0] = current.i0;
+						corner[1] = current.j0;
+						corner[2] = current.k0;
+						tree.build(corner).tn += current.tn;
+						return OK;
+					}
+				});
+			}
+		}
+	}
+
+	/**
+	 * Reads a range of a triangle soup.
+	 */
+	private static class ReadSoupTask implements Callable<Object>
+	{
+		private final FileChannel fc;
+		private final long start;
+		private final long end;
+		private final SoupReaderInterface proc;
+		private final String file;
+		ReadSoupTask(FileChannel fc, long start, long end, SoupReaderInterface proc, String file)
+		{
+			this.fc = fc;
+			this.start = start;
+			this.end = end;
+			this.proc = proc;
+			this.file = file;
+		}
+		public Object call()
+		{
+			try
+			{
+				readSoup(fc, start, end, ByteBuffer.allocate(bufferSize), proc);
+				finish();
+			}
+			catch (IOException ex)
+			{
+				logger.severe("I/O error when reading "+file);
+				ex.printStackTrace();
+				throw new RuntimeException(ex);
+			}
+			return null;
+		}
+		void finish() throws IOException
+		{
+		}
 	}
 
 	/**
@@ -279,6 +509,52 @@ public class RawStorage
 	 * @param  dataFile  dispatched data file
 	 */
 	public static void dispatch(OEMM tree, String soupFile, String structFile, String dataFile)
+	{
+		dispatch(tree, soupFile, structFile, dataFile, 1);
+	}
+
+	/**
+	 * Reads a triangle soup and dispatches triangles into an intermediate
+	 * OEMM data structure.  When several threads are used, each thread
+	 * reads a range of the triangle soup and has its own buffers; room
+	 * is reserved into leaf blocks when buffers are flushed.  Triangles
+	 * are then not written in the same order as in the triangle soup.
+	 *
+	 * @param  tree  an OEMM
+	 * @param  soupFile  triangle soup file name
+	 * @param  structFile  output file containing dispatched data structure
+	 * @param  dataFile  dispatched data file
+	 * @param  nrThreads  number of threads
+	 */
+	public static void dispatch(OEMM tree, String soupFile, String structFile, String dataFile, int nrThreads)
+	{
+		dispatch(tree, soupFile, structFile, dataFile, nrThreads, 0L);
+	}
+
+	/**
+	 * Reads a triangle soup and dispatches triangles into an intermediate
+	 * OEMM data structure, with a given memory budget for buffers.
+	 * <p>
+	 * If <code>memoryBudget</code> is positive, dispatched file is mapped
+	 * into memory and its block layout is computed from triangle counts
+	 * found by {@link #countTriangles}.  Buffer memory is shared between
+	 * leaves proportionally to their number of triangles, so that all
+	 * leaves are written by large chunks; total buffer size is bounded
+	 * by <code>memoryBudget</code> plus one triangle by leaf and thread.
+	 * Buffers are copied into the mapped file, which is written back by
+	 * the operating system.  Otherwise, each leaf has a small buffer
+	 * which is written by positional writes.
+	 * </p>
+	 *
+	 * @param  tree  an OEMM
+	 * @param  soupFile  triangle soup file name
+	 * @param  structFile  output file containing dispatched data structure
+	 * @param  dataFile  dispatched data file
+	 * @param  nrThreads  number of threads
+	 * @param  memoryBudget  size in bytes of all buffers, or 0 to use
+	 *         fixed size buffers and positional writes
+	 */
+	public static void dispatch(OEMM tree, String soupFile, String structFile, String dataFile, int nrThreads, long memoryBudget)
 	{
 		if (tree == null)
 		{
@@ -297,25 +573,54 @@ public class RawStorage
 		tree.walk(cmmi_proc);
 		
 		logger.fine("Raw OEMM: dispatch triangles into raw OEMM");
+		long startTime = System.currentTimeMillis();
 		try
 		{
 			RandomAccessFile raf = new RandomAccessFile(dataFile, "rw");
 			FileChannel fc = raf.getChannel();
 			raf.setLength(outputFileSize);
+			DispatchOutput output;
+			int [] capacities;
+			if (memoryBudget > 0L)
+			{
+				output = new MappedOutput(fc, outputFileSize);
+				capacities = computeCapacities(co_proc.getTriangleCounts(), memoryBudget / nrThreads);
+			}
+			else
+			{
+				output = new ChannelOutput(fc);
+				int nrBuffered = Math.max(DISPATCH_BUFFERED_TRIANGLES / 4, DISPATCH_BUFFERED_TRIANGLES / nrThreads);
+				capacities = new int[tree.getNumberOfLeaves()];
+				Arrays.fill(capacities, nrBuffered * TRIANGLE_SIZE_DISPATCHED);
+			}
+			WriteHeadersProcedure wh_proc = new WriteHeadersProcedure(output);
+			tree.walk(wh_proc);
 
-			Map<OEMM.Node, ByteBuffer> buffers = new HashMap<OEMM.Node, ByteBuffer>();
-			DispatchTriangles dt = new DispatchTriangles(tree, fc, buffers);
-			readSoup(soupFile, dt);
-
-			logger.fine("Raw OEMM: flush buffers");
-			FlushBuffersProcedure fb_proc = new FlushBuffersProcedure(fc, buffers);
-			tree.walk(fb_proc);
+			FileChannel in = new FileInputStream(soupFile).getChannel();
+			long size = in.size();
+			long [] bounds = splitSoup(size, nrThreads);
+			List<Callable<Object>> tasks = new ArrayList<Callable<Object>>(nrThreads);
+			for (int r = 0; r < nrThreads; r++)
+			{
+				final DispatchTriangles dt = new DispatchTriangles(tree, output.duplicate(), capacities);
+				tasks.add(new ReadSoupTask(in, bounds[r], bounds[r+1], dt, soupFile)
+				{
+					@Override
+					void finish() throws IOException
+					{
+						dt.flush();
+					}
+				});
+			}
+			runTasks(tasks, nrThreads);
+			in.close();
 			raf.close();
+			logThroughput("Triangles dispatched", size + outputFileSize, startTime);
 			
 			//  Write octree data structure onto disk
 			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(structFile)));
-			WriteStructureProcedure wh_proc = new WriteStructureProcedure(out, dataFile, tree.getNumberOfLeaves(), tree.x0);
-			tree.walk(wh_proc);
+			WriteStructureProcedure ws_proc = new WriteStructureProcedure(out, dataFile, tree.getNumberOfLeaves(), tree.x0);
+			tree.walk(ws_proc);
 			out.close();
 		}
 		catch (FileNotFoundException ex)
@@ -332,18 +637,46 @@ public class RawStorage
 		}
 	}
 	
+	/**
+	 * Computes buffer size of each leaf.  Memory budget is shared between
+	 * leaves proportionally to their number of triangles, and a buffer
+	 * is not larger than its leaf block.
+	 *
+	 * @param  counts  number of triangles of each leaf
+	 * @param  memoryBudget  memory budget in bytes
+	 * @return  buffer sizes in bytes
+	 */
+	private static int [] computeCapacities(TIntArrayList counts, long memoryBudget)
+	{
+		long total = 0L;
+		for (int i = 0; i < counts.size(); i++)
+			total += counts.get(i);
+		long budget = memoryBudget / TRIANGLE_SIZE_DISPATCHED;
+		int [] ret = new int[counts.size()];
+		for (int i = 0; i < ret.length; i++)
+		{
+			long nr = (total == 0L ? 1L : budget * counts.get(i) / total);
+			nr = Math.max(1L, Math.min(nr, counts.get(i)));
+			nr = Math.min(nr, Integer.MAX_VALUE / TRIANGLE_SIZE_DISPATCHED);
+			ret[i] = (int) nr * TRIANGLE_SIZE_DISPATCHED;
+		}
+		return ret;
+	}
+
 	private static final class DispatchTriangles implements SoupReaderInterface
 	{
 		private final OEMM.Node [] cells = new OEMM.Node[3];
 		private final int [] ijk9 = new int[9];
 		private final OEMM oemm;
-		private final FileChannel fc;
-		private final Map<OEMM.Node, ByteBuffer> buffers;
-		public DispatchTriangles(OEMM o, FileChannel f, Map<OEMM.Node, ByteBuffer> m)
+		private final DispatchOutput output;
+		//  Buffer size of each leaf
+		private final int [] capacities;
+		private final Map<OEMM.Node, ByteBuffer> buffers = new HashMap<OEMM.Node, ByteBuffer>();
+		public DispatchTriangles(OEMM o, DispatchOutput out, int [] c)
 		{
 			oemm = o;
-			fc = f;
-			buffers = m;
+			output = out;
+			capacities = c;
 		}
 		public void processVertex(int i, double [] xyz)
 		{
@@ -358,11 +691,11 @@ public class RawStorage
 		{
 			try
 			{
-				addToCell(fc, cells[0], buffers, ijk9, group);
+				addToCell(cells[0], group);
 				if (cells[1] != cells[0])
-					addToCell(fc, cells[1], buffers, ijk9, group);
+					addToCell(cells[1], group);
 				if (cells[2] != cells[0] && cells[2] != cells[1])
-					addToCell(fc, cells[2], buffers, ijk9, group);
+					addToCell(cells[2], group);
 			}
 			catch (IOException ex)
 			{
@@ -371,43 +704,141 @@ public class RawStorage
 				throw new RuntimeException(ex);
 			}
 		}
+		private void addToCell(OEMM.Node current, int attribute)
+			throws IOException
+		{
+			//  With 20 millions of triangles, unbuffered output took 420s
+			//  and buffered output 180s (4K buffer cache)
+			ByteBuffer list = buffers.get(current);
+			if (list == null)
+			{
+				list = ByteBuffer.allocate(capacities[current.leafIndex]);
+				buffers.put(current, list);
+			}
+			else if (!list.hasRemaining())
+				flush(current, list);
+			for (int i = 0; i < ijk9.length; i++)
+				list.putInt(ijk9[i]);
+			list.putInt(attribute);
+		}
+		/**
+		 * Writes all buffers onto disk.
+		 */
+		void flush() throws IOException
+		{
+			for (Map.Entry<OEMM.Node, ByteBuffer> entry : buffers.entrySet())
+				flush(entry.getKey(), entry.getValue());
+			buffers.clear();
+		}
+		private void flush(OEMM.Node current, ByteBuffer list) throws IOException
+		{
+			list.flip();
+			//  Other threads may write into the same leaf, room is
+			//  reserved before writing buffer.
+			long pos;
+			synchronized (current)
+			{
+				pos = current.counter;
+				current.counter += list.limit();
+				current.tn += list.limit() / TRIANGLE_SIZE_DISPATCHED;
+			}
+			output.write(list, pos);
+			list.clear();
+		}
 	}
 
-	private static void addToCell(FileChannel fc, OEMM.Node current, Map<OEMM.Node, ByteBuffer> buffers, int [] ijk, int attribute)
-		throws IOException
+	/**
+	 * Destination of dispatched triangles.  Several threads can write
+	 * into disjoint regions, each thread must call {@link #duplicate}
+	 * to get its own instance.
+	 */
+	private static abstract class DispatchOutput
 	{
-		assert current.counter <= fc.size();
-		//  With 20 millions of triangles, unbuffered output took 420s
-		//  and buffered output 180s (4K buffer cache)
-		ByteBuffer list = buffers.get(current);
-		if (list == null)
-		{
-			//  Must be a multiple of 10!
-			list = ByteBuffer.allocate(4000);
-			buffers.put(current, list);
-			list.putLong(current.counter);
-			list.flip();
-			fc.write(list, current.counter);
-			current.counter += list.limit();
-			list.clear();
+		/**
+		 * Writes remaining bytes of a buffer at a given position.
+		 */
+		abstract void write(ByteBuffer src, long position) throws IOException;
+		abstract DispatchOutput duplicate();
+	}
+
+	private static final class ChannelOutput extends DispatchOutput
+	{
+		private final FileChannel fc;
+		ChannelOutput(FileChannel channel)
+		{
+			fc = channel;
 		}
-		else if (!list.hasRemaining())
+		@Override
+		void write(ByteBuffer src, long position) throws IOException
 		{
-			// Flush buffer
-			list.flip();
-			fc.write(list, current.counter);
-			current.counter += list.limit();
-			list.clear();
+			assert position + src.remaining() <= fc.size();
+			long pos = position;
+			while (src.hasRemaining())
+				pos += fc.write(src, pos);
+		}
+		@Override
+		DispatchOutput duplicate()
+		{
+			return this;
+		}
+	}
+
+	/**
+	 * Writes into a file mapped by segments, because a mapped buffer
+	 * cannot be larger than 2GB.
+	 */
+	private static final class MappedOutput extends DispatchOutput
+	{
+		private static final long SEGMENT_MASK = (1L << MAPPED_SEGMENT_SHIFT) - 1L;
+		//  Each instance has its own views, because buffer positions
+		//  are modified when writing.
+		private final ByteBuffer [] segments;
+		MappedOutput(FileChannel fc, long size) throws IOException
+		{
+			int nrSegments = (int) ((size + SEGMENT_MASK) >> MAPPED_SEGMENT_SHIFT);
+			segments = new ByteBuffer[nrSegments];
+			for (int i = 0; i < nrSegments; i++)
+			{
+				long start = ((long) i) << MAPPED_SEGMENT_SHIFT;
+				MappedByteBuffer mbb = fc.map(FileChannel.MapMode.READ_WRITE, start, Math.min(SEGMENT_MASK + 1L, size - start));
+				segments[i] = mbb;
+			}
+		}
+		private MappedOutput(MappedOutput that)
+		{
+			segments = new ByteBuffer[that.segments.length];
+			for (int i = 0; i < segments.length; i++)
+				segments[i] = that.segments[i].duplicate();
+		}
+		@Override
+		void write(ByteBuffer src, long position)
+		{
+			long pos = position;
+			int limit = src.limit();
+			while (src.hasRemaining())
+			{
+				ByteBuffer dst = segments[(int) (pos >> MAPPED_SEGMENT_SHIFT)];
+				dst.clear();
+				dst.position((int) (pos & SEGMENT_MASK));
+				int nr = Math.min(src.remaining(), dst.remaining());
+				src.limit(src.position() + nr);
+				dst.put(src);
+				src.limit(limit);
+				pos += nr;
+			}
+		}
+		@Override
+		DispatchOutput duplicate()
+		{
+			return new MappedOutput(this);
 		}
-		for (int i = 0; i < ijk.length; i++)
-			list.putInt(ijk[i]);
-		list.putInt(attribute);
-		current.tn++;
 	}
 	
 	private static final class ComputeOffsetProcedure extends TraversalProcedure
 	{
 		private long offset = 0L;
+		//  Number of triangles of each leaf
+		private final TIntArrayList counts = new TIntArrayList();
 		ComputeOffsetProcedure()
 		{
 		}
@@ -418,6 +849,7 @@ public class RawStorage
 				return OK;
 			current.counter = offset;
 			offset += 8L + TRIANGLE_SIZE_DISPATCHED * (long) current.tn;
+			counts.add(current.tn);
 			//  Reinitialize this counter for further processing
 			current.tn = 0;
 			return OK;
@@ -426,11 +858,16 @@ public class RawStorage
 		{
 			return offset;
 		}
+		TIntArrayList getTriangleCounts()
+		{
+			return counts;
+		}
 		@Override
 		public void init(OEMM oemm)
 		{
 			super.init(oemm);
 			offset = 0L;
+			counts.clear();
 		}
 	}
 	
@@ -456,49 +893,37 @@ public class RawStorage
 		}
 	}
 	
-	private static final class FlushBuffersProcedure extends TraversalProcedure
+	/**
+	 * Writes block offset at the beginning of each block, so that
+	 * triangles can then be written in any order.
+	 */
+	private static final class WriteHeadersProcedure extends TraversalProcedure
 	{
-		private final FileChannel fc;
-		private final Map<OEMM.Node, ByteBuffer> buffers;
-		FlushBuffersProcedure(FileChannel channel, Map<OEMM.Node, ByteBuffer> m)
+		private final DispatchOutput output;
+		private final ByteBuffer bbpos = ByteBuffer.allocate(8);
+		WriteHeadersProcedure(DispatchOutput out)
 		{
-			fc = channel;
-			buffers = m;
+			output = out;
 		}
 		@Override
 		public final int action(OEMM oemm, OEMM.Node current, int octant, int visit)
 		{
 			if (visit != LEAF)
 				return OK;
-			ByteBuffer list = buffers.get(current);
-			if (list == null)
-			{
-				list = ByteBuffer.allocate(8);
-				list.putLong(current.counter);
-				list.rewind();
-				try
-				{
-					assert current.counter <= fc.size();
-					fc.write(list, current.counter);
-				}
-				catch (IOException ex)
-				{
-					logger.severe("I/O error when writing file");
-				}
-				return OK;
-			}
-			// Flush buffer
+			bbpos.clear();
+			bbpos.putLong(current.counter);
+			bbpos.flip();
 			try
 			{
-				assert current.counter <= fc.size();
-				list.flip();
-				fc.write(list, current.counter);
-				current.counter += list.limit();
+				output.write(bbpos, current.counter);
 			}
 			catch (IOException ex)
 			{
 				logger.severe("I/O error when writing file");
+				ex.printStackTrace();
+				throw new RuntimeException(ex);
 			}
+			current.counter += 8L;
 			return OK;
 		}
 	}
@@ -566,7 +991,7 @@ public class RawStorage
 			int nrT = 0;
 			byte [] name = new byte[nrbytes+1];
 			bufIn.read(name, 0, nrbytes);
-			ret = new OEMM(new String(name));
+			ret = new OEMM(new String(name, 0, nrbytes));
 			ret.leaves = new OEMM.Node[nrleaves];
 			for (int i = 0; i < 4; i++)
 				ret.x0[i] = bufIn.readDouble();
@@ -587,7 +1012,7 @@ public class RawStorage
 				ret.leaves[i] = n;
 				nrT += n.tn;
 			}
-			// This value will be used by IndexInternalVerticesProcedure
+			// This value will be used to compute index ranges
 			ret.root.tn = nrT;
 			bufIn.close();
 		}
@@ -612,10 +1037,39 @@ public class RawStorage
 	 * @param outDir  directory in which OEMM structure will be stored.
 	 */
 	public static void indexOEMM(String structFile, String outDir)
+	{
+		indexOEMM(structFile, outDir, 1);
+	}
+
+	/**
+	 * Transforms dispatched file into an OEMM.  When several threads are
+	 * used, leaves are split into ranges which are indexed concurrently.
+	 * The resulting OEMM does not depend on the number of threads.
+	 *
+	 * @param structFile  dispatched file.
+	 * @param outDir  directory in which OEMM structure will be stored.
+	 * @param nrThreads  number of threads
+	 */
+	public static void indexOEMM(String structFile, String outDir, int nrThreads)
+	{
+		indexOEMM(structFile, outDir, nrThreads, OEMM.RAW_FORMAT);
+	}
+
+	/**
+	 * Transforms dispatched file into an OEMM with a given format of leaf
+	 * files.
+	 *
+	 * @param structFile  dispatched file.
+	 * @param outDir  directory in which OEMM structure will be stored.
+	 * @param nrThreads  number of threads
+	 * @param leafFormat  {@link OEMM#RAW_FORMAT} or {@link OEMM#COMPRESSED_FORMAT}
+	 */
+	public static void indexOEMM(String structFile, String outDir, int nrThreads, int leafFormat)
 	{
 		try
 		{
 			OEMM ret = readDispatchedStructure(structFile);
+			ret.setLeafFormat(leafFormat);
 			if (logger.isLoggable(Level.FINE))
 				ret.printInfos();
 			logger.info("Write octree cells onto disk");
@@ -628,27 +1082,66 @@ public class RawStorage
 			
 			//  Index internal vertices
 			logger.fine("Index internal vertices");
-			FileInputStream fis = new FileInputStream(ret.getFileName());
-			IndexInternalVerticesProcedure iiv_proc = new IndexInternalVerticesProcedure(fis, oos, outDir);
-			ret.walk(iiv_proc);
-			fis.close();
+			long startTime = System.currentTimeMillis();
+			ret.walk(new SetPathComponentsProcedure(outDir));
+			int nrLeaves = ret.getNumberOfLeaves();
+			int nrRanges = (nrThreads <= 1 ? 1 : 4 * nrThreads);
+			FileChannel fc = new FileInputStream(ret.getDirectory()).getChannel();
+			long dataSize = fc.size();
+			int [] tCount = new int[nrLeaves];
+			List<Callable<Object>> tasks = new ArrayList<Callable<Object>>(nrRanges);
+			for (int r = 0; r < nrRanges; r++)
+				tasks.add(new IndexInternalVerticesTask(ret, fc, outDir,
+					nrLeaves * r / nrRanges, nrLeaves * (r + 1) / nrRanges, tCount));
+			runTasks(tasks, nrThreads);
+			//  Leaves are stored in the same order as in
+			//  dispatched file, and index ranges are computed
+			//  in this order.
+			int room = (Integer.MAX_VALUE - 3*ret.root.tn) / nrLeaves;
+			int globalIndex = 0;
+			for (OEMM.Node current : ret.leaves)
+			{
+				current.minIndex = globalIndex;
+				current.maxIndex = globalIndex + current.vn + room - 1;
+				globalIndex += current.vn + room;
+				// tCount will be the number of triangles
+				// written onto disk, but we still need the
+				// old value.
+				int tn = current.tn;
+				current.tn = tCount[current.leafIndex];
+				oos.writeObject(current);
+				current.tn = tn;
+			}
 			oos.close();
+			SpatialIndex.write(ret, outDir);
+			logThroughput("Internal vertices indexed", dataSize, startTime);
 			
 			//  Index external vertices
 			logger.fine("Index external vertices");
-			fis = new FileInputStream(ret.getFileName());
+			startTime = System.currentTimeMillis();
 			//  We have a handle on triangle soup, which will be
 			//  no more read, we can now set output diirectory
 			//  to its final value.
 			ret.setDirectory(outDir);
-			IndexExternalVerticesProcedure iev_proc = new IndexExternalVerticesProcedure(fis);
-			ret.walk(iev_proc);
-			fis.close();
+			tasks.clear();
+			for (int r = 0; r < nrRanges; r++)
+				tasks.add(new IndexExternalVerticesTask(ret, fc,
+					nrLeaves * r / nrRanges, nrLeaves * (r + 1) / nrRanges));
+			runTasks(tasks, nrThreads);
+			fc.close();
+			int nrLoadedLeaves = 0;
+			for (Callable<Object> task : tasks)
+				nrLoadedLeaves += ((IndexExternalVerticesTask) task).getNumberOfLoadedLeaves();
+			logger.fine("Total number of leaves loaded: "+nrLoadedLeaves);
+			logThroughput("External vertices indexed", dataSize, startTime);
 			
 			//  Transform vertex coordinates into doubles
 			logger.fine("Transform vertex coordinates into doubles");
-			ConvertVertexCoordinatesProcedure cvc_proc = new ConvertVertexCoordinatesProcedure();
-			ret.walk(cvc_proc);
+			tasks.clear();
+			for (int r = 0; r < nrRanges; r++)
+				tasks.add(new ConvertVertexCoordinatesTask(ret,
+					nrLeaves * r / nrRanges, nrLeaves * (r + 1) / nrRanges));
+			runTasks(tasks, nrThreads);
 			
 			//ShowIndexedNodesProcedure debug = new ShowIndexedNodesProcedure();
 			//ret.walk(debug);
@@ -667,26 +1160,16 @@ public class RawStorage
 		}
 	}
 	
-	private static class IndexInternalVerticesProcedure extends TraversalProcedure
+	/**
+	 * Creates output directories and sets file names of leaves.
+	 */
+	private static final class SetPathComponentsProcedure extends TraversalProcedure
 	{
-		private final FileChannel fc;
-		private final ObjectOutputStream oos;
 		private final String outDir;
-		private int globalIndex = 0;
 		private final ArrayList<String> path = new ArrayList<String>();
-		private final int [] ijk = new int[3];
-		private int room = 0;
-		IndexInternalVerticesProcedure(FileInputStream in, ObjectOutputStream headerOut, String dir)
+		SetPathComponentsProcedure(String dir)
 		{
-			fc = in.getChannel();
 			outDir = dir;
-			oos = headerOut;
-		}
-		@Override
-		public void init(OEMM oemm)
-		{
-			super.init(oemm);
-			room = (Integer.MAX_VALUE - 3*oemm.root.tn) / oemm.getNumberOfLeaves();
 		}
 		@Override
 		public final int action(OEMM oemm, OEMM.Node current, int octant, int visit)
@@ -703,12 +1186,6 @@ public class RawStorage
 				path.add(""+octant);
 				return OK;
 			}
-			
-			if (logger.isLoggable(Level.FINE))
-				logger.fine("Indexing internal vertices of node "+(current.leafIndex+1)+"/"+oemm.getNumberOfLeaves());
-			ijk[0] = current.i0;
-			ijk[1] = current.j0;
-			ijk[2] = current.k0;
 			if (path.size() > 0)
 			{
 				StringBuilder sbdir = new StringBuilder(path.get(0));
@@ -724,29 +1201,77 @@ public class RawStorage
 				new File(outDir).mkdirs();
 				current.setPathComponents(null, octant);
 			}
-			PAVLTreeIntArrayDup inner = new PAVLTreeIntArrayDup();
-			PAVLTreeIntArrayDup outer = new PAVLTreeIntArrayDup();
+			return OK;
+		}
+	}
+
+	/**
+	 * Indexes internal vertices of a range of leaves.  For each leaf,
+	 * this task computes its number of internal vertices and its adjacent
+	 * leaves, and the number of triangles which will be stored in this
+	 * leaf is stored into <code>tCount</code>.  Index ranges are not
+	 * computed here because they depend on previous leaves.
+	 */
+	private static final class IndexInternalVerticesTask implements Callable<Object>
+	{
+		private final OEMM oemm;
+		private final FileChannel fc;
+		private final String outDir;
+		private final int start;
+		private final int end;
+		private final int [] tCount;
+		private final int [] ijk = new int[3];
+		private final ByteBuffer bb = ByteBuffer.allocate(bufferSize);
+		private final ByteBuffer bbt = ByteBuffer.allocate(bufferSize);
+		private final ByteBuffer bbpos = ByteBuffer.allocate(8);
+		private final IntTripletMap inner = newIntTripletMap(0);
+		private final IntTripletMap outer = newIntTripletMap(0);
+		IndexInternalVerticesTask(OEMM oemm, FileChannel in, String dir, int start, int end, int [] tCount)
+		{
+			this.oemm = oemm;
+			fc = in;
+			outDir = dir;
+			this.start = start;
+			this.end = end;
+			this.tCount = tCount;
+		}
+		public Object call()
+		{
+			for (int i = start; i < end; i++)
+			{
+				OEMM.Node current = oemm.leaves[i];
+				assert current.leafIndex == i;
+				if (logger.isLoggable(Level.FINE))
+					logger.fine("Indexing internal vertices of node "+(current.leafIndex+1)+"/"+oemm.getNumberOfLeaves());
+				tCount[i] = indexInternalVertices(current);
+			}
+			return null;
+		}
+		private int indexInternalVertices(OEMM.Node current)
+		{
+			inner.clear();
+			outer.clear();
 			int nrExternal = 0;
 			int nrDuplicates = 0;
 			int index = 0;
 			int fakeIndex = 0;
+			int tCount = 0;
 			TIntHashSet [] localAdjSet = new TIntHashSet[3*current.tn];
 			//  Leaves have less than 256 neighbors
 			TIntHashSet set = new TIntHashSet(256);
-			current.adjLeaves = new TIntArrayList(20);
 			try
 			{
 				int [] leaf = new int[3];
 				int [] pointIndex = new int[3];
-				fc.position(current.counter);
-				bbpos.rewind();
-				fc.read(bbpos);
+				long position = current.counter;
+				bbpos.clear();
+				readFully(fc, bbpos, position);
 				bbpos.flip();
 				long pos = bbpos.getLong();
 				assert pos == current.counter : ""+pos+" != "+current.counter;
+				position += 8L;
 				bb.clear();
 				IntBuffer bbI = bb.asIntBuffer();
-				int tCount = 0;
 				int remaining = current.tn;
 				// In this first loop, vertices are read from
 				// intermediate OEMM file.  Internal vertices
@@ -759,8 +1284,9 @@ public class RawStorage
 				IntBuffer bbtI = bbt.asIntBuffer();
 				for (int nblock = (remaining * TRIANGLE_SIZE_DISPATCHED) / bufferSize; nblock >= 0; --nblock)
 				{
-					bb.rewind();
-					fc.read(bb);
+					bb.clear();
+					readFully(fc, bb, position);
+					position += bufferSize;
 					bbI.rewind();
 					bbtI.rewind();
 					int nf = bufferSize / TRIANGLE_SIZE_DISPATCHED;
@@ -814,11 +1340,7 @@ public class RawStorage
 							{
 								if (i == j || leaf[j] == current.leafIndex)
 									continue;
-								if (!set.contains(leaf[j]))
-								{
-									set.add(leaf[j]);
-									current.adjLeaves.add(leaf[j]);
-								}
+								set.add(leaf[j]);
 								localAdjSet[pointIndex[i]].add(leaf[j]);
 							}
 						}
@@ -835,9 +1357,6 @@ public class RawStorage
 
 				//  Adjust data information
 				current.vn = index;
-				current.minIndex = globalIndex;
-				current.maxIndex = globalIndex + current.vn + room - 1;
-				globalIndex += index + room;
 				
 				current.adjLeaves = new TIntArrayList(set.size());
 				TIntIntHashMap invMap = new TIntIntHashMap(set.size());
@@ -849,15 +1368,8 @@ public class RawStorage
 					invMap.put(ind, cnt);
 					cnt++;
 				}
-				// tCount will be the number of triangles
-				// written onto disk, but we still need the
-				// old value.
-				int tn = current.tn;
-				current.tn = tCount;
-				oos.writeObject(current);
-				current.tn = tn;
 				
-				FileChannel fca = new FileOutputStream(new File(outDir, current.file+"a")).getChannel();
+				WritableByteChannel fca = Channels.newChannel(Storage.newLeafOutputStream(oemm, current, new File(outDir, current.file+"a"), 'a'));
 				bb.clear();
 				//  Inner vertices of this node
 				int freeSpace = bb.capacity();
@@ -891,67 +1403,85 @@ public class RawStorage
 			logger.fine("number of internal vertices: "+index);
 			logger.fine("number of external vertices: "+nrExternal);
 			logger.fine("number of duplicated vertices: "+nrDuplicates);
-			return OK;
+			return tCount;
 		}
 	}
 	
-	private static class IndexExternalVerticesProcedure extends TraversalProcedure
+	/**
+	 * Writes indexed triangles of a range of leaves.  Internal vertices of
+	 * leaves are cached by soft references, each task has its own cache.
+	 */
+	private static final class IndexExternalVerticesTask implements Callable<Object>
 	{
+		private final OEMM oemm;
 		private final FileChannel fc;
+		private final int start;
+		private final int end;
 		private final int [] ijk = new int[3];
-		private PAVLTreeIntArrayDup [] vertices;
-		private SoftReference<PAVLTreeIntArrayDup> [] sr;
+		private final ByteBuffer bb = ByteBuffer.allocate(bufferSize);
+		private final ByteBuffer bbt = ByteBuffer.allocate(bufferSize);
+		private final ByteBuffer bbpos = ByteBuffer.allocate(8);
+		private final IntTripletMap [] vertices;
+		private final SoftReference<IntTripletMap> [] sr;
 		private int nr_ld_leaves = 0;
-		IndexExternalVerticesProcedure(FileInputStream in)
+		@SuppressWarnings("unchecked")
+		IndexExternalVerticesTask(OEMM oemm, FileChannel in, int start, int end)
 		{
-			fc = in.getChannel();
+			this.oemm = oemm;
+			fc = in;
+			this.start = start;
+			this.end = end;
+			vertices = new IntTripletMap[oemm.getNumberOfLeaves()];
+			sr = new SoftReference[vertices.length];
 		}
-		@Override
-		public void init(OEMM oemm)
+		public Object call()
 		{
-			vertices = new PAVLTreeIntArrayDup[oemm.getNumberOfLeaves()];
-			sr = new SoftReference[vertices.length];
+			for (int i = start; i < end; i++)
+			{
+				OEMM.Node current = oemm.leaves[i];
+				if (logger.isLoggable(Level.FINE))
+					logger.fine("Indexing external vertices of node "+(current.leafIndex+1)+"/"+oemm.getNumberOfLeaves());
+				processIndexExternalVertices(current);
+			}
+			return null;
 		}
-		@Override
-		public final int action(OEMM oemm, OEMM.Node current, int octant, int visit)
+
+		int getNumberOfLoadedLeaves()
 		{
-			if (visit != LEAF)
-				return OK;
-			if (logger.isLoggable(Level.FINE))
-				logger.fine("Indexing external vertices of node "+(current.leafIndex+1)+"/"+oemm.getNumberOfLeaves());
-			return processIndexExternalVerticesProcedure(oemm, current);
+			return nr_ld_leaves;
 		}
 
-		private void loadVerticesFromCache(OEMM oemm, int i)
+		private void loadVerticesFromCache(int i)
 		{
 			assert vertices[i] == null;
 			if (sr[i] != null)
 				vertices[i] = sr[i].get();
 			if (vertices[i] == null)
 			{
-				vertices[i] = loadVerticesInAVLTreeDup(oemm.getDirectory(), oemm.leaves[i]);
-				sr[i] = new SoftReference<PAVLTreeIntArrayDup>(vertices[i]); 
+				vertices[i] = loadVertices(oemm.getDirectory(), oemm.leaves[i], bb);
+				sr[i] = new SoftReference<IntTripletMap>(vertices[i]);
 				nr_ld_leaves++;
 			}
 		}
 
-		private int processIndexExternalVerticesProcedure(OEMM oemm, OEMM.Node current)
+		private void processIndexExternalVertices(OEMM.Node current)
 		{
-			loadVerticesFromCache(oemm, current.leafIndex);
+			loadVerticesFromCache(current.leafIndex);
 			for (int i = 0; i < current.adjLeaves.size(); i++)
-				loadVerticesFromCache(oemm, current.adjLeaves.get(i));
+				loadVerticesFromCache(current.adjLeaves.get(i));
 			
 			try
 			{
 				int [] leaf = new int[3];
 				int [] pointIndex = new int[3];
-				fc.position(current.counter);
-				bbpos.rewind();
-				fc.read(bbpos);
+				long position = current.counter;
+				bbpos.clear();
+				readFully(fc, bbpos, position);
 				bbpos.flip();
 				long pos = bbpos.getLong();
 				assert pos == current.counter : ""+pos+" != "+current.counter;
-				FileChannel fct = new FileOutputStream(new File(oemm.getDirectory(), current.file+"t")).getChannel();
+				position += 8L;
+				WritableByteChannel fct = Channels.newChannel(Storage.newLeafOutputStream(oemm, current, new File(oemm.getDirectory(), current.file+"t"), 't'));
 				bb.clear();
 				IntBuffer bbI = bb.asIntBuffer();
 				bbt.clear();
@@ -962,8 +1492,9 @@ public class RawStorage
 				// value.
 				for (int nblock = (remaining * TRIANGLE_SIZE_DISPATCHED) / bufferSize; nblock >= 0; --nblock)
 				{
-					bb.rewind();
-					fc.read(bb);
+					bb.clear();
+					readFully(fc, bb, position);
+					position += bufferSize;
 					bbI.rewind();
 					int nf = bufferSize / TRIANGLE_SIZE_DISPATCHED;
 					if (remaining < nf)
@@ -1010,34 +1541,41 @@ public class RawStorage
 			vertices[current.leafIndex] = null;
 			for (int i = 0; i < current.adjLeaves.size(); i++)
 				vertices[current.adjLeaves.get(i)] = null;
-			return OK;
-		}
-		@Override
-		public void finish(OEMM oemm)
-		{
-			logger.fine("Total number of leaves loaded: "+nr_ld_leaves);
 		}
 	}
 	
-	private static class ConvertVertexCoordinatesProcedure extends TraversalProcedure
+	private static final class ConvertVertexCoordinatesTask implements Callable<Object>
 	{
+		private final OEMM oemm;
+		private final int start;
+		private final int end;
 		private final int [] ijk = new int[3];
 		private final double [] xyz = new double[3];
-		ConvertVertexCoordinatesProcedure()
+		private final ByteBuffer bb = ByteBuffer.allocate(bufferSize);
+		private final ByteBuffer bbt = ByteBuffer.allocate(bufferSize);
+		ConvertVertexCoordinatesTask(OEMM oemm, int start, int end)
 		{
+			this.oemm = oemm;
+			this.start = start;
+			this.end = end;
 		}
-		@Override
-		public final int action(OEMM oemm, OEMM.Node current, int octant, int visit)
+		public Object call()
+		{
+			for (int i = start; i < end; i++)
+			{
+				OEMM.Node current = oemm.leaves[i];
+				if (logger.isLoggable(Level.FINE))
+					logger.fine("Converting coordinates of node "+(current.leafIndex+1)+"/"+oemm.getNumberOfLeaves());
+				convertVertexCoordinates(current);
+			}
+			return null;
+		}
+		private void convertVertexCoordinates(OEMM.Node current)
 		{
-			if (visit != LEAF)
-				return OK;
-			if (logger.isLoggable(Level.FINE))
-				logger.fine("Converting coordinates of node "+(current.leafIndex+1)+"/"+oemm.getNumberOfLeaves());
-			
 			try
 			{
 				FileChannel fci = new FileInputStream(new File(oemm.getDirectory(), current.file+"i")).getChannel();
-				FileChannel fco = new FileOutputStream(new File(oemm.getDirectory(), current.file+"v")).getChannel();
+				WritableByteChannel fco = Channels.newChannel(Storage.newLeafOutputStream(oemm, current, new File(oemm.getDirectory(), current.file+"v"), 'v'));
 				bb.clear();
 				IntBuffer bbI = bb.asIntBuffer();
 				bbt.clear();
@@ -1075,13 +1613,27 @@ public class RawStorage
 				ex.printStackTrace();
 				throw new RuntimeException(ex);
 			}
-			return OK;
 		}
 	}
 	
-	private static PAVLTreeIntArrayDup loadVerticesInAVLTreeDup(String outDir, OEMM.Node current)
+	/**
+	 * Returns an empty map to remove duplicate vertices.
+	 *
+	 * @param expected  expected number of vertices, or 0 if unknown
+	 */
+	private static IntTripletMap newIntTripletMap(int expected)
+	{
+		if (Boolean.getBoolean(AVL_VERTEX_INDEX_PROPERTY))
+			return new PAVLTreeIntArrayDup();
+		else if (expected > 0)
+			return new HashIntArrayDup(expected);
+		else
+			return new HashIntArrayDup();
+	}
+
+	private static IntTripletMap loadVertices(String outDir, OEMM.Node current, ByteBuffer bb)
 	{
-		PAVLTreeIntArrayDup ret = new PAVLTreeIntArrayDup();
+		IntTripletMap ret = newIntTripletMap(current.vn);
 		int [] ijk = new int[3];
 		try
 		{
@@ -1118,4 +1670,61 @@ public class RawStorage
 		return ret;
 	}
 	
+	private static void logThroughput(String step, long bytes, long startTime)
+	{
+		long time = Math.max(1L, System.currentTimeMillis() - startTime);
+		logger.info(step+" in "+time+" ms, "+(bytes * 1000L / 1048576L / time)+" MB/s");
+	}
+
+	/**
+	 * Runs tasks with a given number of threads.  With a single thread,
+	 * tasks are run sequentially by current thread.
+	 */
+	private static void runTasks(List<Callable<Object>> tasks, int nrThreads)
+	{
+		if (nrThreads <= 1)
+		{
+			for (Callable<Object> c : tasks)
+			{
+				try
+				{
+					c.call();
+				}
+				catch (RuntimeException ex)
+				{
+					throw ex;
+				}
+				catch (Exception ex)
+				{
+					throw new RuntimeException(ex);
+				}
+			}
+			return;
+		}
+		ExecutorService executor = Executors.newFixedThreadPool(nrThreads);
+		try
+		{
+			for (Future<Object> f : executor.invokeAll(tasks))
+				f.get();
+		}
+		catch (InterruptedException ex)
+		{
+			Thread.currentThread().interrupt();
+			throw new RuntimeException(ex);
+		}
+		catch (ExecutionException ex)
+		{
+			Throwable cause = ex.getCause();
+			if (cause instanceof RuntimeException)
+				throw (RuntimeException) cause;
+			if (cause instanceof Error)
+				throw (Error) cause;
+			throw new RuntimeException(cause);
+		}
+		finally
+		{
+			executor.shutdown();
+		}
+	}
+
 }
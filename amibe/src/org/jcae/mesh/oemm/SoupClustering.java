@@ -0,0 +1,454 @@
+/* jCAE stand for Java Computer Aided Engineering. Features are : Small CAD
+   modeler, Finite element mesher, Plugin architecture.
+
+    Copyright (C) 2011, by EADS France
+
+    This library is free software; you can redistribute it and/or
+    modify it under the terms of the GNU Lesser General Public
+    License as published by the Free Software Foundation; either
+    version 2.1 of the License, or (at your option) any later version.
+
+    This library is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+    Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public
+    License along with this library; if not, write to the Free Software
+    Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA */
+
+package org.jcae.mesh.oemm;
+
+import org.jcae.mesh.xmldata.AmibeWriter;
+import gnu.trove.TIntArrayList;
+import gnu.trove.TIntIntHashMap;
+import gnu.trove.TLongIntHashMap;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Simplifies a triangle soup by vertex clustering.  Space is divided into
+ * a uniform grid, all vertices of a cell are merged into a single vertex and
+ * triangles which do not degenerate are kept.  This is much faster than
+ * {@link org.jcae.mesh.amibe.algos3d.QEMDecimateHalfEdge} and is intended
+ * to get a preview of very large meshes.
+ * <p>
+ * The soup is read by {@link RawStorage#readSoup}, once to compute its
+ * bounding box if the grid is given by its number of cells, and once to
+ * cluster vertices.  For each non empty cell, quadric error of adjacent
+ * triangles is accumulated, and the vertex of this cell is placed at the
+ * point which minimizes this error.  Data are stored in primitive maps
+ * indexed by cells and output triangles, so memory usage depends on the
+ * size of the simplified mesh, and not on the size of the soup.
+ * </p>
+ * Cell indices are encoded on 21 bits, so the grid cannot have more than
+ * 2<sup>21</sup> cells along an axis, and simplified mesh cannot have more
+ * than 2<sup>21</sup> vertices.
+ */
+public class SoupClustering
+{
+	private static final Logger logger=Logger.getLogger(SoupClustering.class.getName());
+	private static final int MAX_CELLS = 1 << 21;
+	// Number of doubles stored by cell: quadric (A as a symmetric
+	// matrix, b and c), sum of vertex coordinates and number of vertices
+	private static final int CELL_SIZE = 14;
+
+	private final String soupFile;
+	private int nrCells = 0;
+	private double cellSize = 0.0;
+	private final double [] origin = new double[3];
+
+	private final TLongIntHashMap cellIndex = new TLongIntHashMap();
+	private double [] cellData = new double[CELL_SIZE * 1024];
+	private final TLongIntHashMap triangleIndex = new TLongIntHashMap();
+	private final TIntArrayList triangles = new TIntArrayList();
+	private final TIntArrayList groups = new TIntArrayList();
+	private long nrInputTriangles = 0L;
+
+	/**
+	 * Creates a <code>SoupClustering</code> instance.
+	 *
+	 * @param soupFile  triangle soup file name
+	 */
+	public SoupClustering(String soupFile)
+	{
+		this.soupFile = soupFile;
+	}
+
+	/**
+	 * Sets the number of cells along the largest dimension of the
+	 * bounding box.  Soup is read once more to compute its bounding box.
+	 *
+	 * @param n  number of cells
+	 */
+	public void setNumberOfCells(int n)
+	{
+		if (n <= 0 || n >= MAX_CELLS)
+			throw new IllegalArgumentException("Invalid number of cells: "+n);
+		nrCells = n;
+		cellSize = 0.0;
+	}
+
+	/**
+	 * Sets cell size.  Grid origin is at (0, 0, 0), soup is read only once.
+	 *
+	 * @param size  cell size
+	 */
+	public void setCellSize(double size)
+	{
+		if (size <= 0.0)
+			throw new IllegalArgumentException("Invalid cell size: "+size);
+		cellSize = size;
+		nrCells = 0;
+		Arrays.fill(origin, - 0.5 * MAX_CELLS * size);
+	}
+
+	/**
+	 * Reads the soup and clusters its vertices.
+	 */
+	public void compute()
+	{
+		if (nrCells > 0)
+		{
+			long t0 = System.currentTimeMillis();
+			BoundingBox bbox = new BoundingBox();
+			RawStorage.readSoup(soupFile, bbox);
+			double maxSize = 0.0;
+			for (int i = 0; i < 3; i++)
+				maxSize = Math.max(maxSize, bbox.upper[i] - bbox.lower[i]);
+			if (maxSize <= 0.0)
+				maxSize = 1.0;
+			cellSize = maxSize / nrCells;
+			// Vertices on upper bounds are put into the last cell
+			cellSize *= 1.0 + 1.e-10;
+			System.arraycopy(bbox.lower, 0, origin, 0, 3);
+			logger.info("Bounding box computed in "+(System.currentTimeMillis() - t0)+" ms, cell size: "+cellSize);
+		}
+		if (cellSize <= 0.0)
+			throw new IllegalStateException("Cell size or number of cells must be set");
+		long t0 = System.currentTimeMillis();
+		RawStorage.readSoup(soupFile, new Clustering());
+		logger.info("Number of triangles: "+nrInputTriangles+" -> "+getNumberOfTriangles()+
+			", number of vertices: "+getNumberOfVertices()+
+			", clustering time: "+(System.currentTimeMillis() - t0)+" ms");
+	}
+
+	/**
+	 * Returns the number of triangles of the soup.
+	 *
+	 * @return the number of triangles of the soup
+	 */
+	public long getNumberOfInputTriangles()
+	{
+		return nrInputTriangles;
+	}
+
+	/**
+	 * Returns the number of vertices of the simplified mesh.
+	 *
+	 * @return the number of vertices of the simplified mesh
+	 */
+	public int getNumberOfVertices()
+	{
+		return cellIndex.size();
+	}
+
+	/**
+	 * Returns the number of triangles of the simplified mesh.
+	 *
+	 * @return the number of triangles of the simplified mesh
+	 */
+	public int getNumberOfTriangles()
+	{
+		return groups.size();
+	}
+
+	/**
+	 * Returns vertex coordinates of the simplified mesh.
+	 *
+	 * @return an array of size <code>3*getNumberOfVertices()</code>
+	 */
+	public double [] getCoordinates()
+	{
+		int nrV = getNumberOfVertices();
+		double [] ret = new double[3*nrV];
+		double [] xyz = new double[3];
+		for (int v = 0; v < nrV; v++)
+		{
+			computeVertex(v, xyz);
+			System.arraycopy(xyz, 0, ret, 3*v, 3);
+		}
+		return ret;
+	}
+
+	/**
+	 * Returns triangles of the simplified mesh.
+	 *
+	 * @return an array of size <code>3*getNumberOfTriangles()</code>
+	 *         containing vertex indices
+	 */
+	public int [] getTriangles()
+	{
+		return triangles.toNativeArray();
+	}
+
+	/**
+	 * Returns triangle groups of the simplified mesh.
+	 *
+	 * @return an array of size <code>getNumberOfTriangles()</code>
+	 */
+	public int [] getGroups()
+	{
+		return groups.toNativeArray();
+	}
+
+	/**
+	 * Writes simplified mesh into an Amibe directory.  Groups of the
+	 * soup are kept, group names are their numbers.
+	 *
+	 * @param outputDir  output directory
+	 */
+	public void writeAmibe(String outputDir)
+	{
+		try
+		{
+			AmibeWriter.Dim3 out = new AmibeWriter.Dim3(outputDir);
+			double [] xyz = new double[3];
+			for (int v = 0, n = getNumberOfVertices(); v < n; v++)
+			{
+				computeVertex(v, xyz);
+				out.addNode(xyz);
+			}
+			int nrT = getNumberOfTriangles();
+			for (int t = 0; t < nrT; t++)
+				out.addTriangle(triangles.get(3*t), triangles.get(3*t+1), triangles.get(3*t+2));
+			// Sort triangles by group
+			TIntIntHashMap groupIndex = new TIntIntHashMap();
+			TIntArrayList groupIds = new TIntArrayList();
+			TIntArrayList counts = new TIntArrayList();
+			for (int t = 0; t < nrT; t++)
+			{
+				int group = groups.get(t);
+				if (!groupIndex.containsKey(group))
+				{
+					groupIndex.put(group, groupIds.size());
+					groupIds.add(group);
+					counts.add(0);
+				}
+				int g = groupIndex.get(group);
+				counts.set(g, counts.get(g) + 1);
+			}
+			int [] offsets = new int[groupIds.size() + 1];
+			for (int g = 0; g < groupIds.size(); g++)
+				offsets[g+1] = offsets[g] + counts.get(g);
+			int [] sorted = new int[nrT];
+			for (int t = 0; t < nrT; t++)
+			{
+				int g = groupIndex.get(groups.get(t));
+				sorted[offsets[g]] = t;
+				offsets[g]++;
+			}
+			int start = 0;
+			for (int g = 0; g < groupIds.size(); g++)
+			{
+				out.nextGroup(Integer.toString(groupIds.get(g)));
+				for (int i = start; i < offsets[g]; i++)
+					out.addTriaToGroup(sorted[i]);
+				start = offsets[g];
+			}
+			out.finish();
+		}
+		catch (IOException ex)
+		{
+			logger.log(Level.SEVERE, "I/O error when writing mesh into "+outputDir, ex);
+			throw new RuntimeException(ex);
+		}
+	}
+
+	/**
+	 * Returns the index of the cell containing a point, a new cell is
+	 * created if needed.
+	 */
+	private int getCell(double [] xyz)
+	{
+		long key = 0L;
+		for (int i = 0; i < 3; i++)
+		{
+			long c = (long) ((xyz[i] - origin[i]) / cellSize);
+			if (c < 0L || c >= MAX_CELLS)
+				throw new RuntimeException("Vertex ("+xyz[0]+", "+xyz[1]+", "+xyz[2]+") is outside of the grid, cell size is too small");
+			key = (key << 21) | c;
+		}
+		if (cellIndex.containsKey(key))
+			return cellIndex.get(key);
+		int ret = cellIndex.size();
+		if (ret >= MAX_CELLS)
+			throw new RuntimeException("Too many vertices in simplified mesh, cell size is too small");
+		cellIndex.put(key, ret);
+		if (CELL_SIZE * (ret + 1) > cellData.length)
+		{
+			double [] newData = new double[2 * cellData.length];
+			System.arraycopy(cellData, 0, newData, 0, cellData.length);
+			cellData = newData;
+		}
+		return ret;
+	}
+
+	/**
+	 * Adds the quadric of a triangle to a cell.
+	 */
+	private void addQuadric(int cell, double [] normal, double d, double area, double [] xyz)
+	{
+		int offset = CELL_SIZE * cell;
+		cellData[offset]   += area * normal[0] * normal[0];
+		cellData[offset+1] += area * normal[0] * normal[1];
+		cellData[offset+2] += area * normal[0] * normal[2];
+		cellData[offset+3] += area * normal[1] * normal[1];
+		cellData[offset+4] += area * normal[1] * normal[2];
+		cellData[offset+5] += area * normal[2] * normal[2];
+		cellData[offset+6] += area * d * normal[0];
+		cellData[offset+7] += area * d * normal[1];
+		cellData[offset+8] += area * d * normal[2];
+		cellData[offset+9] += area * d * d;
+		cellData[offset+10] += xyz[0];
+		cellData[offset+11] += xyz[1];
+		cellData[offset+12] += xyz[2];
+		cellData[offset+13] += 1.0;
+	}
+
+	/**
+	 * Computes the position of the vertex of a cell.  It minimizes the
+	 * quadric error, and a small regularization term pulls it towards
+	 * the average of clustered vertices, so that it is well defined when
+	 * triangles are coplanar.  Average is used if this point is too far
+	 * from the cell.
+	 */
+	private void computeVertex(int cell, double [] xyz)
+	{
+		int offset = CELL_SIZE * cell;
+		double [] q = cellData;
+		double count = q[offset+13];
+		double [] avg = new double[3];
+		for (int i = 0; i < 3; i++)
+			avg[i] = q[offset+10+i] / count;
+		double trace = q[offset] + q[offset+3] + q[offset+5];
+		double lambda = 1.e-3 * trace + Double.MIN_VALUE;
+		double a00 = q[offset]   + lambda;
+		double a01 = q[offset+1];
+		double a02 = q[offset+2];
+		double a11 = q[offset+3] + lambda;
+		double a12 = q[offset+4];
+		double a22 = q[offset+5] + lambda;
+		double b0 = lambda * avg[0] - q[offset+6];
+		double b1 = lambda * avg[1] - q[offset+7];
+		double b2 = lambda * avg[2] - q[offset+8];
+		double c00 = a11 * a22 - a12 * a12;
+		double c01 = a02 * a12 - a01 * a22;
+		double c02 = a01 * a12 - a02 * a11;
+		double det = a00 * c00 + a01 * c01 + a02 * c02;
+		if (Math.abs(det) <= 1.e-12 * lambda * lambda * lambda)
+		{
+			System.arraycopy(avg, 0, xyz, 0, 3);
+			return;
+		}
+		double c11 = a00 * a22 - a02 * a02;
+		double c12 = a01 * a02 - a00 * a12;
+		double c22 = a00 * a11 - a01 * a01;
+		xyz[0] = (c00 * b0 + c01 * b1 + c02 * b2) / det;
+		xyz[1] = (c01 * b0 + c11 * b1 + c12 * b2) / det;
+		xyz[2] = (c02 * b0 + c12 * b1 + c22 * b2) / det;
+		for (int i = 0; i < 3; i++)
+		{
+			if (Math.abs(xyz[i] - avg[i]) > cellSize)
+			{
+				System.arraycopy(avg, 0, xyz, 0, 3);
+				return;
+			}
+		}
+	}
+
+	private static final class BoundingBox implements RawStorage.SoupReaderInterface
+	{
+		private final double [] lower = new double[] { Double.MAX_VALUE, Double.MAX_VALUE, Double.MAX_VALUE };
+		private final double [] upper = new double[] { - Double.MAX_VALUE, - Double.MAX_VALUE, - Double.MAX_VALUE };
+
+		public void processVertex(int i, double [] xyz)
+		{
+			for (int k = 0; k < 3; k++)
+			{
+				if (xyz[k] < lower[k])
+					lower[k] = xyz[k];
+				if (xyz[k] > upper[k])
+					upper[k] = xyz[k];
+			}
+		}
+
+		public void processTriangle(int group)
+		{
+		}
+	}
+
+	private final class Clustering implements RawStorage.SoupReaderInterface
+	{
+		private final double [][] vertices = new double[3][3];
+		private final int [] cells = new int[3];
+		private final double [] vect1 = new double[3];
+		private final double [] vect2 = new double[3];
+		private final double [] normal = new double[3];
+
+		public void processVertex(int i, double [] xyz)
+		{
+			System.arraycopy(xyz, 0, vertices[i], 0, 3);
+		}
+
+		public void processTriangle(int group)
+		{
+			nrInputTriangles++;
+			for (int i = 0; i < 3; i++)
+				cells[i] = getCell(vertices[i]);
+			double [] p0 = vertices[0];
+			double [] p1 = vertices[1];
+			double [] p2 = vertices[2];
+			for (int k = 0; k < 3; k++)
+			{
+				vect1[k] = p1[k] - p0[k];
+				vect2[k] = p2[k] - p0[k];
+			}
+			normal[0] = vect1[1] * vect2[2] - vect1[2] * vect2[1];
+			normal[1] = vect1[2] * vect2[0] - vect1[0] * vect2[2];
+			normal[2] = vect1[0] * vect2[1] - vect1[1] * vect2[0];
+			double area = Math.sqrt(normal[0] * normal[0] + normal[1] * normal[1] + normal[2] * normal[2]);
+			double d = 0.0;
+			if (area > 0.0)
+			{
+				for (int k = 0; k < 3; k++)
+					normal[k] /= area;
+				d = - (normal[0] * p0[0] + normal[1] * p0[1] + normal[2] * p0[2]);
+			}
+			for (int i = 0; i < 3; i++)
+				addQuadric(cells[i], normal, d, area, vertices[i]);
+			if (cells[0] == cells[1] || cells[1] == cells[2] || cells[2] == cells[0])
+				return;
+			// Rotate vertices so that the first one has the lowest
+			// index, orientation is preserved
+			int first = 0;
+			if (cells[1] < cells[first])
+				first = 1;
+			if (cells[2] < cells[first])
+				first = 2;
+			int c0 = cells[first];
+			int c1 = cells[(first+1)%3];
+			int c2 = cells[(first+2)%3];
+			long key = ((long) c0 << 42) | ((long) c1 << 21) | c2;
+			if (triangleIndex.containsKey(key))
+				return;
+			triangleIndex.put(key, groups.size());
+			triangles.add(c0);
+			triangles.add(c1);
+			triangles.add(c2);
+			groups.add(group);
+		}
+	}
+}
@@ -0,0 +1,228 @@
+/* jCAE stand for Java Computer Aided Engineering. Features are : Small CAD
+   modeler, Finite element mesher, Plugin architecture.
+
+    Copyright (C) 2011, by EADS France
+
+    This library is free software; you can redistribute it and/or
+    modify it under the terms of the GNU Lesser General Public
+    License as published by the Free Software Foundation; either
+    version 2.1 of the License, or (at your option) any later version.
+
+    This library is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+    Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public
+    License along with this library; if not, write to the Free Software
+    Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA */
+
+package org.jcae.mesh.oemm;
+
+import gnu.trove.TIntArrayList;
+import gnu.trove.TIntHashSet;
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Compact spatial index of an OEMM on disk.  OEMM structure file is a
+ * serialized object and the whole octree must be deserialized before
+ * leaves can be selected.  This class writes next to it an index file
+ * containing octants in preorder, each octant being described by
+ * <ul>
+ *  <li>3 int: integer coordinates of its lower corner,</li>
+ *  <li>1 int: its size,</li>
+ *  <li>1 int: its leaf index, or -1 if it is not a leaf,</li>
+ *  <li>1 int: index of the next octant which is not one of its children.</li>
+ * </ul>
+ * This file is memory-mapped by {@link #open}, and spatial queries visit
+ * only octants which intersect the query region.
+ */
+public class SpatialIndex
+{
+	private static final Logger logger=Logger.getLogger(SpatialIndex.class.getName());
+
+	/**
+	 * Name of the index file in OEMM directory.
+	 */
+	public static final String FILE_NAME = "oemm.index";
+
+	private static final int MAGIC = 0x4f454d4d;
+	private static final int VERSION = 1;
+	// magic, version, x0, number of leaves and number of octants
+	private static final int HEADER_SIZE = 4 + 4 + 4 * 8 + 4 + 4;
+	private static final int RECORD_INTS = 6;
+
+	private final double [] x0 = new double[4];
+	private final int nrLeaves;
+	private final int nrNodes;
+	private final IntBuffer records;
+
+	private SpatialIndex(ByteBuffer bb)
+	{
+		if (bb.getInt() != MAGIC || bb.getInt() != VERSION)
+			throw new RuntimeException("Invalid OEMM index file");
+		for (int i = 0; i < 4; i++)
+			x0[i] = bb.getDouble();
+		nrLeaves = bb.getInt();
+		nrNodes = bb.getInt();
+		records = bb.slice().asIntBuffer();
+	}
+
+	/**
+	 * Opens the spatial index of an OEMM.  If this index does not exist,
+	 * OEMM structure is read and index file is created.
+	 *
+	 * @param dir  directory containing disk representation of an OEMM
+	 * @return spatial index
+	 */
+	public static SpatialIndex open(String dir)
+	{
+		File file = new File(dir, FILE_NAME);
+		if (!file.exists())
+			write(Storage.readOEMMStructure(dir), dir);
+		try
+		{
+			FileChannel fc = new FileInputStream(file).getChannel();
+			try
+			{
+				return new SpatialIndex(fc.map(FileChannel.MapMode.READ_ONLY, 0L, fc.size()));
+			}
+			finally
+			{
+				fc.close();
+			}
+		}
+		catch (IOException ex)
+		{
+			logger.log(Level.SEVERE, "I/O error when reading file "+file, ex);
+			throw new RuntimeException(ex);
+		}
+	}
+
+	/**
+	 * Writes the spatial index of an OEMM.
+	 *
+	 * @param oemm  OEMM instance
+	 * @param dir  output directory
+	 */
+	static void write(OEMM oemm, String dir)
+	{
+		// Octants are stored in preorder, and index of the next
+		// octant is known in postorder.
+		final TIntArrayList values = new TIntArrayList(RECORD_INTS * oemm.getNumberOfLeaves());
+		oemm.walk(new TraversalProcedure()
+		{
+			private final TIntArrayList stack = new TIntArrayList();
+			@Override
+			public final int action(OEMM o, OEMM.Node current, int octant, int visit)
+			{
+				if (visit == POSTORDER)
+				{
+					int record = stack.remove(stack.size() - 1);
+					values.set(RECORD_INTS * record + 5, values.size() / RECORD_INTS);
+					return OK;
+				}
+				int record = values.size() / RECORD_INTS;
+				values.add(current.i0);
+				values.add(current.j0);
+				values.add(current.k0);
+				values.add(current.size);
+				values.add(visit == LEAF ? current.leafIndex : -1);
+				values.add(record + 1);
+				if (visit != LEAF)
+					stack.add(record);
+				return OK;
+			}
+		});
+		File file = new File(dir, FILE_NAME);
+		try
+		{
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+			try
+			{
+				out.writeInt(MAGIC);
+				out.writeInt(VERSION);
+				for (int i = 0; i < 4; i++)
+					out.writeDouble(oemm.x0[i]);
+				out.writeInt(oemm.getNumberOfLeaves());
+				out.writeInt(values.size() / RECORD_INTS);
+				for (int i = 0, n = values.size(); i < n; i++)
+					out.writeInt(values.get(i));
+			}
+			finally
+			{
+				out.close();
+			}
+		}
+		catch (IOException ex)
+		{
+			logger.log(Level.SEVERE, "I/O error when writing file "+file, ex);
+			throw new RuntimeException(ex);
+		}
+	}
+
+	/**
+	 * Returns the number of leaves.
+	 *
+	 * @return number of leaves
+	 */
+	public int getNumberOfLeaves()
+	{
+		return nrLeaves;
+	}
+
+	/**
+	 * Returns the number of octants, including leaves.
+	 *
+	 * @return number of octants
+	 */
+	public int getNumberOfNodes()
+	{
+		return nrNodes;
+	}
+
+	/**
+	 * Returns indices of leaves which intersect a region.
+	 *
+	 * @param query  region
+	 * @return set of leaf indices
+	 */
+	public TIntHashSet getLeaves(SpatialQuery query)
+	{
+		TIntHashSet ret = new TIntHashSet();
+		double [] lower = new double[3];
+		double [] upper = new double[3];
+		int record = 0;
+		while (record < nrNodes)
+		{
+			int offset = RECORD_INTS * record;
+			int size = records.get(offset + 3);
+			for (int i = 0; i < 3; i++)
+			{
+				int ijk = records.get(offset + i);
+				lower[i] = x0[i] + ijk / x0[3];
+				upper[i] = x0[i] + (ijk + size) / x0[3];
+			}
+			if (!query.intersects(lower, upper))
+			{
+				record = records.get(offset + 5);
+				continue;
+			}
+			int leafIndex = records.get(offset + 4);
+			if (leafIndex >= 0)
+				ret.add(leafIndex);
+			record++;
+		}
+		return ret;
+	}
+}
@@ -0,0 +1,180 @@
+/* jCAE stand for Java Computer Aided Engineering. Features are : Small CAD
+   modeler, Finite element mesher, Plugin architecture.
+
+    Copyright (C) 2011, by EADS France
+
+    This library is free software; you can redistribute it and/or
+    modify it under the terms of the GNU Lesser General Public
+    License as published by the Free Software Foundation; either
+    version 2.1 of the License, or (at your option) any later version.
+
+    This library is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+    Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public
+    License along with this library; if not, write to the Free Software
+    Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA */
+
+package org.jcae.mesh.oemm;
+
+import gnu.trove.TIntHashSet;
+
+/**
+ * Region of space used to select OEMM leaves.  A query tells whether an
+ * axis-aligned box intersects this region; octants which do not intersect
+ * it are skipped with all their children.  Intersection tests may be
+ * conservative, so selected leaves may be slightly outside the region.
+ * Leaves can be selected either from an {@link OEMM} instance by
+ * {@link #getLeaves}, or from its disk representation without loading
+ * the whole octree by {@link SpatialIndex#getLeaves}.
+ */
+public abstract class SpatialQuery
+{
+	/**
+	 * Tells whether an axis-aligned box intersects this region.
+	 *
+	 * @param lower  lower corner of the box
+	 * @param upper  upper corner of the box
+	 * @return <code>false</code> if box is outside this region,
+	 *         <code>true</code> otherwise
+	 */
+	public abstract boolean intersects(double [] lower, double [] upper);
+
+	/**
+	 * Creates a query which selects leaves intersecting an axis-aligned box.
+	 *
+	 * @param lower  lower corner of the box
+	 * @param upper  upper corner of the box
+	 * @return a new query
+	 */
+	public static SpatialQuery box(double [] lower, double [] upper)
+	{
+		final double [] lo = lower.clone();
+		final double [] up = upper.clone();
+		return new SpatialQuery()
+		{
+			@Override
+			public boolean intersects(double [] l, double [] u)
+			{
+				for (int i = 0; i < 3; i++)
+				{
+					if (u[i] < lo[i] || l[i] > up[i])
+						return false;
+				}
+				return true;
+			}
+		};
+	}
+
+	/**
+	 * Creates a query which selects leaves intersecting a sphere.
+	 *
+	 * @param center  center of the sphere
+	 * @param radius  radius of the sphere
+	 * @return a new query
+	 */
+	public static SpatialQuery sphere(double [] center, double radius)
+	{
+		final double [] c = center.clone();
+		final double r2 = radius * radius;
+		return new SpatialQuery()
+		{
+			@Override
+			public boolean intersects(double [] l, double [] u)
+			{
+				double d2 = 0.0;
+				for (int i = 0; i < 3; i++)
+				{
+					double d = 0.0;
+					if (c[i] < l[i])
+						d = l[i] - c[i];
+					else if (c[i] > u[i])
+						d = c[i] - u[i];
+					d2 += d * d;
+				}
+				return d2 <= r2;
+			}
+		};
+	}
+
+	/**
+	 * Creates a query which selects leaves intersecting a convex region
+	 * bounded by planes, typically a view frustum.  A plane is given by
+	 * 4 coefficients <code>(a, b, c, d)</code>, and a point
+	 * <code>(x, y, z)</code> is inside if
+	 * <code>a*x + b*y + c*z + d &gt;= 0</code>.
+	 * A box is discarded only if it is outside one of these planes.
+	 *
+	 * @param planes  array of planes, usually 6
+	 * @return a new query
+	 */
+	public static SpatialQuery frustum(double [][] planes)
+	{
+		final double [][] p = new double[planes.length][];
+		for (int i = 0; i < planes.length; i++)
+			p[i] = planes[i].clone();
+		return new SpatialQuery()
+		{
+			@Override
+			public boolean intersects(double [] l, double [] u)
+			{
+				for (double [] plane : p)
+				{
+					// Corner of the box which is the most inside this plane
+					double dist = plane[3];
+					for (int i = 0; i < 3; i++)
+						dist += plane[i] * (plane[i] >= 0.0 ? u[i] : l[i]);
+					if (dist < 0.0)
+						return false;
+				}
+				return true;
+			}
+		};
+	}
+
+	/**
+	 * Returns indices of leaves of an OEMM which intersect this region.
+	 *
+	 * @param oemm  OEMM instance
+	 * @return set of leaf indices
+	 */
+	public final TIntHashSet getLeaves(OEMM oemm)
+	{
+		SelectLeavesProcedure proc = new SelectLeavesProcedure(this);
+		oemm.walk(proc);
+		return proc.leaves;
+	}
+
+	private static final class SelectLeavesProcedure extends TraversalProcedure
+	{
+		private final SpatialQuery query;
+		private final TIntHashSet leaves = new TIntHashSet();
+		private final int [] ijk = new int[3];
+		private final double [] lower = new double[3];
+		private final double [] upper = new double[3];
+		SelectLeavesProcedure(SpatialQuery query)
+		{
+			this.query = query;
+		}
+		@Override
+		public final int action(OEMM oemm, OEMM.Node current, int octant, int visit)
+		{
+			if (visit == POSTORDER)
+				return OK;
+			ijk[0] = current.i0;
+			ijk[1] = current.j0;
+			ijk[2] = current.k0;
+			oemm.int2double(ijk, lower);
+			for (int i = 0; i < 3; i++)
+				ijk[i] += current.size;
+			oemm.int2double(ijk, upper);
+			if (!query.intersects(lower, upper))
+				return SKIPCHILD;
+			if (visit == LEAF)
+				leaves.add(current.leafIndex);
+			return OK;
+		}
+	}
+}
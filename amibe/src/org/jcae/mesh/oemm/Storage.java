@@ -1,7 +1,7 @@
 /* jCAE stand for Java Computer Aided Engineering. Features are : Small CAD
    modeler, Finite element mesher, Plugin architecture.
 
-    Copyright (C) 2007,2008, by EADS France
+    Copyright (C) 2007,2008,2011, by EADS France
 
     This library is free software; you can redistribute it and/or
     modify it under the terms of the GNU Lesser General Public
@@ -19,11 +19,11 @@
 
 package org.jcae.mesh.oemm;
 
+import java.io.ByteArrayInputStream;
 import java.io.EOFException;
 import java.io.File;
 import java.io.DataInputStream;
 import java.io.FileInputStream;
-import java.io.BufferedInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.BufferedOutputStream;
@@ -31,7 +31,7 @@ import java.io.DataOutputStream;
 import java.io.ObjectInputStream;
 import java.io.IOException;
 import java.io.ObjectOutputStream;
-import java.io.RandomAccessFile;
+import java.io.OutputStream;
 import java.nio.IntBuffer;
 import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
@@ -79,6 +79,10 @@ import java.util.logging.Logger;
  * A file with a "t" suffix contains for each triangle 6 int values, the first
  * 3 are leaf numbers for its 3 vertices, and last 3 are local vertex number
  * in their respective leaf.
+ * When {@link OEMM#getLeafFormat} is {@link OEMM#COMPRESSED_FORMAT}, these
+ * files are encoded and compressed as described in {@link CompressedLeaf}.
+ * They are then always written by {@link #newLeafOutputStream} and read by
+ * {@link #readLeafFile}.
  */
 public class Storage
 {
@@ -128,6 +132,9 @@ public class Storage
 			os.close();
 			ret.setDirectory(dir);
 			ret.printInfos();
+			long cacheMemory = Long.parseLong(System.getProperty("org.jcae.mesh.oemm.cacheMemory", "0"));
+			if (cacheMemory > 0L)
+				ret.setLeafCache(new LeafCache(ret, cacheMemory << 20));
 		}
 		catch (IOException ex)
 		{
@@ -162,7 +169,8 @@ public class Storage
 			for (OEMM.Node node : oemm.leaves) {
 				oos.writeObject(node);
 			}
-			
+			oos.close();
+			SpatialIndex.write(oemm, oemm.getDirectory());
 		} catch (IOException e) {
 			logger.severe("I/O error when reading indexed file in " + oemm.getDirectory());
 			e.printStackTrace();
@@ -190,6 +198,11 @@ public class Storage
 	public static void saveNodes(OEMM oemm, Mesh mesh, TIntHashSet storedLeaves)
 	{
 		logger.fine("saveNodes started");
+		// Leaves adjacent to stored leaves may be modified too, decoded
+		// leaves are thus all discarded.
+		if (oemm.getLeafCache() != null)
+			oemm.getLeafCache().clear();
+		MultiResolution.invalidate(oemm);
 		removeNonReferencedVertices(mesh);
 		// For each Vertex, find its enclosing octant leaf.
 		// Side-effect: storedLeaves may be modified if new leaves have to be added.
@@ -340,7 +353,7 @@ public class Storage
 			// Write vertex coordinates
 			DataOutputStream fc;
 			try {
-				fc = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(getVerticesFile(oemm, node))));
+				fc = new DataOutputStream(new BufferedOutputStream(newLeafOutputStream(oemm, node, getVerticesFile(oemm, node), 'v')));
 			} catch (FileNotFoundException e) {
 				logger.severe("I/O error when writing file "+getVerticesFile(oemm, node));
 				e.printStackTrace();
@@ -349,6 +362,8 @@ public class Storage
 			try {
 				for (Vertex vertex: vertexList)
 					writeDoubleArray(fc, vertex.getUV());
+				// Compressed file is written when closing stream
+				fc.close();
 			} catch (IOException e) {
 				e.printStackTrace();
 				throw new RuntimeException(e);
@@ -363,7 +378,7 @@ public class Storage
 			// Write adjacency
 			DataOutputStream afc = null;
 			try {
-				afc = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(getAdjacencyFile(oemm, node))));
+				afc = new DataOutputStream(new BufferedOutputStream(newLeafOutputStream(oemm, node, getAdjacencyFile(oemm, node), 'a')));
 			} catch (FileNotFoundException e) {
 				logger.severe("I/O error when writing file "+getAdjacencyFile(oemm, node));
 				e.printStackTrace();
@@ -424,6 +439,7 @@ public class Storage
 					counter++;
 				}
 				node.vn = vertexList.size();
+				afc.close();
 			} catch (IOException e) {
 				
 				e.printStackTrace();
@@ -586,34 +602,17 @@ public class Storage
 		int[] leaf = new int[3];
 		int[] localIndices = new int[3];
 		
-		int maxTn = 0;
-		for (TIntIterator it = nodes4Update.iterator(); it.hasNext();)
-		{
-			int tn = oemm.leaves[it.next()].tn;
-			if (tn > maxTn)
-				maxTn = tn;
-		}
-		ByteBuffer bb = ByteBuffer.allocate(maxTn * TRIANGLE_SIZE);
 		for (TIntIterator it = nodes4Update.iterator(); it.hasNext();)
 		{
 			OEMM.Node node = oemm.leaves[it.next()];
-			FileChannel fc = null;
-			try {
-				fc = new RandomAccessFile(getTrianglesFile(oemm, node),"rw").getChannel();
-			} catch (FileNotFoundException e) {
-				logger.log(Level.SEVERE, "Couldn't find file " + getTrianglesFile(oemm, node), e);
-				throw new RuntimeException(e);
-			}
-			
-			bb.clear();
-			IntBuffer bbI = bb.asIntBuffer();
+			ByteBuffer bb;
 			try {
-				fc.read(bb);
+				bb = readLeafFile(oemm, node, getTrianglesFile(oemm, node), 't');
 			} catch (IOException e) {
 				logger.log(Level.SEVERE, "I/O error in operation with file " + getTrianglesFile(oemm, node), e);
 				throw new RuntimeException(e);
 			}
-			bb.flip();
+			IntBuffer bbI = bb.asIntBuffer();
 
 			boolean fileModified = false;
 			for (int i = 0; i < node.tn; i++)
@@ -651,18 +650,17 @@ public class Storage
 			if (fileModified)
 			{
 				try {
-					fc.position(0L);
-					fc.write(bb);
+					OutputStream out = newLeafOutputStream(oemm, node, getTrianglesFile(oemm, node), 't');
+					try {
+						out.write(bb.array(), 0, bb.limit());
+					} finally {
+						out.close();
+					}
 				} catch (IOException e) {
 					logger.log(Level.SEVERE, "I/O error in operation with file " + getTrianglesFile(oemm, node), e);
 					throw new RuntimeException(e);
 				}
 			}
-			try {
-				fc.close();
-			} catch (IOException e) {
-				//ignore this
-			}
 		}
 	}
 	
@@ -723,7 +721,7 @@ public class Storage
 			
 			DataOutputStream fc;
 			try {
-				fc = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(getTrianglesFile(oemm, node))));
+				fc = new DataOutputStream(new BufferedOutputStream(newLeafOutputStream(oemm, node, getTrianglesFile(oemm, node), 't')));
 			} catch (FileNotFoundException e1) {
 				logger.severe("I/O error when reading indexed file "+getTrianglesFile(oemm, node));
 				e1.printStackTrace();
@@ -747,7 +745,7 @@ public class Storage
 					fc.writeInt(triangle.getGroupId());
 				}
 				node.tn = triangleList.size();
-			
+				fc.close();
 			} catch (IOException e) {
 				logger.log(Level.SEVERE, "Error in saving to " + getTrianglesFile(oemm, node), e);
 				e.printStackTrace();
@@ -800,7 +798,7 @@ public class Storage
 		}
 	}
 
-	private static File getAdjacencyFile(OEMM oemm, Node node)
+	static File getAdjacencyFile(OEMM oemm, Node node)
 	{
 		return new File(oemm.getDirectory(), node.file+"a");
 	}
@@ -815,6 +813,59 @@ public class Storage
 		return new File(oemm.getDirectory(), current.file+"v");
 	}
 
+	/**
+	 * Opens an output stream on a leaf file.  Data are always written in
+	 * raw format.  If leaves of this OEMM are compressed, they are encoded
+	 * and written into file when stream is closed, so callers must check
+	 * that {@link OutputStream#close} succeeds.
+	 *
+	 * @param oemm  OEMM instance
+	 * @param node  OEMM leaf
+	 * @param file  leaf file
+	 * @param type  'v', 't' or 'a' for vertex, triangle or adjacency file
+	 * @return output stream
+	 */
+	static OutputStream newLeafOutputStream(OEMM oemm, Node node, File file, char type)
+		throws FileNotFoundException
+	{
+		if (oemm.getLeafFormat() == OEMM.COMPRESSED_FORMAT)
+			return CompressedLeaf.newOutputStream(oemm, node, file, type);
+		return new FileOutputStream(file);
+	}
+
+	/**
+	 * Reads a whole leaf file and returns its content in raw format.
+	 *
+	 * @param oemm  OEMM instance
+	 * @param node  OEMM leaf
+	 * @param file  leaf file
+	 * @param type  'v', 't' or 'a' for vertex, triangle or adjacency file
+	 * @return a buffer containing raw data, its position is 0 and its limit
+	 *         is the size of data
+	 */
+	static ByteBuffer readLeafFile(OEMM oemm, Node node, File file, char type)
+		throws IOException
+	{
+		if (oemm.getLeafFormat() == OEMM.COMPRESSED_FORMAT)
+			return CompressedLeaf.read(oemm, node, file, type);
+		ByteBuffer bb = ByteBuffer.allocate((int) file.length());
+		FileChannel fc = new FileInputStream(file).getChannel();
+		try
+		{
+			while (bb.hasRemaining())
+			{
+				if (fc.read(bb) < 0)
+					throw new EOFException("Unexpected end of file "+file);
+			}
+		}
+		finally
+		{
+			fc.close();
+		}
+		bb.flip();
+		return bb;
+	}
+
 	/**
 	 * Read adjacency file and returns List of adjacent nodes without nodes
 	 * that are loaded. 
@@ -830,10 +881,14 @@ public class Storage
 		TIntArrayList nullList = new TIntArrayList();
 		DataInputStream dis = null;
 		try {
-			dis= new DataInputStream(new BufferedInputStream(new FileInputStream(getAdjacencyFile(oemm, node))));
+			ByteBuffer bb = readLeafFile(oemm, node, getAdjacencyFile(oemm, node), 'a');
+			dis= new DataInputStream(new ByteArrayInputStream(bb.array(), 0, bb.limit()));
 		} catch (FileNotFoundException e) {
 			logger.log(Level.SEVERE, "Problem with opening " + getAdjacencyFile(oemm, node).getPath() + ". It may be new node.", e);
 			return result;
+		} catch (IOException e) {
+			logger.log(Level.SEVERE, "Problem with reading " + getAdjacencyFile(oemm, node).getPath(), e);
+			throw new RuntimeException(e);
 		}
 		
 		try {
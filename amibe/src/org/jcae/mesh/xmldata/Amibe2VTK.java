@@ -21,14 +21,17 @@
 package org.jcae.mesh.xmldata;
 
 import java.io.BufferedOutputStream;
-import java.io.DataOutputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.io.PrintStream;
 import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import javax.xml.parsers.ParserConfigurationException;
 import org.jcae.mesh.xmldata.AmibeReader.SubMesh;
 import org.xml.sax.SAXException;
@@ -69,6 +72,9 @@ public class Amibe2VTK
 	}
 	private final File directory;
 	private boolean dummyData;
+	private boolean compressed;
+	private int blockSize = 1 << 15;
+	private int nrThreads = 1;
 
 	public Amibe2VTK(String directory)
 	{
@@ -81,6 +87,34 @@ public class Amibe2VTK
 		this.directory=directory;
 	}
 
+	/**
+	 * Compress data arrays with zlib.  Arrays are split into blocks
+	 * which are compressed in parallel, see {@link #setBlockSize(int)}
+	 * and {@link #setNumberOfThreads(int)}.  Compressed files can only
+	 * be written into files.
+	 */
+	public void setCompressed(boolean compressed)
+	{
+		this.compressed = compressed;
+	}
+
+	/**
+	 * Set the size in bytes of uncompressed blocks, default is 32768.
+	 * Larger blocks are better compressed but use more memory.
+	 */
+	public void setBlockSize(int blockSize)
+	{
+		if (blockSize <= 0)
+			throw new IllegalArgumentException("Invalid block size: "+blockSize);
+		this.blockSize = blockSize;
+	}
+
+	/** Set the number of threads used to compress blocks */
+	public void setNumberOfThreads(int n)
+	{
+		nrThreads = n;
+	}
+
 	private long computeNumberOfTriangle(IntFileReader triaFile) throws IOException
 	{
 		long nbt = triaFile.size()/3;
@@ -105,7 +139,8 @@ public class Amibe2VTK
 	
 	/**
 	 * Write the VTK file
-	 * @param out The stream to write on 
+	 * @param out The stream to write on, it must be a
+	 * <code>FileOutputStream</code> if data are compressed
 	 * @throws ParserConfigurationException
 	 * @throws SAXException
 	 * @throws IOException
@@ -115,145 +150,230 @@ public class Amibe2VTK
 	{
 		AmibeReader.Dim3 amibeReader = new AmibeReader.Dim3(directory.getPath());
 		SubMesh sm = amibeReader.getSubmeshes().get(0);
-		PrintStream os=new PrintStream(out);
 		long nbp=sm.getNumberOfNodes();
 		long nbt=computeNumberOfTriangle(sm.getTriangles());
-		writeHeader(os, nbp, nbt, sm.getNumberOfBeams());
+		long nbl=sm.getNumberOfBeams();
+		if(compressed)
+		{
+			if(!(out instanceof FileOutputStream))
+				throw new IllegalArgumentException(
+					"Compressed VTK files can only be written into files");
+			writeCompressed(((FileOutputStream) out).getChannel(), sm, nbp, nbt);
+			return;
+		}
+		PrintStream os=new PrintStream(out);
+		writeHeader(os, nbp, nbt, nbl, rawOffsets(nbp, nbt, nbl));
+		os.print(" _");
 		os.flush();
-		DataOutputStream dos=new DataOutputStream(new BufferedOutputStream(out));
-		writeNode(dos, sm.getNodes(), nbp);
-		writeTriangles(dos, sm.getTriangles(), nbt);
-		writeBeams(dos, sm.getBeams(), sm.getNumberOfBeams());
-		writeData(dos, nbt+sm.getNumberOfBeams());
-		dos.flush();
+		writeArrays(new AppendedDataWriter(out), sm, nbp, nbt);
 		os.println("</AppendedData></VTKFile>");
 		os.flush();
 	}
+
+	/**
+	 * Write a file with compressed data arrays.  Offsets of arrays are
+	 * only known once they are written, so the space needed by the XML
+	 * header with the largest offsets is reserved, and the header is
+	 * written last.
+	 */
+	private void writeCompressed(FileChannel channel, SubMesh sm, long nbp, long nbt)
+		throws IOException, SAXException
+	{
+		long nbl=sm.getNumberOfBeams();
+		long headerPosition = channel.position();
+		long[] offsets = rawOffsets(nbp, nbt, nbl);
+		Arrays.fill(offsets, Long.MAX_VALUE);
+		// Header is followed by at least a space and the underscore
+		int reserved = header(nbp, nbt, nbl, offsets).length + 2;
+		ExecutorService executor = nrThreads > 1 ? Executors.newFixedThreadPool(nrThreads) : null;
+		try
+		{
+			AppendedDataWriter data = new AppendedDataWriter(channel,
+				headerPosition + reserved, blockSize, executor, 2 * nrThreads);
+			writeArrays(data, sm, nbp, nbt);
+			data.writeHeader(header(nbp, nbt, nbl, data.offsets()), headerPosition);
+			data.writeTrailer(("</AppendedData></VTKFile>"+
+				System.getProperty("line.separator")).getBytes("US-ASCII"));
+		}
+		finally
+		{
+			if(executor != null)
+				executor.shutdown();
+		}
+	}
+
+	private void writeArrays(AppendedDataWriter data, SubMesh sm, long nbp, long nbt)
+		throws IOException, SAXException
+	{
+		writeNode(data, sm.getNodes(), nbp);
+		writeTriangles(data, sm.getTriangles(), nbt);
+		writeBeams(data, sm.getBeams(), sm.getNumberOfBeams());
+		writeData(data, nbt+sm.getNumberOfBeams());
+	}
 	
 	/**
 	 * write the triangle connectivity
-	 * @param dos the stream to write on
+	 * @param data the stream to write on
 	 * @param triaFile the amibe triangle file
 	 * @param nbt the number of triangles
 	 * @throws IOException
 	 */
-	private void writeTriangles(DataOutputStream dos, IntFileReader triaFile, long nbt)
+	private void writeTriangles(AppendedDataWriter data, IntFileReader triaFile, long nbt)
 		throws IOException
 	{
-		//Write the size of the array in octets
-		dos.writeInt((int) nbt*4*3);
-		
 		//Write the connectivity array
+		data.startArray(nbt*4*3);
 		for(int i=0; i<nbt*3; i++)
 		{
 			int v = triaFile.get();
 			if(v>=0)
-				dos.writeInt(v);
+				data.putInt(v);
 		}
-		
-		//Write the size of the array in octets
-		dos.writeInt((int) nbt*4);
+		data.endArray();
 		
 		//Write the offset of each cells (in our case triangles) in the
 		//connectivity array
+		data.startArray(nbt*4);
 		for(int i=1; i<=nbt; i++)
-			dos.writeInt(3*i);
+			data.putInt(3*i);
+		data.endArray();
 
 		triaFile.close();
 	}
 
 	/**
 	 * write the triangle connectivity
-	 * @param dos the stream to write on
+	 * @param data the stream to write on
 	 * @param triaFile the amibe triangle file
 	 * @param nbt the number of triangles
 	 * @throws IOException
 	 */
-	private void writeBeams(DataOutputStream dos, IntFileReader beamFile, long numberOfBeams)
+	private void writeBeams(AppendedDataWriter data, IntFileReader beamFile, long numberOfBeams)
 		throws IOException
 	{
-		//Write the size of the array in octets
-		dos.writeInt((int) numberOfBeams*4*2);
-
 		//Write the connectivity array
+		data.startArray(numberOfBeams*4*2);
 		for(int i=0; i<numberOfBeams*2; i++)
-			dos.writeInt(beamFile.get());
-
-		//Write the size of the array in octets
-		dos.writeInt((int) numberOfBeams*4);
+			data.putInt(beamFile.get());
+		data.endArray();
 
 		//Write the offset of each cells (in our case beams) in the
 		//connectivity array
+		data.startArray(numberOfBeams*4);
 		for(int i=1; i<=numberOfBeams; i++)
-			dos.writeInt(2*i);
+			data.putInt(2*i);
+		data.endArray();
 
 		beamFile.close();
 	}
 
 	/**
 	 * Write the nodes of the mesh
-	 * @param dos the stream to write on
+	 * @param data the stream to write on
 	 * @param nodeFile the amibe node file
 	 * @param nbp the number of nodes
 	 * @throws IOException
-	 */	private void writeNode(DataOutputStream dos, DoubleFileReader nodeFile, long nbp)
+	 */	private void writeNode(AppendedDataWriter data, DoubleFileReader nodeFile, long nbp)
 		throws IOException
 	{
-		//Write the size of the array in octets
-		dos.writeInt((int) nbp*8*3);
+		data.startArray(nbp*8*3);
 		for(int i=0; i<nbp*3; i++)
-			dos.writeDouble(nodeFile.get());
+			data.putDouble(nodeFile.get());
+		data.endArray();
 
 		nodeFile.close();
 	}
 	 
 	/**
 	 * write dummy data associated to the triangle
-	 * @param dos the stream to write on
+	 * @param data the stream to write on
 	 * @param nbt the number of triangles
 	 * @throws IOException
 	 */
-	private void writeData(final DataOutputStream dos, long nbt)
+	private void writeData(final AppendedDataWriter data, long nbt)
 		throws IOException, SAXException
 	{
-		dos.writeInt((int) nbt*4);
+		data.startArray(nbt*4);
 		new GroupInverter(directory.getPath(), new GroupInverter.IntegerWriter() {
 			public void writeInt(ByteBuffer i) throws IOException {
-				dos.write(i.array());
+				data.put(ByteBuffer.wrap(i.array()));
 			}
 		}).invert();
+		data.endArray();
 		if(dummyData)
 		{
-			//Write the size of the array in octets
-			dos.writeInt((int) nbt*8);
+			data.startArray(nbt*8);
 			for(int i=0; i<nbt; i++)
-				dos.writeDouble(i);
+				data.putDouble(i);
+			data.endArray();
 
-			dos.writeInt((int) nbt*8);
+			data.startArray(nbt*8);
 			for(int i=0; i<nbt; i++)
-				dos.writeDouble((double)i*i);
+				data.putDouble((double)i*i);
+			data.endArray();
 
-			dos.writeInt((int) nbt*8*3);
+			data.startArray(nbt*8*3);
 			for(int i=0; i<nbt; i++)
 			{
-				dos.writeDouble(i);
-				dos.writeDouble(i);
-				dos.writeDouble(i);
+				data.putDouble(i);
+				data.putDouble(i);
+				data.putDouble(i);
 			}
+			data.endArray();
 		}
 	}	 
 
+	/**
+	 * Compute offsets of data arrays when they are not compressed
+	 * @param numberOfNodes the number of nodes
+	 * @param numberOfTriangles the number of triangles
+	 * @param numberOfLines the number of beams
+	 */
+	private long[] rawOffsets(long numberOfNodes, long numberOfTriangles, long numberOfLines)
+	{
+		long numberOfElements = numberOfLines+numberOfTriangles;
+		long[] sizes = {
+			numberOfNodes*8*3,
+			numberOfTriangles*4*3, numberOfTriangles*4,
+			numberOfLines*4*2, numberOfLines*4,
+			numberOfElements*4,
+			numberOfElements*8, numberOfElements*8, numberOfElements*8*3 };
+		long[] offsets = new long[dummyData ? sizes.length : sizes.length - 3];
+		long offset = 0;
+		for(int i=0; i<offsets.length; i++)
+		{
+			offsets[i] = offset;
+			offset += 4+sizes[i];
+		}
+		return offsets;
+	}
+
+	/**
+	 * Return the header of the file (XML)
+	 */
+	private byte[] header(long numberOfNodes, long numberOfTriangles,
+		long numberOfLines, long[] offsets)
+	{
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		PrintStream out = new PrintStream(bytes);
+		writeHeader(out, numberOfNodes, numberOfTriangles, numberOfLines, offsets);
+		out.flush();
+		return bytes.toByteArray();
+	}
+
 	/**
 	 * Write the header of the file (XML)
 	 * @param out the stream to write on
 	 * @param numberOfNodes the number of nodes
 	 * @param numberOfTriangles the number of triangles
+	 * @param offsets offsets of data arrays
 	 */
 	private void writeHeader(PrintStream out, long numberOfNodes,
-		long numberOfTriangles, long numberOfLines)
+		long numberOfTriangles, long numberOfLines, long[] offsets)
 	{
 		//This is Java so we write in big endian		
-		out.println("<VTKFile type=\"PolyData\" version=\"0.1\" byte_order=\"BigEndian\">");
+		out.println("<VTKFile type=\"PolyData\" version=\"0.1\" byte_order=\"BigEndian\""+
+			(compressed ? " compressor=\"vtkZLibDataCompressor\">" : ">"));
 		out.println("<PolyData>");
 		
 		//Everything in one piece
@@ -263,54 +383,40 @@ public class Amibe2VTK
 			"\" NumberOfLines=\""+numberOfLines+"\">");
 		
 		out.println("<Points><DataArray type=\"Float64\" NumberOfComponents=\"3\" "+
-			"format=\"appended\" offset=\"0\"/></Points>");		
-		long offset=4+(numberOfNodes*8*3);		
+			"format=\"appended\" offset=\""+offsets[0]+"\"/></Points>");		
 
 		//polys
 		out.println("<Polys><DataArray type=\"Int32\" Name=\"connectivity\""+
-			" format=\"appended\" offset=\""+offset+"\"/>");
-		offset+=4+numberOfTriangles*4*3;
+			" format=\"appended\" offset=\""+offsets[1]+"\"/>");
 		
 		out.println("<DataArray type=\"Int32\" Name=\"offsets\" format=\"appended\"" +
-			" offset=\""+offset+"\"/></Polys>");		
-		offset+=4+numberOfTriangles*4;
+			" offset=\""+offsets[2]+"\"/></Polys>");		
 
 		//lines
 		out.println("<Lines><DataArray type=\"Int32\" Name=\"connectivity\""+
-			" format=\"appended\" offset=\""+offset+"\"/>");
-		offset+=4+numberOfLines*4*2;
+			" format=\"appended\" offset=\""+offsets[3]+"\"/>");
 
 		out.println("<DataArray type=\"Int32\" Name=\"offsets\" format=\"appended\"" +
-			" offset=\""+offset+"\"/></Lines>");
-		offset+=4+numberOfLines*4;
+			" offset=\""+offsets[4]+"\"/></Lines>");
 
-		long numberOfElements = numberOfLines+numberOfTriangles;
 		out.println("<CellData Scalars=\"Groups\">");
 		out.println("\t<DataArray type=\"Int32\" Name=\"Groups\" format=\"appended\" offset=\""
-			+offset+"\"/>");
-		offset += 4+numberOfElements*4;
+			+offsets[5]+"\"/>");
 		if(dummyData)
 		{
 			out.println("\t<DataArray type=\"Float64\" Name=\"Dummy\" format=\"appended\" offset=\""
-				+offset+"\"/>");
-			offset += 4+numberOfElements * 8;
+				+offsets[6]+"\"/>");
 
 			out.println("\t<DataArray type=\"Float64\" Name=\"Dummy x Dummy\" format=\"appended\" offset=\""
-				+offset+"\"/>");
-			//always keep track of offset in case we want to add thins to the
-			//file
-			offset += 4+numberOfElements * 8;
+				+offsets[7]+"\"/>");
 			
 			out.println("\t<DataArray type=\"Float64\" Name=\"Dummy vector\" NumberOfComponents=\"3\""+
-				" format=\"appended\" offset=\""+offset+"\"/>");
-			//always keep track of offset in case we want to add thins to the
-			//file
-			offset += 4+numberOfElements*8*3;
+				" format=\"appended\" offset=\""+offsets[8]+"\"/>");
 		}
 		out.println("</CellData>");
 		
 		out.println("</Piece></PolyData>");
-		out.print("<AppendedData encoding=\"raw\"> _");
+		out.print("<AppendedData encoding=\"raw\">");
 	}
 
 	public boolean isDummyData()
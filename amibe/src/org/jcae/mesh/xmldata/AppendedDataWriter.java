@@ -0,0 +1,367 @@
+/*
+ * Project Info:  http://jcae.sourceforge.net
+ *
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 2.1 of the License, or (at your option)
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation, Inc.,
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307, USA.
+ *
+ * (C) Copyright 2011, by EADS France
+ */
+
+package org.jcae.mesh.xmldata;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.zip.Deflater;
+
+/**
+ * Writes data arrays of the <code>AppendedData</code> element of VTK
+ * XML files.  Values are big endian, and arrays are preceded by an
+ * <code>UInt32</code> header.
+ * <p>
+ * In raw mode, the header is the size of the array in bytes, and values
+ * are written into a stream.  In compressed mode, arrays are split into
+ * blocks which are compressed by zlib, as expected by
+ * <code>vtkZLibDataCompressor</code>:
+ * </p>
+ * <pre>
+ *   [number of blocks][block size][last block size][compressed sizes...][compressed blocks...]
+ * </pre>
+ * <p>
+ * Blocks are compressed in parallel, and written in order by positional
+ * writes into a file channel after the space reserved for the header of
+ * the array, which is written when the array is complete.  Arrays are
+ * never stored in memory, only blocks being compressed are.
+ * </p>
+ */
+final class AppendedDataWriter
+{
+	private final OutputStream out;
+	private final FileChannel channel;
+	private final int blockSize;
+	private final ExecutorService executor;
+	private final int maxPending;
+	private final List<Block> freeBlocks = new ArrayList<Block>();
+	private final ArrayDeque<Future<Block>> pending = new ArrayDeque<Future<Block>>();
+	// Values which do not fit into current block are split
+	private final ByteBuffer scratch = ByteBuffer.allocate(8);
+	//  Position in file in compressed mode, number of written bytes in
+	//  raw mode
+	private long position;
+	private final long start;
+	private Block current;
+	private long arrayHeader;
+	private int[] compressedSizes;
+	private int blockIndex;
+	private long arraySize;
+	private long arrayWritten;
+	private long[] offsets = new long[16];
+	private int nbArrays;
+
+	/**
+	 * Creates a writer in raw mode.
+	 *
+	 * @param out  output stream
+	 */
+	AppendedDataWriter(OutputStream out)
+	{
+		this.out = out;
+		channel = null;
+		blockSize = 1 << 16;
+		executor = null;
+		maxPending = 0;
+		start = 0L;
+	}
+
+	/**
+	 * Creates a writer in compressed mode.
+	 *
+	 * @param channel  file channel
+	 * @param position  position of the first array in file
+	 * @param blockSize  size of uncompressed blocks
+	 * @param executor  executor which compresses blocks, or
+	 *   <code>null</code> to compress them in the calling thread
+	 * @param maxPending  maximum number of blocks being compressed
+	 */
+	AppendedDataWriter(FileChannel channel, long position, int blockSize,
+		ExecutorService executor, int maxPending)
+	{
+		out = null;
+		this.channel = channel;
+		this.position = position;
+		start = position;
+		this.blockSize = blockSize;
+		this.executor = executor;
+		this.maxPending = maxPending;
+	}
+
+	/**
+	 * Returns offsets of arrays, relative to the first one.
+	 */
+	long[] offsets()
+	{
+		long[] ret = new long[nbArrays];
+		System.arraycopy(offsets, 0, ret, 0, nbArrays);
+		return ret;
+	}
+
+	/**
+	 * Writes the XML part of the file, in compressed mode.  Offsets of
+	 * arrays are only known after they have been written, so the XML
+	 * part is written last into the space left before the first array.
+	 * It is padded with spaces and followed by the underscore which
+	 * marks the beginning of appended data.
+	 *
+	 * @param xml  XML part, ending with the <code>AppendedData</code> tag
+	 * @param headerPosition  position of the XML part in file
+	 */
+	void writeHeader(byte[] xml, long headerPosition) throws IOException
+	{
+		int size = (int) (start - headerPosition);
+		if (xml.length >= size)
+			throw new IllegalStateException("XML header is too long: "+xml.length+" >= "+size);
+		ByteBuffer bb = ByteBuffer.allocate(size);
+		bb.put(xml);
+		while (bb.remaining() > 1)
+			bb.put((byte) ' ');
+		bb.put((byte) '_');
+		bb.flip();
+		long p = headerPosition;
+		while (bb.hasRemaining())
+			p += channel.write(bb, p);
+	}
+
+	/**
+	 * Writes the end of file after the last array, in compressed mode,
+	 * and moves channel position to the end of file.
+	 */
+	void writeTrailer(byte[] trailer) throws IOException
+	{
+		ByteBuffer bb = ByteBuffer.wrap(trailer);
+		while (bb.hasRemaining())
+			position += channel.write(bb, position);
+		channel.position(position);
+	}
+
+	private Block newBlock()
+	{
+		if (freeBlocks.isEmpty())
+			return new Block(blockSize);
+		return freeBlocks.remove(freeBlocks.size() - 1);
+	}
+
+	/**
+	 * Starts a new array.
+	 *
+	 * @param nbytes  size of the array in bytes
+	 */
+	void startArray(long nbytes) throws IOException
+	{
+		if (nbArrays == offsets.length)
+		{
+			long[] a = new long[2 * offsets.length];
+			System.arraycopy(offsets, 0, a, 0, nbArrays);
+			offsets = a;
+		}
+		offsets[nbArrays++] = position - start;
+		arraySize = nbytes;
+		arrayWritten = 0L;
+		if (channel == null)
+		{
+			if (current == null)
+				current = newBlock();
+			putInt((int) nbytes);
+			return;
+		}
+		int nblocks = (int) ((nbytes + blockSize - 1) / blockSize);
+		compressedSizes = new int[nblocks];
+		blockIndex = 0;
+		arrayHeader = position;
+		position += 4L * (3 + nblocks);
+		current = newBlock();
+	}
+
+	private void flushBlock() throws IOException
+	{
+		if (current.data.position() == 0)
+			return;
+		arrayWritten += current.data.position();
+		if (channel == null)
+		{
+			out.write(current.data.array(), 0, current.data.position());
+			position += current.data.position();
+			current.data.clear();
+			return;
+		}
+		current.index = blockIndex++;
+		if (executor == null)
+		{
+			current.call();
+			write(current);
+		}
+		else
+		{
+			pending.add(executor.submit(current));
+			if (pending.size() >= maxPending)
+				write(waitFor(pending.poll()));
+		}
+		current = newBlock();
+	}
+
+	private static Block waitFor(Future<Block> f)
+	{
+		try
+		{
+			return f.get();
+		}
+		catch (InterruptedException ex)
+		{
+			throw new RuntimeException(ex);
+		}
+		catch (ExecutionException ex)
+		{
+			if (ex.getCause() instanceof RuntimeException)
+				throw (RuntimeException) ex.getCause();
+			throw new RuntimeException(ex.getCause());
+		}
+	}
+
+	private void write(Block b) throws IOException
+	{
+		ByteBuffer bb = ByteBuffer.wrap(b.compressed, 0, b.compressedSize);
+		while (bb.hasRemaining())
+			position += channel.write(bb, position);
+		compressedSizes[b.index] = b.compressedSize;
+		b.data.clear();
+		freeBlocks.add(b);
+	}
+
+	void putInt(int i) throws IOException
+	{
+		if (current.data.remaining() >= 4)
+			current.data.putInt(i);
+		else
+		{
+			scratch.clear();
+			scratch.putInt(i);
+			scratch.flip();
+			put(scratch);
+		}
+	}
+
+	void putDouble(double d) throws IOException
+	{
+		if (current.data.remaining() >= 8)
+			current.data.putDouble(d);
+		else
+		{
+			scratch.clear();
+			scratch.putDouble(d);
+			scratch.flip();
+			put(scratch);
+		}
+	}
+
+	/**
+	 * Appends bytes of a buffer, from its position to its limit.
+	 */
+	void put(ByteBuffer src) throws IOException
+	{
+		ByteBuffer b = src.duplicate();
+		while (b.hasRemaining())
+		{
+			// All blocks but the last one must be full
+			if (!current.data.hasRemaining())
+				flushBlock();
+			int n = Math.min(b.remaining(), current.data.remaining());
+			int limit = b.limit();
+			b.limit(b.position() + n);
+			current.data.put(b);
+			b.limit(limit);
+		}
+	}
+
+	/**
+	 * Ends current array.  In compressed mode, its header is written.
+	 */
+	void endArray() throws IOException
+	{
+		flushBlock();
+		if (channel == null)
+			return;
+		freeBlocks.add(current);
+		current = null;
+		while (!pending.isEmpty())
+			write(waitFor(pending.poll()));
+		if (arrayWritten != arraySize)
+			throw new IllegalStateException("Array size is "+arraySize+" but "+arrayWritten+" bytes have been written");
+		ByteBuffer bb = ByteBuffer.allocate(4 * (3 + compressedSizes.length));
+		bb.putInt(compressedSizes.length);
+		bb.putInt(blockSize);
+		bb.putInt((int) (arraySize % blockSize));
+		for (int s : compressedSizes)
+			bb.putInt(s);
+		bb.flip();
+		long p = arrayHeader;
+		while (bb.hasRemaining())
+			p += channel.write(bb, p);
+	}
+
+	/**
+	 * A block of an array, and its compressed bytes.
+	 */
+	private static final class Block implements Callable<Block>
+	{
+		final ByteBuffer data;
+		byte[] compressed;
+		int compressedSize;
+		int index;
+		Block(int size)
+		{
+			data = ByteBuffer.allocate(size);
+			compressed = new byte[size + size / 1000 + 64];
+		}
+
+		public Block call()
+		{
+			// Mesh arrays are hardly better compressed by higher
+			// levels, which are much slower
+			Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+			deflater.setInput(data.array(), 0, data.position());
+			deflater.finish();
+			compressedSize = 0;
+			while (!deflater.finished())
+			{
+				if (compressedSize == compressed.length)
+				{
+					byte[] b = new byte[2 * compressed.length];
+					System.arraycopy(compressed, 0, b, 0, compressedSize);
+					compressed = b;
+				}
+				compressedSize += deflater.deflate(compressed, compressedSize,
+					compressed.length - compressedSize);
+			}
+			deflater.end();
+			return this;
+		}
+	}
+}
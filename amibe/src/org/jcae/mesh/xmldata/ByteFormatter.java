@@ -0,0 +1,297 @@
+/*
+ * Project Info:  http://jcae.sourceforge.net
+ *
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 2.1 of the License, or (at your option)
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation, Inc.,
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307, USA.
+ *
+ * (C) Copyright 2011, by EADS France
+ */
+
+package org.jcae.mesh.xmldata;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.text.NumberFormat;
+
+/**
+ * Formats numbers into a reusable byte array.  Text is the same as
+ * what <code>PrintStream</code> writes with {@link MeshExporter.FormatD25_16},
+ * {@link MeshExporter.FormatI10} and <code>String.valueOf</code>, but
+ * no object is created per number, so that large meshes can be written
+ * quickly.
+ * <p>
+ * Digits of doubles are given by <code>StringBuilder.append(double)</code>,
+ * which uses the same conversion as <code>DecimalFormat</code>.  They are
+ * at most 17, so <code>DecimalFormat</code> does not round them and they
+ * only have to be padded with zeros.  Special values, which are not
+ * expected in meshes, are formatted by {@link MeshExporter.FormatD25_16}.
+ * </p>
+ */
+final class ByteFormatter
+{
+	private static final byte [] CR = System.getProperty("line.separator").getBytes();
+	private static final int MANTISSA_DIGITS = 17;
+
+	private byte [] bytes;
+	private int length;
+	private final StringBuilder digits = new StringBuilder(32);
+	private NumberFormat fallback;
+
+	ByteFormatter()
+	{
+		this(1 << 16);
+	}
+
+	ByteFormatter(int capacity)
+	{
+		bytes = new byte[capacity];
+	}
+
+	/**
+	 * Removes all bytes.  Array is kept.
+	 */
+	void clear()
+	{
+		length = 0;
+	}
+
+	/**
+	 * Returns the number of formatted bytes.
+	 */
+	int length()
+	{
+		return length;
+	}
+
+	/**
+	 * Writes formatted bytes into a stream.
+	 */
+	void writeTo(OutputStream out) throws IOException
+	{
+		out.write(bytes, 0, length);
+	}
+
+	private void ensureCapacity(int n)
+	{
+		if (length + n > bytes.length)
+		{
+			byte [] newBytes = new byte[Math.max(2 * bytes.length, length + n)];
+			System.arraycopy(bytes, 0, newBytes, 0, length);
+			bytes = newBytes;
+		}
+	}
+
+	private void appendSpaces(int n)
+	{
+		ensureCapacity(n);
+		for (int i = 0; i < n; i++)
+			bytes[length++] = ' ';
+	}
+
+	/**
+	 * Appends a string.  Non-ASCII characters are encoded with the
+	 * default charset, like <code>PrintStream</code> does.
+	 */
+	ByteFormatter append(String s)
+	{
+		int n = s.length();
+		ensureCapacity(n);
+		for (int i = 0; i < n; i++)
+		{
+			char c = s.charAt(i);
+			if (c >= 128)
+			{
+				byte [] b = s.substring(i).getBytes();
+				ensureCapacity(b.length);
+				System.arraycopy(b, 0, bytes, length, b.length);
+				length += b.length;
+				break;
+			}
+			bytes[length++] = (byte) c;
+		}
+		return this;
+	}
+
+	/**
+	 * Appends line separator.
+	 */
+	ByteFormatter newLine()
+	{
+		ensureCapacity(CR.length);
+		for (byte b : CR)
+			bytes[length++] = b;
+		return this;
+	}
+
+	private static int stringSize(int i)
+	{
+		if (i == Integer.MIN_VALUE)
+			return 11;
+		int n = 1;
+		if (i < 0)
+		{
+			n++;
+			i = -i;
+		}
+		while (i >= 10)
+		{
+			n++;
+			i /= 10;
+		}
+		return n;
+	}
+
+	//  Writes i into bytes[length, length+size)
+	private void writeInt(int i, int size)
+	{
+		int end = length + size;
+		long l = i;
+		if (l < 0)
+		{
+			bytes[length] = '-';
+			l = -l;
+		}
+		int p = end;
+		do
+		{
+			bytes[--p] = (byte) ('0' + l % 10L);
+			l /= 10L;
+		} while (l != 0L);
+		length = end;
+	}
+
+	/**
+	 * Appends an integer, like <code>Integer.toString</code>.
+	 */
+	ByteFormatter append(int i)
+	{
+		int size = stringSize(i);
+		ensureCapacity(size);
+		writeInt(i, size);
+		return this;
+	}
+
+	/**
+	 * Appends an integer padded with spaces to 10 characters.  Like
+	 * {@link MeshExporter.FormatI10}, nothing is written if it does not
+	 * fit into 9 characters.
+	 */
+	ByteFormatter appendI10(int i)
+	{
+		int size = stringSize(i);
+		if (size < 10)
+		{
+			ensureCapacity(10);
+			appendSpaces(10 - size);
+			writeInt(i, size);
+		}
+		return this;
+	}
+
+	/**
+	 * Appends a double, like <code>Double.toString</code>.
+	 */
+	ByteFormatter append(double d)
+	{
+		digits.setLength(0);
+		digits.append(d);
+		int n = digits.length();
+		ensureCapacity(n);
+		for (int i = 0; i < n; i++)
+			bytes[length++] = (byte) digits.charAt(i);
+		return this;
+	}
+
+	/**
+	 * Appends a double in Fortran D25.16 format, like
+	 * {@link MeshExporter.FormatD25_16}.
+	 */
+	ByteFormatter appendD25_16(double d)
+	{
+		if (Double.isNaN(d) || Double.isInfinite(d) || !appendFastD25_16(d))
+		{
+			if (fallback == null)
+				fallback = new MeshExporter.FormatD25_16();
+			append(fallback.format(d));
+		}
+		return this;
+	}
+
+	private boolean appendFastD25_16(double d)
+	{
+		// Double.toString gives either 123.456 or 1.23456E-7
+		digits.setLength(0);
+		digits.append(Math.abs(d));
+		int n = digits.length();
+		int exp = 0;
+		int e = digits.indexOf("E");
+		if (e >= 0)
+		{
+			boolean negExp = digits.charAt(e + 1) == '-';
+			for (int i = e + (negExp ? 2 : 1); i < n; i++)
+				exp = 10 * exp + digits.charAt(i) - '0';
+			if (negExp)
+				exp = -exp;
+			n = e;
+		}
+		// Removes the decimal point, leading and trailing zeros from
+		// digits, and adjusts exponent so that value is d.ddd 10^exp
+		int point = digits.indexOf(".");
+		int first = 0;
+		while (first < n && (digits.charAt(first) == '0' || digits.charAt(first) == '.'))
+			first++;
+		int last = n;
+		while (last > first && (digits.charAt(last - 1) == '0' || digits.charAt(last - 1) == '.'))
+			last--;
+		if (first == last)
+			exp = 0;
+		else
+			exp += (first < point ? point - first - 1 : point - first);
+		int nrDigits = last - first - (first < point && point < last ? 1 : 0);
+		if (nrDigits > MANTISSA_DIGITS || exp <= -100 || exp >= 100)
+			return false;
+
+		boolean negative = Double.doubleToRawLongBits(d) < 0L;
+		int size = MANTISSA_DIGITS + 5 + (negative ? 1 : 0);
+		ensureCapacity(25);
+		appendSpaces(25 - size);
+		if (negative)
+			bytes[length++] = '-';
+		int written = 0;
+		for (int i = first; i < last; i++)
+		{
+			char c = digits.charAt(i);
+			if (c == '.')
+				continue;
+			bytes[length++] = (byte) c;
+			if (written == 0)
+				bytes[length++] = '.';
+			written++;
+		}
+		if (written == 0)
+		{
+			bytes[length++] = '0';
+			bytes[length++] = '.';
+			written++;
+		}
+		for (; written < MANTISSA_DIGITS; written++)
+			bytes[length++] = '0';
+		bytes[length++] = 'D';
+		bytes[length++] = (byte) (exp < 0 ? '-' : '+');
+		exp = Math.abs(exp);
+		bytes[length++] = (byte) ('0' + exp / 10);
+		bytes[length++] = (byte) ('0' + exp % 10);
+		return true;
+	}
+}
@@ -0,0 +1,425 @@
+/*
+ * Project Info:  http://jcae.sourceforge.net
+ *
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 2.1 of the License, or (at your option)
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation, Inc.,
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307, USA.
+ *
+ * (C) Copyright 2011, by EADS France
+ */
+
+package org.jcae.mesh.xmldata;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.logging.Logger;
+
+/**
+ * Writes a mesh into several formats at the same time.  Each
+ * {@link MeshExporter} reads its own copy of the mesh, so exporting into
+ * several formats one after another reads the same files several times.
+ * This class reads the mesh once:
+ * <ul>
+ *   <li>groups and their triangles are read by the first registered
+ *     exporter, and arrays are shared by all exporters;</li>
+ *   <li>node coordinates and normals are read by chunks, and chunks are
+ *     put into a bounded queue for each exporter.</li>
+ * </ul>
+ * Each exporter writes its file in its own thread.  Exporters must have
+ * been created with the same directory and groups.
+ * <pre>
+ *   MeshExportDriver driver = new MeshExportDriver();
+ *   driver.add(new MeshExporter.MESH(dir), "mesh.mesh");
+ *   driver.add(new MeshExporter.STL(dir), "mesh.stl");
+ *   driver.write();
+ * </pre>
+ */
+public class MeshExportDriver
+{
+	private static final Logger LOGGER = Logger.getLogger(MeshExportDriver.class.getName());
+	// Sent to readers when mesh could not be read
+	private static final double[] POISON = new double[0];
+
+	private final List<MeshExporter> exporters = new ArrayList<MeshExporter>();
+	private final List<String> fileNames = new ArrayList<String>();
+	private int chunkSize = 3 * 65536;
+	private int queueCapacity = 16;
+	private volatile IOException failure;
+
+	/**
+	 * Registers an exporter.
+	 *
+	 * @param exporter  exporter
+	 * @param fileName  output file name, see {@link MeshExporter#write(String)}
+	 */
+	public final void add(MeshExporter exporter, String fileName)
+	{
+		exporters.add(exporter);
+		fileNames.add(fileName);
+	}
+
+	/**
+	 * Sets the number of chunks which can be waiting for each exporter.
+	 * When an exporter is slower than others, reading is suspended until
+	 * it has processed some chunks.
+	 */
+	public final void setQueueCapacity(int n)
+	{
+		queueCapacity = n;
+	}
+
+	/** Sets the number of doubles in a chunk, for tests. */
+	final void setChunkSize(int n)
+	{
+		chunkSize = n;
+	}
+
+	/**
+	 * Writes files of all registered exporters.
+	 */
+	public final void write()
+	{
+		if (exporters.isEmpty())
+			return;
+		try
+		{
+			writeAll();
+		}
+		catch (IOException ex)
+		{
+			throw new RuntimeException(ex);
+		}
+	}
+
+	private void writeAll() throws IOException
+	{
+		failure = null;
+		MeshExporter source = exporters.get(0);
+		int[] triangles = source.readMesh();
+		DoubleFileReader nodes = source.getNodes();
+		DoubleFileReader normals = null;
+		for (MeshExporter e : exporters)
+		{
+			if (e.writesNormals())
+			{
+				try
+				{
+					normals = source.getNormals();
+				}
+				catch (IOException ex)
+				{
+					// Normals are only written if available
+				}
+				break;
+			}
+		}
+
+		List<Feed> feeds = new ArrayList<Feed>(exporters.size());
+		for (MeshExporter e : exporters)
+		{
+			Feed feed = new Feed(source.groups, triangles,
+				new Stream(nodes.size(), !e.readsNodesInOrder()),
+				normals == null || !e.writesNormals() ? null : new Stream(normals.size(), false));
+			e.setFeed(feed);
+			feeds.add(feed);
+		}
+		ExecutorService executor = Executors.newFixedThreadPool(exporters.size());
+		try
+		{
+			List<Future<Object>> futures = new ArrayList<Future<Object>>(exporters.size());
+			for (int i = 0; i < exporters.size(); i++)
+				futures.add(executor.submit(new WriteTask(exporters.get(i), fileNames.get(i), feeds.get(i))));
+			try
+			{
+				List<Stream> streams = new ArrayList<Stream>(feeds.size());
+				for (Feed f : feeds)
+					streams.add(f.nodes);
+				send(nodes, streams);
+				if (normals != null)
+				{
+					streams.clear();
+					for (Feed f : feeds)
+					{
+						if (f.normals != null)
+							streams.add(f.normals);
+					}
+					send(normals, streams);
+				}
+			}
+			catch (IOException ex)
+			{
+				failure = ex;
+				for (Feed f : feeds)
+					f.fail();
+			}
+			finally
+			{
+				nodes.close();
+				if (normals != null)
+					normals.close();
+			}
+			for (Future<Object> f : futures)
+				f.get();
+		}
+		catch (InterruptedException ex)
+		{
+			throw new RuntimeException(ex);
+		}
+		catch (ExecutionException ex)
+		{
+			if (ex.getCause() instanceof RuntimeException)
+				throw (RuntimeException) ex.getCause();
+			if (ex.getCause() instanceof Error)
+				throw (Error) ex.getCause();
+			throw new RuntimeException(ex.getCause());
+		}
+		finally
+		{
+			executor.shutdown();
+			for (MeshExporter e : exporters)
+				e.setFeed(null);
+		}
+		if (failure != null)
+			throw failure;
+	}
+
+	/**
+	 * Reads a file by chunks and puts chunks into all open streams.
+	 */
+	private void send(DoubleFileReader in, List<Stream> streams)
+		throws IOException, InterruptedException
+	{
+		long size = in.size();
+		for (long first = 0; first < size; first += chunkSize)
+		{
+			double[] chunk = new double[(int) Math.min(chunkSize, size - first)];
+			int n = 0;
+			while (n < chunk.length)
+				n += in.get(chunk, n, chunk.length - n);
+			for (Stream s : streams)
+				s.put(chunk);
+		}
+		LOGGER.fine("Sent "+size+" values to "+streams.size()+" exporters");
+	}
+
+	private static class WriteTask implements Callable<Object>
+	{
+		private final MeshExporter exporter;
+		private final String fileName;
+		private final Feed feed;
+		WriteTask(MeshExporter exporter, String fileName, Feed feed)
+		{
+			this.exporter = exporter;
+			this.fileName = fileName;
+			this.feed = feed;
+		}
+
+		public Object call()
+		{
+			try
+			{
+				exporter.write(fileName);
+			}
+			finally
+			{
+				// Do not block the reader if this exporter
+				// did not read everything
+				feed.close();
+			}
+			return null;
+		}
+	}
+
+	/**
+	 * Mesh data given to an exporter.
+	 */
+	static final class Feed
+	{
+		final int[][] groups;
+		final int[] triangles;
+		private final Stream nodes;
+		private final Stream normals;
+		Feed(int[][] groups, int[] triangles, Stream nodes, Stream normals)
+		{
+			this.groups = groups;
+			this.triangles = triangles;
+			this.nodes = nodes;
+			this.normals = normals;
+		}
+
+		DoubleFileReader nodes() throws IOException
+		{
+			return nodes.open();
+		}
+
+		DoubleFileReader normals() throws IOException
+		{
+			if (normals == null)
+				throw new IOException("Normals are not available");
+			return normals.open();
+		}
+
+		void fail() throws InterruptedException
+		{
+			nodes.put(POISON);
+			if (normals != null)
+				normals.put(POISON);
+		}
+
+		void close()
+		{
+			nodes.close();
+			if (normals != null)
+				normals.close();
+		}
+	}
+
+	/**
+	 * Reads values sent by the driver.  Values can be read in any order,
+	 * but if this stream is sequential, chunks before the last accessed
+	 * one are released and cannot be read again.
+	 */
+	private final class Stream implements DoubleFileReader
+	{
+		private final BlockingQueue<double[]> queue =
+			new ArrayBlockingQueue<double[]>(queueCapacity);
+		private final long size;
+		private final boolean randomAccess;
+		private final ArrayList<double[]> chunks = new ArrayList<double[]>();
+		private volatile boolean closed;
+		private boolean opened;
+		private int released;
+		private int position;
+
+		Stream(long size, boolean randomAccess)
+		{
+			this.size = size;
+			this.randomAccess = randomAccess;
+		}
+
+		Stream open() throws IOException
+		{
+			if (opened)
+				throw new IOException("Values can be read only once");
+			opened = true;
+			return this;
+		}
+
+		// Called by the reader thread
+		void put(double[] chunk) throws InterruptedException
+		{
+			if (!closed)
+				queue.put(chunk);
+		}
+
+		private double[] chunk(int c) throws IOException
+		{
+			if (closed)
+				throw new IOException("Stream closed");
+			while (chunks.size() <= c)
+			{
+				double[] a;
+				try
+				{
+					a = queue.take();
+				}
+				catch (InterruptedException ex)
+				{
+					throw new InterruptedIOException();
+				}
+				if (a == POISON)
+				{
+					close();
+					throw new IOException("Mesh could not be read", failure);
+				}
+				chunks.add(a);
+			}
+			if (c < released)
+				throw new IOException("Chunk "+c+" has been released");
+			if (!randomAccess)
+			{
+				for (; released < c; released++)
+					chunks.set(released, null);
+			}
+			return chunks.get(c);
+		}
+
+		public long size()
+		{
+			return size;
+		}
+
+		public double get() throws IOException
+		{
+			return get(position++);
+		}
+
+		public double get(int index) throws IOException
+		{
+			if (index < 0 || index >= size)
+				throw new IndexOutOfBoundsException();
+			return chunk(index / chunkSize)[index % chunkSize];
+		}
+
+		public int get(double[] dst) throws IOException
+		{
+			return get(dst, 0, dst.length);
+		}
+
+		public int get(double[] dst, int offset, int len) throws IOException
+		{
+			int n = get(position, dst, offset, len);
+			position += n;
+			return n;
+		}
+
+		public int get(int index, double[] dst) throws IOException
+		{
+			return get(index, dst, 0, dst.length);
+		}
+
+		public int get(int index, double[] dst, int offset, int len) throws IOException
+		{
+			int n = (int) Math.min(len, size - index);
+			for (int i = 0; i < n; )
+			{
+				int k = (index + i) % chunkSize;
+				int m = Math.min(n - i, chunkSize - k);
+				System.arraycopy(chunk((index + i) / chunkSize), k, dst, offset + i, m);
+				i += m;
+			}
+			return Math.max(n, 0);
+		}
+
+		public boolean isEOF()
+		{
+			return position >= size;
+		}
+
+		public void close()
+		{
+			closed = true;
+			queue.clear();
+			chunks.clear();
+		}
+	}
+}
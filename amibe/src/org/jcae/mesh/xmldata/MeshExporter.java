@@ -24,11 +24,16 @@ import gnu.trove.TIntHashSet;
 import gnu.trove.TIntArrayList;
 import gnu.trove.TIntIntHashMap;
 import java.io.IOException;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileOutputStream;
-import java.io.DataOutputStream;
 import java.io.BufferedOutputStream;
+import java.io.OutputStream;
 import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.channels.Channels;
 import java.text.FieldPosition;
 import java.text.ParsePosition;
 import java.text.DecimalFormatSymbols;
@@ -37,11 +42,18 @@ import java.text.DecimalFormat;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.logging.Level;
 import java.util.zip.GZIPOutputStream;
 import javax.xml.parsers.ParserConfigurationException;
 import org.xml.sax.SAXException;
 import java.util.logging.Logger;
+import org.jcae.mesh.amibe.ds.CompactMesh;
 import org.jcae.mesh.xmldata.AmibeReader.Group;
 import org.jcae.mesh.xmldata.AmibeReader.SubMesh;
 
@@ -182,6 +194,19 @@ abstract public class MeshExporter
 	protected List<Group> groupsToExport;
 	protected int[][] groups;
 	private int numberOfTriangles;
+	// Only set when exporting a compact mesh, subMesh and groupsToExport
+	// are then null
+	private CompactMesh compactMesh;
+	private String[] groupNames;
+	private int[] groupIdsToExport;
+	private int nrThreads = 1;
+	private int chunkSize = 65536;
+	// Thread pool used by writeRecords, it is created once by
+	// write(PrintStream) and null outside of this method
+	private ExecutorService recordsExecutor;
+	// Set by MeshExportDriver when the mesh is read once for several
+	// exporters
+	private MeshExportDriver.Feed feed;
 	/**
 	 * @param directory The directory which contains 3d files
 	 * @param groupIds The list of ids of groups to convert
@@ -212,14 +237,110 @@ abstract public class MeshExporter
 		this(new File(directory), null);
 	}
 
+	/**
+	 * @param mesh The compact mesh to convert
+	 * @param groupNames The list of names of groups to convert, or
+	 * <code>null</code> to convert all groups
+	 */
+	protected MeshExporter(CompactMesh mesh, String[] groupNames)
+	{
+		compactMesh = mesh;
+		TreeSet<Integer> ids = new TreeSet<Integer>();
+		for(int id:mesh.getGroups())
+			ids.add(id);
+		List<Integer> selected = new ArrayList<Integer>(ids.size());
+		List<String> names = new ArrayList<String>(ids.size());
+		for(int id:ids)
+		{
+			String name = mesh.getGroupName(id);
+			if(name == null)
+				name = Integer.toString(id);
+			if(groupNames == null || Arrays.asList(groupNames).contains(name))
+			{
+				selected.add(id);
+				names.add(name);
+			}
+		}
+		groupIdsToExport = new int[selected.size()];
+		for(int i = 0; i < groupIdsToExport.length; i++)
+			groupIdsToExport[i] = selected.get(i);
+		this.groupNames = names.toArray(new String[names.size()]);
+	}
+
 	public SubMesh getSubMesh()
 	{
 		return subMesh;
 	}
 
+	/**
+	 * Return the name of the i-th exported group.
+	 */
+	protected String getGroupName(int i)
+	{
+		if(compactMesh != null)
+			return groupNames[i];
+		return groupsToExport.get(i).getName();
+	}
+
+	/**
+	 * Return the number of nodes of the whole mesh.
+	 */
+	protected int getNumberOfNodes()
+	{
+		if(compactMesh != null)
+			return compactMesh.getNumberOfVertices();
+		return subMesh.getNumberOfNodes();
+	}
+
+	/**
+	 * Return the number of triangles of the whole mesh.
+	 */
+	protected int getNumberOfTrias()
+	{
+		if(compactMesh != null)
+			return compactMesh.getNumberOfTriangles();
+		return subMesh.getNumberOfTrias();
+	}
+
+	/**
+	 * Return node coordinates of the whole mesh.
+	 */
+	protected DoubleFileReader getNodes() throws IOException
+	{
+		if(feed != null)
+			return feed.nodes();
+		if(compactMesh != null)
+			return new DoubleArrayReader(compactMesh.getCoordinates());
+		return subMesh.getNodes();
+	}
+
+	/**
+	 * Return normals at triangle vertices.
+	 */
+	protected DoubleFileReader getNormals() throws IOException
+	{
+		if(feed != null)
+			return feed.normals();
+		if(compactMesh != null)
+			throw new IOException("Compact meshes do not store normals");
+		return subMesh.getNormals();
+	}
+
 	private void readGroups() throws IOException
 	{
 		numberOfTriangles=0;
+		if(feed != null)
+		{
+			groups = feed.groups;
+			for(int[] g : groups)
+				numberOfTriangles += g.length;
+			return;
+		}
+		if(compactMesh != null)
+		{
+			readCompactGroups();
+			return;
+		}
 		groups=new int[groupsToExport.size()][];
 		int i = 0;
 		for(Group g:groupsToExport)
@@ -229,8 +350,115 @@ abstract public class MeshExporter
 		}
 	}
 
+	private void readCompactGroups()
+	{
+		int[] triaGroups = compactMesh.getGroups();
+		TIntIntHashMap position = new TIntIntHashMap(groupIdsToExport.length);
+		for(int i = 0; i < groupIdsToExport.length; i++)
+			position.put(groupIdsToExport[i], i);
+		int[] sizes = new int[groupIdsToExport.length];
+		for(int id:triaGroups)
+		{
+			if(position.containsKey(id))
+				sizes[position.get(id)]++;
+		}
+		groups = new int[groupIdsToExport.length][];
+		for(int i = 0; i < groups.length; i++)
+		{
+			groups[i] = new int[sizes[i]];
+			numberOfTriangles += sizes[i];
+			sizes[i] = 0;
+		}
+		for(int t = 0; t < triaGroups.length; t++)
+		{
+			if(!position.containsKey(triaGroups[t]))
+				continue;
+			int i = position.get(triaGroups[t]);
+			groups[i][sizes[i]++] = t;
+		}
+	}
+
+	/**
+	 * Give access to an array through the DoubleFileReader interface.
+	 */
+	private static class DoubleArrayReader implements DoubleFileReader
+	{
+		private final double[] array;
+		private int position;
+
+		DoubleArrayReader(double[] array)
+		{
+			this.array = array;
+		}
+
+		public long size()
+		{
+			return array.length;
+		}
+
+		public double get()
+		{
+			return array[position++];
+		}
+
+		public double get(int index)
+		{
+			return array[index];
+		}
+
+		public int get(double[] dst)
+		{
+			return get(dst, 0, dst.length);
+		}
+
+		public int get(double[] dst, int offset, int len)
+		{
+			int n = get(position, dst, offset, len);
+			position += n;
+			return n;
+		}
+
+		public int get(int index, double[] dst)
+		{
+			return get(index, dst, 0, dst.length);
+		}
+
+		public int get(int index, double[] dst, int offset, int len)
+		{
+			int n = Math.min(len, array.length - index);
+			System.arraycopy(array, index, dst, offset, n);
+			return n;
+		}
+
+		public boolean isEOF()
+		{
+			return position >= array.length;
+		}
+
+		public void close()
+		{
+		}
+	}
+
 	private int[] readTriangles() throws IOException
 	{
+		if(feed != null)
+			return feed.triangles;
+		if(compactMesh != null)
+		{
+			int[] triangles = compactMesh.getTriangles();
+			int[] toReturn = new int[numberOfTriangles * 3];
+			int count = 0;
+			for (int i = 0; i < groups.length; i++)
+			{
+				for (int j = 0; j < groups[i].length; j++)
+				{
+					System.arraycopy(triangles, groups[i][j] * 3, toReturn, count, 3);
+					count += 3;
+				}
+			}
+			return toReturn;
+		}
 		IntFileReader ifrT = subMesh.getTriangles();
 		int[] toReturn = new int[numberOfTriangles * 3];
 		int count = 0;
@@ -245,30 +473,73 @@ abstract public class MeshExporter
 		return toReturn;
 	}	
 	
+	/**
+	 * Reads exported groups and returns the nodes of their triangles.
+	 * This is used by {@link MeshExportDriver} to read the mesh once.
+	 */
+	final int[] readMesh() throws IOException
+	{
+		readGroups();
+		return readTriangles();
+	}
+
+	final void setFeed(MeshExportDriver.Feed feed)
+	{
+		this.feed = feed;
+	}
+
+	/**
+	 * Tells whether node coordinates are read in increasing order.
+	 * When exporting through {@link MeshExportDriver}, nodes which have
+	 * been read can then be released.
+	 */
+	boolean readsNodesInOrder()
+	{
+		return true;
+	}
+
+	/**
+	 * Tells whether normals are written.
+	 */
+	boolean writesNormals()
+	{
+		return false;
+	}
+
 	public final void write(PrintStream out) throws ParserConfigurationException, SAXException, IOException
 	{
 		readGroups();
 		int[] nodeIDs=readTriangles();
 		TIntIntHashMap amibeNodeToUNVNode=new TIntIntHashMap();
-		writeInit(out);
-		TIntHashSet nodeset = new TIntHashSet(nodeIDs);
-		TIntArrayList nodelist = new TIntArrayList(nodeset.toArray());
-		nodelist.sort();
-		writeNodes(out, nodelist.toNativeArray(), amibeNodeToUNVNode);
-		TIntIntHashMap amibeTriaToUNVTria=new TIntIntHashMap();
-		writeTriangles(out, nodeIDs, amibeNodeToUNVNode, amibeTriaToUNVTria);
+		recordsExecutor = newExecutor();
 		try
 		{
-			// Do not complain if normals had not been written
-			writeNormals(out, nodeIDs, amibeNodeToUNVNode, amibeTriaToUNVTria);
+			writeInit(out);
+			TIntHashSet nodeset = new TIntHashSet(nodeIDs);
+			TIntArrayList nodelist = new TIntArrayList(nodeset.toArray());
+			nodelist.sort();
+			writeNodes(out, nodelist.toNativeArray(), amibeNodeToUNVNode);
+			TIntIntHashMap amibeTriaToUNVTria=new TIntIntHashMap();
+			writeTriangles(out, nodeIDs, amibeNodeToUNVNode, amibeTriaToUNVTria);
+			try
+			{
+				// Do not complain if normals had not been written
+				writeNormals(out, nodeIDs, amibeNodeToUNVNode, amibeTriaToUNVTria);
+			}
+			catch (IOException ex)
+			{
+			}
+			nodeIDs=null;
+			amibeNodeToUNVNode=null;
+			writeGroups(out, amibeTriaToUNVTria);
+			writeFinish(out);
 		}
-		catch (IOException ex)
+		finally
 		{
+			if (recordsExecutor != null)
+				recordsExecutor.shutdown();
+			recordsExecutor = null;
 		}
-		nodeIDs=null;
-		amibeNodeToUNVNode=null;
-		writeGroups(out, amibeTriaToUNVTria);
-		writeFinish(out);
 	}
 	
 	/**
@@ -283,17 +554,7 @@ abstract public class MeshExporter
 		logger.info("Export into file "+fileName+" (format "+getClass().getSimpleName()+")");
 		try
 		{
-			FileOutputStream fos=new FileOutputStream(fileName);
-			BufferedOutputStream bos=new BufferedOutputStream(fos);
-			PrintStream pstream;
-
-			if(fileName.endsWith(".gz"))
-				pstream=new PrintStream(new GZIPOutputStream(bos));
-			else
-				pstream=new PrintStream(bos);
-
-			write(pstream);
-			pstream.close();
+			writeFile(fileName);
 		}
 		catch(IOException e)
 		{
@@ -312,6 +573,212 @@ abstract public class MeshExporter
 		}
 	}
 	
+	/**
+	 * Writes the mesh into a file.  Exporters which do not write
+	 * through a <code>PrintStream</code> override this method.
+	 */
+	void writeFile(String fileName)
+		throws ParserConfigurationException, SAXException, IOException
+	{
+		FileOutputStream fos=new FileOutputStream(fileName);
+		// Large blocks formatted by writeRecords are not copied
+		// into this buffer and go straight to the channel
+		BufferedOutputStream bos=new BufferedOutputStream(
+			Channels.newOutputStream(fos.getChannel()), 1 << 16);
+		PrintStream pstream;
+
+		if(fileName.endsWith(".gz"))
+			pstream=new PrintStream(new GZIPOutputStream(bos));
+		else
+			pstream=new PrintStream(bos);
+
+		write(pstream);
+		pstream.close();
+	}
+
+	/**
+	 * Sets the number of threads used to format nodes, triangles and
+	 * groups.
+	 */
+	public final void setNumberOfThreads(int n)
+	{
+		nrThreads = n;
+	}
+
+	/** Sets the number of records in a chunk, for tests. */
+	final void setChunkSize(int n)
+	{
+		chunkSize = n;
+	}
+
+	/**
+	 * Formats records of a block, like nodes or triangles, into bytes.
+	 */
+	abstract static class Records
+	{
+		/**
+		 * Copies data needed to format records of a chunk.  This method
+		 * is called sequentially in file order, because file readers
+		 * are not thread safe.
+		 */
+		void read(Chunk c) throws IOException
+		{
+		}
+
+		/**
+		 * Formats records of a chunk.  This method may be called
+		 * concurrently by several threads, it must not modify shared
+		 * data.
+		 */
+		abstract void format(Chunk c, ByteFormatter out);
+	}
+
+	/**
+	 * A range of records <code>[from, to)</code>.  Chunks and their
+	 * buffers are reused, so that memory usage does not depend on mesh
+	 * size.
+	 */
+	static final class Chunk implements Callable<Object>
+	{
+		int from, to;
+		double[] coords = new double[0];
+		private Records records;
+		private final ByteFormatter bytes = new ByteFormatter();
+
+		/**
+		 * Returns an array of at least <code>n</code> doubles.
+		 */
+		double[] coords(int n)
+		{
+			if (coords.length < n)
+				coords = new double[n];
+			return coords;
+		}
+
+		public Object call()
+		{
+			bytes.clear();
+			records.format(this, bytes);
+			return null;
+		}
+	}
+
+	/**
+	 * Formats <code>n</code> records by chunks, and writes them in
+	 * order.  Chunks are formatted in parallel by the thread pool of
+	 * {@link #write(PrintStream)} if several threads have been requested.
+	 */
+	final void writeRecords(PrintStream out, int n, Records records)
+		throws IOException
+	{
+		int step = chunksPerStep();
+		List<Chunk> chunks = new ArrayList<Chunk>(step);
+		for(int i = 0; i < step; i++)
+			chunks.add(new Chunk());
+		for(int first = 0; first < n; first += step * chunkSize)
+		{
+			List<Chunk> sub = new ArrayList<Chunk>(step);
+			for(Chunk c : chunks)
+			{
+				c.from = first + sub.size() * chunkSize;
+				if (c.from >= n)
+					break;
+				c.to = Math.min(n, c.from + chunkSize);
+				c.records = records;
+				records.read(c);
+				sub.add(c);
+			}
+			invokeAll(recordsExecutor, sub);
+			for(Chunk c : sub)
+				c.bytes.writeTo(out);
+		}
+	}
+
+	/**
+	 * Returns the number of records in a chunk.
+	 */
+	final int chunkSize()
+	{
+		return chunkSize;
+	}
+
+	/**
+	 * Returns the number of chunks which are read before being
+	 * processed in parallel.
+	 */
+	final int chunksPerStep()
+	{
+		return nrThreads > 1 ? 2 * nrThreads : 1;
+	}
+
+	/**
+	 * Returns a thread pool, or <code>null</code> if a single thread
+	 * has been requested.
+	 */
+	final ExecutorService newExecutor()
+	{
+		return nrThreads > 1 ? Executors.newFixedThreadPool(nrThreads) : null;
+	}
+
+	/**
+	 * Runs tasks with an executor, or in current thread if
+	 * <code>executor</code> is <code>null</code>.
+	 */
+	static void invokeAll(ExecutorService executor, List<? extends Callable<Object>> tasks)
+		throws IOException
+	{
+		try
+		{
+			if (executor == null || tasks.size() == 1)
+			{
+				for(Callable<Object> c : tasks)
+					c.call();
+				return;
+			}
+			for(Future<Object> f : executor.invokeAll(tasks))
+				f.get();
+		}
+		catch (InterruptedException ex)
+		{
+			throw new RuntimeException(ex);
+		}
+		catch (ExecutionException ex)
+		{
+			if (ex.getCause() instanceof IOException)
+				throw (IOException) ex.getCause();
+			if (ex.getCause() instanceof RuntimeException)
+				throw (RuntimeException) ex.getCause();
+			throw new RuntimeException(ex.getCause());
+		}
+		catch (IOException ex)
+		{
+			throw ex;
+		}
+		catch (RuntimeException ex)
+		{
+			throw ex;
+		}
+		catch (Exception ex)
+		{
+			throw new RuntimeException(ex);
+		}
+	}
+
+	/**
+	 * Returns the index of the group which contains the triangle
+	 * <code>t</code> of the exported triangle list.
+	 */
+	final int groupOf(int t)
+	{
+		int i = 0;
+		while (t >= groups[i].length)
+		{
+			t -= groups[i].length;
+			i++;
+		}
+		return i;
+	}
+
 	protected abstract void writeNodes(PrintStream out, int[] nodesID,
 		TIntIntHashMap amibeToUNV) throws IOException;
 	
@@ -358,6 +825,11 @@ abstract public class MeshExporter
 		{
 			super(directory, groupIds);
 		}
+
+		public UNV(CompactMesh mesh, String[] groupNames)
+		{
+			super(mesh, groupNames);
+		}
 		
 		public UNV(String file)
 		{
@@ -453,24 +925,15 @@ abstract public class MeshExporter
 		@Override
 		public void writeNodes(PrintStream out, int[] nodesID, TIntIntHashMap amibeToUNV) throws IOException
 		{
-			DoubleFileReader dfrN = subMesh.getNodes();
+			DoubleFileReader dfrN = getNodes();
 
 			out.println("    -1"+CR+"  2411");
-			int count =  0;
-			double x,y,z;
 			for(int i=0; i<nodesID.length; i++)
-			{
-				int iid=nodesID[i]*3;
-				x=dfrN.get(iid);
-				y=dfrN.get(iid+1);
-				z=dfrN.get(iid+2);
-				count++;
-				amibeToUNV.put(nodesID[i], count);
-				writeSingleNode(out, count, x, y, z);
-			}
+				amibeToUNV.put(nodesID[i], i+1);
+			writeRecords(out, nodesID.length, new NodeRecords(dfrN, nodesID));
 			out.println("    -1");
 			dfrN.close();
-			logger.info("Total number of nodes: "+count);
+			logger.info("Total number of nodes: "+nodesID.length);
 		}
 		
 		/**
@@ -480,22 +943,19 @@ abstract public class MeshExporter
 		@Override
 		public void writeTriangles(PrintStream out, int[] triangles,
 			TIntIntHashMap amibeNodeToUNVNode, TIntIntHashMap amibeTriaToUNVTria)
+			throws IOException
 		{
 			out.println("    -1"+CR+"  2412");
 			int count=0;
-			int triaIndex=0;
 			for(int i=0; i<groups.length; i++)
 			{
 				for(int j=0; j<groups[i].length; j++)
 				{
 					count++;
 					amibeTriaToUNVTria.put(groups[i][j], count);
-					writeSingleTriangle(out, count,
-						amibeNodeToUNVNode.get(triangles[triaIndex++]),
-						amibeNodeToUNVNode.get(triangles[triaIndex++]),
-						amibeNodeToUNVNode.get(triangles[triaIndex++]));
 				}
 			}
+			writeRecords(out, count, new TriangleRecords(triangles, amibeNodeToUNVNode));
 			out.println("    -1");
 			logger.info("Total number of triangles: "+count);
 		}
@@ -506,6 +966,7 @@ abstract public class MeshExporter
 		 */
 		@Override
 		public void writeGroups(PrintStream out, TIntIntHashMap amibeTriaToUNVTria)
+			throws IOException
 		{
 			out.println("    -1"+CR+"  2435");
 			for(int i=0;i<groups.length; i++)
@@ -514,35 +975,279 @@ abstract public class MeshExporter
 					"         0         0         0         0         0         0"+
 					FORMAT_I10.format(groups[i].length));
 				
-				out.println(groupsToExport.get(i).getName());
-				int countg=0;
-				for(int j=0; j<groups[i].length; j++)
+				out.println(getGroupName(i));
+				writeRecords(out, groups[i].length, new GroupRecords(groups[i], amibeTriaToUNVTria));
+			}
+			out.println("    -1");
+		}
+
+		private static class NodeRecords extends Records
+		{
+			private final DoubleFileReader dfrN;
+			private final int[] nodesID;
+			NodeRecords(DoubleFileReader dfrN, int[] nodesID)
+			{
+				this.dfrN = dfrN;
+				this.nodesID = nodesID;
+			}
+
+			@Override
+			void read(Chunk c) throws IOException
+			{
+				double[] coords = c.coords(3 * (c.to - c.from));
+				int k = 0;
+				for(int i = c.from; i < c.to; i++)
 				{
-					out.print("         8"
-						+FORMAT_I10.format(amibeTriaToUNVTria.get(groups[i][j]))
-						+"         0         0");
-					countg++;
-					if ((countg % 2) == 0)
-						out.println("");
+					int iid=nodesID[i]*3;
+					coords[k++] = dfrN.get(iid);
+					coords[k++] = dfrN.get(iid+1);
+					coords[k++] = dfrN.get(iid+2);
+				}
+			}
+
+			@Override
+			void format(Chunk c, ByteFormatter out)
+			{
+				int k = 0;
+				for(int i = c.from; i < c.to; i++)
+				{
+					out.appendI10(i+1).append("         1         1         1").newLine();
+					out.appendD25_16(c.coords[k++]);
+					out.appendD25_16(c.coords[k++]);
+					out.appendD25_16(c.coords[k++]).newLine();
+				}
+			}
+		}
+
+		private static class TriangleRecords extends Records
+		{
+			private final int[] triangles;
+			private final TIntIntHashMap amibeNodeToUNVNode;
+			TriangleRecords(int[] triangles, TIntIntHashMap amibeNodeToUNVNode)
+			{
+				this.triangles = triangles;
+				this.amibeNodeToUNVNode = amibeNodeToUNVNode;
+			}
+
+			@Override
+			void format(Chunk c, ByteFormatter out)
+			{
+				for(int i = c.from; i < c.to; i++)
+				{
+					out.appendI10(i+1).append("        91         1         1         1         3").newLine();
+					out.appendI10(amibeNodeToUNVNode.get(triangles[3*i]));
+					out.appendI10(amibeNodeToUNVNode.get(triangles[3*i+1]));
+					out.appendI10(amibeNodeToUNVNode.get(triangles[3*i+2])).newLine();
+				}
+			}
+		}
+
+		private static class GroupRecords extends Records
+		{
+			private final int[] group;
+			private final TIntIntHashMap amibeTriaToUNVTria;
+			GroupRecords(int[] group, TIntIntHashMap amibeTriaToUNVTria)
+			{
+				this.group = group;
+				this.amibeTriaToUNVTria = amibeTriaToUNVTria;
+			}
+
+			@Override
+			void format(Chunk c, ByteFormatter out)
+			{
+				// Two triangles per line
+				for(int j = c.from; j < c.to; j++)
+				{
+					out.append("         8");
+					out.appendI10(amibeTriaToUNVTria.get(group[j]));
+					out.append("         0         0");
+					if ((j % 2) == 1 || j == group.length - 1)
+						out.newLine();
 				}
-				if ((countg % 2) !=0 )
-					out.println();
 			}
-			out.println("    -1");
 		}
 	}
 	
 	public static class STL extends MeshExporter
 	{		
+		/** Size of the header of binary files */
+		static final int HEADER_SIZE = 84;
+		/** Size of a facet in binary files */
+		static final int FACET_SIZE = 50;
+		private boolean binary;
+
 		public STL(File directory, String[] groupIds)
 		{
 			super(directory, groupIds);
 		}
 
+		public STL(CompactMesh mesh, String[] groupNames)
+		{
+			super(mesh, groupNames);
+		}
+
 		public STL(String file)
 		{
 			super(file);
 		}
+
+		/**
+		 * Writes binary STL files instead of ASCII files.  Binary
+		 * files are 5 times smaller, coordinates are stored as floats.
+		 */
+		public final void setBinary(boolean binary)
+		{
+			this.binary = binary;
+		}
+
+		/**
+		 * Writes a binary STL file.  Facets have a fixed size, so
+		 * their normals are computed and they are encoded in parallel,
+		 * and each chunk is written at its offset in file.  Compressed
+		 * files are written sequentially.
+		 */
+		@Override
+		void writeFile(String fileName)
+			throws ParserConfigurationException, SAXException, IOException
+		{
+			if(!binary)
+			{
+				super.writeFile(fileName);
+				return;
+			}
+			int[] triangles = readMesh();
+			int nbt = triangles.length / 3;
+			FileOutputStream fos = new FileOutputStream(fileName);
+			OutputStream gz = null;
+			FileChannel channel = null;
+			if(fileName.endsWith(".gz"))
+				gz = new GZIPOutputStream(new BufferedOutputStream(fos, 1 << 16));
+			else
+				channel = fos.getChannel();
+			ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+			byte[] title = "Binary STL written by jCAE".getBytes("US-ASCII");
+			header.put(title);
+			for(int i = title.length; i < 80; i++)
+				header.put((byte) ' ');
+			header.putInt(nbt);
+			header.flip();
+			if(channel != null)
+				channel.write(header, 0L);
+			else
+				gz.write(header.array());
+
+			DoubleFileReader dfrN = getNodes();
+			int step = chunksPerStep();
+			List<FacetChunk> chunks = new ArrayList<FacetChunk>(step);
+			for(int i = 0; i < step; i++)
+				chunks.add(new FacetChunk(triangles, channel, chunkSize()));
+			ExecutorService executor = newExecutor();
+			try
+			{
+				for(int first = 0; first < nbt; first += step * chunkSize())
+				{
+					List<FacetChunk> sub = new ArrayList<FacetChunk>(step);
+					for(FacetChunk c : chunks)
+					{
+						int from = first + sub.size() * chunkSize();
+						if(from >= nbt)
+							break;
+						c.read(dfrN, from, Math.min(nbt, from + chunkSize()));
+						sub.add(c);
+					}
+					invokeAll(executor, sub);
+					if(gz != null)
+					{
+						for(FacetChunk c : sub)
+							gz.write(c.buffer.array(), 0, c.buffer.limit());
+					}
+				}
+			}
+			finally
+			{
+				if(executor != null)
+					executor.shutdown();
+				dfrN.close();
+				if(gz != null)
+					gz.close();
+				else
+					channel.close();
+			}
+			logger.info("Total number of triangles: "+nbt);
+		}
+
+		/**
+		 * Facets <code>[from, to)</code>.  Vertex coordinates are read
+		 * sequentially by <code>read()</code>, facets are encoded by
+		 * <code>call()</code>.
+		 */
+		private static class FacetChunk implements Callable<Object>
+		{
+			private final int[] triangles;
+			private final FileChannel channel;
+			private final double[] coords;
+			private final ByteBuffer buffer;
+			private int from, to;
+			FacetChunk(int[] triangles, FileChannel channel, int chunkSize)
+			{
+				this.triangles = triangles;
+				this.channel = channel;
+				coords = new double[9 * chunkSize];
+				buffer = ByteBuffer.allocate(FACET_SIZE * chunkSize).order(ByteOrder.LITTLE_ENDIAN);
+			}
+
+			void read(DoubleFileReader dfrN, int from, int to) throws IOException
+			{
+				this.from = from;
+				this.to = to;
+				int k = 0;
+				for(int i = 3 * from; i < 3 * to; i++)
+				{
+					int iid = triangles[i] * 3;
+					coords[k++] = dfrN.get(iid);
+					coords[k++] = dfrN.get(iid+1);
+					coords[k++] = dfrN.get(iid+2);
+				}
+			}
+
+			public Object call() throws IOException
+			{
+				buffer.clear();
+				for(int k = 0; k < 9 * (to - from); k += 9)
+				{
+					double ux = coords[k+3] - coords[k];
+					double uy = coords[k+4] - coords[k+1];
+					double uz = coords[k+5] - coords[k+2];
+					double vx = coords[k+6] - coords[k];
+					double vy = coords[k+7] - coords[k+1];
+					double vz = coords[k+8] - coords[k+2];
+					double nx = uy * vz - uz * vy;
+					double ny = uz * vx - ux * vz;
+					double nz = ux * vy - uy * vx;
+					double norm = Math.sqrt(nx * nx + ny * ny + nz * nz);
+					if(norm > 0.0)
+					{
+						nx /= norm;
+						ny /= norm;
+						nz /= norm;
+					}
+					buffer.putFloat((float) nx);
+					buffer.putFloat((float) ny);
+					buffer.putFloat((float) nz);
+					for(int l = 0; l < 9; l++)
+						buffer.putFloat((float) coords[k+l]);
+					buffer.putShort((short) 0);
+				}
+				buffer.flip();
+				if(channel != null)
+				{
+					long position = HEADER_SIZE + (long) FACET_SIZE * from;
+					while(buffer.hasRemaining())
+						position += channel.write(buffer, position);
+				}
+				return null;
+			}
+		}
 		
 		/**
 		 * @param out
@@ -553,7 +1258,7 @@ abstract public class MeshExporter
 			TIntIntHashMap amibeNodeToUNVNode, TIntIntHashMap amibeTriaToUNVTria)
 			throws IOException
 		{
-			DoubleFileReader dfrN = subMesh.getNodes();
+			DoubleFileReader dfrN = getNodes();
 			
 			out.println("solid export");
 			int count=0;
@@ -587,6 +1292,13 @@ abstract public class MeshExporter
 		{
 			//Nothing to do
 		}
+
+		@Override
+		boolean readsNodesInOrder()
+		{
+			// Nodes are read by triangles
+			return false;
+		}
 	}
 	
 	public static class MESH extends MeshExporter
@@ -595,11 +1307,22 @@ abstract public class MeshExporter
 		{
 			super(directory, groupIds);
 		}
+
+		public MESH(CompactMesh mesh, String[] groupNames)
+		{
+			super(mesh, groupNames);
+		}
 		
 		public MESH(String file)
 		{
 			super(file);
 		}		
+
+		@Override
+		boolean writesNormals()
+		{
+			return true;
+		}
 		
 		@Override
 		public void writeInit(PrintStream out)
@@ -616,23 +1339,14 @@ abstract public class MeshExporter
 		@Override
 		public void writeNodes(PrintStream out, int[] nodesID, TIntIntHashMap amibeToUNV) throws IOException
 		{
-			DoubleFileReader dfrN = subMesh.getNodes();
+			DoubleFileReader dfrN = getNodes();
 			
-			int count =  0;
-			double x,y,z;
 			out.println("\nVertices\n"+nodesID.length);
 			for(int i=0; i<nodesID.length; i++)
-			{
-				int iid=nodesID[i]*3;
-				x=dfrN.get(iid);
-				y=dfrN.get(iid+1);
-				z=dfrN.get(iid+2);
-				count++;
-				amibeToUNV.put(nodesID[i], count);
-				out.println(x+" "+y+" "+z+" 0");
-			}
+				amibeToUNV.put(nodesID[i], i+1);
+			writeRecords(out, nodesID.length, new NodeRecords(dfrN, nodesID));
 			dfrN.close();
-			logger.info("Total number of nodes: "+count);
+			logger.info("Total number of nodes: "+nodesID.length);
 		}
 		
 		/**
@@ -642,13 +1356,13 @@ abstract public class MeshExporter
 		@Override
 		public void writeTriangles(PrintStream out, int[] triangles,
 			TIntIntHashMap amibeNodeToUNVNode, TIntIntHashMap amibeTriaToUNVTria)
+			throws IOException
 		{
 			int count=0;
 			for(int i=0; i<groups.length; i++)
 				count += groups[i].length;
 			
 			out.println("\nTriangles\n"+count);
-			int triaIndex=0;
 			count=0;
 			for(int i=0; i<groups.length; i++)
 			{
@@ -656,9 +1370,9 @@ abstract public class MeshExporter
 				{
 					count++;
 					amibeTriaToUNVTria.put(groups[i][j], count);
-					out.println(amibeNodeToUNVNode.get(triangles[triaIndex++])+" "+amibeNodeToUNVNode.get(triangles[triaIndex++])+" "+amibeNodeToUNVNode.get(triangles[triaIndex++])+" "+(i+1));
 				}
 			}
+			writeRecords(out, count, new TriangleRecords(triangles, amibeNodeToUNVNode));
 			logger.info("Total number of triangles: "+count);
 		}
 		
@@ -666,41 +1380,162 @@ abstract public class MeshExporter
 		public void writeNormals(PrintStream out, int[] triangles,
 			TIntIntHashMap amibeNodeToUNVNode, TIntIntHashMap amibeTriaToUNVTria) throws IOException
 		{
-			DoubleFileReader dfrN = subMesh.getNormals();
+			DoubleFileReader dfrN = getNormals();
 			
 			int count=0;
 			for(int i=0; i<groups.length; i++)
 				count += groups[i].length;
 			
 			out.println("\nNormals\n"+(3*count));
+			writeRecords(out, count, new NormalRecords(dfrN, amibeTriaToUNVTria));
+			dfrN.close();
 
-			double x,y,z;
-			for(int i=0; i<groups.length; i++)
+			out.println("\nNormalAtTriangleVertices\n"+(3*count));
+			writeRecords(out, count, new NormalAtVertexRecords(amibeTriaToUNVTria));
+		}
+
+		private static class NodeRecords extends Records
+		{
+			private final DoubleFileReader dfrN;
+			private final int[] nodesID;
+			NodeRecords(DoubleFileReader dfrN, int[] nodesID)
 			{
-				for(int j=0; j<groups[i].length; j++)
+				this.dfrN = dfrN;
+				this.nodesID = nodesID;
+			}
+
+			@Override
+			void read(Chunk c) throws IOException
+			{
+				double[] coords = c.coords(3 * (c.to - c.from));
+				int k = 0;
+				for(int i = c.from; i < c.to; i++)
 				{
-					int iid = (amibeTriaToUNVTria.get(groups[i][j]) - 1)* 9;
-					for (int k = 0; k < 3; k++)
+					int iid=nodesID[i]*3;
+					coords[k++] = dfrN.get(iid);
+					coords[k++] = dfrN.get(iid+1);
+					coords[k++] = dfrN.get(iid+2);
+				}
+			}
+
+			@Override
+			void format(Chunk c, ByteFormatter out)
+			{
+				int k = 0;
+				for(int i = c.from; i < c.to; i++)
+				{
+					out.append(c.coords[k++]).append(" ");
+					out.append(c.coords[k++]).append(" ");
+					out.append(c.coords[k++]).append(" 0").newLine();
+				}
+			}
+		}
+
+		private class TriangleRecords extends Records
+		{
+			private final int[] triangles;
+			private final TIntIntHashMap amibeNodeToUNVNode;
+			TriangleRecords(int[] triangles, TIntIntHashMap amibeNodeToUNVNode)
+			{
+				this.triangles = triangles;
+				this.amibeNodeToUNVNode = amibeNodeToUNVNode;
+			}
+
+			@Override
+			void format(Chunk c, ByteFormatter out)
+			{
+				int g = groupOf(c.from);
+				int groupEnd = 0;
+				for(int i = 0; i <= g; i++)
+					groupEnd += groups[i].length;
+				for(int i = c.from; i < c.to; i++)
+				{
+					while (i >= groupEnd)
 					{
-						x=dfrN.get(iid);
-						y=dfrN.get(iid+1);
-						z=dfrN.get(iid+2);
-						out.println(x+" "+y+" "+z);
-						iid += 3;
+						g++;
+						groupEnd += groups[g].length;
 					}
+					out.append(amibeNodeToUNVNode.get(triangles[3*i])).append(" ");
+					out.append(amibeNodeToUNVNode.get(triangles[3*i+1])).append(" ");
+					out.append(amibeNodeToUNVNode.get(triangles[3*i+2])).append(" ");
+					out.append(g+1).newLine();
 				}
 			}
-			dfrN.close();
+		}
 
-			out.println("\nNormalAtTriangleVertices\n"+(3*count));
-			for(int i=0; i<groups.length; i++)
+		private class NormalRecords extends Records
+		{
+			private final DoubleFileReader dfrN;
+			private final TIntIntHashMap amibeTriaToUNVTria;
+			NormalRecords(DoubleFileReader dfrN, TIntIntHashMap amibeTriaToUNVTria)
 			{
-				for(int j=0; j<groups[i].length; j++)
+				this.dfrN = dfrN;
+				this.amibeTriaToUNVTria = amibeTriaToUNVTria;
+			}
+
+			@Override
+			void read(Chunk c) throws IOException
+			{
+				double[] coords = c.coords(9 * (c.to - c.from));
+				int g = groupOf(c.from);
+				int j = c.from;
+				for(int i = 0; i < g; i++)
+					j -= groups[i].length;
+				int k = 0;
+				for(int i = c.from; i < c.to; i++)
+				{
+					while (j >= groups[g].length)
+					{
+						g++;
+						j = 0;
+					}
+					int iid = (amibeTriaToUNVTria.get(groups[g][j]) - 1)* 9;
+					for(int l = 0; l < 9; l++)
+						coords[k++] = dfrN.get(iid + l);
+					j++;
+				}
+			}
+
+			@Override
+			void format(Chunk c, ByteFormatter out)
+			{
+				int k = 0;
+				for(int i = 3 * c.from; i < 3 * c.to; i++)
+				{
+					out.append(c.coords[k++]).append(" ");
+					out.append(c.coords[k++]).append(" ");
+					out.append(c.coords[k++]).newLine();
+				}
+			}
+		}
+
+		private class NormalAtVertexRecords extends Records
+		{
+			private final TIntIntHashMap amibeTriaToUNVTria;
+			NormalAtVertexRecords(TIntIntHashMap amibeTriaToUNVTria)
+			{
+				this.amibeTriaToUNVTria = amibeTriaToUNVTria;
+			}
+
+			@Override
+			void format(Chunk c, ByteFormatter out)
+			{
+				int g = groupOf(c.from);
+				int j = c.from;
+				for(int i = 0; i < g; i++)
+					j -= groups[i].length;
+				for(int i = c.from; i < c.to; i++)
 				{
-					int nT = amibeTriaToUNVTria.get(groups[i][j]);
-					out.println(nT+" 1 "+(3*nT-2));
-					out.println(nT+" 2 "+(3*nT-1));
-					out.println(nT+" 3 "+(3*nT));
+					while (j >= groups[g].length)
+					{
+						g++;
+						j = 0;
+					}
+					int nT = amibeTriaToUNVTria.get(groups[g][j]);
+					out.append(nT).append(" 1 ").append(3*nT-2).newLine();
+					out.append(nT).append(" 2 ").append(3*nT-1).newLine();
+					out.append(nT).append(" 3 ").append(3*nT).newLine();
+					j++;
 				}
 			}
 		}
@@ -712,6 +1547,11 @@ abstract public class MeshExporter
 		{
 			super(directory, groupIds);
 		}
+
+		public POLY(CompactMesh mesh, String[] groupNames)
+		{
+			super(mesh, groupNames);
+		}
 		
 		public POLY(String file)
 		{
@@ -730,7 +1570,7 @@ abstract public class MeshExporter
 		@Override
 		public void writeNodes(PrintStream out, int[] nodesID, TIntIntHashMap amibeToUNV) throws IOException
 		{
-			DoubleFileReader dfrN = subMesh.getNodes();
+			DoubleFileReader dfrN = getNodes();
 			
 			int count =  0;
 			double x,y,z;
@@ -792,17 +1632,111 @@ abstract public class MeshExporter
 	public static class VTK extends MeshExporter
 	{
 		private boolean dummyData = true;
+		private boolean compressed;
+		private int blockSize = 1 << 15;
+		// Compressed data arrays, only set while writing a compressed file
+		private AppendedDataWriter data;
 		
 		public VTK(File directory, String[] groupIds)
 		{
 			super(directory, groupIds);
 		}
+
+		public VTK(CompactMesh mesh, String[] groupNames)
+		{
+			super(mesh, groupNames);
+		}
 		
 		public VTK(String file)
 		{
 			super(file);
 		}
 
+		/**
+		 * Compress data arrays with zlib.  Arrays are split into blocks
+		 * which are compressed in parallel, see {@link #setBlockSize(int)}
+		 * and {@link #setNumberOfThreads(int)}.  Compression is only
+		 * applied by {@link #write(String)}, and not when file name ends
+		 * with <code>.gz</code>.
+		 */
+		public void setCompressed(boolean compressed)
+		{
+			this.compressed = compressed;
+		}
+
+		/**
+		 * Set the size in bytes of uncompressed blocks, default is 32768.
+		 */
+		public void setBlockSize(int blockSize)
+		{
+			if (blockSize <= 0)
+				throw new IllegalArgumentException("Invalid block size: "+blockSize);
+			this.blockSize = blockSize;
+		}
+
+		/**
+		 * Writes a file with compressed data arrays.  Offsets of arrays
+		 * are only known once they are written, so the space needed by
+		 * the XML header with the largest offsets is reserved, and the
+		 * header is written last.
+		 */
+		@Override
+		void writeFile(String fileName)
+			throws ParserConfigurationException, SAXException, IOException
+		{
+			if(!compressed || fileName.endsWith(".gz"))
+			{
+				super.writeFile(fileName);
+				return;
+			}
+			int nbArrays = dummyData ? 6 : 3;
+			long[] offsets = new long[nbArrays];
+			Arrays.fill(offsets, Long.MAX_VALUE);
+			// Header is followed by at least a space and the underscore
+			int reserved = header(offsets).length + 2;
+			FileOutputStream fos = new FileOutputStream(fileName);
+			FileChannel channel = fos.getChannel();
+			ExecutorService executor = newExecutor();
+			try
+			{
+				data = new AppendedDataWriter(channel, reserved, blockSize,
+					executor, chunksPerStep());
+				// Everything is written into data arrays
+				ByteArrayOutputStream unused = new ByteArrayOutputStream();
+				write(new PrintStream(unused));
+				assert unused.size() == 0;
+				data.writeHeader(header(data.offsets()), 0L);
+				data.writeTrailer(("</AppendedData></VTKFile>"+
+					System.getProperty("line.separator")).getBytes("US-ASCII"));
+			}
+			finally
+			{
+				data = null;
+				if(executor != null)
+					executor.shutdown();
+				fos.close();
+			}
+		}
+
+		private byte[] header(long[] offsets)
+		{
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			PrintStream out = new PrintStream(bytes);
+			writeHeader(out, offsets);
+			out.flush();
+			return bytes.toByteArray();
+		}
+
+		/**
+		 * Returns the writer of data arrays.
+		 */
+		private AppendedDataWriter dataWriter(PrintStream out)
+		{
+			if(data != null)
+				return data;
+			return new AppendedDataWriter(out);
+		}
+
 		/**
 		 * Write VTK header file
 		 * @param out The stream to write on 
@@ -811,10 +1745,39 @@ abstract public class MeshExporter
 		public void writeInit(PrintStream out)
 			throws IOException
 		{
-			long numberOfNodes=subMesh.getNumberOfNodes();
-			long numberOfTriangles=subMesh.getNumberOfTrias();
+			// Header of compressed files is written last
+			if(data != null)
+				return;
+			long numberOfNodes=getNumberOfNodes();
+			long numberOfTriangles=getNumberOfTrias();
+			long[] offsets = new long[dummyData ? 6 : 3];
+			long offset=0;
+			offsets[0]=offset;
+			offset+=4+(numberOfNodes*8*3);
+			offsets[1]=offset;
+			offset+=4+numberOfTriangles*4*3;
+			offsets[2]=offset;
+			offset+=4+numberOfTriangles*4;
+			if(dummyData)
+			{
+				offsets[3]=offset;
+				offset += 4+numberOfTriangles * 8;
+				offsets[4]=offset;
+				offset += 4+numberOfTriangles * 8;
+				offsets[5]=offset;
+			}
+			writeHeader(out, offsets);
+			out.print(" _");
+			out.flush();
+		}
+
+		private void writeHeader(PrintStream out, long[] offsets)
+		{
+			long numberOfNodes=getNumberOfNodes();
+			long numberOfTriangles=getNumberOfTrias();
 			//This is Java so we write in big endian		
-			out.println("<VTKFile type=\"PolyData\" version=\"0.1\" byte_order=\"BigEndian\">");
+			out.println("<VTKFile type=\"PolyData\" version=\"0.1\" byte_order=\"BigEndian\""+
+				(data != null ? " compressor=\"vtkZLibDataCompressor\">" : ">"));
 			out.println("<PolyData>");
 			
 			//Everything in one piece
@@ -823,41 +1786,30 @@ abstract public class MeshExporter
 				"\" NumberOfPolys=\""+numberOfTriangles+"\">");
 			
 			out.println("<Points><DataArray type=\"Float64\" NumberOfComponents=\"3\" "+
-				"format=\"appended\" offset=\"0\"/></Points>");		
-			long offset=4+(numberOfNodes*8*3);		
+				"format=\"appended\" offset=\""+offsets[0]+"\"/></Points>");		
 			
 			out.println("<Polys><DataArray type=\"Int32\" Name=\"connectivity\""+
-				" format=\"appended\" offset=\""+offset+"\"/>");
-			offset+=4+numberOfTriangles*4*3;
+				" format=\"appended\" offset=\""+offsets[1]+"\"/>");
 			
 			out.println("<DataArray type=\"Int32\" Name=\"offsets\" format=\"appended\"" +
-				" offset=\""+offset+"\"/></Polys>");		
-			offset+=4+numberOfTriangles*4;
+				" offset=\""+offsets[2]+"\"/></Polys>");		
 			
 			if(dummyData)
 			{
 				out.println("<CellData Scalars=\"Dummy\">");
 				out.println("\t<DataArray type=\"Float64\" Name=\"Dummy\" format=\"appended\" offset=\""
-					+offset+"\"/>");
-				offset += 4+numberOfTriangles * 8;
+					+offsets[3]+"\"/>");
 		
 				out.println("\t<DataArray type=\"Float64\" Name=\"Dummy x Dummy\" format=\"appended\" offset=\""
-					+offset+"\"/>");
-				//always keep track of offset in case we want to add thins to the
-				//file
-				offset += 4+numberOfTriangles * 8;
+					+offsets[4]+"\"/>");
 				
 				out.println("\t<DataArray type=\"Float64\" Name=\"Dummy vector\" NumberOfComponents=\"3\""+
-					" format=\"appended\" offset=\""+offset+"\"/>");
-				//always keep track of offset in case we want to add thins to the
-				//file
-				offset += 4+numberOfTriangles*8*3;			
+					" format=\"appended\" offset=\""+offsets[5]+"\"/>");
 				out.println("</CellData>");
 			}
 			
 			out.println("</Piece></PolyData>");
-			out.print("<AppendedData encoding=\"raw\"> _");
-			out.flush();
+			out.print("<AppendedData encoding=\"raw\">");
 		}
 	
 		/**
@@ -869,10 +1821,9 @@ abstract public class MeshExporter
 		protected void writeNodes(PrintStream out, int[] nodesID, TIntIntHashMap amibeToUNV)
 			throws IOException
 		{
-			DataOutputStream dos=new DataOutputStream(new BufferedOutputStream(out));
-			//Write the size of the array in octets
-			dos.writeInt(nodesID.length*8*3);
-			DoubleFileReader dfrN = subMesh.getNodes();
+			AppendedDataWriter dos=dataWriter(out);
+			dos.startArray((long) nodesID.length*8*3);
+			DoubleFileReader dfrN = getNodes();
 			
 			int count =  0;
 			double x,y,z;
@@ -883,14 +1834,14 @@ abstract public class MeshExporter
 				y=dfrN.get(iid+1);
 				z=dfrN.get(iid+2);
 				amibeToUNV.put(nodesID[i], count);
-				dos.writeDouble(x);
-				dos.writeDouble(y);
-				dos.writeDouble(z);
+				dos.putDouble(x);
+				dos.putDouble(y);
+				dos.putDouble(z);
 				count++;
 			}
+			dos.endArray();
 			dfrN.close();
 			logger.info("Total number of nodes: "+count);
-			dos.flush();
 			out.flush();
 		}
 		 
@@ -904,10 +1855,9 @@ abstract public class MeshExporter
 			TIntIntHashMap amibeNodeToUNVNode, TIntIntHashMap amibeTriaToUNVTria)
 			throws IOException
 		{
-			DataOutputStream dos=new DataOutputStream(new BufferedOutputStream(out));
-			//Write the size of the array in octets
+			AppendedDataWriter dos=dataWriter(out);
 			int nbt = triangles.length/3;
-			dos.writeInt(nbt*4*3);
+			dos.startArray((long) nbt*4*3);
 			int count=0;
 			int triaIndex=0;
 			for(int i=0; i<groups.length; i++)
@@ -915,20 +1865,20 @@ abstract public class MeshExporter
 				for(int j=0; j<groups[i].length; j++)
 				{
 					amibeTriaToUNVTria.put(groups[i][j], count);
-					dos.writeInt(amibeNodeToUNVNode.get(triangles[triaIndex++]));
-					dos.writeInt(amibeNodeToUNVNode.get(triangles[triaIndex++]));
-					dos.writeInt(amibeNodeToUNVNode.get(triangles[triaIndex++]));
+					dos.putInt(amibeNodeToUNVNode.get(triangles[triaIndex++]));
+					dos.putInt(amibeNodeToUNVNode.get(triangles[triaIndex++]));
+					dos.putInt(amibeNodeToUNVNode.get(triangles[triaIndex++]));
 					count++;
 				}
 			}
+			dos.endArray();
 			logger.info("Total number of triangles: "+count);
-			//Write the size of the array in octets
-			dos.writeInt(nbt*4);
 			//Write the offset of each cells (in our case triangles) in the
 			//connectivity array
+			dos.startArray((long) nbt*4);
 			for(int i=1; i<=nbt; i++)
-				dos.writeInt(3*i);
-			dos.flush();
+				dos.putInt(3*i);
+			dos.endArray();
 			out.flush();
 		}
 		
@@ -936,28 +1886,32 @@ abstract public class MeshExporter
 		protected void writeFinish(PrintStream out)
 			throws IOException
 		{
-			DataOutputStream dos=new DataOutputStream(new BufferedOutputStream(out));
+			AppendedDataWriter dos=dataWriter(out);
 			if(dummyData)
 			{
-				long nbt=subMesh.getNumberOfTrias();
-				//Write the size of the array in octets
-				dos.writeInt((int) nbt*8);		
+				long nbt=getNumberOfTrias();
+				dos.startArray(nbt*8);
 				for(int i=0; i<nbt; i++)
-					dos.writeDouble(i);
+					dos.putDouble(i);
+				dos.endArray();
 				
-				dos.writeInt((int) nbt*8);
+				dos.startArray(nbt*8);
 				for(int i=0; i<nbt; i++)
-					dos.writeDouble((double)i*i);
-				dos.writeInt((int) nbt*8*3);
+					dos.putDouble((double)i*i);
+				dos.endArray();
+
+				dos.startArray(nbt*8*3);
 				for(int i=0; i<nbt; i++)
 				{
-					dos.writeDouble(i);
-					dos.writeDouble(i);
-					dos.writeDouble(i);
+					dos.putDouble(i);
+					dos.putDouble(i);
+					dos.putDouble(i);
 				}
+				dos.endArray();
 			}
-			dos.flush();
-			out.println("</AppendedData></VTKFile>");
+			// Trailer of compressed files is written by writeFile
+			if(data == null)
+				out.println("</AppendedData></VTKFile>");
 			out.flush();
 		}
 		
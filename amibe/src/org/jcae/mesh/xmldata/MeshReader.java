@@ -22,6 +22,7 @@
 package org.jcae.mesh.xmldata;
 
 import java.util.logging.Level;
+import org.jcae.mesh.amibe.ds.CompactMesh;
 import org.jcae.mesh.amibe.ds.Mesh;
 import org.jcae.mesh.amibe.ds.Triangle;
 import org.jcae.mesh.amibe.ds.AbstractHalfEdge;
@@ -56,6 +57,8 @@ import java.util.logging.Logger;
 public class MeshReader
 {
 	private static final Logger logger=Logger.getLogger(MeshReader.class.getName());
+	// Number of nodes read at once by readObject3DBulk
+	private static final int BLOCK_SIZE = 8192;
 	
 	/**
 	 * Loads an Amibe 2D XML file into an existing Mesh2D instance.
@@ -312,6 +315,199 @@ public class MeshReader
 		}
 	}
 
+	/**
+	 * Loads an Amibe 3D XML file into an existing Mesh instance, like
+	 * {@link #readObject3D(Mesh, String)}, but faster on large meshes.
+	 * Binary files are memory-mapped, coordinates are read by large
+	 * blocks, triangle connectivity is read at once, and mesh collections
+	 * are sized from the numbers found in XML file.  If mesh has adjacency
+	 * relations, they are built from triangle connectivity without hashing
+	 * vertices.
+	 *
+	 * @param mesh     data structure updated when reading files
+	 * @param xmlDir   directory containing XML files
+	 */
+	public static void readObject3DBulk(Mesh mesh, String xmlDir)
+		throws IOException
+	{
+		try {
+			AmibeReader.Dim3 reader = new AmibeReader.Dim3(xmlDir);
+			SubMesh subMesh = reader.getSubmeshes().get(0);
+			PrimitiveFileReaderFactory pfrf = new PrimitiveFileReaderFactory("mmap");
+			int numberOfNodes = subMesh.getNumberOfNodes();
+			int numberOfTriangles = subMesh.getNumberOfTrias();
+			int numberOfReferences = subMesh.getNumberOfReferences();
+			int[] refs = null;
+			if (numberOfReferences > 0) {
+				refs = subMesh.getReferences();
+				mesh.setPersistentReferences(true);
+			}
+			mesh.ensureCapacity(Math.max(numberOfTriangles, 2 * numberOfNodes));
+
+			Vertex[] nodelist = new Vertex[numberOfNodes];
+			if (numberOfNodes > 0) {
+				DoubleFileReader dfrN = subMesh.getNodes(pfrf);
+				double[] block = new double[3 * BLOCK_SIZE];
+				int firstRef = numberOfNodes - numberOfReferences;
+				for (int i = 0; i < numberOfNodes; ) {
+					int nr = dfrN.get(block, 0, 3 * Math.min(BLOCK_SIZE, numberOfNodes - i)) / 3;
+					if (nr == 0)
+						throw new IOException("Unexpected end of file in "+xmlDir);
+					for (int k = 0; k < nr; k++, i++) {
+						nodelist[i] = mesh.createVertex(block[3*k], block[3*k+1], block[3*k+2]);
+						if (i >= firstRef)
+							nodelist[i].setRef(refs[i - firstRef]);
+					}
+				}
+				dfrN.close();
+			}
+			if (mesh.hasNodes()) {
+				for (Vertex v : nodelist)
+					mesh.add(v);
+			}
+
+			int[] connectivity = new int[3 * numberOfTriangles];
+			Triangle[] facelist = new Triangle[numberOfTriangles];
+			int nrInner = 0;
+			if (numberOfTriangles > 0) {
+				IntFileReader ifrT = subMesh.getTriangles(pfrf);
+				if (ifrT.get(connectivity) != connectivity.length)
+					throw new IOException("Unexpected end of file in "+xmlDir);
+				ifrT.close();
+				for (int i = 0; i < numberOfTriangles; i++) {
+					int i0 = connectivity[3*i];
+					int i1 = connectivity[3*i+1];
+					int i2 = connectivity[3*i+2];
+					//  Outer triangles are skipped
+					if (i0 < 0 || i1 < 0 || i2 < 0)
+						continue;
+					facelist[i] = mesh.createTriangle(nodelist[i0], nodelist[i1], nodelist[i2]);
+					mesh.add(facelist[i]);
+					connectivity[3*nrInner] = i0;
+					connectivity[3*nrInner+1] = i1;
+					connectivity[3*nrInner+2] = i2;
+					nrInner++;
+				}
+			}
+
+			int numberOfBeams = subMesh.getNumberOfBeams();
+			if (numberOfBeams > 0)
+			{
+				IntFileReader ifrB = subMesh.getBeams();
+				for (int i = 0; i < numberOfBeams; i++)
+					mesh.addBeam(nodelist[ifrB.get()], nodelist[ifrB.get()], 0);
+				ifrB.close();
+			}
+
+			int i = 1;
+			for (AmibeReader.Group g : subMesh.getGroups()) {
+				int id = i++;
+				mesh.setGroupName(id, g.getName());
+				for (int j : g.readTria3Ids())
+					facelist[j].setGroupId(id);
+				for(int j : g.readBeamsIds())
+					mesh.setBeamGroup(j, id);
+				for(int j : g.readNodesIds())
+					mesh.setVertexGroup(nodelist[j], g.getName());
+			}
+			facelist = null;
+			//  Build adjacency relations
+			if (mesh.hasAdjacency()) {
+				logger.fine("Build mesh adjacency");
+				if (mesh.getTriangles().size() != nrInner ||
+					(mesh.hasNodes() && mesh.getNodes().size() != numberOfNodes)) {
+					//  Mesh was not empty, vertices have to be hashed
+					mesh.buildAdjacency();
+				} else {
+					if (nrInner != numberOfTriangles) {
+						int[] temp = new int[3 * nrInner];
+						System.arraycopy(connectivity, 0, temp, 0, temp.length);
+						connectivity = temp;
+					}
+					mesh.buildAdjacency(nodelist, connectivity, 0, 1);
+				}
+			}
+		} catch (SAXException ex) {
+			throw new IOException(ex);
+		}
+	}
+
+	/**
+	 * Loads an Amibe 3D XML file into a compact mesh.  Coordinates and
+	 * triangles are read by bulk into flat arrays, no object is created
+	 * for vertices or triangles.  Beams and node groups are ignored.
+	 *
+	 * @param xmlDir   directory containing XML files
+	 * @return a compact mesh
+	 */
+	public static CompactMesh readCompactMesh(String xmlDir)
+		throws IOException
+	{
+		try {
+			AmibeReader.Dim3 reader = new AmibeReader.Dim3(xmlDir);
+			SubMesh subMesh = reader.getSubmeshes().get(0);
+			int numberOfNodes = subMesh.getNumberOfNodes();
+			double[] coords = new double[3 * numberOfNodes];
+			if (numberOfNodes > 0) {
+				DoubleFileReader dfrN = subMesh.getNodes();
+				dfrN.get(coords);
+				dfrN.close();
+			}
+			int numberOfReferences = subMesh.getNumberOfReferences();
+			int[] refs = new int[numberOfNodes];
+			if (numberOfReferences > 0) {
+				int[] r = subMesh.getReferences();
+				System.arraycopy(r, 0, refs, numberOfNodes - numberOfReferences, numberOfReferences);
+			}
+
+			int numberOfTriangles = subMesh.getNumberOfTrias();
+			int[] triangles = new int[3 * numberOfTriangles];
+			// Index of triangles once outer triangles are removed
+			int[] newIndex = new int[numberOfTriangles];
+			int nrInner = 0;
+			if (numberOfTriangles > 0) {
+				IntFileReader ifrT = subMesh.getTriangles();
+				ifrT.get(triangles);
+				ifrT.close();
+				for (int i = 0; i < numberOfTriangles; i++) {
+					if (triangles[3*i] < 0 || triangles[3*i+1] < 0 || triangles[3*i+2] < 0) {
+						newIndex[i] = -1;
+						continue;
+					}
+					if (nrInner != i)
+						System.arraycopy(triangles, 3*i, triangles, 3*nrInner, 3);
+					newIndex[i] = nrInner;
+					nrInner++;
+				}
+			}
+			if (nrInner != numberOfTriangles) {
+				int[] temp = new int[3 * nrInner];
+				System.arraycopy(triangles, 0, temp, 0, temp.length);
+				triangles = temp;
+			}
+			int[] groups = new int[nrInner];
+			for (int i = 0; i < nrInner; i++)
+				groups[i] = -1;
+			String[] names = new String[subMesh.getGroups().size()];
+			int i = 1;
+			for (AmibeReader.Group g : subMesh.getGroups()) {
+				int id = i++;
+				names[id - 1] = g.getName();
+				for (int j : g.readTria3Ids()) {
+					if (newIndex[j] >= 0)
+						groups[newIndex[j]] = id;
+				}
+			}
+			CompactMesh mesh = new CompactMesh(coords, refs, triangles, groups);
+			mesh.setPersistentReferences(numberOfReferences > 0);
+			for (int id = 1; id <= names.length; id++)
+				mesh.setGroupName(id, names[id - 1]);
+			return mesh;
+		} catch (SAXException ex) {
+			throw new IOException(ex);
+		}
+	}
+
 	// Method previously in MMesh3DReader, remove it?
 	public static int [] getInfos(String xmlDir)
 	{
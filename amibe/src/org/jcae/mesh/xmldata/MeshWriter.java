@@ -23,6 +23,7 @@ package org.jcae.mesh.xmldata;
 
 import java.util.List;
 import org.jcae.mesh.amibe.patch.Mesh2D;
+import org.jcae.mesh.amibe.ds.CompactMesh;
 import org.jcae.mesh.amibe.ds.Mesh;
 import org.jcae.mesh.amibe.ds.Triangle;
 import org.jcae.mesh.amibe.ds.Vertex;
@@ -280,6 +281,92 @@ public class MeshWriter
 		aw.finish();
 	}
 
+	/**
+	 * Write a compact mesh to an Amibe 3D XML file and binary files.
+	 * Nodes are written in the same order as by
+	 * {@link #writeObject3D(Mesh, String, String)}.
+	 *
+	 * @param submesh      mesh to be written on disk
+	 * @param xmlDir       name of the XML file
+	 * @param brepFile     basename of the brep file
+	 */
+	public static void writeObject3D(CompactMesh submesh, String xmlDir, String brepFile)
+		throws IOException
+	{
+		logger.info("Write mesh into "+xmlDir+java.io.File.separator+JCAEXMLData.xml3dFilename);
+		AmibeWriter.Dim3 aw = new AmibeWriter.Dim3(xmlDir, false,
+			submesh.hasPersistentReferences());
+		if (brepFile != null)
+			aw.setShape(brepFile);
+
+		double [] coords = submesh.getCoordinates();
+		int [] refs = submesh.getReferences();
+		int nrVertices = refs.length;
+		int [] nodeIndex = new int[nrVertices];
+		//  Write interior nodes first, then boundary nodes and duplicates
+		int i = 0;
+		for (int v = 0; v < nrVertices; v++)
+		{
+			if (refs[v] == 0)
+			{
+				aw.addNode(coords[3*v], coords[3*v+1], coords[3*v+2]);
+				nodeIndex[v] = i;
+				i++;
+			}
+		}
+		TIntHashSet seenRefs = new TIntHashSet();
+		TIntArrayList duplicate3DNodes = new TIntArrayList();
+		for (int v = 0; v < nrVertices; v++)
+		{
+			if (refs[v] == 0)
+				continue;
+			if (seenRefs.add(refs[v]))
+			{
+				aw.addNode(coords[3*v], coords[3*v+1], coords[3*v+2]);
+				aw.addNodeRef(Math.abs(refs[v]));
+				nodeIndex[v] = i;
+				i++;
+			}
+			else
+				duplicate3DNodes.add(v);
+		}
+		for (int k = 0, n = duplicate3DNodes.size(); k < n; k++)
+		{
+			int v = duplicate3DNodes.get(k);
+			aw.addNode(coords[3*v], coords[3*v+1], coords[3*v+2]);
+			aw.addNodeRef(Math.abs(refs[v]));
+			nodeIndex[v] = i;
+			i++;
+		}
+
+		int [] triangles = submesh.getTriangles();
+		for (int k = 0; k < triangles.length; k += 3)
+			aw.addTriangle(nodeIndex[triangles[k]], nodeIndex[triangles[k+1]],
+				nodeIndex[triangles[k+2]]);
+
+		int [] groups = submesh.getGroups();
+		HashMap<Integer, TIntArrayList> groupMap = new HashMap<Integer, TIntArrayList>();
+		for (int t = 0; t < groups.length; t++)
+		{
+			TIntArrayList list = groupMap.get(groups[t]);
+			if (list == null)
+			{
+				list = new TIntArrayList(100);
+				groupMap.put(groups[t], list);
+			}
+			list.add(t);
+		}
+		for (int id: new TreeSet<Integer>(groupMap.keySet()))
+		{
+			String name = submesh.getGroupName(id);
+			aw.nextGroup(name == null ? Integer.toString(id) : name);
+			TIntArrayList list = groupMap.get(id);
+			for(int k = 0, n = list.size(); k < n; k++)
+				aw.addTriaToGroup(list.get(k));
+		}
+		aw.finish();
+	}
+
 	private static void writeObjectNodeGroups(Mesh submesh, AmibeWriter.Dim3 aw,
 		TObjectIntHashMap<Vertex> nodeIndex) throws IOException {
 		for(Entry<String, Collection<Vertex>> e: submesh.getVertexGroup().entrySet())
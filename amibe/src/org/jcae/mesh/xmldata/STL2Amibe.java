@@ -0,0 +1,267 @@
+/*
+ * Project Info:  http://jcae.sourceforge.net
+ *
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 2.1 of the License, or (at your option)
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation, Inc.,
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307, USA.
+ *
+ * (C) Copyright 2011, by EADS France
+ */
+
+package org.jcae.mesh.xmldata;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.jcae.mesh.xmldata.AmibeWriter.Dim3;
+
+/**
+ * Converts an STL file into an Amibe mesh.  Binary and ASCII files are
+ * supported.  STL facets do not share vertices, so vertices with the
+ * same coordinates are merged through a hash table of coordinates.
+ * Binary files are read through memory mapping.  Each solid of an ASCII
+ * file is stored into a group, binary files are stored into a single
+ * group named <code>C_EXT</code>.
+ */
+public class STL2Amibe
+{
+	private static final Logger LOGGER = Logger.getLogger(STL2Amibe.class.getName());
+	// Number of facets in a mapped window of binary files
+	private static final int WINDOW_FACETS = 1 << 20;
+
+	private final String outputDir;
+	private Dim3 out;
+	private VertexTable vertices;
+	private final int[] triangle = new int[3];
+	private int nbTrias;
+	private int nbGroups;
+
+	public STL2Amibe(String outputDir)
+	{
+		this.outputDir = outputDir;
+	}
+
+	public void read(String fileName) throws IOException
+	{
+		FileChannel channel = new FileInputStream(fileName).getChannel();
+		out = new AmibeWriter.Dim3(outputDir);
+		out.setFixNoGroup(true);
+		nbTrias = 0;
+		nbGroups = 0;
+		try
+		{
+			long nbt = binaryFacets(channel);
+			vertices = new VertexTable(nbt > 0L ? (int) Math.min(nbt / 2, 1 << 28) : 1024);
+			if (nbt >= 0L)
+				readBinary(channel, nbt);
+			else
+				readASCII(channel);
+		}
+		finally
+		{
+			channel.close();
+		}
+		out.finish();
+		LOGGER.info("Read "+nbTrias+" triangles and "+vertices.size()+" vertices");
+		vertices = null;
+	}
+
+	/**
+	 * Returns the number of facets of a binary file, or -1 if this is
+	 * not a binary file.  ASCII files may start with "solid" in binary
+	 * headers too, so file size is checked.
+	 */
+	private static long binaryFacets(FileChannel channel) throws IOException
+	{
+		long size = channel.size();
+		if (size < MeshExporter.STL.HEADER_SIZE)
+			return -1L;
+		MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0L,
+			MeshExporter.STL.HEADER_SIZE);
+		header.order(ByteOrder.LITTLE_ENDIAN);
+		long nbt = header.getInt(80) & 0xffffffffL;
+		if (size == MeshExporter.STL.HEADER_SIZE + MeshExporter.STL.FACET_SIZE * nbt)
+			return nbt;
+		return -1L;
+	}
+
+	private void readBinary(FileChannel channel, long nbt) throws IOException
+	{
+		for (long first = 0L; first < nbt; first += WINDOW_FACETS)
+		{
+			int n = (int) Math.min(WINDOW_FACETS, nbt - first);
+			MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY,
+				MeshExporter.STL.HEADER_SIZE + MeshExporter.STL.FACET_SIZE * first,
+				(long) MeshExporter.STL.FACET_SIZE * n);
+			buffer.order(ByteOrder.LITTLE_ENDIAN);
+			for (int i = 0; i < n; i++)
+			{
+				// Normal is skipped
+				int offset = MeshExporter.STL.FACET_SIZE * i + 12;
+				for (int k = 0; k < 3; k++)
+				{
+					addVertex(k,
+						buffer.getFloat(offset),
+						buffer.getFloat(offset + 4),
+						buffer.getFloat(offset + 8));
+					offset += 12;
+				}
+			}
+		}
+	}
+
+	private void readASCII(FileChannel channel) throws IOException
+	{
+		UNVByteReader in = new UNVByteReader(channel, 0L);
+		int k = 0;
+		while (!in.eof())
+		{
+			char c = in.firstNonBlank();
+			if (c == 'v')
+			{
+				// vertex x y z
+				in.skipToken();
+				addVertex(k, in.nextDouble(), in.nextDouble(), in.nextDouble());
+				k = (k + 1) % 3;
+			}
+			else if (c == 's')
+			{
+				String line = in.line().trim();
+				if (line.startsWith("solid"))
+				{
+					String name = line.substring(5).trim();
+					nbGroups++;
+					if (name.length() == 0)
+						name = Integer.toString(nbGroups);
+					out.nextGroup(name);
+				}
+			}
+			in.nextLine();
+		}
+	}
+
+	private void addVertex(int k, double x, double y, double z) throws IOException
+	{
+		int n = vertices.size();
+		int v = vertices.insert(x, y, z);
+		if (v == n)
+			out.addNode(x, y, z);
+		triangle[k] = v;
+		if (k == 2)
+		{
+			out.addTriangle(triangle);
+			if (nbGroups > 0)
+				out.addTriaToGroup(nbTrias);
+			nbTrias++;
+		}
+	}
+
+	/**
+	 * Open addressing hash table which gives vertex indices from their
+	 * coordinates.  Coordinates are compared by their bits, except that
+	 * 0.0 and -0.0 are equal.  Table contains indices shifted by one,
+	 * and collisions are resolved by linear probing.
+	 */
+	private static final class VertexTable
+	{
+		private int[] table;
+		private int mask;
+		private long[] keys;
+		private int size;
+
+		VertexTable(int expected)
+		{
+			int capacity = 1024;
+			while (capacity < 2 * expected)
+				capacity <<= 1;
+			table = new int[capacity];
+			mask = capacity - 1;
+			keys = new long[3 * (capacity / 2)];
+		}
+
+		private static int hash(long x, long y, long z)
+		{
+			long h = x * 0x9e3779b97f4a7c15L + y * 0xc2b2ae3d27d4eb4fL + z * 0x165667b19e3779f9L;
+			return (int) (h ^ (h >>> 32) ^ (h >>> 17));
+		}
+
+		int size()
+		{
+			return size;
+		}
+
+		/**
+		 * Returns the index of a vertex, vertex is added if not found.
+		 */
+		int insert(double x, double y, double z)
+		{
+			// Adding 0.0 converts -0.0 into 0.0
+			long bx = Double.doubleToLongBits(x + 0.0);
+			long by = Double.doubleToLongBits(y + 0.0);
+			long bz = Double.doubleToLongBits(z + 0.0);
+			int slot = hash(bx, by, bz) & mask;
+			while (table[slot] != 0)
+			{
+				int e = table[slot] - 1;
+				if (keys[3*e] == bx && keys[3*e+1] == by && keys[3*e+2] == bz)
+					return e;
+				slot = (slot + 1) & mask;
+			}
+			if (3 * size >= keys.length)
+			{
+				rehash(2 * table.length);
+				slot = hash(bx, by, bz) & mask;
+				while (table[slot] != 0)
+					slot = (slot + 1) & mask;
+			}
+			keys[3*size]   = bx;
+			keys[3*size+1] = by;
+			keys[3*size+2] = bz;
+			size++;
+			table[slot] = size;
+			return size - 1;
+		}
+
+		private void rehash(int capacity)
+		{
+			table = new int[capacity];
+			mask = capacity - 1;
+			long[] newKeys = new long[3 * (capacity / 2)];
+			System.arraycopy(keys, 0, newKeys, 0, 3 * size);
+			keys = newKeys;
+			for (int e = 0; e < size; e++)
+			{
+				int slot = hash(keys[3*e], keys[3*e+1], keys[3*e+2]) & mask;
+				while (table[slot] != 0)
+					slot = (slot + 1) & mask;
+				table[slot] = e + 1;
+			}
+		}
+	}
+
+	public static void main(final String[] args)
+	{
+		try
+		{
+			new STL2Amibe(args[1]).read(args[0]);
+		}
+		catch (IOException ex)
+		{
+			LOGGER.log(Level.SEVERE, null, ex);
+		}
+	}
+}
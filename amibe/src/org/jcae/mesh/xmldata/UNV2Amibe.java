@@ -21,8 +21,11 @@
 package org.jcae.mesh.xmldata;
 
 
+import gnu.trove.TIntArrayList;
+import gnu.trove.TLongArrayList;
 import java.io.BufferedReader;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.FileReader;
 import java.io.IOException;
@@ -32,8 +35,14 @@ import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
 import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.List;
 import java.util.StringTokenizer;
 import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -49,6 +58,11 @@ import java.util.logging.Logger;
  * <li>If the input file do not contains any groups, a group with all triangles is
  * created.</li>
  * </ul>
+ * Files are read by default through memory mapping by {@link UNVByteReader}.
+ * Boundaries of nodes and elements datasets are located first, then these
+ * datasets are split into chunks which are parsed into primitive arrays,
+ * concurrently if {@link #setNumberOfThreads} has been called.  Chunks are
+ * written in file order, so the Amibe mesh does not depend on the parser.
  * @author Jerome Robert
  */
 public class UNV2Amibe
@@ -200,6 +214,15 @@ public class UNV2Amibe
 	private String unitBlock;	
 	private String stripedUnvFile;
 	private IDMapping idMapping;
+	private boolean mappedParser = true;
+	private int nrThreads = 1;
+	private int chunkSize = 65536;
+	// Used by the mapped parser, see readElement
+	private static final int NONE = -1;
+	private ExecutorService executor;
+	private FileChannel channel;
+	private TIntArrayList elementMapping;
+	private int nbTrias, nbBeams;
 	
 	/** a list of 2412 elements which won't be store in the amibe file */
 	private final ArrayList<Element> elements=new ArrayList<Element>();
@@ -211,6 +234,11 @@ public class UNV2Amibe
 
 	public final void importMesh(File input, String output) throws IOException
 	{
+		if (mappedParser)
+		{
+			importMeshMapped(input, output);
+			return;
+		}
 		BufferedReader br=new BufferedReader(new FileReader(input));
 		importMesh(br, output);
 		br.close();
@@ -527,6 +555,462 @@ public class UNV2Amibe
 		}
 	}
 	
+	private void importMeshMapped(File input, String outputDir) throws IOException
+	{
+		AmibeWriter.Dim3 out = new AmibeWriter.Dim3(outputDir);
+		out.setFixNoGroup(true);
+		channel = new FileInputStream(input).getChannel();
+		if (nrThreads > 1)
+			executor = Executors.newFixedThreadPool(nrThreads);
+		elementMapping = new TIntArrayList();
+		try
+		{
+			importMesh(new UNVByteReader(channel, 0L), out);
+		}
+		finally
+		{
+			if (executor != null)
+				executor.shutdown();
+			executor = null;
+			channel.close();
+			channel = null;
+			elementMapping = null;
+		}
+		out.finish();
+		if(stripedUnvFile!=null)
+			writeStripedUnv(out);
+	}
+
+	/**
+	 * Same as {@link #importMesh(BufferedReader, AmibeWriter.Dim3)}.  When
+	 * a dataset is converted, reader is left on its last line.
+	 */
+	private void importMesh(UNVByteReader in, AmibeWriter.Dim3 out) throws IOException
+	{
+		double unit = 1.0;
+		while (!in.eof())
+		{
+			if (in.isMinusOne())
+			{
+				in.nextLine();
+				String line = in.line().trim();
+				if (line.equals("2411") || line.equals("781"))
+					convertNodes(in, unit, out);
+				else if (line.equals("2412"))
+					convertFaces(in, out);
+				else if (line.equals("164"))
+					unit = readUnit(in);
+				else if ( "2430".equals(line) || "2435".equals(line) ||
+					"2477".equals(line) || "2467".equals(line))
+					convertGroups(in, line, out);
+				else
+				{
+					do
+					{
+						in.nextLine();
+					}
+					while (!in.isMinusOne());
+				}
+			}
+			in.nextLine();
+		}
+	}
+
+	private double readUnit(UNVByteReader in) throws IOException
+	{
+		in.nextLine();
+		unitBlock = in.line()+'\n';
+		in.nextLine();
+		unitBlock += in.line()+'\n';
+		double unit = in.nextDouble();
+		in.nextLine();
+		while (!in.isMinusOne())
+		{
+			unitBlock += in.line().trim();
+			in.nextLine();
+		}
+		return unit;
+	}
+
+	private void convertGroups(UNVByteReader in, String type, AmibeWriter out) throws IOException
+	{
+		boolean fourFields = "2435".equals(type) || "2477".equals(type) || "2467".equals(type);
+		in.nextLine();
+		while (!in.isMinusOne())
+		{
+			// Number of elements is the last number of the line
+			in.skipToken();
+			int nbelem = in.lastInt();
+			in.nextLine();
+			String groupName = in.line().trim();
+			boolean groupCreated = false;
+			in.nextLine();
+			char c = in.firstNonBlank();
+			while (c == '8' || c == '7')
+			{
+				while (in.hasToken())
+				{
+					in.skipToken();
+					int ind = in.nextInt();
+					if (ind != 0)
+					{
+						ind --;
+						if (c == '8')
+						{
+							if(!groupCreated)
+							{
+								out.nextGroup(groupName);
+								groupCreated = true;
+							}
+							int id = elementMapping.get(ind);
+							if ((id & 1) == IDMapping.BEAMS)
+								out.addBeamToGroup(id >> 1);
+							else
+								out.addTriaToGroup(id >> 1);
+						}
+						else
+						{
+							if(!groupCreated)
+							{
+								out.nextNodeGroup(groupName);
+								groupCreated = true;
+							}
+							out.addNodeToGroup(ind);
+						}
+					}
+					nbelem--;
+					if (fourFields)
+					{
+						in.skipToken();
+						in.skipToken();
+					}
+				}
+				in.nextLine();
+				if (nbelem <= 0)
+					break;
+				c = in.firstNonBlank();
+			}
+		}
+	}
+
+	private void convertNodes(UNVByteReader in, double unit, AmibeWriter.Dim3 out)
+		throws IOException
+	{
+		// Locate chunks, a node is stored on 2 lines
+		TLongArrayList starts = new TLongArrayList();
+		TIntArrayList counts = new TIntArrayList();
+		in.nextLine();
+		int nr = 0;
+		while (!in.isMinusOne())
+		{
+			if (nr == 0)
+				starts.add(in.position());
+			in.nextLine();
+			in.nextLine();
+			nr++;
+			if (nr == chunkSize)
+			{
+				counts.add(nr);
+				nr = 0;
+			}
+		}
+		if (nr > 0)
+			counts.add(nr);
+		starts.add(in.position());
+		List<Chunk> chunks = new ArrayList<Chunk>(counts.size());
+		for (int i = 0; i < counts.size(); i++)
+			chunks.add(new NodeChunk(starts.get(i), starts.get(i+1), counts.get(i), unit, out));
+		processChunks(chunks);
+	}
+
+	private void convertFaces(UNVByteReader in, AmibeWriter.Dim3 out) throws IOException
+	{
+		LOGGER.fine("Reading triangles");
+		// Locate chunks, element types must be read to know the
+		// number of lines of each element
+		TLongArrayList starts = new TLongArrayList();
+		TIntArrayList counts = new TIntArrayList();
+		in.nextLine();
+		int nr = 0;
+		while (!in.isMinusOne())
+		{
+			if (nr == 0)
+				starts.add(in.position());
+			readElement(in, null, 0);
+			nr++;
+			if (nr == chunkSize)
+			{
+				counts.add(nr);
+				nr = 0;
+			}
+		}
+		if (nr > 0)
+			counts.add(nr);
+		starts.add(in.position());
+		nbTrias = 0;
+		nbBeams = 0;
+		List<Chunk> chunks = new ArrayList<Chunk>(counts.size());
+		for (int i = 0; i < counts.size(); i++)
+			chunks.add(new ElementChunk(starts.get(i), starts.get(i+1), counts.get(i), out));
+		processChunks(chunks);
+	}
+
+	/**
+	 * Reads a 2412 element, reader is moved to the next element.
+	 *
+	 * @param in  reader
+	 * @param nodes  array to store 0-based node indices, or
+	 *        <code>null</code> if only element boundaries are wanted
+	 * @param offset  offset in nodes array
+	 * @return element type as stored in IDMapping, or NONE if this
+	 *         element is skipped
+	 */
+	private static int readElement(UNVByteReader in, int [] nodes, int offset) throws IOException
+	{
+		in.skipToken(); // face index
+		int type = in.nextInt();
+		int ret = NONE;
+		switch(type)
+		{
+			case 41:
+			case 51:
+			case 61:
+			case 74:
+			case 91:
+				in.nextLine();
+				if (nodes != null)
+				{
+					nodes[offset] = in.nextInt() - 1;
+					nodes[offset+1] = in.nextInt() - 1;
+					nodes[offset+2] = in.nextInt() - 1;
+				}
+				ret = IDMapping.TRIAS;
+				break;
+			case 94:
+				break; //ignored
+			case 11: //rod
+			case 21: //linear beam
+				in.nextLine();
+				in.nextLine();
+				if (nodes != null)
+				{
+					nodes[offset] = in.nextInt() - 1;
+					nodes[offset+1] = in.nextInt() - 1;
+				}
+				ret = IDMapping.BEAMS;
+				break;
+			case 22:
+			case 24:  // parabolic beam
+				in.nextLine();
+				in.nextLine();
+				if (nodes != null)
+				{
+					nodes[offset] = in.nextInt() - 1;
+					in.skipToken();
+					nodes[offset+1] = in.nextInt() - 1;
+				}
+				ret = IDMapping.BEAMS;
+				break;
+			case 42:
+			case 92: //parabolic triangles
+				in.nextLine();
+				if (nodes != null)
+				{
+					for (int i = 0; i < 6; i++)
+					{
+						int n = in.nextInt() - 1;
+						if ((i & 1) == 0)
+							nodes[offset + i / 2] = n;
+					}
+				}
+				ret = IDMapping.TRIAS;
+				break;
+			case 118: //tetra
+				//skip it
+				in.nextLine();
+				in.nextLine();
+				// fall through
+			case 111: //tetra
+				//skip it
+				in.nextLine();
+				break;
+			default:
+				if (nodes != null)
+					LOGGER.log(Level.WARNING, "Warning: Section 2412, type {0} unknown", type);
+		}
+		in.nextLine();
+		return ret;
+	}
+
+	/**
+	 * Parses chunks, then writes them in file order.  Chunks are
+	 * processed by groups so that memory usage does not depend on file
+	 * size.
+	 */
+	private void processChunks(List<Chunk> chunks) throws IOException
+	{
+		int step = (executor == null ? 1 : 2 * nrThreads);
+		for (int first = 0; first < chunks.size(); first += step)
+		{
+			List<Chunk> sub = chunks.subList(first, Math.min(first + step, chunks.size()));
+			if (executor == null)
+				sub.get(0).call();
+			else
+			{
+				try
+				{
+					for (Future<Object> f : executor.invokeAll(sub))
+						f.get();
+				}
+				catch (InterruptedException ex)
+				{
+					throw new RuntimeException(ex);
+				}
+				catch (ExecutionException ex)
+				{
+					if (ex.getCause() instanceof IOException)
+						throw (IOException) ex.getCause();
+					if (ex.getCause() instanceof RuntimeException)
+						throw (RuntimeException) ex.getCause();
+					throw new RuntimeException(ex.getCause());
+				}
+			}
+			for (Chunk c : sub)
+				c.write();
+		}
+	}
+
+	/**
+	 * A range of records of a dataset.  It is parsed by
+	 * <code>call()</code>, possibly by another thread, and written by
+	 * <code>write()</code> into Amibe files.
+	 */
+	private abstract class Chunk implements Callable<Object>
+	{
+		protected final long start;
+		protected final long end;
+		protected final int nr;
+		Chunk(long start, long end, int nr)
+		{
+			this.start = start;
+			this.end = end;
+			this.nr = nr;
+		}
+
+		public final Object call() throws IOException
+		{
+			parse(new UNVByteReader(channel, start, end - start));
+			return null;
+		}
+
+		protected abstract void parse(UNVByteReader in) throws IOException;
+		protected abstract void write() throws IOException;
+	}
+
+	private final class NodeChunk extends Chunk
+	{
+		private final double unit;
+		private final AmibeWriter.Dim3 out;
+		private double [] coords;
+		NodeChunk(long start, long end, int nr, double unit, AmibeWriter.Dim3 out)
+		{
+			super(start, end, nr);
+			this.unit = unit;
+			this.out = out;
+		}
+
+		@Override
+		protected void parse(UNVByteReader in) throws IOException
+		{
+			coords = new double[3*nr];
+			for (int i = 0; i < nr; i++)
+			{
+				in.nextLine();
+				coords[3*i] = in.nextDouble()/unit;
+				coords[3*i+1] = in.nextDouble()/unit;
+				coords[3*i+2] = (in.hasToken() ? in.nextDouble() : 0.0)/unit;
+				in.nextLine();
+			}
+		}
+
+		@Override
+		protected void write() throws IOException
+		{
+			for (int i = 0; i < nr; i++)
+				out.addNode(coords[3*i], coords[3*i+1], coords[3*i+2]);
+			coords = null;
+		}
+	}
+
+	private final class ElementChunk extends Chunk
+	{
+		private final AmibeWriter.Dim3 out;
+		private int [] types;
+		private int [] nodes;
+		ElementChunk(long start, long end, int nr, AmibeWriter.Dim3 out)
+		{
+			super(start, end, nr);
+			this.out = out;
+		}
+
+		@Override
+		protected void parse(UNVByteReader in) throws IOException
+		{
+			types = new int[nr];
+			nodes = new int[3*nr];
+			for (int i = 0; i < nr; i++)
+				types[i] = readElement(in, nodes, 3*i);
+		}
+
+		@Override
+		protected void write() throws IOException
+		{
+			for (int i = 0; i < nr; i++)
+			{
+				if (types[i] == IDMapping.TRIAS)
+				{
+					out.addTriangle(nodes[3*i], nodes[3*i+1], nodes[3*i+2]);
+					elementMapping.add(nbTrias << 1 | IDMapping.TRIAS);
+					nbTrias ++;
+				}
+				else if (types[i] == IDMapping.BEAMS)
+				{
+					out.addBeam(nodes[3*i], nodes[3*i+1]);
+					elementMapping.add(nbBeams << 1 | IDMapping.BEAMS);
+					nbBeams ++;
+				}
+			}
+			types = null;
+			nodes = null;
+		}
+	}
+
+	/**
+	 * Selects the parser used by {@link #importMesh(File, String)}.
+	 * By default, file is read through memory mapping.  The
+	 * <code>BufferedReader</code> parser is used if this method is
+	 * called with <code>false</code>.
+	 */
+	public final void setMappedParser(boolean b)
+	{
+		mappedParser = b;
+	}
+
+	/**
+	 * Sets the number of threads used by the memory mapped parser to
+	 * parse nodes and elements datasets.
+	 */
+	public final void setNumberOfThreads(int n)
+	{
+		nrThreads = n;
+	}
+
+	/** Sets the number of records in a chunk, for tests. */
+	final void setChunkSize(int n)
+	{
+		chunkSize = n;
+	}
+
 	public final void setStripedUnv(String file)
 	{
 		stripedUnvFile=file;
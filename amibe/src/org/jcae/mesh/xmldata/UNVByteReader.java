@@ -0,0 +1,406 @@
+/*
+ * Project Info:  http://jcae.sourceforge.net
+ *
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 2.1 of the License, or (at your option)
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation, Inc.,
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307, USA.
+ *
+ * (C) Copyright 2011, by EADS France
+ */
+
+package org.jcae.mesh.xmldata;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.NoSuchElementException;
+
+/**
+ * Reads a UNV file line by line through memory mapping.  Bytes are scanned
+ * directly, there is no <code>String</code> nor <code>StringTokenizer</code>,
+ * and numbers are parsed without creating objects.
+ * <p>
+ * The file is mapped by windows, a new window is mapped when the current
+ * line gets near the end of the current window.  Several readers can be
+ * opened on the same channel, each one has its own window.  Lines are
+ * trimmed like <code>String.trim()</code> and tokens are separated like
+ * with <code>StringTokenizer</code>, so that this class gives the same
+ * results as a <code>BufferedReader</code>.
+ * </p>
+ * <p>
+ * Doubles may have a Fortran <code>D</code> exponent.  When their mantissa
+ * has at most 15 significant digits and their exponent is small, they are
+ * computed exactly with a single floating point operation, otherwise they are
+ * converted by <code>Double.parseDouble</code>.
+ * </p>
+ */
+final class UNVByteReader
+{
+	private static final int WINDOW_SIZE = 1 << 26;
+	//  Lines are assumed to be shorter than this number of bytes
+	private static final int MARGIN = 1 << 16;
+	private static final long MAX_MANTISSA = 1L << 53;
+	private static final double [] POW10 = new double[23];
+	static
+	{
+		POW10[0] = 1.0;
+		for (int i = 1; i < POW10.length; i++)
+			POW10[i] = 10.0 * POW10[i-1];
+	}
+
+	private final FileChannel channel;
+	private final long fileSize;
+	private final long windowSize;
+	private MappedByteBuffer buffer;
+	//  Offset of current window in file, and its size
+	private long base;
+	private int limit;
+	//  Current line is [start, end), token cursor is at cur
+	private int start;
+	private int end;
+	private int cur;
+	private char [] chars = new char[64];
+
+	/**
+	 * Creates a reader at a given position.
+	 *
+	 * @param channel  file channel
+	 * @param position  position of the first line
+	 */
+	UNVByteReader(FileChannel channel, long position) throws IOException
+	{
+		this(channel, position, WINDOW_SIZE);
+	}
+
+	/**
+	 * Creates a reader at a given position.  This constructor is used when
+	 * the number of bytes to read is known, so that small windows are
+	 * mapped.
+	 *
+	 * @param channel  file channel
+	 * @param position  position of the first line
+	 * @param size  number of bytes which will be read
+	 */
+	UNVByteReader(FileChannel channel, long position, long size) throws IOException
+	{
+		this.channel = channel;
+		fileSize = channel.size();
+		windowSize = Math.min(WINDOW_SIZE, size + MARGIN);
+		map(position);
+		findLineEnd();
+	}
+
+	private void map(long position) throws IOException
+	{
+		base = position;
+		limit = (int) Math.min(windowSize, fileSize - position);
+		buffer = channel.map(FileChannel.MapMode.READ_ONLY, base, limit);
+		start = 0;
+	}
+
+	private void findLineEnd()
+	{
+		int i = start;
+		while (i < limit)
+		{
+			byte b = buffer.get(i);
+			if (b == '\n' || b == '\r')
+				break;
+			i++;
+		}
+		end = i;
+		cur = start;
+	}
+
+	/**
+	 * Returns the position of current line in file.
+	 */
+	long position()
+	{
+		return base + start;
+	}
+
+	/**
+	 * Tells whether end of file has been reached.
+	 */
+	boolean eof()
+	{
+		return start >= limit && base + limit >= fileSize;
+	}
+
+	private void checkEOF() throws EOFException
+	{
+		if (eof())
+			throw new EOFException("Unexpected end of file");
+	}
+
+	/**
+	 * Moves to next line.
+	 */
+	void nextLine() throws IOException
+	{
+		checkEOF();
+		int i = end;
+		if (i < limit)
+		{
+			if (buffer.get(i) == '\r' && i + 1 < limit && buffer.get(i+1) == '\n')
+				i += 2;
+			else
+				i++;
+		}
+		start = i;
+		if (limit - start < MARGIN && base + limit < fileSize)
+			map(base + start);
+		findLineEnd();
+	}
+
+	/**
+	 * Tells whether current line is "-1", which starts and ends datasets.
+	 */
+	boolean isMinusOne() throws IOException
+	{
+		checkEOF();
+		int i = start;
+		int j = end;
+		while (i < j && (buffer.get(i) & 0xff) <= ' ')
+			i++;
+		while (j > i && (buffer.get(j-1) & 0xff) <= ' ')
+			j--;
+		return j - i == 2 && buffer.get(i) == '-' && buffer.get(i+1) == '1';
+	}
+
+	/**
+	 * Returns the first character of current line after leading blanks,
+	 * or 0 if this line is blank.
+	 */
+	char firstNonBlank() throws IOException
+	{
+		checkEOF();
+		for (int i = start; i < end; i++)
+		{
+			int c = buffer.get(i) & 0xff;
+			if (c > ' ')
+				return (char) c;
+		}
+		return 0;
+	}
+
+	/**
+	 * Returns current line.
+	 */
+	String line() throws IOException
+	{
+		checkEOF();
+		ensureCapacity(end - start);
+		for (int i = start; i < end; i++)
+			chars[i - start] = (char) (buffer.get(i) & 0xff);
+		return new String(chars, 0, end - start);
+	}
+
+	private void ensureCapacity(int n)
+	{
+		if (chars.length < n)
+			chars = new char[2 * n];
+	}
+
+	private static boolean isDelimiter(byte b)
+	{
+		return b == ' ' || b == '\t' || b == '\f';
+	}
+
+	/**
+	 * Tells whether current line has more tokens.
+	 */
+	boolean hasToken()
+	{
+		while (cur < end && isDelimiter(buffer.get(cur)))
+			cur++;
+		return cur < end;
+	}
+
+	private int tokenEnd()
+	{
+		int i = cur;
+		while (i < end && !isDelimiter(buffer.get(i)))
+			i++;
+		return i;
+	}
+
+	/**
+	 * Skips next token of current line.
+	 */
+	void skipToken()
+	{
+		if (!hasToken())
+			throw new NoSuchElementException();
+		cur = tokenEnd();
+	}
+
+	/**
+	 * Parses next token of current line as an int.
+	 */
+	int nextInt()
+	{
+		if (!hasToken())
+			throw new NoSuchElementException();
+		int i = cur;
+		int e = tokenEnd();
+		boolean neg = false;
+		byte b = buffer.get(i);
+		if ((b == '-' || b == '+') && e - i > 1)
+		{
+			neg = (b == '-');
+			i++;
+		}
+		int ret = 0;
+		for (; i < e; i++)
+		{
+			int d = buffer.get(i) - '0';
+			if (d < 0 || d > 9)
+				throw new NumberFormatException("For input string: \""+token(cur, e, false)+"\"");
+			ret = 10 * ret + d;
+		}
+		cur = e;
+		return neg ? -ret : ret;
+	}
+
+	/**
+	 * Parses the last token of current line as an int.
+	 */
+	int lastInt()
+	{
+		int last = -1;
+		while (hasToken())
+		{
+			last = cur;
+			cur = tokenEnd();
+		}
+		if (last < 0)
+			throw new NumberFormatException("For input string: \"\"");
+		cur = last;
+		return nextInt();
+	}
+
+	/**
+	 * Parses next token of current line as a double, <code>D</code>
+	 * exponents are allowed.
+	 */
+	double nextDouble()
+	{
+		if (!hasToken())
+			throw new NoSuchElementException();
+		int e = tokenEnd();
+		int i = cur;
+		boolean neg = false;
+		byte b = buffer.get(i);
+		if (b == '-' || b == '+')
+		{
+			neg = (b == '-');
+			i++;
+		}
+		long mantissa = 0L;
+		int nrDigits = 0;
+		int zeros = 0;
+		int exponent = 0;
+		boolean point = false;
+		boolean fast = true;
+		boolean digits = false;
+		for (; i < e; i++)
+		{
+			b = buffer.get(i);
+			if (b == '.')
+			{
+				if (point)
+					fast = false;
+				point = true;
+				continue;
+			}
+			int d = b - '0';
+			if (d < 0 || d > 9)
+				break;
+			digits = true;
+			if (point)
+				exponent--;
+			if (d == 0)
+			{
+				// Trailing zeros are only added when a non-zero
+				// digit is found
+				if (mantissa != 0L)
+					zeros++;
+				continue;
+			}
+			nrDigits += zeros + 1;
+			if (nrDigits > 18)
+			{
+				fast = false;
+				continue;
+			}
+			for (; zeros > 0; zeros--)
+				mantissa *= 10L;
+			mantissa = 10L * mantissa + d;
+		}
+		exponent += zeros;
+		if (i < e && (b == 'E' || b == 'e' || b == 'D'))
+		{
+			i++;
+			boolean negExp = false;
+			if (i < e && (buffer.get(i) == '-' || buffer.get(i) == '+'))
+			{
+				negExp = (buffer.get(i) == '-');
+				i++;
+			}
+			if (i == e)
+				fast = false;
+			int exp = 0;
+			for (; i < e; i++)
+			{
+				int d = buffer.get(i) - '0';
+				if (d < 0 || d > 9 || exp > 10000)
+					break;
+				exp = 10 * exp + d;
+			}
+			exponent += (negExp ? -exp : exp);
+		}
+		if (i < e || !digits)
+			fast = false;
+		double ret;
+		if (fast && mantissa == 0L)
+			ret = 0.0;
+		else if (fast && mantissa <= MAX_MANTISSA && exponent >= 0 && exponent < POW10.length)
+			ret = mantissa * POW10[exponent];
+		else if (fast && mantissa <= MAX_MANTISSA && exponent < 0 && -exponent < POW10.length)
+			ret = mantissa / POW10[-exponent];
+		else
+		{
+			ret = Double.parseDouble(token(cur, e, true));
+			cur = e;
+			return ret;
+		}
+		cur = e;
+		return neg ? -ret : ret;
+	}
+
+	private String token(int from, int to, boolean fortran)
+	{
+		ensureCapacity(to - from);
+		for (int i = from; i < to; i++)
+		{
+			char c = (char) (buffer.get(i) & 0xff);
+			if (fortran && c == 'D')
+				c = 'E';
+			chars[i - from] = c;
+		}
+		return new String(chars, 0, to - from);
+	}
+}
@@ -2,7 +2,7 @@
    modeler, Finite element mesher, Plugin architecture.
 
     Copyright (C) 2005, by EADS CRC
-    Copyright (C) 2008, by EADS France
+    Copyright (C) 2008,2011, by EADS France
 
     This library is free software; you can redistribute it and/or
     modify it under the terms of the GNU Lesser General Public
@@ -22,9 +22,12 @@ package org.jcae.mesh;
 
 import java.awt.event.KeyAdapter;
 import java.awt.event.KeyEvent;
+import java.awt.event.WindowAdapter;
+import java.awt.event.WindowEvent;
 import java.beans.PropertyChangeEvent;
 import java.beans.PropertyChangeListener;
 import java.io.File;
+import java.util.List;
 import gnu.trove.TIntHashSet;
 import gnu.trove.TIntIterator;
 
@@ -38,6 +41,7 @@ import java.util.logging.Logger;
 import org.jcae.mesh.amibe.ds.Mesh;
 import org.jcae.mesh.amibe.ds.Triangle;
 import org.jcae.mesh.amibe.metrics.Matrix3D;
+import org.jcae.mesh.oemm.MultiResolution;
 import org.jcae.mesh.oemm.OEMM;
 import org.jcae.mesh.oemm.Storage;
 import org.jcae.mesh.oemm.MeshReader;
@@ -45,6 +49,7 @@ import org.jcae.viewer3d.FPSBehavior;
 import org.jcae.viewer3d.OEMMBehavior;
 import org.jcae.viewer3d.OEMMViewer;
 import org.jcae.viewer3d.View;
+import org.jcae.viewer3d.ViewPyramid;
 import org.jcae.viewer3d.bg.ViewableBG;
 
 public class MeshOEMMCoarseViewer
@@ -52,6 +57,8 @@ public class MeshOEMMCoarseViewer
 	static boolean showOctree = false;
 	static boolean showAxis = true;
 	static boolean showFPS = true;
+	static ViewableBG lodMesh = null;
+	private static final long LOD_MAX_TRIANGLES = Long.getLong("org.jcae.mesh.MeshOEMMCoarseViewer.maxTriangles", 500000L).longValue();
 	static Logger logger = Logger.getLogger(MeshOEMMCoarseViewer.class.getName());
 	/**
 	 * @param args
@@ -90,6 +97,13 @@ public class MeshOEMMCoarseViewer
 		final ViewableBG fps = new ViewableBG(fpsBG);
 
 		bgView.addBranchGroup(bg);
+		feFrame.addWindowListener(new WindowAdapter() {
+			@Override
+			public void windowClosing(WindowEvent e)
+			{
+				oemmBehavior.dispose();
+			}
+		});
 		if (showFPS)
 			bgView.add(fps);
 
@@ -192,8 +206,33 @@ public class MeshOEMMCoarseViewer
 					printMeshStatistics("Coarse mesh", decimatedOemm);
 					printMeshStatistics("Fine mesh", oemm);
 				}
+				else if (k == 'l')
+				{
+					if (lodMesh != null)
+					{
+						bgView.remove(lodMesh);
+						lodMesh = null;
+						return;
+					}
+					if (!MultiResolution.exists(oemm))
+					{
+						logger.warning("Simplified meshes not found, run MeshOEMMMultiResolution first");
+						return;
+					}
+					MultiResolution lod = MultiResolution.open(oemm);
+					Point3d eye = new ViewPyramid(bgView).getEye();
+					List<OEMM.Node> nodes = lod.select(new double[] { eye.x, eye.y, eye.z }, LOD_MAX_TRIANGLES);
+					if (logger.isLoggable(Level.INFO))
+						logger.info("Display "+nodes.size()+" octants");
+					lodMesh = new ViewableBG(OEMMViewer.meshOEMM(lod.buildMesh(nodes)));
+					bgView.add(lodMesh);
+					bgView.setCurrentViewable(lodMesh);
+				}
 				else if (k == 'q')
+				{
+					oemmBehavior.dispose();
 					System.exit(0);
+				}
 			}
 		});
 		bgView.fitAll();
@@ -216,6 +255,7 @@ public class MeshOEMMCoarseViewer
 		System.out.println("  n: Print mesh normals in selected octree nodes");
 		System.out.println("  p: Print mesh statistics");
 		System.out.println("  c: Print cache statistics");
+		System.out.println("  l: Toggle display of simplified meshes under a triangle budget");
 	}
 
 	static final void printMeshStatistics(String header, OEMM oemm)
@@ -1,7 +1,7 @@
 /* jCAE stand for Java Computer Aided Engineering. Features are : Small CAD
    modeler, Finite element mesher, Plugin architecture.
 
-    Copyright (C) 2007,2008, by EADS France
+    Copyright (C) 2007,2008,2011, by EADS France
 
     This library is free software; you can redistribute it and/or
     modify it under the terms of the GNU Lesser General Public
@@ -41,6 +41,8 @@ import javax.vecmath.Vector3d;
 import org.jcae.mesh.amibe.ds.Mesh;
 import org.jcae.mesh.amibe.ds.Vertex;
 import org.jcae.mesh.amibe.traits.MeshTraitsBuilder;
+import org.jcae.mesh.oemm.LeafCache;
+import org.jcae.mesh.oemm.LeafPrefetcher;
 import org.jcae.mesh.oemm.OEMM;
 import org.jcae.mesh.oemm.MeshReader;
 import org.jcae.viewer3d.bg.ViewableBG;
@@ -57,6 +59,8 @@ public class OEMMBehavior extends Behavior
 	private boolean frozen = false;
 	private MeshReader coarseReader;
 	private MeshReader fineReader;
+	// Loads fine leaves in background when camera moves, may be null
+	private LeafPrefetcher prefetcher;
 	private MeshTraitsBuilder mtb = new MeshTraitsBuilder();
 	
 	private static class ViewHolder
@@ -168,6 +172,15 @@ public class OEMMBehavior extends Behavior
 		
 		fineReader = new MeshReader(oemm);
 		fineReader.setLoadNonReadableTriangles(true);
+		int nrThreads = Integer.getInteger("org.jcae.viewer3d.OEMMBehavior.prefetchThreads", 1).intValue();
+		if (nrThreads > 0)
+		{
+			if (oemm.getLeafCache() == null)
+				oemm.setLeafCache(new LeafCache(oemm, Long.parseLong(
+					System.getProperty("org.jcae.mesh.oemm.cacheMemory", "64")) << 20));
+			prefetcher = new LeafPrefetcher(oemm, nrThreads);
+			fineReader.setLeafPrefetcher(prefetcher);
+		}
 
 		mtb.addTriangleList();
 		coarseReader = new MeshReader(coarseOEMM);
@@ -277,6 +290,9 @@ public class OEMMBehavior extends Behavior
 			return;
 		}
 		if (!frozen) {
+			LeafPrefetcher p = prefetcher;
+			if (p != null)
+				p.update(getCamera());
 			final Set<Integer> ids = new HashSet<Integer>();
 			findVoxelsWithFineMesh(ids);
 			showFineMesh(ids);
@@ -285,6 +301,32 @@ public class OEMMBehavior extends Behavior
 		
 	}
 
+	/**
+	 * Returns the current camera, its depth is the distance below which
+	 * fine mesh is displayed.
+	 */
+	private LeafPrefetcher.Camera getCamera()
+	{
+		Transform3D t3d = new Transform3D();
+		view.getViewingPlatform().getViewPlatformTransform().getTransform(t3d);
+		Point3d eye = new Point3d();
+		t3d.transform(eye);
+		Point3d focalPoint = new Point3d(0.0, 0.0, -1.0);
+		t3d.transform(focalPoint);
+		Vector3d up = new Vector3d(0.0, 1.0, 0.0);
+		t3d.transform(up);
+		Rectangle bounds = view.getBounds();
+		double aspect = (double) bounds.width / bounds.height;
+		// Java3D field of view is horizontal
+		double viewAngle = Math.toDegrees(2.0 * Math.atan(
+			Math.tan(view.getView().getFieldOfView() / 2.0) / aspect));
+		return new LeafPrefetcher.Camera(
+			new double[] { eye.x, eye.y, eye.z },
+			new double[] { focalPoint.x, focalPoint.y, focalPoint.z },
+			new double[] { up.x, up.y, up.z },
+			viewAngle, aspect, Math.sqrt(d2limit));
+	}
+
 	private void findVoxelsWithFineMesh(final Set<Integer> ids)
 	{
 		ViewPyramid vp=new ViewPyramid(view, scaleRectangle(view.getBounds(), 2.5));
@@ -536,4 +578,18 @@ public class OEMMBehavior extends Behavior
 	{
 		frozen = !frozen;
 	}
+
+	/**
+	 * Stops prefetching threads.  This method must be called when this
+	 * behavior is no more used.
+	 */
+	public void dispose()
+	{
+		if (prefetcher != null)
+		{
+			fineReader.setLeafPrefetcher(null);
+			prefetcher.shutdown();
+			prefetcher = null;
+		}
+	}
 }
@@ -15,7 +15,7 @@
  * along with this program; if not, write to the Free Software Foundation, Inc.,
  * 59 Temple Place, Suite 330, Boston, MA 02111-1307, USA.
  *
- * (C) Copyright 2008, by EADS France
+ * (C) Copyright 2008,2011, by EADS France
  */
 package org.jcae.vtk;
 
@@ -27,7 +27,6 @@ import gnu.trove.TIntObjectIterator;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.nio.ByteBuffer;
-import java.nio.DoubleBuffer;
 import java.nio.FloatBuffer;
 import java.nio.IntBuffer;
 import java.nio.channels.FileChannel;
@@ -131,43 +130,13 @@ public class MeshVisuReader extends MeshReader
 
 	private void readVerticesForVisu(MeshVisu mesh, OEMM.Node current)
 	{
-		try
-		{
-			if (LOGGER.isLoggable(Level.FINE))
-				LOGGER.log(Level.FINE, "Reading " + current.vn + " vertices from " + getVerticesFile(oemm, current));
-			
-			double[] xyz = new double[3];
-			mesh.nodes = new float[current.vn * 3];
-			FileChannel fc = new FileInputStream(getVerticesFile(oemm, current)).getChannel();
-			buffer.clear();
-			DoubleBuffer bbD = buffer.asDoubleBuffer();
-			int remaining = current.vn;
-			int offset = 0;
-			for (int nblock = (remaining * VERTEX_SIZE) / BUFFER_SIZE; nblock >= 0; --nblock)
-			{
-				buffer.rewind();
-				fc.read(buffer);
-				bbD.rewind();
-				int nf = BUFFER_SIZE / VERTEX_SIZE;
-				if (remaining < nf)
-					nf = remaining;
-				remaining -= nf;
-				for (int nr = 0; nr < nf; nr++)
-				{
-					bbD.get(xyz);
-					mesh.nodes[offset++] = (float) xyz[0];
-					mesh.nodes[offset++] = (float) xyz[1];
-					mesh.nodes[offset++] = (float) xyz[2];
-				}
-			}
-			fc.close();
-		}
-		catch (IOException ex)
-		{
-			LOGGER.severe("I/O error when reading file " + getVerticesFile(oemm, current));
-			ex.printStackTrace();
-			throw new RuntimeException(ex);
-		}
+		if (LOGGER.isLoggable(Level.FINE))
+			LOGGER.log(Level.FINE, "Reading " + current.vn + " vertices from " + getVerticesFile(oemm, current));
+
+		double[] coords = getLeaf(current).coords;
+		mesh.nodes = new float[current.vn * 3];
+		for (int i = 0; i < mesh.nodes.length; i++)
+			mesh.nodes[i] = (float) coords[i];
 	}
 
 	/**
@@ -15,7 +15,7 @@
  * along with this program; if not, write to the Free Software Foundation, Inc.,
  * 59 Temple Place, Suite 330, Boston, MA 02111-1307, USA.
  *
- * (C) Copyright 2008, by EADS France
+ * (C) Copyright 2008,2011, by EADS France
  */
 package org.jcae.vtk;
 
@@ -29,8 +29,11 @@ import java.awt.Point;
 import java.awt.event.MouseEvent;
 import java.awt.event.MouseMotionListener;
 import java.util.ArrayList;
+import org.jcae.mesh.oemm.LeafCache;
+import org.jcae.mesh.oemm.LeafPrefetcher;
 import org.jcae.mesh.oemm.OEMM;
 import vtk.vtkActor;
+import vtk.vtkCamera;
 import vtk.vtkCellCenterDepthSort;
 import vtk.vtkDataSet;
 import vtk.vtkExtractSelectedFrustum;
@@ -47,6 +50,8 @@ public class ViewableOEMM extends Viewable implements MouseMotionListener
 {
 	private final OEMM oemm;
 	private final MeshVisuReader reader;
+	// Loads leaves in background when camera moves, may be null
+	private final LeafPrefetcher prefetcher;
 	private final vtkActor octree;
 	private final vtkActor octreePickingActor;
 	private boolean automaticSelection = false;
@@ -62,7 +67,19 @@ public class ViewableOEMM extends Viewable implements MouseMotionListener
 	public ViewableOEMM(OEMM oemm)
 	{
 		this.oemm = oemm;
+		// Leaves are loaded again each time they become visible
+		if (oemm.getLeafCache() == null)
+			oemm.setLeafCache(new LeafCache(oemm, Long.parseLong(
+				System.getProperty("org.jcae.mesh.oemm.cacheMemory", "64")) << 20));
 		reader = new MeshVisuReader(oemm);
+		int nrThreads = Integer.getInteger("org.jcae.vtk.ViewableOEMM.prefetchThreads", 1).intValue();
+		if (nrThreads > 0)
+		{
+			prefetcher = new LeafPrefetcher(oemm, nrThreads);
+			reader.setLeafPrefetcher(prefetcher);
+		}
+		else
+			prefetcher = null;
 
 		edgesNode = new Node(rootNode);
 		edgesNode.setDebugName("Edges");
@@ -153,6 +170,16 @@ public class ViewableOEMM extends Viewable implements MouseMotionListener
 		octreePickingActor.VisibilityOff();
 	}
 
+	/**
+	 * Returns the prefetcher loading leaves when camera moves.
+	 *
+	 * @return prefetcher, or <code>null</code> if prefetching is disabled
+	 */
+	public LeafPrefetcher getLeafPrefetcher()
+	{
+		return prefetcher;
+	}
+
 	public boolean isOctreeVisible()
 	{
 		return octree.GetVisibility() != 0;
@@ -309,12 +336,35 @@ public class ViewableOEMM extends Viewable implements MouseMotionListener
 		canvas.GetRenderer().RemoveViewProp(octree);
 	}
 
+	/** Stops prefetching threads and deletes VTK data */
+	@Override
+	public void delete()
+	{
+		if (prefetcher != null)
+		{
+			reader.setLeafPrefetcher(null);
+			prefetcher.shutdown();
+		}
+		super.delete();
+	}
+
 	public void mouseDragged(MouseEvent e)
 	{
-		if (!automaticSelection || rendering)
+		if (!automaticSelection)
 			return;
-		
+
 		Canvas canvas = Utils.retrieveCanvas(e);
+		if (prefetcher != null)
+		{
+			vtkCamera camera = canvas.GetRenderer().GetActiveCamera();
+			prefetcher.update(new LeafPrefetcher.Camera(
+				camera.GetPosition(), camera.GetFocalPoint(), camera.GetViewUp(),
+				camera.GetViewAngle(), (double) canvas.getWidth() / canvas.getHeight(),
+				camera.GetClippingRange()[1]));
+		}
+		if (rendering)
+			return;
+
 		PickContext pickContext = new FrustumPicker(canvas, true,
 			new Point(0, 0),
 			new Point(canvas.getWidth(), canvas.getHeight()));